@@ -5,6 +5,7 @@ import java.util.Map;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.miracum.etl.fhirtoomop.mapper.helpers.SourceToConceptIndex;
 import org.miracum.etl.fhirtoomop.model.AtcStandardDomainLookup;
 import org.miracum.etl.fhirtoomop.model.IcdSnomedDomainLookup;
 import org.miracum.etl.fhirtoomop.model.LoincStandardDomainLookup;
@@ -20,7 +21,6 @@ import org.miracum.etl.fhirtoomop.model.omop.Measurement;
 import org.miracum.etl.fhirtoomop.model.omop.OmopObservation;
 import org.miracum.etl.fhirtoomop.model.omop.Person;
 import org.miracum.etl.fhirtoomop.model.omop.ProcedureOccurrence;
-import org.miracum.etl.fhirtoomop.model.omop.SourceToConceptMap;
 import org.miracum.etl.fhirtoomop.model.omop.VisitDetail;
 import org.miracum.etl.fhirtoomop.model.omop.VisitOccurrence;
 
@@ -44,7 +44,7 @@ public class DbMappings {
   private Map<String, Long> findVisitOccIdByIdentifier;
 
   private Map<String, Long> findLocationIdBySourceValue;
-  private Map<String, List<SourceToConceptMap>> findHardCodeConcept;
+  private SourceToConceptIndex findHardCodeConcept = SourceToConceptIndex.EMPTY;
   private Map<String, CareSite> findCareSiteId;
   private Map<String, PostProcessMap> findRanking;
 
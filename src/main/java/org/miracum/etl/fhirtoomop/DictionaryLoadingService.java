@@ -0,0 +1,561 @@
+package org.miracum.etl.fhirtoomop;
+
+import static org.miracum.etl.fhirtoomop.Constants.VOCABULARY_ATC;
+import static org.miracum.etl.fhirtoomop.Constants.VOCABULARY_ICD10GM;
+import static org.miracum.etl.fhirtoomop.Constants.VOCABULARY_LOINC;
+import static org.miracum.etl.fhirtoomop.Constants.VOCABULARY_OPS;
+import static org.miracum.etl.fhirtoomop.Constants.VOCABULARY_SNOMED;
+import static org.miracum.etl.fhirtoomop.Constants.VOCABULARY_UCUM;
+
+import com.google.common.base.Strings;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.miracum.etl.fhirtoomop.mapper.helpers.ConceptDictionary;
+import org.miracum.etl.fhirtoomop.mapper.helpers.SourceToConceptIndex;
+import org.miracum.etl.fhirtoomop.repository.OmopRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StopWatch;
+
+/**
+ * The DictionaryLoadingService class loads the collections for the intermediate storage of data
+ * from OMOP CDM in RAM, which are needed by the steps. Independent dictionaries are loaded
+ * concurrently. During bulk load, the vocabulary dictionaries of the next step are loaded in the
+ * background while the current step is running, as long as the heap usage stays below the
+ * configured limit. Vocabulary dictionaries which are needed by the current and the next step are
+ * kept instead of being loaded again.
+ *
+ * <p>If independent steps run at the same time, they share the dictionaries they have in common. A
+ * dictionary is removed when the last step using it has finished. A step only loads its
+ * dictionaries while other steps are running, if the heap usage is below the configured limit.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+@Component
+public class DictionaryLoadingService {
+
+  private final OmopRepository repositories;
+  private final VocabularySnapshotService vocabularySnapshots;
+  private final DbMappings dbMappings;
+  private final Boolean bulkload;
+  private final Boolean prefetchEnabled;
+  private final int prefetchMaxHeapUsage;
+  private final Boolean parallelSteps;
+  private final int parallelMaxHeapUsage;
+  private final String startSingleStep;
+  private final ExecutorService executor;
+
+  // the vocabulary dictionaries declared by the steps where they are built
+  private final Map<String, Set<Dictionary>> vocabulariesByStep = new ConcurrentHashMap<>();
+  // the steps of the full bulk load in the order in which they are executed
+  private volatile List<String> stepOrder = List.of();
+
+  private final Map<Dictionary, CompletableFuture<Object>> preloaded = new ConcurrentHashMap<>();
+  private volatile PersonScope personScope = PersonScope.ALL;
+  // guarded by this: the index of source_to_concept_map, which is shared by all steps of a job
+  private CompletableFuture<Object> sourceToConceptIndex;
+
+  // guarded by this: the dictionaries in use and the steps using them
+  private final Map<Dictionary, SharedDictionary> active = new EnumMap<>(Dictionary.class);
+  private final Map<String, Set<Dictionary>> usedByStep = new HashMap<>();
+
+  /**
+   * Constructor for objects of the class DictionaryLoadingService.
+   *
+   * @param repositories OMOP CDM repositories
+   * @param vocabularySnapshots provider of the memory-mapped vocabulary snapshots
+   * @param dbMappings collections for the intermediate storage of data from OMOP CDM in RAM
+   * @param bulkload flag to differentiate between bulk load or incremental load
+   * @param threads number of threads which load dictionaries concurrently
+   * @param prefetchEnabled flag to load the dictionaries of the next step in the background
+   * @param prefetchMaxHeapUsage maximum heap usage in percent up to which dictionaries are loaded
+   *     in the background
+   * @param parallelSteps flag whether independent steps are executed at the same time
+   * @param parallelMaxHeapUsage maximum heap usage in percent up to which a step loads its
+   *     dictionaries while other steps are running
+   * @param startSingleStep the single step to be executed, if not all steps are executed
+   */
+  public DictionaryLoadingService(
+      OmopRepository repositories,
+      VocabularySnapshotService vocabularySnapshots,
+      DbMappings dbMappings,
+      Boolean bulkload,
+      @Value("${app.dictionaryLoading.threads}") int threads,
+      @Value("${app.dictionaryLoading.prefetch.enabled}") Boolean prefetchEnabled,
+      @Value("${app.dictionaryLoading.prefetch.maxHeapUsage}") int prefetchMaxHeapUsage,
+      @Value("${app.parallelSteps.enabled}") Boolean parallelSteps,
+      @Value("${app.parallelSteps.maxHeapUsage}") int parallelMaxHeapUsage,
+      @Value("${app.startSingleStep}") String startSingleStep) {
+    this.repositories = repositories;
+    this.vocabularySnapshots = vocabularySnapshots;
+    this.dbMappings = dbMappings;
+    this.bulkload = bulkload;
+    this.prefetchEnabled = prefetchEnabled;
+    this.prefetchMaxHeapUsage = prefetchMaxHeapUsage;
+    this.parallelSteps = parallelSteps;
+    this.parallelMaxHeapUsage = parallelMaxHeapUsage;
+    this.startSingleStep = startSingleStep;
+    var threadFactory = new CustomizableThreadFactory("dictionary-loader-");
+    threadFactory.setDaemon(true);
+    this.executor = Executors.newFixedThreadPool(Math.max(1, threads), threadFactory);
+  }
+
+  /**
+   * Declares the vocabulary dictionaries, which are needed by a step during bulk load. The
+   * vocabularies are declared where the step is built. They are loaded by the listener of the step
+   * or in the background while the previous step is running.
+   *
+   * @param stepName the name of the step
+   * @param vocabularies the vocabulary dictionaries of the step
+   */
+  public void declareVocabularies(String stepName, Set<Dictionary> vocabularies) {
+    vocabulariesByStep.put(stepName, vocabularies);
+  }
+
+  /**
+   * Returns the vocabulary dictionaries declared for a step. The partitions of a step share the
+   * vocabularies of the step.
+   *
+   * @param stepName the name of the step or of a partition of the step
+   * @return the vocabulary dictionaries of the step
+   */
+  public Set<Dictionary> vocabularies(String stepName) {
+    return vocabulariesByStep.getOrDefault(withoutPartition(stepName), Collections.emptySet());
+  }
+
+  private static String withoutPartition(String stepName) {
+    var partitionSeparator = stepName.indexOf(':');
+    return partitionSeparator < 0 ? stepName : stepName.substring(0, partitionSeparator);
+  }
+
+  /**
+   * Declares the order in which the steps of the full bulk load are executed one after the other.
+   * The vocabulary dictionaries of the next step are loaded in the background in this order.
+   *
+   * @param stepNames the names of the steps in the order of their execution
+   */
+  public void declareStepOrder(List<String> stepNames) {
+    this.stepOrder = List.copyOf(stepNames);
+  }
+
+  /**
+   * Loads the dictionaries needed by a step concurrently and provides them in {@link DbMappings}.
+   * Dictionaries which are already used by a running step or which have been loaded in the
+   * background are taken over. Afterwards, the vocabulary dictionaries of the next step are loaded
+   * in the background.
+   *
+   * @param stepName the name of the step
+   * @param dictionaries the dictionaries needed by the step
+   */
+  public void load(String stepName, Set<Dictionary> dictionaries) {
+    var stopWatch = new StopWatch();
+    stopWatch.start();
+
+    awaitHeapBudget(stepName);
+    Map<Dictionary, CompletableFuture<Object>> futures = new EnumMap<>(Dictionary.class);
+    // EnumSet.copyOf rejects an empty collection, which is passed by steps without dictionaries
+    var used = EnumSet.noneOf(Dictionary.class);
+    used.addAll(dictionaries);
+    synchronized (this) {
+      for (var dictionary : dictionaries) {
+        var shared = active.get(dictionary);
+        if (shared == null) {
+          var future = preloaded.remove(dictionary);
+          shared =
+              new SharedDictionary(
+                  future != null ? retryOnFailure(dictionary, future) : loadAsync(dictionary));
+          active.put(dictionary, shared);
+        }
+        shared.users++;
+        futures.put(dictionary, shared.content);
+      }
+      usedByStep.put(stepName, used);
+      if (!parallelSteps.booleanValue()) {
+        // dictionaries which have been preloaded for this step, but are not needed anymore
+        preloaded.clear();
+      }
+    }
+
+    try {
+      CompletableFuture.allOf(futures.values().toArray(CompletableFuture[]::new)).join();
+    } catch (CompletionException e) {
+      release(stepName);
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw e;
+    }
+    futures.forEach((dictionary, future) -> dictionary.apply(dbMappings, future.join()));
+
+    stopWatch.stop();
+    log.info(
+        "[{}] Loaded dictionaries {} in [{}s]",
+        stepName,
+        dictionaries,
+        String.format("%.3f", stopWatch.getTotalTimeSeconds()));
+
+    prefetchForNextStep(stepName);
+  }
+
+  /**
+   * Removes the dictionaries of a step from {@link DbMappings}, unless they are still used by
+   * another running step. Dictionaries which are kept for the next step are not cleared.
+   *
+   * @param stepName the name of the step
+   */
+  public synchronized void release(String stepName) {
+    var dictionaries = usedByStep.remove(stepName);
+    if (dictionaries == null) {
+      return;
+    }
+    for (var dictionary : dictionaries) {
+      var shared = active.get(dictionary);
+      if (--shared.users > 0) {
+        continue;
+      }
+      active.remove(dictionary);
+      dictionary.apply(dbMappings, dictionary.empty());
+      var content = contentOf(shared.content);
+      var kept = preloaded.get(dictionary);
+      // concept dictionaries and the source_to_concept_map index are immutable and not cleared
+      if (content instanceof Map<?, ?> map && (kept == null || contentOf(kept) != content)) {
+        map.clear();
+      }
+    }
+    notifyAll();
+  }
+
+  /**
+   * Keeps the dictionaries of a running step under another name, so that they are not removed when
+   * the step releases them. A worker of a distributed bulk load keeps the dictionaries this way
+   * between the partitions of the same step. The dictionaries are removed by releasing the name.
+   *
+   * @param holder the name under which the dictionaries are kept
+   * @param stepName the name of the running step
+   */
+  public synchronized void retain(String holder, String stepName) {
+    var dictionaries = usedByStep.get(stepName);
+    if (dictionaries == null || usedByStep.containsKey(holder)) {
+      return;
+    }
+    dictionaries.forEach(dictionary -> active.get(dictionary).users++);
+    usedByStep.put(holder, dictionaries);
+  }
+
+  /**
+   * Restricts the dictionaries of persons and visits, which are loaded from now on, to the persons
+   * and visits of the current patient shard.
+   *
+   * @param scope the persons and visits to be loaded
+   */
+  public void scopePersons(PersonScope scope) {
+    this.personScope = scope;
+  }
+
+  /**
+   * Discards the index of source_to_concept_map, so that it is built again from OMOP CDM when a
+   * step needs it next. Otherwise, the index is built once and shared by all steps.
+   */
+  public synchronized void invalidateSourceToConceptIndex() {
+    sourceToConceptIndex = null;
+  }
+
+  /**
+   * Waits until the heap usage is below the configured limit, while other steps are running at the
+   * same time. This way, concurrent steps do not exceed the heap with their dictionaries.
+   *
+   * @param stepName the name of the step
+   */
+  private synchronized void awaitHeapBudget(String stepName) {
+    if (!parallelSteps.booleanValue()) {
+      return;
+    }
+    var waiting = false;
+    while (!usedByStep.isEmpty() && !isBelowHeapLimit(parallelMaxHeapUsage)) {
+      if (!waiting) {
+        log.info(
+            "[{}] Heap usage is above [{}%], waiting for running steps {} before loading dictionaries",
+            stepName, parallelMaxHeapUsage, usedByStep.keySet());
+        waiting = true;
+      }
+      try {
+        // heap usage is checked again when a step releases its dictionaries or after a second
+        wait(1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for heap budget", e);
+      }
+    }
+  }
+
+  /**
+   * Starts loading the vocabulary dictionaries of the step, which follows the given step in the
+   * full bulk load. Dictionaries which are already loaded for the given step are kept.
+   *
+   * @param stepName the name of the current step
+   */
+  private synchronized void prefetchForNextStep(String stepName) {
+    if (!prefetchEnabled.booleanValue()
+        || parallelSteps.booleanValue()
+        || !bulkload.booleanValue()
+        || !Strings.isNullOrEmpty(startSingleStep)) {
+      return;
+    }
+    var nextStep = nextStep(stepName);
+    if (nextStep == null) {
+      return;
+    }
+    var current = usedByStep.getOrDefault(stepName, Collections.emptySet());
+    List<Dictionary> started = new ArrayList<>();
+    for (var dictionary : vocabularies(nextStep)) {
+      if (current.contains(dictionary)) {
+        preloaded.put(dictionary, active.get(dictionary).content);
+      } else if (isBelowHeapLimit(prefetchMaxHeapUsage)) {
+        preloaded.put(dictionary, loadAsync(dictionary));
+        started.add(dictionary);
+      }
+    }
+    if (!started.isEmpty()) {
+      log.info("Started loading dictionaries {} for [{}] in the background", started, nextStep);
+    }
+  }
+
+  private String nextStep(String stepName) {
+    var steps = stepOrder;
+    var index = steps.indexOf(stepName);
+    if (index < 0 || index + 1 >= steps.size()) {
+      return null;
+    }
+    return steps.get(index + 1);
+  }
+
+  private static boolean isBelowHeapLimit(int maxHeapUsage) {
+    var runtime = Runtime.getRuntime();
+    var used = runtime.totalMemory() - runtime.freeMemory();
+    return used * 100 < runtime.maxMemory() * maxHeapUsage;
+  }
+
+  private synchronized CompletableFuture<Object> loadAsync(Dictionary dictionary) {
+    if (dictionary == Dictionary.SOURCE_TO_CONCEPT) {
+      if (sourceToConceptIndex == null || sourceToConceptIndex.isCompletedExceptionally()) {
+        sourceToConceptIndex =
+            CompletableFuture.supplyAsync(
+                () -> dictionary.load(repositories, vocabularySnapshots, PersonScope.ALL),
+                executor);
+      }
+      return sourceToConceptIndex;
+    }
+    var scope = personScope;
+    return CompletableFuture.supplyAsync(
+        () -> dictionary.load(repositories, vocabularySnapshots, scope), executor);
+  }
+
+  /**
+   * Loads a dictionary again, if loading it in the background has failed. Otherwise, the step
+   * would fail because of a failure of the previous step's prefetch.
+   *
+   * @param dictionary the dictionary
+   * @param preloadedContent the dictionary loaded in the background
+   * @return the dictionary loaded in the background or loaded again after a failure
+   */
+  private CompletableFuture<Object> retryOnFailure(
+      Dictionary dictionary, CompletableFuture<Object> preloadedContent) {
+    return preloadedContent.exceptionallyCompose(
+        e -> {
+          log.warn(
+              "Loading dictionary [{}] in the background failed, loading it again", dictionary, e);
+          return loadAsync(dictionary);
+        });
+  }
+
+  /**
+   * Returns the content of a dictionary, if it has been loaded successfully.
+   *
+   * @param content the dictionary being loaded
+   * @return the content of the dictionary, or null if it is not loaded (yet)
+   */
+  private static Object contentOf(CompletableFuture<Object> content) {
+    return content.isCompletedExceptionally() ? null : content.getNow(null);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /** A dictionary which is used by one or more running steps. */
+  private static class SharedDictionary {
+    private final CompletableFuture<Object> content;
+    private int users;
+
+    SharedDictionary(CompletableFuture<Object> content) {
+      this.content = content;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T cast(Object dictionary) {
+    return (T) dictionary;
+  }
+
+  /**
+   * The persons and visits, which are loaded into the dictionaries of persons and visits. During a
+   * patient-sharded bulk load, the persons and visits of a shard are those written after the ids of
+   * the previous shards.
+   *
+   * @param personIdAfter the person_id after which the persons are loaded
+   * @param visitOccurrenceIdAfter the visit_occurrence_id after which the visits are loaded
+   */
+  public record PersonScope(long personIdAfter, long visitOccurrenceIdAfter) {
+    /** All persons and visits in OMOP CDM. */
+    public static final PersonScope ALL = new PersonScope(0, 0);
+
+    private boolean isAll() {
+      return personIdAfter == 0 && visitOccurrenceIdAfter == 0;
+    }
+  }
+
+  /** The collections for the intermediate storage of data from OMOP CDM in RAM. */
+  public enum Dictionary {
+    PERSON_BY_LOGICAL_ID(
+        (r, s) ->
+            s.isAll()
+                ? r.getPersonRepository().getFhirLogicalIdAndPersonId()
+                : r.getPersonRepository().getFhirLogicalIdAndPersonId(s.personIdAfter()),
+        (m, d) -> m.setFindPersonIdByLogicalId(cast(d))),
+    PERSON_BY_IDENTIFIER(
+        (r, s) ->
+            s.isAll()
+                ? r.getPersonRepository().getFhirIdentifierAndPersonId()
+                : r.getPersonRepository().getFhirIdentifierAndPersonId(s.personIdAfter()),
+        (m, d) -> m.setFindPersonIdByIdentifier(cast(d))),
+    VISIT_OCC_BY_LOGICAL_ID(
+        (r, s) ->
+            s.isAll()
+                ? r.getVisitOccRepository().getFhirLogicalIdAndVisitOccId()
+                : r.getVisitOccRepository()
+                    .getFhirLogicalIdAndVisitOccId(s.visitOccurrenceIdAfter()),
+        (m, d) -> m.setFindVisitOccIdByLogicalId(cast(d))),
+    VISIT_OCC_BY_IDENTIFIER(
+        (r, s) ->
+            s.isAll()
+                ? r.getVisitOccRepository().getFhirIdentifierAndVisitOccId()
+                : r.getVisitOccRepository()
+                    .getFhirIdentifierAndVisitOccId(s.visitOccurrenceIdAfter()),
+        (m, d) -> m.setFindVisitOccIdByIdentifier(cast(d))),
+    MEDICATION(
+        r -> r.getMedicationIdRepository().getMedications(),
+        (m, d) -> m.setFindMedication(cast(d))),
+    SOURCE_TO_CONCEPT(
+        r -> r.getSourceToConceptRepository().sourceToConceptIndex(),
+        (m, d) -> m.setFindHardCodeConcept(cast(d))),
+    CARE_SITE(
+        r -> r.getCareSiteRepository().careSitesMap(), (m, d) -> m.setFindCareSiteId(cast(d))),
+    CONCEPT_SNOMED(
+        VOCABULARY_SNOMED,
+        (m, d) -> m.getOmopConceptMapWrapper().setFindValidSnomedConcept(cast(d))),
+    CONCEPT_LOINC(
+        VOCABULARY_LOINC, (m, d) -> m.getOmopConceptMapWrapper().setFindValidLoincConcept(cast(d))),
+    CONCEPT_UCUM(
+        VOCABULARY_UCUM, (m, d) -> m.getOmopConceptMapWrapper().setFindValidUcumConcept(cast(d))),
+    CONCEPT_ATC(
+        VOCABULARY_ATC, (m, d) -> m.getOmopConceptMapWrapper().setFindValidAtcConcept(cast(d))),
+    CONCEPT_OPS(
+        VOCABULARY_OPS, (m, d) -> m.getOmopConceptMapWrapper().setFindValidOpsConcept(cast(d))),
+    CONCEPT_ICD10GM(
+        VOCABULARY_ICD10GM,
+        (m, d) -> m.getOmopConceptMapWrapper().setFindValidIcd10GmConcept(cast(d))),
+    ICD_SNOMED(
+        r -> r.getIcdSnomedRepository().getIcdSnomedMap(),
+        (m, d) -> m.setFindIcdSnomedMapping(cast(d))),
+    ORPHA_SNOMED(
+        r -> r.getOrphaSnomedMappingRepository().getOrphaSnomedMap(),
+        (m, d) -> m.setFindOrphaSnomedMapping(cast(d))),
+    SNOMED_VACCINE(
+        r -> r.getSnomedVaccineRepository().getSnomedVaccineMap(),
+        (m, d) -> m.setFindSnomedVaccineMapping(cast(d))),
+    SNOMED_RACE(
+        r -> r.getSnomedRaceRepository().getSnomedRaceMap(),
+        (m, d) -> m.setFindSnomedRaceStandardMapping(cast(d))),
+    OPS_STANDARD(
+        r -> r.getOpsStandardRepository().getOpsStandardMap(),
+        (m, d) -> m.setFindOpsStandardMapping(cast(d))),
+    ATC_STANDARD(
+        r -> r.getAtcStandardRepository().getAtcStandardMap(),
+        (m, d) -> m.setFindAtcStandardMapping(cast(d))),
+    LOINC_STANDARD(
+        r -> r.getLoincStandardRepository().getLoincStandardMap(),
+        (m, d) -> m.setFindLoincStandardMapping(cast(d)));
+
+    /** The dictionaries which assign OMOP CDM ids to persons and visits. */
+    public static final Set<Dictionary> PERSON_AND_VISIT =
+        Collections.unmodifiableSet(
+            EnumSet.of(
+                PERSON_BY_LOGICAL_ID,
+                PERSON_BY_IDENTIFIER,
+                VISIT_OCC_BY_LOGICAL_ID,
+                VISIT_OCC_BY_IDENTIFIER));
+
+    private final BiFunction<OmopRepository, PersonScope, Object> loader;
+    private final String vocabularyId;
+    private final BiConsumer<DbMappings, Object> setter;
+
+    Dictionary(Function<OmopRepository, Object> loader, BiConsumer<DbMappings, Object> setter) {
+      this((r, s) -> loader.apply(r), setter);
+    }
+
+    Dictionary(
+        BiFunction<OmopRepository, PersonScope, Object> loader,
+        BiConsumer<DbMappings, Object> setter) {
+      this.loader = loader;
+      this.vocabularyId = null;
+      this.setter = setter;
+    }
+
+    Dictionary(String vocabularyId, BiConsumer<DbMappings, Object> setter) {
+      this.loader = null;
+      this.vocabularyId = vocabularyId;
+      this.setter = setter;
+    }
+
+    private Object load(
+        OmopRepository repositories,
+        VocabularySnapshotService vocabularySnapshots,
+        PersonScope personScope) {
+      if (vocabularyId != null) {
+        return vocabularySnapshots.getConceptDictionary(vocabularyId);
+      }
+      return loader.apply(repositories, personScope);
+    }
+
+    private Object empty() {
+      if (this == SOURCE_TO_CONCEPT) {
+        return SourceToConceptIndex.EMPTY;
+      }
+      return vocabularyId != null ? ConceptDictionary.EMPTY : new HashMap<>();
+    }
+
+    private void apply(DbMappings dbMappings, Object content) {
+      setter.accept(dbMappings, content);
+    }
+  }
+}
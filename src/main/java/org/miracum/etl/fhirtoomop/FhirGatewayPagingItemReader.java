@@ -0,0 +1,76 @@
+package org.miracum.etl.fhirtoomop;
+
+import static org.miracum.etl.fhirtoomop.mapper.helpers.PhaseTimers.PHASE_READ;
+
+import javax.sql.DataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.miracum.etl.fhirtoomop.listeners.StepProgressListener;
+import org.miracum.etl.fhirtoomop.mapper.helpers.PhaseTimers;
+import org.miracum.etl.fhirtoomop.model.FhirPsqlResource;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.database.JdbcPagingItemReader;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * The FhirGatewayPagingItemReader class reads FHIR resources page by page from FHIR Gateway and
+ * measures the duration of each page fetch. If a count query is set, the number of FHIR resources
+ * to be read is determined when the reader is opened and stored in the execution context of the
+ * step for the progress reporting.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+public class FhirGatewayPagingItemReader extends JdbcPagingItemReader<FhirPsqlResource> {
+
+  private final String resourceType;
+  private DataSource dataSource;
+  private String countQuery;
+
+  /**
+   * Constructor for objects of the class FhirGatewayPagingItemReader.
+   *
+   * @param resourceType the FHIR resource type which is read by this reader
+   */
+  public FhirGatewayPagingItemReader(String resourceType) {
+    this.resourceType = resourceType;
+  }
+
+  @Override
+  public void setDataSource(DataSource dataSource) {
+    super.setDataSource(dataSource);
+    this.dataSource = dataSource;
+  }
+
+  /**
+   * Sets the SQL query which counts the FHIR resources to be read by this reader.
+   *
+   * @param countQuery the SQL count query
+   */
+  public void setCountQuery(String countQuery) {
+    this.countQuery = countQuery;
+  }
+
+  @Override
+  public void open(ExecutionContext executionContext) {
+    // before the first timed call, so that all timers of the step are tagged with the resource type
+    PhaseTimers.registerResourceType(resourceType);
+    super.open(executionContext);
+    if (countQuery == null
+        || executionContext.containsKey(StepProgressListener.EXPECTED_ITEMS_KEY)) {
+      return;
+    }
+    var total =
+        PhaseTimers.record(
+            PHASE_READ,
+            resourceType,
+            () -> new JdbcTemplate(dataSource).queryForObject(countQuery, Long.class));
+    log.info("Found [{}] FHIR resources of type [{}] to process.", total, resourceType);
+    executionContext.putLong(StepProgressListener.EXPECTED_ITEMS_KEY, total);
+  }
+
+  @Override
+  protected void doReadPage() {
+    PhaseTimers.record(PHASE_READ, resourceType, super::doReadPage);
+  }
+}
@@ -0,0 +1,196 @@
+package org.miracum.etl.fhirtoomop;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import org.miracum.etl.fhirtoomop.model.FhirPsqlResource;
+
+/**
+ * The FhirResourceSpool class manages the spool files, into which the FHIR resources of FHIR
+ * Gateway are distributed by their type during a single pass over the FHIR Gateway table. Each step
+ * reads its FHIR resources from its own spool file afterwards.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+public class FhirResourceSpool {
+  private static final String SPOOL_FILE_SUFFIX = ".spool";
+  private static final String COUNTS_FILE = "counts.properties";
+  private static final int NULL_LENGTH = -1;
+
+  private final Path directory;
+  private final Map<String, Long> counts = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor for objects of the class FhirResourceSpool.
+   *
+   * @param directory the directory of the spool files
+   */
+  public FhirResourceSpool(String directory) {
+    this.directory = Paths.get(directory);
+  }
+
+  /**
+   * Returns the key of the spool file for FHIR resources of a type. Encounter resources are
+   * distributed by their contact level.
+   *
+   * @param resourceType the FHIR resource type
+   * @param contactLevel the contact level of Encounter resources, otherwise null
+   * @return the key of the spool file
+   */
+  public static String key(String resourceType, String contactLevel) {
+    return contactLevel == null ? resourceType : resourceType + "-" + contactLevel;
+  }
+
+  /**
+   * Returns the spool file for a key.
+   *
+   * @param key the key of the spool file
+   * @return the spool file
+   */
+  public Path file(String key) {
+    return directory.resolve(key + SPOOL_FILE_SUFFIX);
+  }
+
+  /**
+   * Creates the spool directory and removes all spool files of a previous execution.
+   *
+   * @throws IOException if the spool files cannot be deleted
+   */
+  public void prepare() throws IOException {
+    Files.createDirectories(directory);
+    clear();
+  }
+
+  /**
+   * Removes all spool files.
+   *
+   * @throws IOException if the spool files cannot be deleted
+   */
+  public void clear() throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    try (var files = Files.list(directory)) {
+      for (var file : (Iterable<Path>) files::iterator) {
+        if (file.getFileName().toString().endsWith(SPOOL_FILE_SUFFIX)) {
+          Files.delete(file);
+        }
+      }
+    }
+    Files.deleteIfExists(directory.resolve(COUNTS_FILE));
+    counts.clear();
+  }
+
+  /**
+   * Stores the number of FHIR resources in the spool files. The numbers are also written next to
+   * the spool files, so that they are still known if the job is restarted after the spool files
+   * have been written.
+   *
+   * @param countsByKey the number of FHIR resources by the key of the spool file
+   * @throws IOException if the numbers cannot be written
+   */
+  void setCounts(Map<String, Long> countsByKey) throws IOException {
+    var properties = new Properties();
+    countsByKey.forEach((key, count) -> properties.setProperty(key, Long.toString(count)));
+    try (var out = Files.newOutputStream(directory.resolve(COUNTS_FILE))) {
+      properties.store(out, null);
+    }
+    counts.putAll(countsByKey);
+  }
+
+  /**
+   * Returns the number of FHIR resources in a spool file.
+   *
+   * @param key the key of the spool file
+   * @return the number of FHIR resources, or -1 if unknown
+   */
+  public long getCount(String key) {
+    if (counts.isEmpty()) {
+      loadCounts();
+    }
+    return counts.getOrDefault(key, -1L);
+  }
+
+  private synchronized void loadCounts() {
+    var file = directory.resolve(COUNTS_FILE);
+    if (!counts.isEmpty() || !Files.exists(file)) {
+      return;
+    }
+    var properties = new Properties();
+    try (var in = Files.newInputStream(file)) {
+      properties.load(in);
+    } catch (IOException e) {
+      // the numbers are only used to report the progress of the steps
+      return;
+    }
+    properties.forEach((key, count) -> counts.put((String) key, Long.parseLong((String) count)));
+  }
+
+  /**
+   * Appends a FHIR resource to a spool file.
+   *
+   * @param out the stream of the spool file
+   * @param resource the FHIR resource
+   * @throws IOException if the FHIR resource cannot be written
+   */
+  static void write(DataOutputStream out, FhirPsqlResource resource) throws IOException {
+    writeString(out, resource.getId());
+    writeString(out, resource.getFhirId());
+    writeString(out, resource.getType());
+    writeBytes(out, resource.getData());
+  }
+
+  /**
+   * Reads the next FHIR resource from a spool file.
+   *
+   * @param in the stream of the spool file
+   * @return the FHIR resource, or null if the end of the spool file has been reached
+   * @throws IOException if the FHIR resource cannot be read
+   */
+  static FhirPsqlResource read(DataInputStream in) throws IOException {
+    String id;
+    try {
+      id = readString(in);
+    } catch (EOFException e) {
+      return null;
+    }
+    return new FhirPsqlResource(id, readString(in), readString(in), readBytes(in), false);
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    if (bytes == null) {
+      out.writeInt(NULL_LENGTH);
+      return;
+    }
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    var bytes = readBytes(in);
+    return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    var length = in.readInt();
+    if (length == NULL_LENGTH) {
+      return null;
+    }
+    var bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,78 @@
+package org.miracum.etl.fhirtoomop;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import lombok.extern.slf4j.Slf4j;
+import org.miracum.etl.fhirtoomop.listeners.StepProgressListener;
+import org.miracum.etl.fhirtoomop.model.FhirPsqlResource;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.support.AbstractItemCountingItemStreamItemReader;
+
+/**
+ * The FhirResourceSpoolReader class reads the FHIR resources of a step from its spool file, which
+ * has been written by the {@link FhirResourceSpoolTask}. If no spool file exists for the step, no
+ * FHIR resources are read.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+public class FhirResourceSpoolReader
+    extends AbstractItemCountingItemStreamItemReader<FhirPsqlResource> {
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final FhirResourceSpool spool;
+  private final String key;
+  private DataInputStream in;
+
+  /**
+   * Constructor for objects of the class FhirResourceSpoolReader.
+   *
+   * @param spool the spool files
+   * @param key the key of the spool file which is read by this reader
+   */
+  public FhirResourceSpoolReader(FhirResourceSpool spool, String key) {
+    this.spool = spool;
+    this.key = key;
+    setName("fhir-resource-spool-reader-" + key);
+  }
+
+  @Override
+  public void open(ExecutionContext executionContext) {
+    var total = spool.getCount(key);
+    if (total >= 0 && !executionContext.containsKey(StepProgressListener.EXPECTED_ITEMS_KEY)) {
+      log.info("Found [{}] FHIR resources of type [{}] to process.", total, key);
+      executionContext.putLong(StepProgressListener.EXPECTED_ITEMS_KEY, total);
+    }
+    super.open(executionContext);
+  }
+
+  @Override
+  public synchronized FhirPsqlResource read() throws Exception {
+    // the steps read with several threads
+    return super.read();
+  }
+
+  @Override
+  protected void doOpen() throws IOException {
+    var file = spool.file(key);
+    if (Files.exists(file)) {
+      in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+    }
+  }
+
+  @Override
+  protected FhirPsqlResource doRead() throws IOException {
+    return in == null ? null : FhirResourceSpool.read(in);
+  }
+
+  @Override
+  protected void doClose() throws IOException {
+    if (in != null) {
+      in.close();
+      in = null;
+    }
+  }
+}
@@ -0,0 +1,243 @@
+package org.miracum.etl.fhirtoomop;
+
+import static org.miracum.etl.fhirtoomop.mapper.helpers.PhaseTimers.PHASE_READ;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.sql.DataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.miracum.etl.fhirtoomop.mapper.helpers.PhaseTimers;
+import org.miracum.etl.fhirtoomop.model.FhirPsqlResource;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.util.StopWatch;
+
+/**
+ * The FhirResourceSpoolTask class reads all FHIR resources of FHIR Gateway in a single sequential
+ * pass in id order and distributes them by their type into the spool files of the {@link
+ * FhirResourceSpool}. Encounter resources are distributed by their contact level.
+ *
+ * <p>The FHIR resources are read in chunks of consecutive ids, each in its own short transaction.
+ * After each chunk, the last id, the number of FHIR resources and the length of each spool file are
+ * stored in the execution context of the step. If the step is restarted, the spool files are cut
+ * back to the lengths of the last committed chunk and the pass continues after its last id.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+public class FhirResourceSpoolTask implements Tasklet {
+  private static final int BUFFER_SIZE = 1 << 16;
+  // the number of rows fetched from FHIR Gateway at once within a chunk
+  private static final int FETCH_SIZE = 10000;
+  private static final String LAST_ID_KEY = "spool.lastId";
+  private static final String COUNT_KEY_PREFIX = "spool.count.";
+  private static final String LENGTH_KEY_PREFIX = "spool.length.";
+
+  private final DataSource dataSource;
+  private final FhirResourceSpool spool;
+  private final String query;
+  private final Set<String> keys;
+  private final int chunkSize;
+
+  /**
+   * Constructor for objects of the class FhirResourceSpoolTask.
+   *
+   * @param dataSource the data source of FHIR Gateway
+   * @param spool the spool files
+   * @param tableName the name of the FHIR Gateway table
+   * @param whereClause the WHERE clause for filtering the FHIR resources in FHIR Gateway
+   * @param contactLevelExpression the SQL expression for the contact level of Encounter resources
+   * @param keys the keys of the spool files which are read by the steps
+   * @param chunkSize the number of rows read from FHIR Gateway in one chunk
+   */
+  public FhirResourceSpoolTask(
+      DataSource dataSource,
+      FhirResourceSpool spool,
+      String tableName,
+      String whereClause,
+      String contactLevelExpression,
+      Set<String> keys,
+      int chunkSize) {
+    this.dataSource = dataSource;
+    this.spool = spool;
+    this.query =
+        "SELECT id, fhir_id, type, data, CASE WHEN type = 'Encounter' THEN "
+            + contactLevelExpression
+            + " END AS contact_level FROM "
+            + tableName
+            + " "
+            + (StringUtils.isBlank(whereClause) ? "WHERE" : whereClause + " AND")
+            + " id > ? ORDER BY id LIMIT ?";
+    this.keys = keys;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Reads the next chunk of FHIR resources from FHIR Gateway and appends them to the spool files.
+   *
+   * @param contribution buffers changes until they can be applied to a chunk boundary
+   * @param chunkContext context object for weakly typed data stored for the duration of a chunk
+   * @return CONTINUABLE, if there may be more FHIR resources, otherwise FINISHED
+   * @throws IOException if the spool files cannot be written
+   */
+  @Override
+  public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext)
+      throws IOException {
+    var executionContext = contribution.getStepExecution().getExecutionContext();
+    if (!executionContext.containsKey(LAST_ID_KEY)) {
+      spool.prepare();
+      executionContext.putLong(LAST_ID_KEY, 0L);
+    } else {
+      // drops FHIR resources which have been written after the last committed chunk
+      restoreSpoolFiles(executionContext);
+    }
+
+    var stopWatch = new StopWatch();
+    stopWatch.start();
+    Map<String, DataOutputStream> outputs = new HashMap<>();
+    SpooledChunk chunk;
+    try {
+      var lastId = executionContext.getLong(LAST_ID_KEY);
+      chunk =
+          PhaseTimers.record(PHASE_READ, "spool", () -> spoolChunk(contribution, lastId, outputs));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      for (var out : outputs.values()) {
+        out.close();
+      }
+    }
+    // the progress is only stored after the spool files of the chunk have been written completely
+    executionContext.putLong(LAST_ID_KEY, chunk.lastId());
+    chunk
+        .counts()
+        .forEach(
+            (key, count) ->
+                executionContext.putLong(
+                    COUNT_KEY_PREFIX + key,
+                    executionContext.getLong(COUNT_KEY_PREFIX + key, 0L) + count));
+    for (var key : outputs.keySet()) {
+      executionContext.putLong(LENGTH_KEY_PREFIX + key, Files.size(spool.file(key)));
+    }
+    stopWatch.stop();
+
+    if (chunk.rows() == chunkSize) {
+      log.debug(
+          "Distributed [{}] FHIR resources into spool files in [{}s]",
+          chunk.rows(),
+          String.format("%.3f", stopWatch.getTotalTimeSeconds()));
+      return RepeatStatus.CONTINUABLE;
+    }
+    var counts = counts(executionContext);
+    spool.setCounts(counts);
+    log.info("Distributed FHIR resources {} into spool files", counts);
+    return RepeatStatus.FINISHED;
+  }
+
+  private SpooledChunk spoolChunk(
+      StepContribution contribution, long lastId, Map<String, DataOutputStream> outputs) {
+    var rows = 0;
+    Map<String, Long> counts = new HashMap<>();
+    try (var connection = dataSource.getConnection()) {
+      // PostgreSQL only streams the result with a cursor inside a transaction
+      var autoCommit = connection.getAutoCommit();
+      connection.setAutoCommit(false);
+      try (var statement = connection.prepareStatement(query)) {
+        statement.setFetchSize(Math.min(chunkSize, FETCH_SIZE));
+        statement.setLong(1, lastId);
+        statement.setInt(2, chunkSize);
+        try (var rs = statement.executeQuery()) {
+          while (rs.next()) {
+            rows++;
+            lastId = rs.getLong(1);
+            contribution.incrementReadCount();
+            var key = FhirResourceSpool.key(rs.getString(3), rs.getString(5));
+            if (!keys.contains(key)) {
+              continue;
+            }
+            var out = outputs.get(key);
+            if (out == null) {
+              out =
+                  new DataOutputStream(
+                      new BufferedOutputStream(
+                          Files.newOutputStream(
+                              spool.file(key),
+                              StandardOpenOption.CREATE,
+                              StandardOpenOption.APPEND),
+                          BUFFER_SIZE));
+              outputs.put(key, out);
+            }
+            FhirResourceSpool.write(
+                out,
+                new FhirPsqlResource(
+                    rs.getString(1), rs.getString(2), rs.getString(3), rs.getBytes(4), false));
+            counts.merge(key, 1L, Long::sum);
+          }
+        }
+      } finally {
+        connection.rollback();
+        connection.setAutoCommit(autoCommit);
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("Unable to read FHIR resources from FHIR Gateway", e);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return new SpooledChunk(rows, lastId, counts);
+  }
+
+  /**
+   * Cuts the spool files back to their lengths after the last committed chunk. Spool files which
+   * have been created after the last committed chunk are removed.
+   *
+   * @param executionContext the execution context of the step
+   * @throws IOException if the spool files cannot be cut back
+   */
+  private void restoreSpoolFiles(ExecutionContext executionContext) throws IOException {
+    for (var key : keys) {
+      var file = spool.file(key);
+      if (!Files.exists(file)) {
+        continue;
+      }
+      var length = executionContext.getLong(LENGTH_KEY_PREFIX + key, 0L);
+      if (Files.size(file) > length) {
+        try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+          channel.truncate(length);
+        }
+      }
+    }
+  }
+
+  private Map<String, Long> counts(ExecutionContext executionContext) {
+    Map<String, Long> counts = new HashMap<>();
+    for (var key : keys) {
+      if (executionContext.containsKey(COUNT_KEY_PREFIX + key)) {
+        counts.put(key, executionContext.getLong(COUNT_KEY_PREFIX + key));
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * The result of reading one chunk of FHIR resources from FHIR Gateway.
+   *
+   * @param rows the number of rows read from FHIR Gateway
+   * @param lastId the id of the last row read from FHIR Gateway
+   * @param counts the number of FHIR resources written to each spool file
+   */
+  private record SpooledChunk(int rows, long lastId, Map<String, Long> counts) {}
+}
@@ -2,22 +2,31 @@ package org.miracum.etl.fhirtoomop;
 
 import static org.miracum.etl.fhirtoomop.Constants.STEP_ENCOUNTER_DEPARTMENT_KONTAKT;
 import static org.miracum.etl.fhirtoomop.Constants.STEP_ENCOUNTER_INSTITUTION_KONTAKT;
+import static org.miracum.etl.fhirtoomop.mapper.helpers.PhaseTimers.PHASE_READ;
 
 import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.api.SummaryEnum;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
 import ca.uhn.fhir.rest.gclient.IQuery;
 import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Encounter;
+import org.miracum.etl.fhirtoomop.listeners.StepProgressListener;
+import org.miracum.etl.fhirtoomop.mapper.helpers.PhaseTimers;
 import org.miracum.etl.fhirtoomop.model.FhirPsqlResource;
 import org.springframework.batch.item.ExecutionContext;
 import org.springframework.batch.item.ItemStreamException;
@@ -25,6 +34,7 @@ import org.springframework.batch.item.database.AbstractPagingItemReader;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.util.Assert;
 
+@Slf4j
 @NoArgsConstructor
 public class FhirServerItemReader extends AbstractPagingItemReader<FhirPsqlResource>
     implements InitializingBean {
@@ -34,12 +44,14 @@ public class FhirServerItemReader extends AbstractPagingItemReader<FhirPsqlResou
   private String endDate;
   private String stepName;
   private IParser fhirParser;
-  private Map<String, Object> startAfterValues;
-  private static final String START_AFTER_VALUE = "start.after";
-  private Map<String, Object> previousStartAfterValues;
+  private boolean countTotal;
+  private static final String PAGE_URL = "page.url";
+  private String savedPageUrl;
 
   private Bundle firstBundle;
-  private Bundle nextBundle;
+  private Bundle currentBundle;
+  private String currentPageUrl;
+  private Bundle jumpedBundle;
 
   public void setFhirClient(IGenericClient client) {
     this.client = client;
@@ -65,6 +77,16 @@ public class FhirServerItemReader extends AbstractPagingItemReader<FhirPsqlResou
     this.resourceTypeName = resourceTypeName;
   }
 
+  /**
+   * Sets whether the number of FHIR resources to be read is requested from the FHIR server when the
+   * reader is opened.
+   *
+   * @param countTotal flag to request the number of FHIR resources using _summary=count
+   */
+  public void setCountTotal(boolean countTotal) {
+    this.countTotal = countTotal;
+  }
+
   private DateRangeParam generateDateRange() {
     if (LocalDate.parse("1800-01-01").equals(LocalDate.parse(beginDate))
         && LocalDate.parse("2099-12-31").equals(LocalDate.parse(endDate))) {
@@ -74,8 +96,11 @@ public class FhirServerItemReader extends AbstractPagingItemReader<FhirPsqlResou
   }
 
   private Bundle readPageOfBundle() {
+    return execute(searchQuery());
+  }
+
+  private Bundle execute(IQuery<Bundle> searchQuery) {
     var dateRange = generateDateRange();
-    var searchQuery = searchQuery();
     if (dateRange == null) {
       return searchQuery.execute();
     }
@@ -102,11 +127,15 @@ public class FhirServerItemReader extends AbstractPagingItemReader<FhirPsqlResou
     super.afterPropertiesSet();
     Assert.notNull(resourceTypeName, "Name of resource may not be null");
     this.firstBundle = readPageOfBundle();
-    this.nextBundle = firstBundle;
+    this.currentBundle = firstBundle;
   }
 
   @Override
   protected void doReadPage() {
+    PhaseTimers.record(PHASE_READ, resourceTypeName, this::readPage);
+  }
+
+  private void readPage() {
     if (results == null) {
       results = new CopyOnWriteArrayList<>();
     } else {
@@ -116,16 +145,15 @@ public class FhirServerItemReader extends AbstractPagingItemReader<FhirPsqlResou
 
     if (getPage() == 0) {
       newResources = resourceTransform(firstBundle);
-    } else if (startAfterValues != null) {
-      previousStartAfterValues = startAfterValues;
-      if (nextBundle.getLink(IBaseBundle.LINK_NEXT) != null) {
-        var partialBundle = client.loadPage().next(nextBundle).execute();
-        newResources = resourceTransform(partialBundle);
-        this.nextBundle = partialBundle;
-
-      } else {
-        newResources = Collections.emptyList();
-      }
+    } else if (jumpedBundle != null) {
+      // the page to continue with after a restart
+      currentBundle = jumpedBundle;
+      jumpedBundle = null;
+      newResources = resourceTransform(currentBundle);
+    } else if (currentBundle.getLink(IBaseBundle.LINK_NEXT) != null) {
+      currentPageUrl = currentBundle.getLink(IBaseBundle.LINK_NEXT).getUrl();
+      currentBundle = client.loadPage().next(currentBundle).execute();
+      newResources = resourceTransform(currentBundle);
     } else {
       newResources = Collections.emptyList();
     }
@@ -148,8 +176,13 @@ public class FhirServerItemReader extends AbstractPagingItemReader<FhirPsqlResou
     for (var entry : entries) {
       FhirPsqlResource newResource = new FhirPsqlResource();
       var resource = entry.getResource();
-      var resourceData = fhirParser.encodeResourceToString(resource);
-      newResource.setData(resourceData);
+      var resourceData = new ByteArrayOutputStream();
+      try (var writer = new OutputStreamWriter(resourceData, StandardCharsets.UTF_8)) {
+        fhirParser.encodeResourceToWriter(resource, writer);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      newResource.setData(resourceData.toByteArray());
       newResource.setFhirId(resource.getIdElement().getId());
       newResource.setType(resource.getResourceType().name());
       resources.add(newResource);
@@ -157,16 +190,23 @@ public class FhirServerItemReader extends AbstractPagingItemReader<FhirPsqlResou
     return resources;
   }
 
+  /**
+   * Saves the link of the page, from which the FHIR resources are read after a restart. At the end
+   * of a page, this is the link to the next page, otherwise the link to the current page. The link
+   * is only correct in single-threaded steps. In multi-threaded steps, the reader is wrapped by a
+   * {@link RestartableChunkReader}, which saves the committed position instead.
+   *
+   * @param executionContext the execution context of the step
+   */
   @Override
   public void update(ExecutionContext executionContext) throws ItemStreamException {
     super.update(executionContext);
     if (isSaveState()) {
-      if (isAtEndOfPage() && startAfterValues != null) {
-        // restart on next page
-        executionContext.put(getExecutionContextKey(START_AFTER_VALUE), startAfterValues);
-      } else if (previousStartAfterValues != null) {
-        // restart on current page
-        executionContext.put(getExecutionContextKey(START_AFTER_VALUE), previousStartAfterValues);
+      var pageUrl = isAtEndOfPage() ? nextPageUrl() : currentPageUrl;
+      if (pageUrl != null) {
+        executionContext.putString(getExecutionContextKey(PAGE_URL), pageUrl);
+      } else {
+        executionContext.remove(getExecutionContextKey(PAGE_URL));
       }
     }
   }
@@ -175,24 +215,84 @@ public class FhirServerItemReader extends AbstractPagingItemReader<FhirPsqlResou
     return getCurrentItemCount() % getPageSize() == 0;
   }
 
+  private String nextPageUrl() {
+    if (getCurrentItemCount() == 0 || currentBundle == null) {
+      return null;
+    }
+    var next = currentBundle.getLink(IBaseBundle.LINK_NEXT);
+    return next == null ? null : next.getUrl();
+  }
+
   @Override
-  @SuppressWarnings("unchecked")
   public void open(ExecutionContext executionContext) {
+    // before the first timed call, so that all timers of the step are tagged with the resource type
+    PhaseTimers.registerResourceType(resourceTypeName);
     if (isSaveState()) {
-      startAfterValues =
-          (Map<String, Object>) executionContext.get(getExecutionContextKey(START_AFTER_VALUE));
-
-      if (startAfterValues == null) {
-        startAfterValues = new LinkedHashMap<>();
-      }
+      savedPageUrl = executionContext.getString(getExecutionContextKey(PAGE_URL), null);
     }
 
     super.open(executionContext);
+
+    if (countTotal && !executionContext.containsKey(StepProgressListener.EXPECTED_ITEMS_KEY)) {
+      var countBundle =
+          PhaseTimers.record(
+              PHASE_READ,
+              resourceTypeName,
+              () -> execute(searchQuery().summaryMode(SummaryEnum.COUNT)));
+      if (countBundle.hasTotal()) {
+        log.info(
+            "Found [{}] FHIR resources of type [{}] to process.",
+            countBundle.getTotal(),
+            resourceTypeName);
+        executionContext.putLong(StepProgressListener.EXPECTED_ITEMS_KEY, countBundle.getTotal());
+      }
+    }
   }
 
+  /**
+   * Loads the page to continue with after a restart. The page is loaded directly from the saved
+   * link. If the FHIR server does not know the link anymore, e.g. because its paging links have
+   * expired, the search is executed again and the pages are skipped up to the page to continue
+   * with.
+   *
+   * @param itemIndex the index of the FHIR resource to continue with
+   */
   @Override
   protected void doJumpToPage(int itemIndex) {
-    // TODO Auto-generated method stub
+    var targetPage = itemIndex / getPageSize();
+    if (targetPage == 0) {
+      return;
+    }
+    var bundle =
+        PhaseTimers.record(PHASE_READ, resourceTypeName, () -> loadRestartPage(targetPage));
+    // an empty bundle, if the search has fewer pages now
+    jumpedBundle = bundle != null ? bundle : new Bundle();
+  }
 
+  private Bundle loadRestartPage(int targetPage) {
+    if (savedPageUrl != null) {
+      try {
+        var bundle = client.loadPage().byUrl(savedPageUrl).andReturnBundle(Bundle.class).execute();
+        currentPageUrl = savedPageUrl;
+        log.info("Continuing to read [{}] from the saved page link.", resourceTypeName);
+        return bundle;
+      } catch (BaseServerResponseException e) {
+        log.warn(
+            "Unable to load the saved page link for [{}], skipping ahead to page [{}] instead: {}",
+            resourceTypeName,
+            targetPage,
+            e.getMessage());
+      }
+    }
+    var bundle = readPageOfBundle();
+    for (int page = 0; page < targetPage && bundle != null; page++) {
+      var next = bundle.getLink(IBaseBundle.LINK_NEXT);
+      if (next == null) {
+        return null;
+      }
+      currentPageUrl = next.getUrl();
+      bundle = client.loadPage().next(bundle).execute();
+    }
+    return bundle;
   }
 }
@@ -0,0 +1,148 @@
+package org.miracum.etl.fhirtoomop;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.StopWatch;
+
+/**
+ * The InitFhirGatewayIndex class creates an index in FHIR Gateway for each contact level of
+ * Encounter resources. Each index is a partial index on the id of the Encounter resources with the
+ * contact level in any coding of any type, so that the paging readers for the contact levels do not
+ * have to scan all Encounter resources for each page.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+public class InitFhirGatewayIndex implements Tasklet {
+
+  public static final String CONTACT_LEVEL_INSTITUTION = "einrichtungskontakt";
+  public static final String CONTACT_LEVEL_DEPARTMENT = "abteilungskontakt";
+
+  /** The code in the first coding of the first type of an Encounter resource. */
+  private static final String FIRST_CODING_CONTACT_LEVEL =
+      "(data -> 'type' -> 0 -> 'coding' -> 0 ->> 'code')";
+
+  /** The first contact level found in any coding of any type of an Encounter resource. */
+  private static final String ANY_CODING_CONTACT_LEVEL =
+      "(jsonb_path_query_first(data -> 'type', '$[*].coding[*].code ? (@ == \""
+          + CONTACT_LEVEL_INSTITUTION
+          + "\" || @ == \""
+          + CONTACT_LEVEL_DEPARTMENT
+          + "\")') #>> '{}')";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final String tableName;
+  private final String indexPrefix;
+  private final String schemaPrefix;
+
+  /**
+   * Constructor for objects of the class InitFhirGatewayIndex.
+   *
+   * @param jdbcTemplate JdbcTemplate for the execution of SQL statements in FHIR Gateway
+   * @param tableName the name of the FHIR Gateway table
+   */
+  public InitFhirGatewayIndex(JdbcTemplate jdbcTemplate, String tableName) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.tableName = tableName;
+    var schemaSeparator = tableName.lastIndexOf('.');
+    this.indexPrefix = tableName.substring(schemaSeparator + 1) + "_encounter_";
+    // the indexes are created in the schema of the table
+    this.schemaPrefix = tableName.substring(0, schemaSeparator + 1);
+  }
+
+  /**
+   * Creates a partial SQL string for filtering Encounter resources by their contact level. Without
+   * the index, only the first coding of the first type is compared with the contact level, as
+   * before. With the index, the contact level is searched in all codings of all types, which is
+   * exactly the predicate of the index for the contact level.
+   *
+   * @param contactLevel the contact level of the Encounter resources
+   * @param indexed whether the indexes for the contact levels are created in FHIR Gateway
+   * @return partial SQL string for filtering Encounter resources by their contact level
+   */
+  public static String contactLevelCondition(String contactLevel, boolean indexed) {
+    if (!indexed) {
+      return FIRST_CODING_CONTACT_LEVEL + " = '" + contactLevel + "'";
+    }
+    return "data -> 'type' @? '$[*].coding[*].code ? (@ == \"" + contactLevel + "\")'";
+  }
+
+  /**
+   * Creates a partial SQL string for the contact level of an Encounter resource, which is searched
+   * in the same codings as by {@link #contactLevelCondition(String, boolean)}. If an Encounter
+   * resource has both contact levels, the first one is returned.
+   *
+   * @param indexed whether the indexes for the contact levels are created in FHIR Gateway
+   * @return partial SQL string for the contact level of an Encounter resource
+   */
+  public static String contactLevelExpression(boolean indexed) {
+    return indexed ? ANY_CODING_CONTACT_LEVEL : FIRST_CODING_CONTACT_LEVEL;
+  }
+
+  /**
+   * Creates the indexes for the contact levels of Encounter resources, if they do not exist yet.
+   * The indexes are built concurrently, so that FHIR Gateway can still be written in the meantime.
+   *
+   * @param contribution buffers changes until they can be applied to a chunk boundary
+   * @param chunkContext context object for weakly typed data stored for the duration of a chunk
+   * @return the processing status
+   */
+  @Override
+  public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+    createIndex(CONTACT_LEVEL_INSTITUTION);
+    createIndex(CONTACT_LEVEL_DEPARTMENT);
+    return RepeatStatus.FINISHED;
+  }
+
+  /**
+   * Creates the partial index for Encounter resources with a contact level.
+   *
+   * @param contactLevel the contact level of the Encounter resources
+   */
+  private void createIndex(String contactLevel) {
+    var indexName = indexPrefix + contactLevel + "_idx";
+    var qualifiedIndexName = schemaPrefix + indexName;
+    try {
+      var valid =
+          jdbcTemplate.queryForList(
+              "SELECT i.indisvalid FROM pg_index i WHERE i.indexrelid = to_regclass(?::text)",
+              Boolean.class,
+              qualifiedIndexName);
+      if (!valid.isEmpty() && valid.get(0).booleanValue()) {
+        log.info("Index [{}] already exists in FHIR Gateway.", indexName);
+        return;
+      }
+      if (!valid.isEmpty()) {
+        // left over by an interrupted concurrent build
+        jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + qualifiedIndexName);
+      }
+
+      var stopWatch = new StopWatch();
+      stopWatch.start();
+      log.info("Creating index [{}] in FHIR Gateway. This may take a while.", indexName);
+      jdbcTemplate.execute(
+          "CREATE INDEX CONCURRENTLY IF NOT EXISTS "
+              + indexName
+              + " ON "
+              + tableName
+              + " (id) WHERE type = 'Encounter' AND "
+              + contactLevelCondition(contactLevel, true));
+      stopWatch.stop();
+      log.info(
+          "Created index [{}] in FHIR Gateway in [{}s]",
+          indexName,
+          String.format("%.3f", stopWatch.getTotalTimeSeconds()));
+    } catch (DataAccessException e) {
+      log.warn(
+          "Unable to create index [{}] in FHIR Gateway, Encounter resources are read without it: {}",
+          indexName,
+          e.getMessage());
+    }
+  }
+}
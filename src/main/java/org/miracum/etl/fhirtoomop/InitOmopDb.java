@@ -1,21 +1,11 @@
 package org.miracum.etl.fhirtoomop;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 import javax.sql.DataSource;
 import lombok.extern.slf4j.Slf4j;
-import org.miracum.etl.fhirtoomop.model.OrphaSnomedMapping;
-import org.miracum.etl.fhirtoomop.repository.OmopRepository;
 import org.miracum.etl.fhirtoomop.utils.ExecuteSqlScripts;
 import org.springframework.batch.core.StepContribution;
 import org.springframework.batch.core.scope.context.ChunkContext;
@@ -39,7 +29,8 @@ public class InitOmopDb implements Tasklet {
   private final String jobVersion;
   private final Boolean bulkload;
   private final DataSource outputDataSource;
-  private final OmopRepository omopRepository;
+  private final ReferenceDataLoader referenceDataLoader;
+  private final OmopIndexLifecycle indexLifecycle;
 
   /**
    * Constructor for objects of the class InitOmopDb.
@@ -48,19 +39,23 @@ public class InitOmopDb implements Tasklet {
    * @param jobVersion the version of the ETL job
    * @param bulkload flag to differentiate between bulk load or incremental load
    * @param outputDataSource the data source to query against
-   * @param omopRepository OMOP CDM repositories
+   * @param referenceDataLoader loads the csv files bundled with the ETL job into OMOP CDM
+   * @param indexLifecycle removes and rebuilds the indexes of OMOP CDM tables for bulk load, null
+   *     if the indexes are kept during bulk load
    */
   public InitOmopDb(
       JdbcTemplate jdbcTemplate,
       String jobVersion,
       Boolean bulkload,
       DataSource outputDataSource,
-      OmopRepository omopRepository) {
+      ReferenceDataLoader referenceDataLoader,
+      OmopIndexLifecycle indexLifecycle) {
     this.jdbcTemplate = jdbcTemplate;
     this.jobVersion = jobVersion;
     this.bulkload = bulkload;
     this.outputDataSource = outputDataSource;
-    this.omopRepository = omopRepository;
+    this.referenceDataLoader = referenceDataLoader;
+    this.indexLifecycle = indexLifecycle;
   }
 
   /**
@@ -77,6 +72,7 @@ public class InitOmopDb implements Tasklet {
     insertOrphaSnomedMapping();
     modifyingTable(contribution);
     migrationFhirIdToOmopIdTable();
+    prepareIndexes();
     return RepeatStatus.FINISHED;
   }
 
@@ -97,10 +93,27 @@ public class InitOmopDb implements Tasklet {
 
     executeSqlScripts.executeSQLScript(createEtlHelperTables);
     executeSqlScripts.executeSQLScript(addColumns);
-    executeSqlScripts.executeSQLScript(addIndex);
+    if (indexLifecycle == null || !indexLifecycle.hasRemovedIndexes()) {
+      executeSqlScripts.executeSQLScript(addIndex);
+    }
     executeSqlScripts.executeSQLScript(alterMedicationIdMap);
   }
 
+  /**
+   * Removes the secondary indexes of OMOP CDM tables before bulk load. Indexes, which have been
+   * removed by an interrupted bulk load, are rebuilt before incremental load.
+   */
+  private void prepareIndexes() {
+    if (indexLifecycle == null) {
+      return;
+    }
+    if (bulkload.equals(Boolean.TRUE)) {
+      indexLifecycle.removeIndexes();
+    } else if (indexLifecycle.hasRemovedIndexes()) {
+      indexLifecycle.rebuildIndexes();
+    }
+  }
+
   /**
    * Migrates the fhir_id_to_omop_id_map table inclusive the contained data from the schema cds_cdm
    * to cds_etl_helper.
@@ -140,46 +153,17 @@ public class InitOmopDb implements Tasklet {
     }
   }
 
-  /** Creates and fills the orpha_snomed_mapping table in OMOP CDM with data from a csv file. */
+  /**
+   * Creates the orpha_snomed_mapping table in OMOP CDM and fills it with data from a csv file, if
+   * the csv file has changed since it was last loaded.
+   */
   private void insertOrphaSnomedMapping() {
     createOrphaSnomedMapping();
-    log.info("Inserting data into orpha_snomed_mapping.");
-    Resource orphaSnomed = new ClassPathResource("orpha_snomed_mapping.csv");
     try {
-      omopRepository.getOrphaSnomedMappingRepository().truncateTable();
-    } catch (Exception e) {
-      log.error("No file found in {}", orphaSnomed);
-    }
-    var formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-    try (BufferedReader br =
-        new BufferedReader(new FileReader(orphaSnomed.getFile(), StandardCharsets.UTF_8))) {
-      br.readLine();
-      var line = "";
-      List<OrphaSnomedMapping> orphaSnomedMappings = new ArrayList<>();
-      while ((line = br.readLine()) != null) {
-        var splitedLine = Arrays.asList(line.split(";"));
-        orphaSnomedMappings.add(
-            OrphaSnomedMapping.builder()
-                .orphaCode(splitedLine.get(0).toString())
-                .orphaConceptId(Integer.parseInt(splitedLine.get(1)))
-                .snomedCode(splitedLine.get(2).toString())
-                .snomedConceptId(Integer.parseInt(splitedLine.get(3)))
-                .snomedDomainId(splitedLine.get(4))
-                .snomedDomainConceptId(Integer.parseInt(splitedLine.get(5)))
-                .orphaValidStartDate(LocalDate.parse(splitedLine.get(6), formatter))
-                .orphaValidEndDate(LocalDate.parse(splitedLine.get(7), formatter))
-                .mappingValidStartDate(LocalDate.parse(splitedLine.get(8), formatter))
-                .mappingValidEndDate(LocalDate.parse(splitedLine.get(9), formatter))
-                .build());
-      }
-
-      omopRepository.getOrphaSnomedMappingRepository().saveAll(orphaSnomedMappings);
-      omopRepository.getOrphaSnomedMappingRepository().flush();
-      log.info("Inserted {} rows into orpha_snomed_mapping.", orphaSnomedMappings.size());
-    } catch (FileNotFoundException e) {
-      log.error(e.getMessage());
-    } catch (Exception e) {
-      e.printStackTrace();
+      referenceDataLoader.replace(
+          "orpha_snomed_mapping.csv", "cds_etl_helper.orpha_snomed_mapping");
+    } catch (IOException | SQLException e) {
+      log.error("Loading orpha_snomed_mapping.csv failed: {}", e.getMessage());
     }
   }
 
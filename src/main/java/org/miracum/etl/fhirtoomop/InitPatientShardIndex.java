@@ -0,0 +1,98 @@
+package org.miracum.etl.fhirtoomop;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.StopWatch;
+
+/**
+ * The InitPatientShardIndex class creates an index in FHIR Gateway on the patient shard of the FHIR
+ * resources, which are not deleted. The patient shard is computed once when the index is built, so
+ * that the readers of a patient-sharded bulk load find the FHIR resources of a shard in the index,
+ * ordered by their id, instead of hashing the patient reference of all FHIR resources for each
+ * shard. The index depends on the number of patient shards.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+public class InitPatientShardIndex implements Tasklet {
+
+  private final JdbcTemplate jdbcTemplate;
+  private final String tableName;
+  private final int shards;
+  private final String indexName;
+  private final String schemaPrefix;
+
+  /**
+   * Constructor for objects of the class InitPatientShardIndex.
+   *
+   * @param jdbcTemplate JdbcTemplate for the execution of SQL statements in FHIR Gateway
+   * @param tableName the name of the FHIR Gateway table
+   * @param shards the number of patient shards
+   */
+  public InitPatientShardIndex(JdbcTemplate jdbcTemplate, String tableName, int shards) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.tableName = tableName;
+    this.shards = shards;
+    var schemaSeparator = tableName.lastIndexOf('.');
+    this.indexName = tableName.substring(schemaSeparator + 1) + "_patient_shard_" + shards + "_idx";
+    // the index is created in the schema of the table
+    this.schemaPrefix = tableName.substring(0, schemaSeparator + 1);
+  }
+
+  /**
+   * Creates the index for the patient shards, if it does not exist yet. The index is built
+   * concurrently, so that FHIR Gateway can still be written in the meantime.
+   *
+   * @param contribution buffers changes until they can be applied to a chunk boundary
+   * @param chunkContext context object for weakly typed data stored for the duration of a chunk
+   * @return the processing status
+   */
+  @Override
+  public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+    var qualifiedIndexName = schemaPrefix + indexName;
+    try {
+      var valid =
+          jdbcTemplate.queryForList(
+              "SELECT i.indisvalid FROM pg_index i WHERE i.indexrelid = to_regclass(?::text)",
+              Boolean.class,
+              qualifiedIndexName);
+      if (!valid.isEmpty() && valid.get(0).booleanValue()) {
+        log.info("Index [{}] already exists in FHIR Gateway.", indexName);
+        return RepeatStatus.FINISHED;
+      }
+      if (!valid.isEmpty()) {
+        // left over by an interrupted concurrent build
+        jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + qualifiedIndexName);
+      }
+
+      var stopWatch = new StopWatch();
+      stopWatch.start();
+      log.info("Creating index [{}] in FHIR Gateway. This may take a while.", indexName);
+      jdbcTemplate.execute(
+          "CREATE INDEX CONCURRENTLY IF NOT EXISTS "
+              + indexName
+              + " ON "
+              + tableName
+              + " (type, "
+              + PatientShardDecision.shardExpression(shards)
+              + ", id) WHERE is_deleted = false");
+      stopWatch.stop();
+      log.info(
+          "Created index [{}] in FHIR Gateway in [{}s]",
+          indexName,
+          String.format("%.3f", stopWatch.getTotalTimeSeconds()));
+    } catch (DataAccessException e) {
+      log.warn(
+          "Unable to create index [{}] in FHIR Gateway, each patient shard is read with a scan over all FHIR resources: {}",
+          indexName,
+          e.getMessage());
+    }
+    return RepeatStatus.FINISHED;
+  }
+}
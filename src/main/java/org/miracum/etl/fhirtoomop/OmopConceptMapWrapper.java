@@ -7,26 +7,23 @@ import static org.miracum.etl.fhirtoomop.Constants.VOCABULARY_OPS;
 import static org.miracum.etl.fhirtoomop.Constants.VOCABULARY_SNOMED;
 import static org.miracum.etl.fhirtoomop.Constants.VOCABULARY_UCUM;
 
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
-import org.miracum.etl.fhirtoomop.model.omop.Concept;
+import org.miracum.etl.fhirtoomop.mapper.helpers.ConceptDictionary;
 
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 public class OmopConceptMapWrapper {
-  private Map<String, List<Concept>> findValidLoincConcept;
-  private Map<String, List<Concept>> findValidUcumConcept;
-  private Map<String, List<Concept>> findValidAtcConcept;
-  private Map<String, List<Concept>> findValidOpsConcept;
-  private Map<String, List<Concept>> findValidSnomedConcept;
-  private Map<String, List<Concept>> findValidIcd10GmConcept;
+  private ConceptDictionary findValidLoincConcept;
+  private ConceptDictionary findValidUcumConcept;
+  private ConceptDictionary findValidAtcConcept;
+  private ConceptDictionary findValidOpsConcept;
+  private ConceptDictionary findValidSnomedConcept;
+  private ConceptDictionary findValidIcd10GmConcept;
 
-  public Map<String, List<Concept>> getValidConcepts(String vocabularyId) {
+  public ConceptDictionary getValidConcepts(String vocabularyId) {
     switch (vocabularyId) {
       case VOCABULARY_OPS:
         return findValidOpsConcept;
@@ -41,7 +38,7 @@ public class OmopConceptMapWrapper {
       case VOCABULARY_ICD10GM:
         return findValidIcd10GmConcept;
       default:
-        return Collections.emptyMap();
+        return ConceptDictionary.EMPTY;
     }
   }
 }
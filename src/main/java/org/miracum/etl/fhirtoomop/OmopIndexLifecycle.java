@@ -0,0 +1,178 @@
+package org.miracum.etl.fhirtoomop;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.StopWatch;
+
+/**
+ * The OmopIndexLifecycle class removes the secondary indexes of large OMOP CDM tables before bulk
+ * load and rebuilds them after all FHIR resources have been written, so that the inserts do not
+ * have to maintain the indexes. Primary keys, unique indexes and indexes of constraints are kept.
+ *
+ * <p>With the persistent job repository, the indexes on fhir_logical_id are kept, because the
+ * records of a restarted step are looked up by their fhir_logical_id before they are written, see
+ * {@link org.miracum.etl.fhirtoomop.writer.CommittedRecordFilter}.
+ *
+ * <p>The definitions of the removed indexes are recorded in cds_etl_helper.bulk_load_index before
+ * the indexes are dropped, so that an interrupted bulk load can still rebuild them on restart.
+ * Optionally, the tables are switched to UNLOGGED during bulk load and back to LOGGED afterwards.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+public class OmopIndexLifecycle {
+  private static final String INDEX_TABLE = "cds_etl_helper.bulk_load_index";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final List<String> tables;
+  private final boolean unlogged;
+  private final boolean keepFhirLogicalIdIndexes;
+  private final int threads;
+
+  /**
+   * Constructor for objects of the class OmopIndexLifecycle.
+   *
+   * @param jdbcTemplate JdbcTemplate for the execution of SQL statements in OMOP CDM
+   * @param tables the OMOP CDM tables whose secondary indexes are removed during bulk load
+   * @param unlogged flag to switch the tables to UNLOGGED during bulk load
+   * @param keepFhirLogicalIdIndexes flag to keep the indexes starting with fhir_logical_id
+   * @param threads number of indexes which are rebuilt at the same time
+   */
+  public OmopIndexLifecycle(
+      JdbcTemplate jdbcTemplate,
+      List<String> tables,
+      boolean unlogged,
+      boolean keepFhirLogicalIdIndexes,
+      int threads) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.tables = tables;
+    this.unlogged = unlogged;
+    this.keepFhirLogicalIdIndexes = keepFhirLogicalIdIndexes;
+    this.threads = Math.max(1, threads);
+  }
+
+  /**
+   * Checks whether removed indexes have not been rebuilt yet, e.g. because the last bulk load was
+   * interrupted.
+   *
+   * @return true if removed indexes are recorded in cds_etl_helper.bulk_load_index
+   */
+  public boolean hasRemovedIndexes() {
+    var count = jdbcTemplate.queryForObject("SELECT count(*) FROM " + INDEX_TABLE, Long.class);
+    return count != null && count > 0;
+  }
+
+  /** Records and drops the secondary indexes of the tables and switches them to UNLOGGED. */
+  public void removeIndexes() {
+    for (var table : tables) {
+      var recorded =
+          jdbcTemplate.update(
+              "INSERT INTO "
+                  + INDEX_TABLE
+                  + " (index_name, table_name, index_definition)"
+                  + " SELECT i.indexrelid::regclass::text, ?, pg_get_indexdef(i.indexrelid)"
+                  + " FROM pg_index i WHERE i.indrelid = to_regclass(?)"
+                  + " AND NOT i.indisprimary AND NOT i.indisunique"
+                  + " AND NOT EXISTS (SELECT 1 FROM pg_constraint c WHERE c.conindid = i.indexrelid)"
+                  + " AND NOT (? AND pg_get_indexdef(i.indexrelid, 1, true) = 'fhir_logical_id')"
+                  + " ON CONFLICT (index_name) DO NOTHING",
+              table,
+              table,
+              keepFhirLogicalIdIndexes);
+      var indexNames =
+          jdbcTemplate.queryForList(
+              "SELECT index_name FROM " + INDEX_TABLE + " WHERE table_name = ?",
+              String.class,
+              table);
+      for (var indexName : indexNames) {
+        jdbcTemplate.execute("DROP INDEX IF EXISTS " + indexName);
+      }
+      log.info(
+          "Removed [{}] indexes of {} table for bulk load, [{}] newly recorded.",
+          indexNames.size(),
+          table,
+          recorded);
+      if (unlogged) {
+        setPersistence(table, "UNLOGGED");
+      }
+    }
+  }
+
+  /**
+   * Switches the tables back to LOGGED and rebuilds the recorded indexes in parallel, each index on
+   * its own connection.
+   *
+   * @throws IllegalStateException if an index could not be rebuilt
+   */
+  public void rebuildIndexes() {
+    if (unlogged) {
+      // before rebuilding, otherwise the indexes are rewritten as well
+      tables.forEach(table -> setPersistence(table, "LOGGED"));
+    }
+    var indexes =
+        jdbcTemplate.queryForList("SELECT index_name, index_definition FROM " + INDEX_TABLE);
+    if (indexes.isEmpty()) {
+      return;
+    }
+    log.info("Rebuilding [{}] indexes with [{}] threads.", indexes.size(), threads);
+    var stopWatch = new StopWatch();
+    stopWatch.start();
+    var executor = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("index-"));
+    var failed = new ArrayList<String>();
+    try {
+      var rebuilds =
+          indexes.stream()
+              .map(
+                  index ->
+                      CompletableFuture.runAsync(
+                          () ->
+                              rebuildIndex(
+                                  (String) index.get("index_name"),
+                                  (String) index.get("index_definition"),
+                                  failed),
+                          executor))
+              .toArray(CompletableFuture[]::new);
+      CompletableFuture.allOf(rebuilds).join();
+    } finally {
+      executor.shutdown();
+    }
+    stopWatch.stop();
+    if (!failed.isEmpty()) {
+      throw new IllegalStateException("Unable to rebuild the indexes " + failed);
+    }
+    log.info(
+        "Rebuilt [{}] indexes in [{}s]",
+        indexes.size(),
+        String.format("%.3f", stopWatch.getTotalTimeSeconds()));
+  }
+
+  private void rebuildIndex(String indexName, String definition, List<String> failed) {
+    try {
+      jdbcTemplate.execute(
+          definition.replaceFirst("^CREATE INDEX ", "CREATE INDEX IF NOT EXISTS "));
+      jdbcTemplate.update("DELETE FROM " + INDEX_TABLE + " WHERE index_name = ?", indexName);
+      log.debug("Rebuilt index [{}].", indexName);
+    } catch (DataAccessException e) {
+      log.error("Unable to rebuild index [{}]: {}", indexName, e.getMessage());
+      synchronized (failed) {
+        failed.add(indexName);
+      }
+    }
+  }
+
+  private void setPersistence(String table, String persistence) {
+    try {
+      jdbcTemplate.execute("ALTER TABLE IF EXISTS " + table + " SET " + persistence);
+    } catch (DataAccessException e) {
+      // e.g. if the table is referenced by foreign keys of LOGGED tables
+      log.warn("Unable to set {} table to {}: {}", table, persistence, e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package org.miracum.etl.fhirtoomop;
+
+import lombok.extern.slf4j.Slf4j;
+import org.miracum.etl.fhirtoomop.DictionaryLoadingService.PersonScope;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.job.flow.FlowExecutionStatus;
+import org.springframework.batch.core.job.flow.JobExecutionDecider;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * The PatientShardDecision class describes the loop over the patient shards of a patient-sharded
+ * bulk load. The patients are hashed by their logical id into shards, and the complete chain of
+ * steps from Patient to the other FHIR resource types is executed for one shard after the other.
+ *
+ * <p>The persons and visits of a shard are written after those of the previous shards. Therefore,
+ * the dictionaries of persons and visits are restricted to the ids written since the shard has
+ * started, so that their size is bounded by the size of a shard.
+ *
+ * <p>FHIR resources whose patient cannot be determined from a literal reference, e.g. because they
+ * reference the patient by identifier only, cannot be assigned to a shard. They are processed in a
+ * final pass after all shards with the dictionaries of all persons and visits.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+@Component
+public class PatientShardDecision implements JobExecutionDecider {
+  /** Status to process the next patient shard. */
+  public static final String NEXT_SHARD = "NEXT_SHARD";
+
+  /** Key in the execution context of the job for the index of the current patient shard. */
+  static final String SHARD_INDEX = "patientShard.index";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final DictionaryLoadingService dictionaryLoadingService;
+
+  @Value("${app.patientShards.count}")
+  private int shards;
+
+  /**
+   * Constructor for objects of the class PatientShardDecision.
+   *
+   * @param jdbcTemplate JdbcTemplate for OMOP CDM
+   * @param dictionaryLoadingService service which loads the dictionaries of the steps
+   */
+  public PatientShardDecision(
+      @Qualifier("writerJdbcTemplate") JdbcTemplate jdbcTemplate,
+      DictionaryLoadingService dictionaryLoadingService) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.dictionaryLoadingService = dictionaryLoadingService;
+  }
+
+  /**
+   * Decides whether the next patient shard is processed or all shards have been processed.
+   *
+   * @param jobExecution batch domain object representing the execution of a job
+   * @param stepExecution batch domain object representation the execution of a step
+   * @return NEXT_SHARD for the next patient shard or the final pass, COMPLETED afterwards
+   */
+  @Override
+  public FlowExecutionStatus decide(JobExecution jobExecution, StepExecution stepExecution) {
+    var executionContext = jobExecution.getExecutionContext();
+    var index = executionContext.containsKey(SHARD_INDEX) ? shardIndex(jobExecution) + 1 : 0;
+    if (index > shards) {
+      executionContext.remove(SHARD_INDEX);
+      dictionaryLoadingService.scopePersons(PersonScope.ALL);
+      return FlowExecutionStatus.COMPLETED;
+    }
+
+    executionContext.putInt(SHARD_INDEX, index);
+    if (index == shards) {
+      dictionaryLoadingService.scopePersons(PersonScope.ALL);
+      log.info(
+          "========= Processing FHIR resources without literal reference to a patient =========");
+      return new FlowExecutionStatus(NEXT_SHARD);
+    }
+    // OMOP CDM is emptied before the first shard, so it contains only the persons of the shard
+    dictionaryLoadingService.scopePersons(
+        index == 0
+            ? PersonScope.ALL
+            : new PersonScope(
+                maxId("person_id", "person"), maxId("visit_occurrence_id", "visit_occurrence")));
+    log.info("========= Processing patient shard [{}] of [{}] =========", index + 1, shards);
+    return new FlowExecutionStatus(NEXT_SHARD);
+  }
+
+  private long maxId(String column, String table) {
+    var maxId =
+        jdbcTemplate.queryForObject(
+            "SELECT coalesce(max(" + column + "), 0) FROM " + table, Long.class);
+    return maxId == null ? 0 : maxId;
+  }
+
+  /**
+   * Returns the index of the patient shard, which is currently processed.
+   *
+   * @param jobExecution the execution of the job
+   * @return index of the current patient shard, the number of shards during the final pass or -1,
+   *     if the job is not patient-sharded
+   */
+  public static int shardIndex(JobExecution jobExecution) {
+    return jobExecution.getExecutionContext().getInt(SHARD_INDEX, -1);
+  }
+
+  /**
+   * Creates the partial SQL string for the patient shard of a FHIR resource in FHIR Gateway.
+   * Patient resources are assigned by their logical id, all other FHIR resources by the logical id
+   * in the literal reference to the patient, which may also be versioned. The shard is NULL for
+   * FHIR resources without such a reference.
+   *
+   * <p>The expression is indexed by {@link InitPatientShardIndex}, so that the FHIR resources of a
+   * shard are found in the index instead of hashing all FHIR resources again for each shard.
+   *
+   * @param shards the number of patient shards
+   * @return partial SQL string for the patient shard of a FHIR resource
+   */
+  public static String shardExpression(int shards) {
+    return "((hashtext(CASE WHEN type = 'Patient' THEN fhir_id"
+        + " ELSE substring(coalesce(data->'subject'->>'reference', data->'patient'->>'reference')"
+        + " from 'Patient/([^/]+)(?:/_history/[^/]+)?$') END) & 2147483647) % "
+        + shards
+        + ")";
+  }
+
+  /**
+   * Creates the condition on the patient shard for the FHIR resources in FHIR Gateway. FHIR
+   * resources without a literal reference to the patient are only selected in the final pass after
+   * all shards.
+   *
+   * @param jobContext the execution context of the job
+   * @param shards the number of patient shards
+   * @return condition for the WHERE clause or an empty string, if the job is not patient-sharded
+   */
+  public static String shardCondition(ExecutionContext jobContext, int shards) {
+    if (!jobContext.containsKey(SHARD_INDEX)) {
+      return "";
+    }
+    var index = jobContext.getInt(SHARD_INDEX);
+    if (index >= shards) {
+      return " AND " + shardExpression(shards) + " IS NULL";
+    }
+    return " AND " + shardExpression(shards) + " = " + index;
+  }
+}
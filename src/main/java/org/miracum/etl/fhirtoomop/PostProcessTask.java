@@ -32,6 +32,7 @@ public class PostProcessTask implements Tasklet {
   private final DataSource dataSource;
   private final String startSingleStep;
   private final Boolean ifBulkLoad;
+  private final OmopIndexLifecycle indexLifecycle;
 
   /**
    * Constructor for objects of the class PostProcessTask.
@@ -39,11 +40,18 @@ public class PostProcessTask implements Tasklet {
    * @param dataSource the data source to query against
    * @param startSingleStep parameter which indicates which steps should be executed
    * @param ifBulkLoad parameter which indicates the user selected loading option
+   * @param indexLifecycle rebuilds the indexes of OMOP CDM tables after bulk load, null if the
+   *     indexes are kept during bulk load
    */
-  public PostProcessTask(DataSource dataSource, String startSingleStep, Boolean ifBulkLoad) {
+  public PostProcessTask(
+      DataSource dataSource,
+      String startSingleStep,
+      Boolean ifBulkLoad,
+      OmopIndexLifecycle indexLifecycle) {
     this.dataSource = dataSource;
     this.startSingleStep = startSingleStep;
     this.ifBulkLoad = ifBulkLoad;
+    this.indexLifecycle = indexLifecycle;
   }
 
   /**
@@ -58,6 +66,10 @@ public class PostProcessTask implements Tasklet {
   @Override
   public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext)
       throws SQLException, IOException {
+    if (indexLifecycle != null && ifBulkLoad.equals(Boolean.TRUE)) {
+      // the post processing scripts rely on the indexes
+      indexLifecycle.rebuildIndexes();
+    }
     ExecuteSqlScripts executeSqlScripts = new ExecuteSqlScripts(dataSource, contribution);
 
     Resource observationPeriod =
@@ -0,0 +1,294 @@
+package org.miracum.etl.fhirtoomop;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.sql.DataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StopWatch;
+
+/**
+ * The ReferenceDataLoader class loads the csv files bundled with the ETL job into OMOP CDM. The
+ * SHA-256 checksum of each file is recorded in cds_etl_helper.reference_data_checksum together with
+ * the number of rows of the target table after loading. A file is only loaded again, if its
+ * checksum or the number of rows of the target table has changed since.
+ *
+ * <p>A changed file is copied with PostgreSQL COPY into a temporary swap table, from which the
+ * content of the target table is replaced in the same transaction. Therefore, other connections see
+ * either the old or the new content of the target table.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+@Component
+public class ReferenceDataLoader {
+  private static final String CHECKSUM_TABLE = "cds_etl_helper.reference_data_checksum";
+  private static final String SWAP_TABLE = "reference_data_swap";
+
+  private final DataSource dataSource;
+
+  @Value("${app.referenceData.alwaysReload}")
+  private Boolean alwaysReload;
+
+  /**
+   * Constructor for objects of the class ReferenceDataLoader.
+   *
+   * @param dataSource the data source of OMOP CDM
+   */
+  public ReferenceDataLoader(@Qualifier("writerDataSource") DataSource dataSource) {
+    this.dataSource = dataSource;
+  }
+
+  /**
+   * Replaces the content of a table with the rows of a csv file.
+   *
+   * @param resourceName the name of the csv file in the classpath
+   * @param table the target table
+   * @return true if the file has been loaded, false if it has not changed
+   */
+  public boolean replace(String resourceName, String table) throws IOException, SQLException {
+    return load(resourceName, table, null);
+  }
+
+  /**
+   * Updates the rows of a table with the rows of a csv file, which have the same key, and inserts
+   * the other rows of the csv file. Rows of the table, which are not contained in the csv file, are
+   * kept, e.g. because they are still referenced.
+   *
+   * @param resourceName the name of the csv file in the classpath
+   * @param table the target table
+   * @param keyColumn the column identifying a row
+   * @return true if the file has been loaded, false if it has not changed
+   */
+  public boolean merge(String resourceName, String table, String keyColumn)
+      throws IOException, SQLException {
+    return load(resourceName, table, keyColumn);
+  }
+
+  private boolean load(String resourceName, String table, String keyColumn)
+      throws IOException, SQLException {
+    byte[] content;
+    try (var in = new ClassPathResource(resourceName).getInputStream()) {
+      content = in.readAllBytes();
+    }
+    var checksum = checksum(content);
+    var columns = columns(content, resourceName);
+
+    try (var connection = dataSource.getConnection()) {
+      var autoCommit = connection.getAutoCommit();
+      connection.setAutoCommit(false);
+      try {
+        var loaded = load(connection, resourceName, table, keyColumn, content, checksum, columns);
+        connection.commit();
+        return loaded;
+      } catch (IOException | SQLException | RuntimeException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(autoCommit);
+      }
+    }
+  }
+
+  private boolean load(
+      Connection connection,
+      String resourceName,
+      String table,
+      String keyColumn,
+      byte[] content,
+      String checksum,
+      List<String> columns)
+      throws IOException, SQLException {
+    try (var statement = connection.createStatement()) {
+      statement.execute(
+          "CREATE TABLE IF NOT EXISTS "
+              + CHECKSUM_TABLE
+              + " (resource_name varchar(255) PRIMARY KEY, target_table varchar(255) NOT NULL,"
+              + " checksum varchar(64) NOT NULL, row_count bigint NOT NULL,"
+              + " loaded_at timestamp NOT NULL)");
+    }
+    // serializes concurrent jobs loading the same file, released at the end of the transaction
+    try (var lock = connection.prepareStatement("SELECT pg_advisory_xact_lock(hashtext(?))")) {
+      lock.setString(1, CHECKSUM_TABLE + "/" + resourceName);
+      lock.execute();
+    }
+
+    if (!alwaysReload.booleanValue() && isUnchanged(connection, resourceName, table, checksum)) {
+      log.info("[{}] has not changed, skipping the load of [{}].", resourceName, table);
+      return false;
+    }
+
+    var stopWatch = new StopWatch();
+    stopWatch.start();
+    var columnList = String.join(", ", columns);
+    try (var statement = connection.createStatement()) {
+      statement.execute(
+          "CREATE TEMP TABLE "
+              + SWAP_TABLE
+              + " (LIKE "
+              + table
+              + " INCLUDING DEFAULTS) ON COMMIT DROP");
+    }
+    var copied =
+        connection
+            .unwrap(PGConnection.class)
+            .getCopyAPI()
+            .copyIn(
+                "COPY "
+                    + SWAP_TABLE
+                    + " ("
+                    + columnList
+                    + ") FROM STDIN WITH (FORMAT csv, DELIMITER ';', HEADER true)",
+                new ByteArrayInputStream(content));
+
+    try (var statement = connection.createStatement()) {
+      if (keyColumn == null) {
+        statement.execute("DELETE FROM " + table);
+        statement.execute(
+            "INSERT INTO "
+                + table
+                + " ("
+                + columnList
+                + ") SELECT "
+                + columnList
+                + " FROM "
+                + SWAP_TABLE);
+      } else {
+        var assignments =
+            columns.stream()
+                .filter(column -> !column.equals(keyColumn))
+                .map(column -> column + " = s." + column)
+                .collect(Collectors.joining(", "));
+        statement.execute(
+            "UPDATE "
+                + table
+                + " t SET "
+                + assignments
+                + " FROM "
+                + SWAP_TABLE
+                + " s WHERE t."
+                + keyColumn
+                + " = s."
+                + keyColumn);
+        statement.execute(
+            "INSERT INTO "
+                + table
+                + " ("
+                + columnList
+                + ") SELECT "
+                + columnList
+                + " FROM "
+                + SWAP_TABLE
+                + " s WHERE NOT EXISTS (SELECT 1 FROM "
+                + table
+                + " t WHERE t."
+                + keyColumn
+                + " = s."
+                + keyColumn
+                + ")");
+      }
+    }
+
+    try (var upsert =
+        connection.prepareStatement(
+            "INSERT INTO "
+                + CHECKSUM_TABLE
+                + " (resource_name, target_table, checksum, row_count, loaded_at)"
+                + " SELECT ?, ?, ?, count(*), now() FROM "
+                + table
+                + " ON CONFLICT (resource_name) DO UPDATE SET target_table = excluded.target_table,"
+                + " checksum = excluded.checksum, row_count = excluded.row_count,"
+                + " loaded_at = excluded.loaded_at")) {
+      upsert.setString(1, resourceName);
+      upsert.setString(2, table);
+      upsert.setString(3, checksum);
+      upsert.executeUpdate();
+    }
+    stopWatch.stop();
+    log.info(
+        "Loaded {} rows from [{}] into [{}] in {}s.",
+        copied,
+        resourceName,
+        table,
+        String.format("%.3f", stopWatch.getTotalTimeSeconds()));
+    return true;
+  }
+
+  /**
+   * Checks whether the file has already been loaded into the table with the same checksum and the
+   * table still contains the number of rows recorded after loading.
+   */
+  private boolean isUnchanged(
+      Connection connection, String resourceName, String table, String checksum)
+      throws SQLException {
+    try (var query =
+        connection.prepareStatement(
+            "SELECT c.row_count = (SELECT count(*) FROM "
+                + table
+                + ") FROM "
+                + CHECKSUM_TABLE
+                + " c WHERE c.resource_name = ? AND c.target_table = ? AND c.checksum = ?")) {
+      query.setString(1, resourceName);
+      query.setString(2, table);
+      query.setString(3, checksum);
+      try (var result = query.executeQuery()) {
+        return result.next() && result.getBoolean(1);
+      }
+    }
+  }
+
+  /**
+   * Computes the SHA-256 checksum of the content of a file.
+   *
+   * @param content the content of the file
+   * @return the checksum as hexadecimal string
+   */
+  static String checksum(byte[] content) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Reads the column names from the header line of a csv file.
+   *
+   * @param content the content of the csv file
+   * @param resourceName the name of the csv file
+   * @return the column names in the order of the csv file
+   */
+  static List<String> columns(byte[] content, String resourceName) throws IOException {
+    try (var reader =
+        new BufferedReader(
+            new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8))) {
+      var header = reader.readLine();
+      if (header == null) {
+        throw new IOException("No header line found in " + resourceName);
+      }
+      var columns = Arrays.stream(header.split(";")).map(String::strip).toList();
+      for (var column : columns) {
+        if (!column.matches("[a-z_][a-z0-9_]*")) {
+          throw new IOException("Invalid column [" + column + "] in " + resourceName);
+        }
+      }
+      return columns;
+    }
+  }
+}
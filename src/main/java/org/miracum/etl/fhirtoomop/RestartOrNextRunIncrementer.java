@@ -0,0 +1,87 @@
+package org.miracum.etl.fhirtoomop;
+
+import java.util.Date;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersIncrementer;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.launch.support.RunIdIncrementer;
+import org.springframework.batch.core.repository.JobRepository;
+
+/**
+ * The RestartOrNextRunIncrementer class decides whether the job is restarted or started anew when
+ * the ETL process is launched. If the last execution of the job has not been completed, the job is
+ * restarted with the parameters of the last execution, so that it continues with the failed step.
+ * Otherwise, a new job instance is started with the next run id.
+ *
+ * <p>An execution which is still marked as running at launch has been interrupted, e.g. by a crash
+ * of the ETL process, and is marked as failed before the restart.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+public class RestartOrNextRunIncrementer implements JobParametersIncrementer {
+  private final JobExplorer jobExplorer;
+  private final JobRepository jobRepository;
+  private final String jobName;
+  private final RunIdIncrementer runIdIncrementer = new RunIdIncrementer();
+
+  /**
+   * Constructor for objects of the class RestartOrNextRunIncrementer.
+   *
+   * @param jobExplorer explorer for the executions in the job repository
+   * @param jobRepository the job repository
+   * @param jobName the name of the job
+   */
+  public RestartOrNextRunIncrementer(
+      JobExplorer jobExplorer, JobRepository jobRepository, String jobName) {
+    this.jobExplorer = jobExplorer;
+    this.jobRepository = jobRepository;
+    this.jobName = jobName;
+  }
+
+  @Override
+  public JobParameters getNext(JobParameters parameters) {
+    var lastInstance = jobExplorer.getLastJobInstance(jobName);
+    var lastExecution = lastInstance == null ? null : jobExplorer.getLastJobExecution(lastInstance);
+    if (lastExecution == null
+        || lastExecution.getStatus() == BatchStatus.COMPLETED
+        || lastExecution.getStatus() == BatchStatus.ABANDONED) {
+      return runIdIncrementer.getNext(parameters);
+    }
+    if (lastExecution.isRunning()) {
+      failInterruptedExecution(lastExecution);
+    }
+    log.info(
+        "Restarting the {} job at the failed step of execution [{}].",
+        jobName,
+        lastExecution.getId());
+    return lastExecution.getJobParameters();
+  }
+
+  /**
+   * Marks an interrupted execution and its running steps as failed, so that it can be restarted.
+   *
+   * @param jobExecution the interrupted execution of the job
+   */
+  private void failInterruptedExecution(JobExecution jobExecution) {
+    log.warn("Execution [{}] has been interrupted, marking it as failed.", jobExecution.getId());
+    var now = new Date();
+    for (var stepExecution : jobExecution.getStepExecutions()) {
+      if (stepExecution.getStatus().isRunning()) {
+        stepExecution.setStatus(BatchStatus.FAILED);
+        stepExecution.setExitStatus(ExitStatus.FAILED.addExitDescription("Interrupted"));
+        stepExecution.setEndTime(now);
+        jobRepository.update(stepExecution);
+      }
+    }
+    jobExecution.setStatus(BatchStatus.FAILED);
+    jobExecution.setExitStatus(ExitStatus.FAILED.addExitDescription("Interrupted"));
+    jobExecution.setEndTime(now);
+    jobRepository.update(jobExecution);
+  }
+}
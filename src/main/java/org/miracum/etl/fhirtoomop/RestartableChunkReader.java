@@ -0,0 +1,319 @@
+package org.miracum.etl.fhirtoomop;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.IntSupplier;
+import lombok.extern.slf4j.Slf4j;
+import org.miracum.etl.fhirtoomop.listeners.StepProgressListener;
+import org.miracum.etl.fhirtoomop.model.FhirPsqlResource;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.batch.item.database.JdbcPagingItemReader;
+import org.springframework.batch.item.support.AbstractItemCountingItemStreamItemReader;
+
+/**
+ * The RestartableChunkReader class makes the reader of a multi-threaded step restartable at the
+ * last committed chunk.
+ *
+ * <p>In a multi-threaded step, the chunks are read interleaved and committed out of order, so the
+ * position of the reader itself does not tell which FHIR resources have been written to OMOP CDM.
+ * Therefore, each thread takes the FHIR resources of its chunk as one contiguous segment from the
+ * reader. When the chunk is committed, the segment is recorded in the execution context of the
+ * step: the number of FHIR resources up to which all segments have been committed, the id of the
+ * last of these FHIR resources, and the segments committed beyond this position. On restart, the
+ * reader continues after the committed position and skips the segments committed beyond it.
+ *
+ * <p>A segment holds at most the FHIR resources, which are still missing in the chunk of the
+ * thread, so that the chunk size may change between chunks. FHIR resources of a segment, which are
+ * not part of the committed chunk, are handed over to the next chunk of any thread, because the
+ * chunks of a multi-threaded step usually run in new threads.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+public class RestartableChunkReader implements ItemStreamReader<FhirPsqlResource> {
+  static final String COMMITTED_COUNT = "committed.count";
+  static final String COMMITTED_ID = "committed.id";
+  static final String COMMITTED_SEGMENTS = "committed.segments";
+
+  /**
+   * Attribute of the step context, which marks a step continued after a restart. The FHIR resources
+   * of the chunks, which had not been committed before, may have already been written to OMOP CDM.
+   */
+  public static final String RESTARTED = "restartableChunkReader.restarted";
+
+  private final AbstractItemCountingItemStreamItemReader<FhirPsqlResource> delegate;
+  private final IntSupplier chunkSize;
+  private final ThreadLocal<List<Segment>> pendingSegments =
+      ThreadLocal.withInitial(ArrayList::new);
+  private final ArrayDeque<Segment> leftoverSegments = new ArrayDeque<>();
+  private final TreeMap<Long, Segment> committedSegments = new TreeMap<>();
+  private final Object lock = new Object();
+  private long readCount;
+  private long committedCount;
+  private String committedId;
+  private boolean exhausted;
+
+  /**
+   * Constructor for objects of the class RestartableChunkReader.
+   *
+   * @param delegate the reader for the FHIR resources
+   * @param chunkSize the number of FHIR resources in a chunk
+   */
+  public RestartableChunkReader(
+      AbstractItemCountingItemStreamItemReader<FhirPsqlResource> delegate, int chunkSize) {
+    this(delegate, () -> chunkSize);
+  }
+
+  /**
+   * Constructor for objects of the class RestartableChunkReader.
+   *
+   * @param delegate the reader for the FHIR resources
+   * @param chunkSize supplies the size of the chunk, which the current thread reads
+   */
+  public RestartableChunkReader(
+      AbstractItemCountingItemStreamItemReader<FhirPsqlResource> delegate, IntSupplier chunkSize) {
+    this.delegate = delegate;
+    this.chunkSize = chunkSize;
+    // the position is saved by this reader
+    delegate.setSaveState(true);
+  }
+
+  @Override
+  public void open(ExecutionContext executionContext) {
+    synchronized (lock) {
+      committedSegments.clear();
+      leftoverSegments.clear();
+      readCount = 0;
+      committedCount = 0;
+      committedId = null;
+      exhausted = false;
+      if (executionContext.containsKey(key(COMMITTED_COUNT))) {
+        restorePosition(executionContext);
+      }
+    }
+    delegate.open(executionContext);
+  }
+
+  /**
+   * Restores the committed position and positions the delegate after it.
+   *
+   * @param executionContext the execution context of the restarted step
+   */
+  @SuppressWarnings("unchecked")
+  private void restorePosition(ExecutionContext executionContext) {
+    committedCount = executionContext.getLong(key(COMMITTED_COUNT));
+    committedId = executionContext.getString(key(COMMITTED_ID), null);
+    var segments = (List<String>) executionContext.get(key(COMMITTED_SEGMENTS));
+    if (segments != null) {
+      segments.stream().map(Segment::parse).forEach(s -> committedSegments.put(s.start, s));
+    }
+    readCount = committedCount;
+    var restored =
+        committedSegments.values().stream()
+            .mapToLong(segment -> segment.end - segment.start)
+            .reduce(committedCount, Long::sum);
+    executionContext.putLong(StepProgressListener.RESTORED_ITEMS_KEY, restored);
+    var stepContext = StepSynchronizationManager.getContext();
+    if (stepContext != null) {
+      stepContext.setAttribute(RESTARTED, true);
+    }
+    log.info(
+        "Continuing [{}] after [{}] committed FHIR resources, skipping [{}] segments committed out of order.",
+        delegate.getName(),
+        committedCount,
+        committedSegments.size());
+    if (committedCount == 0) {
+      return;
+    }
+    if (delegate instanceof JdbcPagingItemReader<?> pagingReader && committedId != null) {
+      // continue with the page after the committed id instead of reading all pages up to it
+      var startAfter = new LinkedHashMap<String, Object>();
+      startAfter.put("id", sortKey(committedId));
+      executionContext.put(delegate.getExecutionContextKey("start.after"), startAfter);
+      executionContext.putInt(
+          delegate.getExecutionContextKey("read.count"), pagingReader.getPageSize());
+    } else {
+      executionContext.putInt(delegate.getExecutionContextKey("read.count"), (int) committedCount);
+    }
+  }
+
+  private static Object sortKey(String id) {
+    try {
+      return Long.valueOf(id);
+    } catch (NumberFormatException e) {
+      return id;
+    }
+  }
+
+  @Override
+  public FhirPsqlResource read() throws Exception {
+    var segments = pendingSegments.get();
+    var segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    if (segment == null || segment.items.isEmpty()) {
+      var read = segments.stream().mapToInt(pending -> pending.consumed).sum();
+      segment = nextSegment(Math.max(1, chunkSize.getAsInt() - read));
+      if (segment == null) {
+        return null;
+      }
+      segments.add(segment);
+    }
+    var item = segment.items.poll();
+    segment.consumed++;
+    segment.lastId = item.getId();
+    return item;
+  }
+
+  /**
+   * Takes the next FHIR resources as contiguous segment. FHIR resources left over by chunks of
+   * other threads are taken first, then the FHIR resources are read from the delegate. FHIR
+   * resources, which have already been committed before a restart, are skipped. A segment ends
+   * before such FHIR resources, so that it stays contiguous.
+   *
+   * @param size the maximal number of FHIR resources in the segment
+   * @return the next segment or null if all FHIR resources have been read
+   */
+  private Segment nextSegment(int size) throws Exception {
+    synchronized (lock) {
+      var leftover = leftoverSegments.poll();
+      if (leftover != null) {
+        if (leftover.items.size() > size) {
+          leftoverSegments.addFirst(leftover);
+          return leftover.split(size);
+        }
+        return leftover;
+      }
+      Segment segment = null;
+      while (!exhausted && (segment == null || segment.items.size() < size)) {
+        if (segment != null && isCommitted(readCount)) {
+          break;
+        }
+        var item = delegate.read();
+        if (item == null) {
+          exhausted = true;
+        } else if (isCommitted(readCount)) {
+          readCount++;
+        } else {
+          if (segment == null) {
+            segment = new Segment(readCount);
+          }
+          segment.items.add(item);
+          readCount++;
+          segment.end = readCount;
+        }
+      }
+      return segment;
+    }
+  }
+
+  private boolean isCommitted(long index) {
+    var segment = committedSegments.floorEntry(index);
+    return segment != null && index < segment.getValue().end;
+  }
+
+  /**
+   * Records the FHIR resources, which the current thread has read in the chunk to be committed.
+   * Called in the transaction of the chunk, so that the committed position is saved together with
+   * the chunk.
+   *
+   * @param executionContext the execution context of the step
+   */
+  @Override
+  public void update(ExecutionContext executionContext) {
+    synchronized (lock) {
+      var segments = pendingSegments.get();
+      segments.forEach(this::commit);
+      // the next chunk may run in another thread
+      segments.stream().filter(segment -> !segment.items.isEmpty()).forEach(leftoverSegments::add);
+      segments.clear();
+      executionContext.putLong(key(COMMITTED_COUNT), committedCount);
+      if (committedId != null) {
+        executionContext.putString(key(COMMITTED_ID), committedId);
+      }
+      var committed = new ArrayList<String>(committedSegments.size());
+      committedSegments.values().forEach(segment -> committed.add(segment.format()));
+      executionContext.put(key(COMMITTED_SEGMENTS), committed);
+    }
+  }
+
+  /**
+   * Marks the consumed part of a segment as committed and advances the committed position over all
+   * segments which are committed without gaps.
+   */
+  private void commit(Segment segment) {
+    if (segment.consumed == 0) {
+      return;
+    }
+    var committed = new Segment(segment.start);
+    committed.end = segment.start + segment.consumed;
+    committed.lastId = segment.lastId;
+    committedSegments.put(committed.start, committed);
+    segment.start = committed.end;
+    segment.consumed = 0;
+
+    var next = committedSegments.get(committedCount);
+    while (next != null) {
+      committedSegments.remove(next.start);
+      committedCount = next.end;
+      committedId = next.lastId;
+      next = committedSegments.get(committedCount);
+    }
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+    pendingSegments.remove();
+  }
+
+  private String key(String key) {
+    return delegate.getExecutionContextKey(key);
+  }
+
+  /** FHIR resources with contiguous positions in the reader, which belong to one chunk. */
+  private static final class Segment {
+    private final ArrayDeque<FhirPsqlResource> items = new ArrayDeque<>();
+    private long start;
+    private long end;
+    private int consumed;
+    private String lastId;
+
+    private Segment(long start) {
+      this.start = start;
+      this.end = start;
+    }
+
+    /**
+     * Removes the first FHIR resources from this segment.
+     *
+     * @param size the number of FHIR resources to remove
+     * @return the removed FHIR resources as segment
+     */
+    private Segment split(int size) {
+      var head = new Segment(start);
+      for (int i = 0; i < size; i++) {
+        head.items.add(items.poll());
+      }
+      head.end = start + size;
+      start = head.end;
+      return head;
+    }
+
+    private String format() {
+      return start + ":" + end + ":" + lastId;
+    }
+
+    private static Segment parse(String value) {
+      var parts = value.split(":", 3);
+      var segment = new Segment(Long.parseLong(parts[0]));
+      segment.end = Long.parseLong(parts[1]);
+      segment.lastId = parts[2];
+      return segment;
+    }
+  }
+}
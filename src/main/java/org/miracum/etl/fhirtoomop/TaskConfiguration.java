@@ -14,6 +14,8 @@ import static org.miracum.etl.fhirtoomop.Constants.FHIR_RESOURCE_OBSERVATION;
 import static org.miracum.etl.fhirtoomop.Constants.FHIR_RESOURCE_PROCEDURE;
 import static org.miracum.etl.fhirtoomop.Constants.STEP_ENCOUNTER_DEPARTMENT_KONTAKT;
 import static org.miracum.etl.fhirtoomop.Constants.STEP_ENCOUNTER_INSTITUTION_KONTAKT;
+import static org.miracum.etl.fhirtoomop.InitFhirGatewayIndex.CONTACT_LEVEL_DEPARTMENT;
+import static org.miracum.etl.fhirtoomop.InitFhirGatewayIndex.CONTACT_LEVEL_INSTITUTION;
 
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
@@ -21,12 +23,21 @@ import io.micrometer.core.instrument.Metrics;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.annotation.PreDestroy;
 import javax.sql.DataSource;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.hl7.fhir.r4.model.Enumerations.ResourceType;
+import org.miracum.etl.fhirtoomop.DictionaryLoadingService.Dictionary;
 import org.miracum.etl.fhirtoomop.listeners.ConditionStepListener;
 import org.miracum.etl.fhirtoomop.listeners.ConsentStepListener;
 import org.miracum.etl.fhirtoomop.listeners.DiagnosticReportStepListener;
@@ -41,6 +52,8 @@ import org.miracum.etl.fhirtoomop.listeners.MedicationStepListener;
 import org.miracum.etl.fhirtoomop.listeners.ObservationStepListener;
 import org.miracum.etl.fhirtoomop.listeners.PatientStepListener;
 import org.miracum.etl.fhirtoomop.listeners.ProcedureStepListener;
+import org.miracum.etl.fhirtoomop.listeners.StepProgressListener;
+import org.miracum.etl.fhirtoomop.listeners.UnmappedCodeStepListener;
 import org.miracum.etl.fhirtoomop.mapper.ConditionMapper;
 import org.miracum.etl.fhirtoomop.mapper.ConsentMapper;
 import org.miracum.etl.fhirtoomop.mapper.DiagnosticReportMapper;
@@ -55,6 +68,10 @@ import org.miracum.etl.fhirtoomop.mapper.PatientMapper;
 import org.miracum.etl.fhirtoomop.mapper.ProcedureMapper;
 import org.miracum.etl.fhirtoomop.model.FhirPsqlResource;
 import org.miracum.etl.fhirtoomop.model.OmopModelWrapper;
+import org.miracum.etl.fhirtoomop.partition.IdRangePartitioner;
+import org.miracum.etl.fhirtoomop.partition.PartitionClaimGuard;
+import org.miracum.etl.fhirtoomop.partition.PartitionManager;
+import org.miracum.etl.fhirtoomop.processor.AsyncResourceProcessor;
 import org.miracum.etl.fhirtoomop.processor.ConditionProcessor;
 import org.miracum.etl.fhirtoomop.processor.ConsentProcessor;
 import org.miracum.etl.fhirtoomop.processor.DiagnosticReportProcessor;
@@ -68,21 +85,32 @@ import org.miracum.etl.fhirtoomop.processor.ObservationProcessor;
 import org.miracum.etl.fhirtoomop.processor.PatientProcessor;
 import org.miracum.etl.fhirtoomop.processor.ProcedureProcessor;
 import org.miracum.etl.fhirtoomop.repository.OmopRepository;
+import org.miracum.etl.fhirtoomop.tuning.AdaptiveChunkController;
+import org.miracum.etl.fhirtoomop.writer.AsyncOmopWriter;
+import org.springframework.batch.core.ChunkListener;
 import org.springframework.batch.core.Job;
 import org.springframework.batch.core.Step;
+import org.springframework.batch.core.StepExecutionListener;
 import org.springframework.batch.core.configuration.annotation.EnableBatchProcessing;
 import org.springframework.batch.core.configuration.annotation.JobBuilderFactory;
 import org.springframework.batch.core.configuration.annotation.StepBuilderFactory;
 import org.springframework.batch.core.configuration.annotation.StepScope;
+import org.springframework.batch.core.explore.JobExplorer;
 import org.springframework.batch.core.job.builder.FlowBuilder;
 import org.springframework.batch.core.job.flow.Flow;
 import org.springframework.batch.core.job.flow.JobExecutionDecider;
 import org.springframework.batch.core.job.flow.support.SimpleFlow;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.batch.core.step.builder.SimpleStepBuilder;
+import org.springframework.batch.item.ItemProcessor;
 import org.springframework.batch.item.ItemStreamReader;
 import org.springframework.batch.item.ItemWriter;
 import org.springframework.batch.item.database.JdbcPagingItemReader;
 import org.springframework.batch.item.database.Order;
-import org.springframework.batch.item.database.builder.JdbcPagingItemReaderBuilder;
+import org.springframework.batch.item.database.support.PostgresPagingQueryProvider;
+import org.springframework.batch.item.support.AbstractItemCountingItemStreamItemReader;
+import org.springframework.batch.repeat.RepeatStatus;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
@@ -91,8 +119,8 @@ import org.springframework.cloud.task.configuration.TaskConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.task.SimpleAsyncTaskExecutor;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 /**
  * The TaskConfiguration class contains the execution logic of the ETL process.
@@ -108,6 +136,11 @@ public class TaskConfiguration {
       new InMemoryIncrementalIdMappings();
   private final JobBuilderFactory jobBuilderFactory;
   private final StepBuilderFactory stepBuilderFactory;
+  private final StepProgressListener stepProgressListener;
+  private final UnmappedCodeStepListener unmappedCodeStepListener;
+  private final AdaptiveChunkController adaptiveChunkController;
+  private final PartitionClaimGuard partitionClaimGuard;
+  private final DictionaryLoadingService dictionaryLoadingService;
 
   private static final DbMappings dbMappings = new DbMappings();
   private final OmopRepository repositories = new OmopRepository();
@@ -151,6 +184,54 @@ public class TaskConfiguration {
   @Value("${data.fhirServer.baseUrl}")
   private String fhirBaseUrl;
 
+  @Value("${app.progress.enabled}")
+  private Boolean progressEnabled;
+
+  @Value("${app.parallelSteps.enabled}")
+  private Boolean parallelSteps;
+
+  @Value("${app.parallelSteps.maxConcurrentSteps}")
+  private int maxConcurrentSteps;
+
+  @Value("${app.contactLevelIndex.enabled}")
+  private Boolean contactLevelIndex;
+
+  @Value("${app.bulkLoadIndexes.enabled}")
+  private Boolean bulkLoadIndexes;
+
+  @Value("${app.bulkLoadIndexes.tables}")
+  private List<String> bulkLoadIndexTables;
+
+  @Value("${app.bulkLoadIndexes.unlogged}")
+  private Boolean bulkLoadUnlogged;
+
+  @Value("${app.bulkLoadIndexes.threads}")
+  private int bulkLoadIndexThreads;
+
+  @Value("${app.persistentJobRepository.enabled}")
+  private Boolean persistentJobRepository;
+
+  @Value("${app.distributed.role}")
+  private String distributedRole;
+
+  @Value("${app.patientShards.count}")
+  private int patientShards;
+
+  @Value("${app.fanOut.enabled}")
+  private Boolean fanOutEnabled;
+
+  @Value("${app.asyncProcessing.enabled}")
+  private Boolean asyncProcessing;
+
+  @Value("${app.asyncProcessing.threads}")
+  private int asyncProcessingThreads;
+
+  @Value("${app.fanOut.directory}")
+  private String fanOutDirectory;
+
+  // guarded by this, created on first use
+  private ExecutorService resourceProcessorExecutor;
+
   @Bean
   public Boolean bulkload() {
     return this.bulkload;
@@ -161,13 +242,29 @@ public class TaskConfiguration {
    *
    * @param jobBuilderFactory factory for the jobBuilder
    * @param stepBuilderFactory factory for the stepBuilder
+   * @param stepProgressListener listener which reports the progress of the steps
+   * @param unmappedCodeStepListener listener which writes the statistics of unmapped codes
+   * @param adaptiveChunkController controller which adjusts chunk size and concurrency of the steps
+   * @param partitionClaimGuard checks the claim of a partition before each chunk is written
+   * @param dictionaryLoadingService service which loads the dictionaries of the steps
    */
   @Autowired
   public TaskConfiguration(
-      final JobBuilderFactory jobBuilderFactory, final StepBuilderFactory stepBuilderFactory) {
+      final JobBuilderFactory jobBuilderFactory,
+      final StepBuilderFactory stepBuilderFactory,
+      final StepProgressListener stepProgressListener,
+      final UnmappedCodeStepListener unmappedCodeStepListener,
+      final AdaptiveChunkController adaptiveChunkController,
+      final PartitionClaimGuard partitionClaimGuard,
+      final DictionaryLoadingService dictionaryLoadingService) {
 
     this.jobBuilderFactory = jobBuilderFactory;
     this.stepBuilderFactory = stepBuilderFactory;
+    this.stepProgressListener = stepProgressListener;
+    this.unmappedCodeStepListener = unmappedCodeStepListener;
+    this.adaptiveChunkController = adaptiveChunkController;
+    this.partitionClaimGuard = partitionClaimGuard;
+    this.dictionaryLoadingService = dictionaryLoadingService;
   }
 
   /**
@@ -211,6 +308,31 @@ public class TaskConfiguration {
     return new DefaultTaskConfigurer(defaultDataSource);
   }
 
+  /**
+   * Returns the spool files, into which the FHIR resources of FHIR Gateway are distributed during
+   * bulk load.
+   *
+   * @return the spool files
+   */
+  @Bean
+  public FhirResourceSpool fhirResourceSpool() {
+    return new FhirResourceSpool(fanOutDirectory);
+  }
+
+  /**
+   * Checks whether all FHIR resources are read from FHIR Gateway in a single pass and distributed
+   * into spool files. This is only possible during bulk load with all FHIR resource types from FHIR
+   * Gateway.
+   *
+   * @return true, if the FHIR resources are read from spool files
+   */
+  private boolean isFanOut() {
+    return fanOutEnabled.equals(Boolean.TRUE)
+        && bulkload.equals(Boolean.TRUE)
+        && StringUtils.isBlank(fhirBaseUrl)
+        && StringUtils.isBlank(startSingleStep);
+  }
+
   /** Add simpleMeterRegistry to the globalRegistry in Metrics. */
   @Bean
   public void setMetrics() {
@@ -251,26 +373,127 @@ public class TaskConfiguration {
    *
    * @param resourceType the FHIR resource type
    * @param dataSource the data source to query against
-   * @return JdbcPagingItemReader for reading FHIR resources from FHIR Gateway
+   * @return reader for reading FHIR resources from FHIR Gateway
    */
-  private JdbcPagingItemReader<FhirPsqlResource> createResourceReader(
+  private ItemStreamReader<FhirPsqlResource> createResourceReader(
       String resourceType, DataSource dataSource) {
+    if (isFanOut()) {
+      return restartable(
+          new FhirResourceSpoolReader(
+              fhirResourceSpool(), FhirResourceSpool.key(resourceType, null)));
+    }
+    var whereClause =
+        resourceWhereClause(resourceType) + partitionIdRange() + patientShard();
+    return restartable(
+        createPagingReader("fhir-resource-reader", resourceType, whereClause, dataSource));
+  }
+
+  /**
+   * Creates the WHERE clause for filtering the FHIR resources of a FHIR resource type in FHIR
+   * Gateway.
+   *
+   * @param resourceType the FHIR resource type
+   * @return WHERE clause for filtering the FHIR resources in FHIR Gateway
+   */
+  private String resourceWhereClause(String resourceType) {
     StringBuilder whereStatement = new StringBuilder();
     whereStatement.append("WHERE type = '" + resourceType + "'" + setDateRange());
     if (bulkload.equals(Boolean.TRUE)) {
       whereStatement.append("AND is_deleted = false");
     }
+    return whereStatement.toString();
+  }
 
-    return new JdbcPagingItemReaderBuilder<FhirPsqlResource>()
-        .name("fhir-resource-reader")
-        .selectClause("SELECT *")
-        .fromClause("FROM " + inputTableName)
-        .whereClause(whereStatement.toString())
-        .sortKeys(getSortKeys("id"))
-        .pageSize(pagingSize)
-        .dataSource(dataSource)
-        .rowMapper(BeanPropertyRowMapper.newInstance(FhirPsqlResource.class))
-        .build();
+  /**
+   * Creates the condition on the id range of the partition, if the step of the reader is executed
+   * for a partition of a distributed bulk load.
+   *
+   * @return condition for the WHERE clause or an empty string, if the step is not partitioned
+   */
+  private String partitionIdRange() {
+    var context = StepSynchronizationManager.getContext();
+    if (context == null) {
+      return "";
+    }
+    return IdRangePartitioner.idRangeCondition(context.getStepExecution().getExecutionContext());
+  }
+
+  /**
+   * Creates the condition on the patient shard, which is currently processed, if the bulk load is
+   * patient-sharded.
+   *
+   * @return condition for the WHERE clause or an empty string, if the job is not patient-sharded
+   */
+  private String patientShard() {
+    var context = StepSynchronizationManager.getContext();
+    if (context == null) {
+      return "";
+    }
+    return PatientShardDecision.shardCondition(
+        context.getStepExecution().getJobExecution().getExecutionContext(), patientShards);
+  }
+
+  /**
+   * Checks whether the bulk load is executed per patient shard. This is only possible during bulk
+   * load with all FHIR resource types from FHIR Gateway. The patient shards are executed one after
+   * the other in one job execution, which cannot be restarted from the persistent job repository or
+   * distributed to workers.
+   *
+   * @return true, if the bulk load is patient-sharded
+   */
+  private boolean isPatientSharded() {
+    if (patientShards <= 1
+        || bulkload.equals(Boolean.FALSE)
+        || StringUtils.isNotBlank(fhirBaseUrl)
+        || StringUtils.isNotBlank(startSingleStep)
+        || isFanOut()) {
+      return false;
+    }
+    if (persistentJobRepository.booleanValue() || StringUtils.isNotBlank(distributedRole)) {
+      throw new IllegalStateException(
+          "The patient-sharded bulk load cannot be combined with the persistent job repository or"
+              + " the distributed bulk load");
+    }
+    return true;
+  }
+
+  /**
+   * Checks whether the steps for FHIR resources, which only depend on persons and visits, are
+   * partitioned and processed by the workers of a distributed bulk load. This is only possible
+   * during bulk load with all FHIR resource types from FHIR Gateway and with the job repository in
+   * OMOP CDM, which is shared by the manager and the workers.
+   *
+   * @return true, if the steps are partitioned
+   */
+  private boolean isDistributed() {
+    if (!"manager".equals(distributedRole)
+        || bulkload.equals(Boolean.FALSE)
+        || StringUtils.isNotBlank(fhirBaseUrl)
+        || StringUtils.isNotBlank(startSingleStep)
+        || isFanOut()) {
+      return false;
+    }
+    if (!persistentJobRepository.booleanValue()) {
+      throw new IllegalStateException(
+          "The distributed bulk load requires app.persistentJobRepository.enabled");
+    }
+    return true;
+  }
+
+  /**
+   * Partitions a step for the workers of a distributed bulk load, if enabled. Otherwise, the step
+   * is returned as it is.
+   *
+   * @param step the step for FHIR resources
+   * @param resourceType the FHIR resource type of the step
+   * @param partitionManager creates the partitioned steps
+   * @return the partitioned step
+   */
+  private Step partitioned(Step step, String resourceType, PartitionManager partitionManager) {
+    if (!isDistributed()) {
+      return step;
+    }
+    return partitionManager.partitioned(step, inputTableName, resourceWhereClause(resourceType));
   }
 
   /**
@@ -279,30 +502,49 @@ public class TaskConfiguration {
    * @param dataSource the data source to query against
    * @param hasPartOf parameter to distinguish between department case and supply
    *     case/administrative case
-   * @return JdbcPagingItemReader for reading FHIR resources from FHIR Gateway
+   * @return reader for reading FHIR resources from FHIR Gateway
    */
-  private JdbcPagingItemReader<FhirPsqlResource> encounterReader(
+  private ItemStreamReader<FhirPsqlResource> encounterReader(
       DataSource dataSource, String contactLevel) {
+    if (isFanOut()) {
+      return restartable(
+          new FhirResourceSpoolReader(
+              fhirResourceSpool(), FhirResourceSpool.key("Encounter", contactLevel)));
+    }
     var whereClause = new StringBuilder();
     whereClause.append("WHERE type = 'Encounter' AND ");
     if (bulkload.equals(Boolean.TRUE)) {
       whereClause.append("is_deleted = false AND ");
     }
 
-    whereClause.append(
-        "(data -> 'type' -> 0 -> 'coding' -> 0 ->> 'code'= '" + contactLevel + "') ");
+    var contactLevelCondition =
+        InitFhirGatewayIndex.contactLevelCondition(contactLevel, contactLevelIndex.booleanValue());
+    whereClause.append("(" + contactLevelCondition + ") ");
     whereClause.append(setDateRange());
+    whereClause.append(patientShard());
 
-    return new JdbcPagingItemReaderBuilder<FhirPsqlResource>()
-        .name("encounterReader")
-        .selectClause("SELECT *")
-        .fromClause("FROM " + inputTableName)
-        .whereClause(whereClause.toString())
-        .sortKeys(getSortKeys("id"))
-        .pageSize(pagingSize)
-        .dataSource(dataSource)
-        .rowMapper(BeanPropertyRowMapper.newInstance(FhirPsqlResource.class))
-        .build();
+    return restartable(
+        createPagingReader("encounterReader", "Encounter", whereClause.toString(), dataSource));
+  }
+
+  /**
+   * Makes the reader of a multi-threaded step restartable at the last committed chunk, if the job
+   * repository is kept in OMOP CDM. Otherwise, the job cannot be restarted and the reader is
+   * returned as it is. If the steps are tuned at runtime, the reader takes the chunk size chosen
+   * for each chunk.
+   *
+   * @param reader the reader for the FHIR resources
+   * @return reader which is restartable at the last committed chunk
+   */
+  private ItemStreamReader<FhirPsqlResource> restartable(
+      AbstractItemCountingItemStreamItemReader<FhirPsqlResource> reader) {
+    if (!persistentJobRepository.booleanValue()) {
+      return reader;
+    }
+    if (adaptiveChunkController.isEnabled()) {
+      return new RestartableChunkReader(reader, adaptiveChunkController::currentChunkSize);
+    }
+    return new RestartableChunkReader(reader, batchChunkSize);
   }
 
   /**
@@ -323,16 +565,45 @@ public class TaskConfiguration {
     }
 
     whereClause.append(")" + setDateRange());
-    return new JdbcPagingItemReaderBuilder<FhirPsqlResource>()
-        .name("fhir-incremental-resource-reader")
-        .selectClause("SELECT * ")
-        .fromClause("FROM " + inputTableName)
-        .whereClause(whereClause.toString())
-        .sortKeys(getSortKeys("id"))
-        .pageSize(pagingSize)
-        .dataSource(dataSource)
-        .rowMapper(BeanPropertyRowMapper.newInstance(FhirPsqlResource.class))
-        .build();
+    return createPagingReader(
+        "fhir-incremental-resource-reader", "incremental", whereClause.toString(), dataSource);
+  }
+
+  /**
+   * Creates a paging reader for FHIR Gateway, which measures the duration of each page fetch.
+   *
+   * @param name the name of the reader
+   * @param resourceType the FHIR resource type which is read by the reader
+   * @param whereClause the WHERE clause for filtering the FHIR resources in FHIR Gateway
+   * @param dataSource the data source to query against
+   * @return JdbcPagingItemReader for reading FHIR resources from FHIR Gateway
+   */
+  private JdbcPagingItemReader<FhirPsqlResource> createPagingReader(
+      String name, String resourceType, String whereClause, DataSource dataSource) {
+    var queryProvider = new PostgresPagingQueryProvider();
+    queryProvider.setSelectClause("SELECT *");
+    queryProvider.setFromClause("FROM " + inputTableName);
+    queryProvider.setWhereClause(whereClause);
+    queryProvider.setSortKeys(getSortKeys("id"));
+
+    var reader = new FhirGatewayPagingItemReader(resourceType);
+    reader.setName(name);
+    reader.setQueryProvider(queryProvider);
+    reader.setPageSize(pagingSize);
+    reader.setDataSource(dataSource);
+    // the JSONB payload is taken as the UTF-8 bytes received from the database, without a String
+    reader.setRowMapper(
+        (rs, rowNum) ->
+            new FhirPsqlResource(
+                rs.getString("id"),
+                rs.getString("fhir_id"),
+                rs.getString("type"),
+                rs.getBytes("data"),
+                rs.getObject("is_deleted", Boolean.class)));
+    if (progressEnabled.booleanValue()) {
+      reader.setCountQuery("SELECT count(*) FROM " + inputTableName + " " + whereClause);
+    }
+    return reader;
   }
 
   /**
@@ -347,6 +618,121 @@ public class TaskConfiguration {
     return sortConfiguration;
   }
 
+  /**
+   * Creates the builder for a step which reads FHIR resources, maps them to OMOP CDM and writes
+   * them to OMOP CDM. Besides the step specific listener, all listeners which are common to these
+   * steps are registered. If the processing is asynchronous, the FHIR resources are parsed and
+   * mapped in a separate thread pool, while the step continues reading.
+   *
+   * @param stepName the name of the step
+   * @param stepListener the listener with the step specific activities before and after the step
+   * @param vocabularies the vocabulary dictionaries, which are needed by the step during bulk load
+   * @param reader the reader for the FHIR resources
+   * @param processor the processor which maps the FHIR resources to OMOP CDM
+   * @param writer the writer which writes the data to OMOP CDM
+   * @return builder for the step
+   */
+  private SimpleStepBuilder<FhirPsqlResource, ?> resourceStepBuilder(
+      String stepName,
+      StepExecutionListener stepListener,
+      Set<Dictionary> vocabularies,
+      ItemStreamReader<FhirPsqlResource> reader,
+      ItemProcessor<FhirPsqlResource, OmopModelWrapper> processor,
+      ItemWriter<OmopModelWrapper> writer) {
+    dictionaryLoadingService.declareVocabularies(stepName, vocabularies);
+    if (isAsyncProcessing()) {
+      return chunkStepBuilder(
+          stepName,
+          stepListener,
+          reader,
+          new AsyncResourceProcessor(processor, resourceProcessorExecutor()),
+          new AsyncOmopWriter(writer));
+    }
+    return chunkStepBuilder(stepName, stepListener, reader, processor, writer);
+  }
+
+  private <O> SimpleStepBuilder<FhirPsqlResource, O> chunkStepBuilder(
+      String stepName,
+      StepExecutionListener stepListener,
+      ItemStreamReader<FhirPsqlResource> reader,
+      ItemProcessor<FhirPsqlResource, O> processor,
+      ItemWriter<O> writer) {
+    var stepBuilder =
+        stepBuilderFactory
+            .get(stepName)
+            .listener(stepListener)
+            .listener(stepProgressListener)
+            .listener(unmappedCodeStepListener);
+    var chunkBuilder =
+        adaptiveChunkController.isEnabled()
+            ? stepBuilder.<FhirPsqlResource, O>chunk(
+                adaptiveChunkController.completionPolicy(stepName))
+            : stepBuilder.<FhirPsqlResource, O>chunk(batchChunkSize);
+    chunkBuilder.reader(reader).processor(processor).writer(writer);
+    // registered as chunk listener, the read, process and write callbacks are added on build
+    chunkBuilder.listener((ChunkListener) new FhirResourceProcessListener(stepName));
+    if (adaptiveChunkController.isEnabled()) {
+      chunkBuilder.listener((ChunkListener) adaptiveChunkController);
+    }
+    if (StringUtils.isNotBlank(distributedRole)) {
+      chunkBuilder.listener(partitionClaimGuard);
+    }
+    return chunkBuilder;
+  }
+
+  /**
+   * Lets a step process several chunks at the same time. If the steps are tuned at runtime, the
+   * number of concurrent chunks is chosen by the {@link AdaptiveChunkController} up to its maximum,
+   * otherwise it is fixed to batch.throttleLimit.
+   *
+   * @param stepBuilder the builder for the step
+   */
+  private void multiThreaded(SimpleStepBuilder<FhirPsqlResource, ?> stepBuilder) {
+    if (adaptiveChunkController.isEnabled()) {
+      stepBuilder
+          .throttleLimit(adaptiveChunkController.getMaxConcurrency())
+          .taskExecutor(adaptiveChunkController.taskExecutor(taskExecutor()));
+    } else {
+      stepBuilder.throttleLimit(throttleLimit).taskExecutor(taskExecutor());
+    }
+  }
+
+  /**
+   * Checks whether the FHIR resources are parsed and mapped asynchronously. This is only possible
+   * during bulk load, because the mappers delete existing data in OMOP CDM during incremental load,
+   * which has to happen in the transaction of the chunk.
+   *
+   * @return true, if the FHIR resources are processed asynchronously
+   */
+  private boolean isAsyncProcessing() {
+    return asyncProcessing.equals(Boolean.TRUE) && bulkload.equals(Boolean.TRUE);
+  }
+
+  /**
+   * Returns the thread pool, in which the FHIR resources are parsed and mapped, if the processing
+   * is asynchronous. The thread pool is shared by all steps. It is not exposed as bean, so that it
+   * is not wrapped by the instrumentation of executors.
+   *
+   * @return thread pool for parsing and mapping FHIR resources
+   */
+  private synchronized ExecutorService resourceProcessorExecutor() {
+    if (resourceProcessorExecutor == null) {
+      var threadFactory = new CustomizableThreadFactory("fhir-processor-");
+      threadFactory.setDaemon(true);
+      resourceProcessorExecutor =
+          Executors.newFixedThreadPool(Math.max(1, asyncProcessingThreads), threadFactory);
+    }
+    return resourceProcessorExecutor;
+  }
+
+  /** Stops the thread pool, in which the FHIR resources are parsed and mapped. */
+  @PreDestroy
+  public synchronized void shutdownResourceProcessorExecutor() {
+    if (resourceProcessorExecutor != null) {
+      resourceProcessorExecutor.shutdownNow();
+    }
+  }
+
   /**
    * Creates a new SimpleAsyncTaskExecutor to use when executing the tasklet.
    *
@@ -364,6 +750,7 @@ public class TaskConfiguration {
    * @param jdbcTemplate JdbcTemplate for the execution of SQL statements
    * @param singleStepFlow flow for bulk load with all FHIR resources or certain FHIR resource types
    * @param incrementalLoadFlow flow for incremental load
+   * @param referenceDataLoader loads the csv files bundled with the ETL job into OMOP CDM
    * @return job configuration for bulk load or incremental load
    */
   @Bean
@@ -374,14 +761,28 @@ public class TaskConfiguration {
       Step postProcessStep,
       FhirToOmopJobListener fhirToOmopJobListener,
       JobExecutionDecider decider,
-      @Qualifier("writerDataSource") DataSource outputDataSource) {
+      @Qualifier("writerDataSource") DataSource outputDataSource,
+      @Qualifier("readerJdbcTemplate") JdbcTemplate readerJdbcTemplate,
+      JobExplorer jobExplorer,
+      JobRepository jobRepository,
+      ReferenceDataLoader referenceDataLoader) {
     if (!fhirToOmopJobListener.checkGernerallInput()) {
       return null;
     }
-    return jobBuilderFactory
-        .get("FHIR2OMOP")
-        .listener(fhirToOmopJobListener)
-        .start(initOmopDb(jdbcTemplate, outputDataSource))
+    var builder = jobBuilderFactory.get("FHIR2OMOP").listener(fhirToOmopJobListener);
+    if (persistentJobRepository.booleanValue()) {
+      builder =
+          builder.incrementer(
+              new RestartOrNextRunIncrementer(jobExplorer, jobRepository, "FHIR2OMOP"));
+    }
+    var jobBuilder = builder.start(initOmopDb(jdbcTemplate, outputDataSource, referenceDataLoader));
+    if (contactLevelIndex.equals(Boolean.TRUE) && StringUtils.isBlank(fhirBaseUrl)) {
+      jobBuilder = jobBuilder.next(initFhirGatewayIndex(readerJdbcTemplate));
+    }
+    if (isPatientSharded()) {
+      jobBuilder = jobBuilder.next(initPatientShardIndex(readerJdbcTemplate));
+    }
+    return jobBuilder
         .next(decider)
         .on("BULKLOAD")
         .to(bulkloadFlow)
@@ -441,6 +842,15 @@ public class TaskConfiguration {
    *     MedicationStatement resources
    * @param writer the writer which writes the data to OMOP CDM
    * @param jdbcTemplate JdbcTemplate for the execution of SQL statements
+   * @param stepSpoolFhirResources step which distributes all FHIR resources into spool files
+   * @param partitionManager creates the partitioned steps of a distributed bulk load
+   * @param stepProcessMedications step which transforms FHIR Medication resources to OMOP CDM
+   * @param stepProcessMedicationAdministrations step which transforms FHIR MedicationAdministration
+   *     resources to OMOP CDM
+   * @param stepProcessMedicationStatements step which transforms FHIR MedicationStatement resources
+   *     to OMOP CDM
+   * @param patientShardDecision decider for the loop over the patient shards
+   * @param patientStepListener listener of the Patient step, which empties OMOP CDM for bulk load
    * @return processing logic for bulk load with all FHIR resource types
    */
   @Bean
@@ -454,21 +864,212 @@ public class TaskConfiguration {
       Step stepProcessImmunization,
       Step stepProcessConsent,
       Step stepProcessDiagnosticReport,
-      Flow medicationStepsFlow) {
-    return new FlowBuilder<SimpleFlow>("bulkload")
-        .start(stepProcessPatients)
-        .next(stepProcessEncounterInstitutionContact)
-        .next(stepEncounterDepartmentCase)
-        .next(medicationStepsFlow)
-        .next(stepProcessConditions)
-        .next(stepProcessObservations)
-        .next(stepProcessProcedures)
-        .next(stepProcessImmunization)
-        .next(stepProcessConsent)
-        .next(stepProcessDiagnosticReport)
+      Flow medicationStepsFlow,
+      Step stepSpoolFhirResources,
+      PartitionManager partitionManager,
+      Step stepProcessMedications,
+      Step stepProcessMedicationAdministrations,
+      Step stepProcessMedicationStatements,
+      PatientShardDecision patientShardDecision,
+      PatientStepListener patientStepListener) {
+    declareStepOrder(
+        stepProcessPatients,
+        stepProcessEncounterInstitutionContact,
+        stepEncounterDepartmentCase,
+        stepProcessMedications,
+        stepProcessMedicationStatements,
+        stepProcessMedicationAdministrations,
+        stepProcessConditions,
+        stepProcessObservations,
+        stepProcessProcedures,
+        stepProcessImmunization,
+        stepProcessConsent,
+        stepProcessDiagnosticReport);
+    if (isPatientSharded()) {
+      return patientShardedFlow(
+          List.of(
+              stepProcessPatients,
+              stepProcessEncounterInstitutionContact,
+              stepEncounterDepartmentCase),
+          List.of(
+              medicationDrugFlow(
+                  stepProcessMedicationAdministrations, stepProcessMedicationStatements),
+              stepFlow(stepProcessConditions),
+              stepFlow(stepProcessObservations),
+              stepFlow(stepProcessProcedures),
+              stepFlow(stepProcessImmunization),
+              stepFlow(stepProcessConsent),
+              stepFlow(stepProcessDiagnosticReport)),
+          stepProcessMedications,
+          patientShardDecision,
+          patientStepListener);
+    }
+    var prerequisiteSteps = new ArrayList<Step>();
+    if (isFanOut()) {
+      prerequisiteSteps.add(stepSpoolFhirResources);
+    }
+    prerequisiteSteps.add(stepProcessPatients);
+    prerequisiteSteps.add(stepProcessEncounterInstitutionContact);
+    prerequisiteSteps.add(stepEncounterDepartmentCase);
+    return resourceFlow(
+        "bulkload",
+        prerequisiteSteps,
+        List.of(
+            medicationStepsFlow,
+            stepFlow(partitioned(stepProcessConditions, "Condition", partitionManager)),
+            stepFlow(partitioned(stepProcessObservations, "Observation", partitionManager)),
+            stepFlow(partitioned(stepProcessProcedures, "Procedure", partitionManager)),
+            stepFlow(partitioned(stepProcessImmunization, "Immunization", partitionManager)),
+            stepFlow(partitioned(stepProcessConsent, "Consent", partitionManager)),
+            stepFlow(
+                partitioned(stepProcessDiagnosticReport, "DiagnosticReport", partitionManager))));
+  }
+
+  /**
+   * Declares the order of the steps of the full bulk load, so that the dictionaries of the next
+   * step are loaded in the background while a step is running. With patient shards, Medication
+   * resources are processed before the first shard. MedicationStatement resources are only
+   * processed, if this is enabled.
+   *
+   * @param stepProcessPatients step which transforms FHIR Patient resources to OMOP CDM
+   * @param stepProcessEncounterInstitutionContact step which transforms FHIR Encounter resources
+   *     on institution contact level to OMOP CDM
+   * @param stepEncounterDepartmentCase step which transforms FHIR Encounter resources on
+   *     department case level to OMOP CDM
+   * @param stepProcessMedications step which transforms FHIR Medication resources to OMOP CDM
+   * @param stepProcessMedicationStatements step which transforms FHIR MedicationStatement resources
+   *     to OMOP CDM
+   * @param otherSteps the steps of the other FHIR resource types in their processing order
+   */
+  private void declareStepOrder(
+      Step stepProcessPatients,
+      Step stepProcessEncounterInstitutionContact,
+      Step stepEncounterDepartmentCase,
+      Step stepProcessMedications,
+      Step stepProcessMedicationStatements,
+      Step... otherSteps) {
+    var steps = new ArrayList<Step>();
+    if (isPatientSharded()) {
+      steps.add(stepProcessMedications);
+    }
+    steps.add(stepProcessPatients);
+    steps.add(stepProcessEncounterInstitutionContact);
+    steps.add(stepEncounterDepartmentCase);
+    if (!isPatientSharded()) {
+      steps.add(stepProcessMedications);
+    }
+    if (writeMedicationStatement.booleanValue()) {
+      steps.add(stepProcessMedicationStatements);
+    }
+    steps.addAll(List.of(otherSteps));
+    dictionaryLoadingService.declareStepOrder(steps.stream().map(Step::getName).toList());
+  }
+
+  /**
+   * Builds the processing logic for all FHIR resource types. The steps for persons and visits are
+   * prerequisites of all other steps and are executed one after the other. The flows for the other
+   * FHIR resource types do not depend on each other. They are executed at the same time, if
+   * parallel steps are enabled, otherwise in the given order.
+   *
+   * @param name the name of the flow
+   * @param prerequisiteSteps the steps for persons and visits in their processing order
+   * @param independentFlows the flows which only depend on the prerequisite steps
+   * @return processing logic for all FHIR resource types
+   */
+  private Flow resourceFlow(
+      String name, List<Step> prerequisiteSteps, List<Flow> independentFlows) {
+    var builder = new FlowBuilder<SimpleFlow>(name).start(prerequisiteSteps.get(0));
+    prerequisiteSteps.stream().skip(1).forEach(builder::next);
+    if (parallelSteps.equals(Boolean.TRUE)) {
+      var stepExecutor = new SimpleAsyncTaskExecutor("fhir-to-omop-" + name + "-");
+      stepExecutor.setConcurrencyLimit(maxConcurrentSteps);
+      builder.next(
+          new FlowBuilder<SimpleFlow>(name + "IndependentSteps")
+              .split(stepExecutor)
+              .add(independentFlows.toArray(Flow[]::new))
+              .build());
+    } else {
+      independentFlows.forEach(builder::next);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Builds the processing logic of a patient-sharded bulk load. OMOP CDM is emptied once at the
+   * beginning, instead of by the Patient step of the first shard. Medication resources are not
+   * assigned to patients and are processed once afterwards. Then the steps for persons and visits
+   * and the steps for the other FHIR resource types are executed for one patient shard after the
+   * other.
+   *
+   * @param prerequisiteSteps the steps for persons and visits in their processing order
+   * @param independentFlows the flows which only depend on the prerequisite steps
+   * @param stepProcessMedications step which transforms FHIR Medication resources to OMOP CDM
+   * @param patientShardDecision decider for the loop over the patient shards
+   * @param patientStepListener listener of the Patient step, which empties OMOP CDM for bulk load
+   * @return processing logic of a patient-sharded bulk load
+   */
+  private Flow patientShardedFlow(
+      List<Step> prerequisiteSteps,
+      List<Flow> independentFlows,
+      Step stepProcessMedications,
+      PatientShardDecision patientShardDecision,
+      PatientStepListener patientStepListener) {
+    var shardFlow = resourceFlow("patientShard", prerequisiteSteps, independentFlows);
+    var stepPrepareOmopDb =
+        stepBuilderFactory
+            .get("stepPreparePatientShards")
+            .tasklet(
+                (contribution, chunkContext) -> {
+                  log.info("========= Preparing OMOP DB for patient-sharded BulkLoad =========");
+                  patientStepListener.truncateDb();
+                  return RepeatStatus.FINISHED;
+                })
+            .build();
+    return new FlowBuilder<SimpleFlow>("patientShards")
+        .start(stepPrepareOmopDb)
+        .next(stepProcessMedications)
+        .next(patientShardDecision)
+        .on(PatientShardDecision.NEXT_SHARD)
+        .to(shardFlow)
+        .from(shardFlow)
+        .on("COMPLETED")
+        .to(patientShardDecision)
+        .from(shardFlow)
+        .on("*")
+        .fail()
+        .from(patientShardDecision)
+        .on("COMPLETED")
+        .end()
         .build();
   }
 
+  /**
+   * Defines the processing logic for MedicationAdministration and MedicationStatement resources
+   * without Medication resources, which have been processed before.
+   *
+   * @param stepProcessMedicationAdministrations step which transforms FHIR MedicationAdministration
+   *     resources to OMOP CDM
+   * @param stepProcessMedicationStatements step which transforms FHIR MedicationStatement resources
+   *     to OMOP CDM
+   * @return processing logic for MedicationAdministration and MedicationStatement resources
+   */
+  private Flow medicationDrugFlow(
+      Step stepProcessMedicationAdministrations, Step stepProcessMedicationStatements) {
+    return new FlowBuilder<SimpleFlow>("medicationDrugSteps")
+        .start(medicationStepsDecider())
+        .on(FHIR_RESOURCE_MEDICATION_STATEMENT)
+        .to(stepProcessMedicationStatements)
+        .next(stepProcessMedicationAdministrations)
+        .from(medicationStepsDecider())
+        .on("SKIPPED")
+        .to(stepProcessMedicationAdministrations)
+        .build();
+  }
+
+  private Flow stepFlow(Step step) {
+    return new FlowBuilder<SimpleFlow>(step.getName() + "Flow").start(step).build();
+  }
+
   /**
    * Defines the processing logic for MedicationAdministration and MedicationStatement resources
    * depending on the user's decision.
@@ -591,18 +1192,20 @@ public class TaskConfiguration {
       Step stepProcessConsent,
       Step stepProcessDiagnosticReport,
       Flow medicationStepsFlow) {
-    return new FlowBuilder<SimpleFlow>("incrementalLoad")
-        .start(stepProcessPatients)
-        .next(stepProcessEncounterInstitutionContact)
-        .next(stepEncounterDepartmentCase)
-        .next(medicationStepsFlow)
-        .next(stepProcessConditions)
-        .next(stepProcessObservations)
-        .next(stepProcessProcedures)
-        .next(stepProcessImmunization)
-        .next(stepProcessConsent)
-        .next(stepProcessDiagnosticReport)
-        .build();
+    return resourceFlow(
+        "incrementalLoad",
+        List.of(
+            stepProcessPatients,
+            stepProcessEncounterInstitutionContact,
+            stepEncounterDepartmentCase),
+        List.of(
+            medicationStepsFlow,
+            stepFlow(stepProcessConditions),
+            stepFlow(stepProcessObservations),
+            stepFlow(stepProcessProcedures),
+            stepFlow(stepProcessImmunization),
+            stepFlow(stepProcessConsent),
+            stepFlow(stepProcessDiagnosticReport)));
   }
 
   /**
@@ -610,13 +1213,83 @@ public class TaskConfiguration {
    * changing existing table definitions.
    *
    * @param jdbcTemplate JdbcTemplate for the execution of SQL statements
+   * @param referenceDataLoader loads the csv files bundled with the ETL job into OMOP CDM
    * @return step which initializes OMOP CDM
    */
   @Bean
-  public Step initOmopDb(JdbcTemplate jdbcTemplate, DataSource outputDataSource) {
+  public Step initOmopDb(
+      JdbcTemplate jdbcTemplate,
+      DataSource outputDataSource,
+      ReferenceDataLoader referenceDataLoader) {
     return stepBuilderFactory
         .get("initJobInfo")
-        .tasklet(new InitOmopDb(jdbcTemplate, version, bulkload, outputDataSource, repositories))
+        .tasklet(
+            new InitOmopDb(
+                jdbcTemplate,
+                version,
+                bulkload,
+                outputDataSource,
+                referenceDataLoader,
+                indexLifecycle(jdbcTemplate)))
+        .build();
+  }
+
+  /**
+   * Creates the lifecycle of the indexes of OMOP CDM tables for bulk load, if enabled. UNLOGGED
+   * tables cannot be combined with the persistent job repository: PostgreSQL empties UNLOGGED
+   * tables after a crash, while the job repository still contains the committed chunks, so a
+   * restarted bulk load would continue without the records written before.
+   *
+   * @param jdbcTemplate JdbcTemplate for the execution of SQL statements in OMOP CDM
+   * @return lifecycle of the indexes or null if the indexes are kept during bulk load
+   */
+  private OmopIndexLifecycle indexLifecycle(JdbcTemplate jdbcTemplate) {
+    if (!bulkLoadIndexes.booleanValue()) {
+      return null;
+    }
+    if (bulkload.booleanValue()
+        && bulkLoadUnlogged.booleanValue()
+        && persistentJobRepository.booleanValue()) {
+      throw new IllegalStateException(
+          "app.bulkLoadIndexes.unlogged cannot be combined with the persistent job repository");
+    }
+    return new OmopIndexLifecycle(
+        jdbcTemplate,
+        bulkLoadIndexTables,
+        bulkLoadUnlogged.booleanValue(),
+        persistentJobRepository.booleanValue(),
+        bulkLoadIndexThreads);
+  }
+
+  /**
+   * Defines the step to create the index for the contact level of Encounter resources in FHIR
+   * Gateway.
+   *
+   * @param readerJdbcTemplate JdbcTemplate for the execution of SQL statements in FHIR Gateway
+   * @return step which creates the index in FHIR Gateway
+   */
+  @Bean
+  public Step initFhirGatewayIndex(
+      @Qualifier("readerJdbcTemplate") JdbcTemplate readerJdbcTemplate) {
+    return stepBuilderFactory
+        .get("initFhirGatewayIndex")
+        .tasklet(new InitFhirGatewayIndex(readerJdbcTemplate, inputTableName))
+        .build();
+  }
+
+  /**
+   * Defines the step to create the index for the patient shards of the FHIR resources in FHIR
+   * Gateway.
+   *
+   * @param readerJdbcTemplate JdbcTemplate for the execution of SQL statements in FHIR Gateway
+   * @return step which creates the index in FHIR Gateway
+   */
+  @Bean
+  public Step initPatientShardIndex(
+      @Qualifier("readerJdbcTemplate") JdbcTemplate readerJdbcTemplate) {
+    return stepBuilderFactory
+        .get("initPatientShardIndex")
+        .tasklet(new InitPatientShardIndex(readerJdbcTemplate, inputTableName, patientShards))
         .build();
   }
 
@@ -674,9 +1347,39 @@ public class TaskConfiguration {
     fhirServerItemReader.setEndDate(endDateStr);
     fhirServerItemReader.setFhirParser(parser);
     fhirServerItemReader.setStepName(stepName);
+    fhirServerItemReader.setCountTotal(progressEnabled.booleanValue());
     return fhirServerItemReader;
   }
 
+  /**
+   * Create FHIR Server REST API paging reader for a step, which is multi-threaded during bulk load.
+   * The saved page link of the reader does not tell which FHIR resources have been committed, if
+   * several chunks are processed at the same time. Therefore, the reader is made restartable at the
+   * last committed chunk in this case, and the saved page link is only used in single-threaded
+   * steps.
+   *
+   * @param client FHIR Server Client
+   * @param parser parser which converts between the HAPI FHIR model/structure objects and their
+   *     respective String wire format (JSON)
+   * @param resourceTypeName Enumeration name of FHIR resource
+   * @param stepName the name of the step
+   * @return a new FHIR Server REST API paging reader.
+   */
+  private ItemStreamReader<FhirPsqlResource> multiThreadedFhirServerItemReader(
+      IGenericClient client, IParser parser, String resourceTypeName, String stepName) {
+    var reader = fhirServerItemReader(client, parser, resourceTypeName, stepName);
+    if (!bulkload.booleanValue() || !persistentJobRepository.booleanValue()) {
+      return reader;
+    }
+    try {
+      // the reader is not initialized by the application context, if it is wrapped
+      reader.afterPropertiesSet();
+    } catch (Exception e) {
+      throw new IllegalStateException("Unable to initialize the reader for " + resourceTypeName, e);
+    }
+    return restartable(reader);
+  }
+
   /**
    * Defines the step for processing FHIR Patient resources. This step loads and processes Patient
    * resources from FHIR Gateway and writes them to OMOP CDM.
@@ -693,17 +1396,19 @@ public class TaskConfiguration {
       ItemWriter<OmopModelWrapper> writer) {
 
     var stepProcessPatientsBuilder =
-        stepBuilderFactory
-            .get("stepProcessPatients")
-            .listener(listener)
-            .<FhirPsqlResource, OmopModelWrapper>chunk(batchChunkSize)
-            .reader(readerPsqlPatient)
-            .processor(patientProcessor)
-            .listener(new FhirResourceProcessListener())
-            .writer(writer);
+        resourceStepBuilder(
+            "stepProcessPatients",
+            listener,
+            EnumSet.of(
+                Dictionary.SOURCE_TO_CONCEPT,
+                Dictionary.CONCEPT_SNOMED,
+                Dictionary.SNOMED_RACE),
+            readerPsqlPatient,
+            patientProcessor,
+            writer);
     if (StringUtils.isBlank(fhirBaseUrl)) {
 
-      stepProcessPatientsBuilder.throttleLimit(throttleLimit).taskExecutor(taskExecutor());
+      multiThreaded(stepProcessPatientsBuilder);
     }
     return stepProcessPatientsBuilder.build();
   }
@@ -740,9 +1445,9 @@ public class TaskConfiguration {
     var resourceType = "Encounter";
     log.info(FETCH_RESOURCES_LOG, resourceType);
     if (StringUtils.isBlank(fhirBaseUrl)) {
-      return encounterReader(dataSource, "einrichtungskontakt");
+      return encounterReader(dataSource, CONTACT_LEVEL_INSTITUTION);
     }
-    return fhirServerItemReader(
+    return multiThreadedFhirServerItemReader(
         client,
         fhirParser,
         ResourceType.ENCOUNTER.getDisplay(),
@@ -766,17 +1471,16 @@ public class TaskConfiguration {
       ItemStreamReader<FhirPsqlResource> encounterMainReader,
       ItemWriter<OmopModelWrapper> writer) {
     var encounterMainStepBuilder =
-        stepBuilderFactory
-            .get("stepProcessEncounterInstitutionContact")
-            .listener(encounterMainStepListener)
-            .<FhirPsqlResource, OmopModelWrapper>chunk(batchChunkSize)
-            .reader(encounterMainReader)
-            .processor(encounterProcessor)
-            .listener(new FhirResourceProcessListener())
-            .writer(writer);
+        resourceStepBuilder(
+            "stepProcessEncounterInstitutionContact",
+            encounterMainStepListener,
+            EnumSet.of(Dictionary.SOURCE_TO_CONCEPT),
+            encounterMainReader,
+            encounterProcessor,
+            writer);
 
     if (bulkload.equals(Boolean.TRUE)) {
-      encounterMainStepBuilder.throttleLimit(throttleLimit).taskExecutor(taskExecutor());
+      multiThreaded(encounterMainStepBuilder);
     }
 
     return encounterMainStepBuilder.build();
@@ -817,9 +1521,9 @@ public class TaskConfiguration {
     log.info(FETCH_RESOURCES_LOG, "Department Cases");
 
     if (StringUtils.isBlank(fhirBaseUrl)) {
-      return encounterReader(dataSource, "abteilungskontakt");
+      return encounterReader(dataSource, CONTACT_LEVEL_DEPARTMENT);
     }
-    return fhirServerItemReader(
+    return multiThreadedFhirServerItemReader(
         client, fhirParser, ResourceType.ENCOUNTER.getDisplay(), STEP_ENCOUNTER_DEPARTMENT_KONTAKT);
   }
 
@@ -839,17 +1543,16 @@ public class TaskConfiguration {
       ItemWriter<OmopModelWrapper> writer,
       EncounterDepartmentCaseStepListener encounterDepartmentCaseStepListener) {
     var encounterSubStepBuilder =
-        stepBuilderFactory
-            .get("stepProcessEncounterDepartmentCase")
-            .listener(encounterDepartmentCaseStepListener)
-            .<FhirPsqlResource, OmopModelWrapper>chunk(batchChunkSize)
-            .reader(encounterSubReader)
-            .processor(encounterDepartmentCaseProcessor)
-            .listener(new FhirResourceProcessListener())
-            .writer(writer);
+        resourceStepBuilder(
+            "stepProcessEncounterDepartmentCase",
+            encounterDepartmentCaseStepListener,
+            EnumSet.of(Dictionary.SOURCE_TO_CONCEPT, Dictionary.CARE_SITE),
+            encounterSubReader,
+            encounterDepartmentCaseProcessor,
+            writer);
 
     if (bulkload.equals(Boolean.TRUE)) {
-      encounterSubStepBuilder.throttleLimit(throttleLimit).taskExecutor(taskExecutor());
+      multiThreaded(encounterSubStepBuilder);
     }
 
     return encounterSubStepBuilder.build();
@@ -892,7 +1595,8 @@ public class TaskConfiguration {
     if (StringUtils.isBlank(fhirBaseUrl)) {
       return createResourceReader(resourceType, dataSource);
     }
-    return fhirServerItemReader(client, fhirParser, ResourceType.CONDITION.getDisplay(), "");
+    return multiThreadedFhirServerItemReader(
+        client, fhirParser, ResourceType.CONDITION.getDisplay(), "");
   }
 
   /**
@@ -913,17 +1617,21 @@ public class TaskConfiguration {
       @Qualifier("writerDataSource") final DataSource dataSource) {
 
     var conditionStepBuilder =
-        stepBuilderFactory
-            .get("stepProcessConditions")
-            .listener(conditionStepListener)
-            .<FhirPsqlResource, OmopModelWrapper>chunk(batchChunkSize)
-            .reader(readerPsqlConditions)
-            .processor(conditionProcessor)
-            .listener(new FhirResourceProcessListener())
-            .writer(writer);
+        resourceStepBuilder(
+            "stepProcessConditions",
+            conditionStepListener,
+            EnumSet.of(
+                Dictionary.SOURCE_TO_CONCEPT,
+                Dictionary.ICD_SNOMED,
+                Dictionary.ORPHA_SNOMED,
+                Dictionary.CONCEPT_SNOMED,
+                Dictionary.CONCEPT_ICD10GM),
+            readerPsqlConditions,
+            conditionProcessor,
+            writer);
 
     if (bulkload.equals(Boolean.TRUE)) {
-      conditionStepBuilder.throttleLimit(throttleLimit).taskExecutor(taskExecutor());
+      multiThreaded(conditionStepBuilder);
     }
 
     return conditionStepBuilder.build();
@@ -964,7 +1672,8 @@ public class TaskConfiguration {
     if (StringUtils.isBlank(fhirBaseUrl)) {
       return createResourceReader(resourceType, dataSource);
     }
-    return fhirServerItemReader(client, fhirParser, ResourceType.OBSERVATION.getDisplay(), "");
+    return multiThreadedFhirServerItemReader(
+        client, fhirParser, ResourceType.OBSERVATION.getDisplay(), "");
   }
 
   /**
@@ -985,17 +1694,21 @@ public class TaskConfiguration {
       @Qualifier("writerDataSource") final DataSource dataSource) {
 
     var observationStepBuilder =
-        stepBuilderFactory
-            .get("stepProcessObservations")
-            .listener(observationStepListener)
-            .<FhirPsqlResource, OmopModelWrapper>chunk(batchChunkSize)
-            .reader(readerPsqlObservations)
-            .processor(observationProcessor)
-            .listener(new FhirResourceProcessListener())
-            .writer(writer);
+        resourceStepBuilder(
+            "stepProcessObservations",
+            observationStepListener,
+            EnumSet.of(
+                Dictionary.SOURCE_TO_CONCEPT,
+                Dictionary.LOINC_STANDARD,
+                Dictionary.CONCEPT_LOINC,
+                Dictionary.CONCEPT_UCUM,
+                Dictionary.CONCEPT_SNOMED),
+            readerPsqlObservations,
+            observationProcessor,
+            writer);
 
     if (bulkload.equals(Boolean.TRUE)) {
-      observationStepBuilder.throttleLimit(throttleLimit).taskExecutor(taskExecutor());
+      multiThreaded(observationStepBuilder);
     }
 
     return observationStepBuilder.build();
@@ -1037,7 +1750,8 @@ public class TaskConfiguration {
     if (StringUtils.isBlank(fhirBaseUrl)) {
       return createResourceReader(resourceType, dataSource);
     }
-    return fhirServerItemReader(client, fhirParser, ResourceType.PROCEDURE.getDisplay(), "");
+    return multiThreadedFhirServerItemReader(
+        client, fhirParser, ResourceType.PROCEDURE.getDisplay(), "");
   }
 
   /**
@@ -1058,17 +1772,20 @@ public class TaskConfiguration {
       @Qualifier("writerDataSource") final DataSource dataSource) {
 
     var procedureStepBuilder =
-        stepBuilderFactory
-            .get("stepProcessProcedures")
-            .listener(procedureStepListener)
-            .<FhirPsqlResource, OmopModelWrapper>chunk(batchChunkSize)
-            .reader(readerPsqlProcedures)
-            .processor(procedureProcessor)
-            .listener(new FhirResourceProcessListener())
-            .writer(writer);
+        resourceStepBuilder(
+            "stepProcessProcedures",
+            procedureStepListener,
+            EnumSet.of(
+                Dictionary.SOURCE_TO_CONCEPT,
+                Dictionary.OPS_STANDARD,
+                Dictionary.CONCEPT_OPS,
+                Dictionary.CONCEPT_SNOMED),
+            readerPsqlProcedures,
+            procedureProcessor,
+            writer);
 
     if (bulkload.equals(Boolean.TRUE)) {
-      procedureStepBuilder.throttleLimit(throttleLimit).taskExecutor(taskExecutor());
+      multiThreaded(procedureStepBuilder);
     }
 
     return procedureStepBuilder.build();
@@ -1110,7 +1827,8 @@ public class TaskConfiguration {
     if (StringUtils.isBlank(fhirBaseUrl)) {
       return createResourceReader(resourceType, dataSource);
     }
-    return fhirServerItemReader(client, fhirParser, ResourceType.MEDICATION.getDisplay(), "");
+    return multiThreadedFhirServerItemReader(
+        client, fhirParser, ResourceType.MEDICATION.getDisplay(), "");
   }
 
   /**
@@ -1130,17 +1848,16 @@ public class TaskConfiguration {
       @Qualifier("writerDataSource") final DataSource dataSource) {
 
     var medicationStepBuilder =
-        stepBuilderFactory
-            .get("stepProcessMedications")
-            .listener(medicationStepListener)
-            .<FhirPsqlResource, OmopModelWrapper>chunk(batchChunkSize)
-            .reader(readerPsqlMedications)
-            .processor(medicationProcessor)
-            .listener(new FhirResourceProcessListener())
-            .writer(writer);
+        resourceStepBuilder(
+            "stepProcessMedications",
+            medicationStepListener,
+            EnumSet.noneOf(Dictionary.class),
+            readerPsqlMedications,
+            medicationProcessor,
+            writer);
 
     if (bulkload.equals(Boolean.TRUE)) {
-      medicationStepBuilder.throttleLimit(throttleLimit).taskExecutor(taskExecutor());
+      multiThreaded(medicationStepBuilder);
     }
 
     return medicationStepBuilder.build();
@@ -1182,7 +1899,7 @@ public class TaskConfiguration {
     if (StringUtils.isBlank(fhirBaseUrl)) {
       return createResourceReader(resourceType, dataSource);
     }
-    return fhirServerItemReader(
+    return multiThreadedFhirServerItemReader(
         client, fhirParser, ResourceType.MEDICATIONADMINISTRATION.getDisplay(), "");
   }
 
@@ -1205,17 +1922,20 @@ public class TaskConfiguration {
       @Qualifier("writerDataSource") final DataSource dataSource) {
 
     var medicationAdministrationStepBuilder =
-        stepBuilderFactory
-            .get("stepProcessMedicationAdministrations")
-            .listener(medicationAdministrationStepListener)
-            .<FhirPsqlResource, OmopModelWrapper>chunk(batchChunkSize)
-            .reader(readerPsqlMedicationAdministrations)
-            .processor(medicationAdministrationProcessor)
-            .listener(new FhirResourceProcessListener())
-            .writer(writer);
+        resourceStepBuilder(
+            "stepProcessMedicationAdministrations",
+            medicationAdministrationStepListener,
+            EnumSet.of(
+                Dictionary.CONCEPT_SNOMED,
+                Dictionary.CONCEPT_ATC,
+                Dictionary.CONCEPT_UCUM,
+                Dictionary.ATC_STANDARD),
+            readerPsqlMedicationAdministrations,
+            medicationAdministrationProcessor,
+            writer);
 
     if (bulkload.equals(Boolean.TRUE)) {
-      medicationAdministrationStepBuilder.throttleLimit(throttleLimit).taskExecutor(taskExecutor());
+      multiThreaded(medicationAdministrationStepBuilder);
     }
 
     return medicationAdministrationStepBuilder.build();
@@ -1259,7 +1979,7 @@ public class TaskConfiguration {
     if (StringUtils.isBlank(fhirBaseUrl)) {
       return createResourceReader(resourceType, dataSource);
     }
-    return fhirServerItemReader(
+    return multiThreadedFhirServerItemReader(
         client, fhirParser, ResourceType.MEDICATIONSTATEMENT.getDisplay(), "");
   }
 
@@ -1281,17 +2001,20 @@ public class TaskConfiguration {
       ItemWriter<OmopModelWrapper> writer) {
 
     var medicationStatementStepBuilder =
-        stepBuilderFactory
-            .get("stepProcessMedicationStatements")
-            .listener(medicationStatementStepListener)
-            .<FhirPsqlResource, OmopModelWrapper>chunk(batchChunkSize)
-            .reader(readerPsqlMedicationStatements)
-            .processor(medicationStatementProcessor)
-            .listener(new FhirResourceProcessListener())
-            .writer(writer);
+        resourceStepBuilder(
+            "stepProcessMedicationStatements",
+            medicationStatementStepListener,
+            EnumSet.of(
+                Dictionary.CONCEPT_SNOMED,
+                Dictionary.CONCEPT_ATC,
+                Dictionary.CONCEPT_UCUM,
+                Dictionary.ATC_STANDARD),
+            readerPsqlMedicationStatements,
+            medicationStatementProcessor,
+            writer);
 
     if (bulkload.equals(Boolean.TRUE)) {
-      medicationStatementStepBuilder.throttleLimit(throttleLimit).taskExecutor(taskExecutor());
+      multiThreaded(medicationStatementStepBuilder);
     }
     return medicationStatementStepBuilder.build();
   }
@@ -1327,7 +2050,8 @@ public class TaskConfiguration {
     if (StringUtils.isBlank(fhirBaseUrl)) {
       return createResourceReader(resourceType, dataSource);
     }
-    return fhirServerItemReader(client, fhirParser, ResourceType.IMMUNIZATION.getDisplay(), "");
+    return multiThreadedFhirServerItemReader(
+        client, fhirParser, ResourceType.IMMUNIZATION.getDisplay(), "");
   }
 
   @Bean
@@ -1338,17 +2062,20 @@ public class TaskConfiguration {
       ItemWriter<OmopModelWrapper> writer) {
 
     var immunizationStepBuilder =
-        stepBuilderFactory
-            .get("stepProcessImmunizations")
-            .listener(immunizationStepListener)
-            .<FhirPsqlResource, OmopModelWrapper>chunk(batchChunkSize)
-            .reader(readerPsqlImmunization)
-            .processor(immunizationStatusProcessor)
-            .listener(new FhirResourceProcessListener())
-            .writer(writer);
+        resourceStepBuilder(
+            "stepProcessImmunizations",
+            immunizationStepListener,
+            EnumSet.of(
+                Dictionary.SNOMED_VACCINE,
+                Dictionary.CONCEPT_ATC,
+                Dictionary.CONCEPT_SNOMED,
+                Dictionary.ATC_STANDARD),
+            readerPsqlImmunization,
+            immunizationStatusProcessor,
+            writer);
 
     if (bulkload.equals(Boolean.TRUE)) {
-      immunizationStepBuilder.throttleLimit(throttleLimit).taskExecutor(taskExecutor());
+      multiThreaded(immunizationStepBuilder);
     }
     return immunizationStepBuilder.build();
   }
@@ -1372,7 +2099,8 @@ public class TaskConfiguration {
     if (StringUtils.isBlank(fhirBaseUrl)) {
       return createResourceReader(resourceType, dataSource);
     }
-    return fhirServerItemReader(client, fhirParser, ResourceType.CONSENT.getDisplay(), "");
+    return multiThreadedFhirServerItemReader(
+        client, fhirParser, ResourceType.CONSENT.getDisplay(), "");
   }
 
   @Bean
@@ -1383,16 +2111,15 @@ public class TaskConfiguration {
       ItemWriter<OmopModelWrapper> writer) {
 
     var consentStepBuilder =
-        stepBuilderFactory
-            .get("stepProcessConsent")
-            .listener(consentStepListener)
-            .<FhirPsqlResource, OmopModelWrapper>chunk(batchChunkSize)
-            .reader(readerPsqlConsent)
-            .processor(consentProcessor)
-            .listener(new FhirResourceProcessListener())
-            .writer(writer);
+        resourceStepBuilder(
+            "stepProcessConsent",
+            consentStepListener,
+            EnumSet.noneOf(Dictionary.class),
+            readerPsqlConsent,
+            consentProcessor,
+            writer);
     if (bulkload.equals(Boolean.TRUE)) {
-      consentStepBuilder.throttleLimit(throttleLimit).taskExecutor(taskExecutor());
+      multiThreaded(consentStepBuilder);
     }
     return consentStepBuilder.build();
   }
@@ -1415,7 +2142,8 @@ public class TaskConfiguration {
     if (StringUtils.isBlank(fhirBaseUrl)) {
       return createResourceReader(resourceType, dataSource);
     }
-    return fhirServerItemReader(client, fhirParser, ResourceType.DIAGNOSTICREPORT.getDisplay(), "");
+    return multiThreadedFhirServerItemReader(
+        client, fhirParser, ResourceType.DIAGNOSTICREPORT.getDisplay(), "");
   }
 
   @Bean
@@ -1426,17 +2154,19 @@ public class TaskConfiguration {
       ItemWriter<OmopModelWrapper> writer) {
 
     var diagnosticReportStepBuilder =
-        stepBuilderFactory
-            .get("stepProcessDiagnosticReport")
-            .listener(diagnosticReportStepListener)
-            .<FhirPsqlResource, OmopModelWrapper>chunk(batchChunkSize)
-            .reader(readerPsqlDiagnosticReport)
-            .processor(diagnosticReportProcessor)
-            .listener(new FhirResourceProcessListener())
-            .writer(writer);
+        resourceStepBuilder(
+            "stepProcessDiagnosticReport",
+            diagnosticReportStepListener,
+            EnumSet.of(
+                Dictionary.SOURCE_TO_CONCEPT,
+                Dictionary.CONCEPT_SNOMED,
+                Dictionary.CONCEPT_LOINC),
+            readerPsqlDiagnosticReport,
+            diagnosticReportProcessor,
+            writer);
 
     if (bulkload.equals(Boolean.TRUE)) {
-      diagnosticReportStepBuilder.throttleLimit(throttleLimit).taskExecutor(taskExecutor());
+      multiThreaded(diagnosticReportStepBuilder);
     }
     return diagnosticReportStepBuilder.build();
   }
@@ -1455,8 +2185,9 @@ public class TaskConfiguration {
    * @return task for post processing
    */
   @Bean
-  public PostProcessTask postProsessTask(DataSource dataSource) {
-    return new PostProcessTask(dataSource, startSingleStep, bulkload);
+  public PostProcessTask postProsessTask(@Qualifier("writerDataSource") DataSource dataSource) {
+    return new PostProcessTask(
+        dataSource, startSingleStep, bulkload, indexLifecycle(new JdbcTemplate(dataSource)));
   }
 
   /**
@@ -1470,4 +2201,41 @@ public class TaskConfiguration {
   public Step postProcessStep(@Qualifier("writerDataSource") final DataSource dataSource) {
     return stepBuilderFactory.get("stepPostProcess").tasklet(postProsessTask(dataSource)).build();
   }
+
+  /**
+   * Defines the step which reads all FHIR resources from FHIR Gateway in a single pass and
+   * distributes them into the spool files of the steps for the single FHIR resource types.
+   *
+   * @param dataSource the data source to query against
+   * @return step for distributing the FHIR resources into spool files
+   */
+  @Bean
+  public Step stepSpoolFhirResources(@Qualifier("readerDataSource") final DataSource dataSource) {
+    var keys = new HashSet<String>();
+    keys.add(FhirResourceSpool.key("Patient", null));
+    keys.add(FhirResourceSpool.key("Encounter", CONTACT_LEVEL_INSTITUTION));
+    keys.add(FhirResourceSpool.key("Encounter", CONTACT_LEVEL_DEPARTMENT));
+    keys.add(FhirResourceSpool.key("Medication", null));
+    keys.add(FhirResourceSpool.key("MedicationAdministration", null));
+    if (writeMedicationStatement.equals(Boolean.TRUE)) {
+      keys.add(FhirResourceSpool.key("MedicationStatement", null));
+    }
+    keys.add(FhirResourceSpool.key("Condition", null));
+    keys.add(FhirResourceSpool.key("Observation", null));
+    keys.add(FhirResourceSpool.key("Procedure", null));
+    keys.add(FhirResourceSpool.key("Immunization", null));
+    keys.add(FhirResourceSpool.key("Consent", null));
+    keys.add(FhirResourceSpool.key("DiagnosticReport", null));
+
+    var task =
+        new FhirResourceSpoolTask(
+            dataSource,
+            fhirResourceSpool(),
+            inputTableName,
+            "WHERE is_deleted = false" + setDateRange(),
+            InitFhirGatewayIndex.contactLevelExpression(contactLevelIndex.booleanValue()),
+            keys,
+            pagingSize);
+    return stepBuilderFactory.get("stepSpoolFhirResources").tasklet(task).build();
+  }
 }
@@ -0,0 +1,314 @@
+package org.miracum.etl.fhirtoomop;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.miracum.etl.fhirtoomop.mapper.helpers.ConceptDictionary;
+import org.miracum.etl.fhirtoomop.model.omop.Concept;
+
+/**
+ * The VocabularySnapshot class provides the concepts of one OMOP CDM vocabulary from a read-only,
+ * memory-mapped file. The concepts are stored off-heap and are decoded only when they are looked
+ * up.
+ *
+ * <p>The file consists of a header, the sorted concept codes with their offsets, fixed-width
+ * concept records and a pool of the concept names, domains and concept classes:
+ *
+ * <pre>
+ * header:   magic, format version, key count, record count, string count, section offsets
+ * keys:     (key count + 1) offsets into the key bytes, (key count + 1) first record indices
+ * records:  concept_id, name, domain, concept class, valid start and valid end as epoch day
+ * strings:  (string count + 1) offsets into the string bytes
+ * </pre>
+ *
+ * The first two strings of the pool contain the vocabulary_id and the fingerprint of the vocabulary
+ * version the snapshot has been built from.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+public final class VocabularySnapshot implements ConceptDictionary {
+  private static final long MAGIC = 0x4f4d4f50564f4331L; // "OMOPVOC1"
+  private static final int FORMAT_VERSION = 1;
+  private static final int HEADER_SIZE = 48;
+  private static final int RECORD_SIZE = 24;
+  private static final int NO_STRING = -1;
+  private static final int NO_DATE = Integer.MIN_VALUE;
+
+  private final ByteBuffer buffer;
+  private final int keyCount;
+  private final int keyIndexOffset;
+  private final int recordIndexOffset;
+  private final int keyBytesOffset;
+  private final int recordsOffset;
+  private final int stringIndexOffset;
+  private final int stringBytesOffset;
+  private final String vocabularyId;
+  private final String fingerprint;
+
+  private VocabularySnapshot(ByteBuffer buffer) {
+    if (buffer.capacity() < HEADER_SIZE || buffer.getLong(0) != MAGIC) {
+      throw new IllegalArgumentException("Not a vocabulary snapshot");
+    }
+    if (buffer.getInt(8) != FORMAT_VERSION) {
+      throw new IllegalArgumentException(
+          String.format("Unsupported vocabulary snapshot format [%d]", buffer.getInt(8)));
+    }
+    this.buffer = buffer;
+    this.keyCount = buffer.getInt(12);
+    this.keyIndexOffset = buffer.getInt(24);
+    this.recordIndexOffset = buffer.getInt(28);
+    this.keyBytesOffset = buffer.getInt(32);
+    this.recordsOffset = buffer.getInt(36);
+    this.stringIndexOffset = buffer.getInt(40);
+    this.stringBytesOffset = buffer.getInt(44);
+    this.vocabularyId = string(0);
+    this.fingerprint = string(1);
+  }
+
+  /**
+   * Maps an existing snapshot file read-only into memory.
+   *
+   * @param file the snapshot file
+   * @return the snapshot
+   * @throws IOException if the file cannot be read
+   */
+  public static VocabularySnapshot open(Path file) throws IOException {
+    try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException(String.format("Vocabulary snapshot [%s] is too large", file));
+      }
+      return new VocabularySnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Writes the concepts of a vocabulary to a new snapshot file.
+   *
+   * @param file the snapshot file to be written
+   * @param vocabularyId the vocabulary_id of the concepts
+   * @param fingerprint the fingerprint of the vocabulary version
+   * @param concepts all concepts of the vocabulary
+   * @throws IOException if the file cannot be written
+   */
+  public static void write(
+      Path file, String vocabularyId, String fingerprint, Collection<Concept> concepts)
+      throws IOException {
+    // keys are sorted by their UTF-8 bytes, so lookups can compare the mapped bytes directly
+    var byCode = new TreeMap<byte[], List<Concept>>(Arrays::compareUnsigned);
+    for (var concept : concepts) {
+      byCode.computeIfAbsent(utf8(concept.getConceptCode()), k -> new ArrayList<>()).add(concept);
+    }
+
+    var strings = new ArrayList<byte[]>();
+    var stringIds = new HashMap<String, Integer>();
+    intern(vocabularyId, strings, stringIds);
+    intern(fingerprint, strings, stringIds);
+    for (var concept : concepts) {
+      intern(concept.getConceptName(), strings, stringIds);
+      intern(concept.getDomainId(), strings, stringIds);
+      intern(concept.getConceptClassId(), strings, stringIds);
+    }
+
+    long keyBytes = byCode.keySet().stream().mapToLong(k -> k.length).sum();
+    long stringBytes = strings.stream().mapToLong(s -> s.length).sum();
+    long keyIndexOffset = HEADER_SIZE;
+    long recordIndexOffset = keyIndexOffset + 4L * (byCode.size() + 1);
+    long keyBytesOffset = recordIndexOffset + 4L * (byCode.size() + 1);
+    long recordsOffset = keyBytesOffset + keyBytes;
+    long stringIndexOffset = recordsOffset + (long) RECORD_SIZE * concepts.size();
+    long stringBytesOffset = stringIndexOffset + 4L * (strings.size() + 1);
+    if (stringBytesOffset + stringBytes > Integer.MAX_VALUE) {
+      throw new IOException(
+          String.format("Vocabulary [%s] is too large for a snapshot", vocabularyId));
+    }
+
+    try (var out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+      out.writeLong(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(byCode.size());
+      out.writeInt(concepts.size());
+      out.writeInt(strings.size());
+      out.writeInt((int) keyIndexOffset);
+      out.writeInt((int) recordIndexOffset);
+      out.writeInt((int) keyBytesOffset);
+      out.writeInt((int) recordsOffset);
+      out.writeInt((int) stringIndexOffset);
+      out.writeInt((int) stringBytesOffset);
+
+      int offset = 0;
+      for (var key : byCode.keySet()) {
+        out.writeInt(offset);
+        offset += key.length;
+      }
+      out.writeInt(offset);
+      int recordIndex = 0;
+      for (var group : byCode.values()) {
+        out.writeInt(recordIndex);
+        recordIndex += group.size();
+      }
+      out.writeInt(recordIndex);
+      for (var key : byCode.keySet()) {
+        out.write(key);
+      }
+      for (var group : byCode.values()) {
+        for (var concept : group) {
+          out.writeInt(concept.getConceptId());
+          out.writeInt(stringIds.getOrDefault(concept.getConceptName(), NO_STRING));
+          out.writeInt(stringIds.getOrDefault(concept.getDomainId(), NO_STRING));
+          out.writeInt(stringIds.getOrDefault(concept.getConceptClassId(), NO_STRING));
+          out.writeInt(epochDay(concept.getValidStartDate()));
+          out.writeInt(epochDay(concept.getValidEndDate()));
+        }
+      }
+      offset = 0;
+      for (var string : strings) {
+        out.writeInt(offset);
+        offset += string.length;
+      }
+      out.writeInt(offset);
+      for (var string : strings) {
+        out.write(string);
+      }
+    }
+  }
+
+  /**
+   * Returns the vocabulary_id of the concepts in this snapshot.
+   *
+   * @return the vocabulary_id
+   */
+  public String getVocabularyId() {
+    return vocabularyId;
+  }
+
+  /**
+   * Returns the fingerprint of the vocabulary version this snapshot has been built from.
+   *
+   * @return the fingerprint of the vocabulary version
+   */
+  public String getFingerprint() {
+    return fingerprint;
+  }
+
+  @Override
+  public int size() {
+    return keyCount;
+  }
+
+  @Override
+  public boolean containsCode(String conceptCode) {
+    return conceptCode != null && indexOf(utf8(conceptCode)) >= 0;
+  }
+
+  @Override
+  public Concept findConcept(String conceptCode, LocalDate validDate) {
+    if (conceptCode == null) {
+      return null;
+    }
+    var index = indexOf(utf8(conceptCode));
+    if (index < 0) {
+      return null;
+    }
+    var first = buffer.getInt(recordIndexOffset + 4 * index);
+    var last = buffer.getInt(recordIndexOffset + 4 * (index + 1));
+    if (validDate == null) {
+      return concept(first, conceptCode);
+    }
+    var day = validDate.toEpochDay();
+    for (int record = first; record < last; record++) {
+      var position = recordsOffset + RECORD_SIZE * record;
+      var validStart = buffer.getInt(position + 16);
+      var validEnd = buffer.getInt(position + 20);
+      if ((validStart == NO_DATE || validStart <= day)
+          && (validEnd == NO_DATE || day <= validEnd)) {
+        return concept(record, conceptCode);
+      }
+    }
+    return null;
+  }
+
+  private int indexOf(byte[] code) {
+    int low = 0;
+    int high = keyCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = Arrays.compareUnsigned(key(mid), code);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  private byte[] key(int index) {
+    var start = buffer.getInt(keyIndexOffset + 4 * index);
+    var end = buffer.getInt(keyIndexOffset + 4 * (index + 1));
+    var bytes = new byte[end - start];
+    buffer.get(keyBytesOffset + start, bytes);
+    return bytes;
+  }
+
+  private Concept concept(int record, String code) {
+    var position = recordsOffset + RECORD_SIZE * record;
+    return Concept.builder()
+        .conceptId(buffer.getInt(position))
+        .conceptName(string(buffer.getInt(position + 4)))
+        .domainId(string(buffer.getInt(position + 8)))
+        .conceptClassId(string(buffer.getInt(position + 12)))
+        .validStartDate(date(buffer.getInt(position + 16)))
+        .validEndDate(date(buffer.getInt(position + 20)))
+        .vocabularyId(vocabularyId)
+        .conceptCode(code)
+        .build();
+  }
+
+  private String string(int index) {
+    if (index == NO_STRING) {
+      return null;
+    }
+    var start = buffer.getInt(stringIndexOffset + 4 * index);
+    var end = buffer.getInt(stringIndexOffset + 4 * (index + 1));
+    var bytes = new byte[end - start];
+    buffer.get(stringBytesOffset + start, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void intern(String value, List<byte[]> strings, Map<String, Integer> stringIds) {
+    if (value != null && !stringIds.containsKey(value)) {
+      stringIds.put(value, strings.size());
+      strings.add(utf8(value));
+    }
+  }
+
+  private static byte[] utf8(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static int epochDay(LocalDate date) {
+    return date == null ? NO_DATE : (int) date.toEpochDay();
+  }
+
+  private static LocalDate date(int epochDay) {
+    return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
+  }
+}
@@ -0,0 +1,194 @@
+package org.miracum.etl.fhirtoomop;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.miracum.etl.fhirtoomop.mapper.helpers.CompactConceptDictionary;
+import org.miracum.etl.fhirtoomop.mapper.helpers.ConceptDictionary;
+import org.miracum.etl.fhirtoomop.repository.OmopRepository;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StopWatch;
+
+/**
+ * The VocabularySnapshotService class provides the concepts of an OMOP CDM vocabulary as a {@link
+ * VocabularySnapshot}. A snapshot is built once per vocabulary version and is shared by all steps
+ * and by all processes on the same host, which use the same snapshot directory. If snapshots are
+ * disabled or the snapshot cannot be used, the concepts are loaded from OMOP CDM into a {@link
+ * CompactConceptDictionary}.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+@Component
+public class VocabularySnapshotService {
+  private static final String FINGERPRINT_QUERY =
+      "SELECT v.vocabulary_version, count(c.concept_id), coalesce(sum(('x' || substr(md5(c::text), 1, 16))::bit(64)::bigint), 0) FROM %1$s.concept c LEFT JOIN %1$s.vocabulary v ON v.vocabulary_id = c.vocabulary_id WHERE c.vocabulary_id = ? GROUP BY v.vocabulary_version";
+
+  private final OmopRepository repositories;
+  private final JdbcTemplate jdbcTemplate;
+  private final Boolean enabled;
+  private final Path directory;
+  private final String fingerprintQuery;
+  private final Map<String, VocabularySnapshot> snapshots = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor for objects of the class VocabularySnapshotService.
+   *
+   * @param repositories OMOP CDM repositories
+   * @param jdbcTemplate JdbcTemplate for the OMOP CDM database
+   * @param enabled flag to use memory-mapped vocabulary snapshots
+   * @param directory the directory containing the vocabulary snapshots
+   * @param schema the schema of OMOP CDM
+   */
+  public VocabularySnapshotService(
+      OmopRepository repositories,
+      @Qualifier("writerJdbcTemplate") JdbcTemplate jdbcTemplate,
+      @Value("${app.vocabularySnapshot.enabled}") Boolean enabled,
+      @Value("${app.vocabularySnapshot.directory}") String directory,
+      @Value("${data.omopCdm.schema}") String schema) {
+    this.repositories = repositories;
+    this.jdbcTemplate = jdbcTemplate;
+    this.enabled = enabled;
+    this.directory = Paths.get(directory);
+    this.fingerprintQuery = String.format(FINGERPRINT_QUERY, schema);
+  }
+
+  /**
+   * Returns all concepts of a vocabulary as a dictionary, in which the concepts are looked up by
+   * concept_code.
+   *
+   * @param vocabularyId the vocabulary_id of the concepts
+   * @return the dictionary with all records from concept table in OMOP CDM based on a specific
+   *     vocabulary_id
+   */
+  public ConceptDictionary getConceptDictionary(String vocabularyId) {
+    if (enabled.booleanValue()) {
+      try {
+        return snapshots.computeIfAbsent(vocabularyId, this::openOrBuild);
+      } catch (UncheckedIOException | DataAccessException | IllegalArgumentException e) {
+        log.warn(
+            "Unable to use vocabulary snapshot for [{}], loading concepts from OMOP CDM: {}",
+            vocabularyId,
+            e.getMessage());
+      }
+    }
+    return new CompactConceptDictionary(
+        repositories.getConceptRepository().findByVocabularyId(vocabularyId));
+  }
+
+  /**
+   * Maps the snapshot of the current version of a vocabulary. The snapshot is built first, if it
+   * does not exist yet.
+   *
+   * @param vocabularyId the vocabulary_id of the concepts
+   * @return the snapshot of the vocabulary
+   */
+  private VocabularySnapshot openOrBuild(String vocabularyId) {
+    var fingerprint = fingerprint(vocabularyId);
+    var file = directory.resolve(snapshotPrefix(vocabularyId) + hash(fingerprint) + ".snapshot");
+    try {
+      if (Files.isRegularFile(file)) {
+        var snapshot = VocabularySnapshot.open(file);
+        if (fingerprint.equals(snapshot.getFingerprint())) {
+          log.info("Using vocabulary snapshot [{}] for [{}]", file, vocabularyId);
+          return snapshot;
+        }
+      }
+      return build(vocabularyId, fingerprint, file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private VocabularySnapshot build(String vocabularyId, String fingerprint, Path file)
+      throws IOException {
+    var stopWatch = new StopWatch();
+    stopWatch.start();
+    Files.createDirectories(directory);
+    var concepts = repositories.getConceptRepository().findByVocabularyId(vocabularyId);
+
+    // other processes only ever see complete snapshots
+    var tempFile = Files.createTempFile(directory, snapshotPrefix(vocabularyId), ".tmp");
+    try {
+      VocabularySnapshot.write(tempFile, vocabularyId, fingerprint, concepts);
+      Files.move(
+          tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+    deleteOutdatedSnapshots(vocabularyId, file);
+
+    stopWatch.stop();
+    log.info(
+        "Built vocabulary snapshot [{}] with [{}] concepts in [{}s]",
+        file,
+        concepts.size(),
+        String.format("%.3f", stopWatch.getTotalTimeSeconds()));
+    return VocabularySnapshot.open(file);
+  }
+
+  private void deleteOutdatedSnapshots(String vocabularyId, Path current) throws IOException {
+    var prefix = snapshotPrefix(vocabularyId);
+    try (var files = Files.list(directory)) {
+      for (var file : (Iterable<Path>) files::iterator) {
+        var name = file.getFileName().toString();
+        if (name.startsWith(prefix) && name.endsWith(".snapshot") && !file.equals(current)) {
+          Files.deleteIfExists(file);
+        }
+      }
+    }
+  }
+
+  /**
+   * Determines the fingerprint of the current version of a vocabulary from the version string in
+   * the vocabulary table and a checksum over the content of all its concepts. The checksum also
+   * covers local changes, which keep the version string, e.g. a corrected concept name.
+   *
+   * @param vocabularyId the vocabulary_id of the concepts
+   * @return the fingerprint of the vocabulary
+   */
+  private String fingerprint(String vocabularyId) {
+    var fingerprints =
+        jdbcTemplate.query(
+            fingerprintQuery,
+            (rs, rowNum) ->
+                String.join(
+                    "|",
+                    vocabularyId,
+                    String.valueOf(rs.getString(1)),
+                    rs.getString(2),
+                    rs.getString(3)),
+            vocabularyId);
+    return fingerprints.isEmpty() ? vocabularyId + "|empty" : String.join(";", fingerprints);
+  }
+
+  private static String snapshotPrefix(String vocabularyId) {
+    return "concept-" + vocabularyId.replaceAll("[^A-Za-z0-9]", "_") + "-";
+  }
+
+  private static String hash(String fingerprint) {
+    try {
+      var digest = MessageDigest.getInstance("SHA-256");
+      return HexFormat.of()
+          .formatHex(digest.digest(fingerprint.getBytes(StandardCharsets.UTF_8)))
+          .substring(0, 16);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package org.miracum.etl.fhirtoomop.config;
+
+import java.time.Duration;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import org.miracum.etl.fhirtoomop.DictionaryLoadingService;
+import org.miracum.etl.fhirtoomop.partition.PartitionClaimGuard;
+import org.miracum.etl.fhirtoomop.partition.PartitionClaims;
+import org.miracum.etl.fhirtoomop.partition.PartitionWorker;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.batch.JobLauncherApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Runs the ETL process as worker of a distributed bulk load. A worker does not launch the job
+ * itself. Instead, it claims the partitions of the steps offered by the manager in OMOP CDM and
+ * processes them, until no partition has been offered for the configured idle timeout. The
+ * activities before the job are run by the manager, before it offers the first partition.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(value = "app.distributed.role", havingValue = "worker")
+public class DistributedWorkerConfig {
+
+  @Value("${app.distributed.workerId}")
+  private String workerId;
+
+  @Value("${app.distributed.pollInterval}")
+  private long pollInterval;
+
+  @Value("${app.distributed.heartbeatTimeout}")
+  private long heartbeatTimeout;
+
+  @Value("${app.distributed.workerIdleTimeout}")
+  private long workerIdleTimeout;
+
+  /**
+   * Replaces the runner which launches the job, because the job is only launched by the manager.
+   *
+   * @param jobLauncher the job launcher
+   * @param jobExplorer explorer for the executions in the job repository
+   * @param jobRepository the job repository
+   * @return runner which does not launch the job
+   */
+  @Bean
+  public JobLauncherApplicationRunner jobLauncherApplicationRunner(
+      JobLauncher jobLauncher, JobExplorer jobExplorer, JobRepository jobRepository) {
+    return new JobLauncherApplicationRunner(jobLauncher, jobExplorer, jobRepository) {
+      @Override
+      public void run(ApplicationArguments args) {
+        log.info("Running as worker [{}], the job is launched by the manager.", workerId);
+      }
+    };
+  }
+
+  /**
+   * Processes the partitions offered by the manager.
+   *
+   * @param steps all steps by their names
+   * @param claims the partitions offered by the manager
+   * @param guard checks the claim of a partition before each chunk is written
+   * @param jobExplorer explorer for the executions in the job repository
+   * @param dictionaryLoadingService service which loads the dictionaries of the steps
+   * @return runner which processes partitions until the idle timeout has expired
+   */
+  @Bean
+  public ApplicationRunner partitionWorkerRunner(
+      Map<String, Step> steps,
+      PartitionClaims claims,
+      PartitionClaimGuard guard,
+      JobExplorer jobExplorer,
+      DictionaryLoadingService dictionaryLoadingService) {
+    return args -> {
+      claims.createTable();
+      var worker =
+          new PartitionWorker(
+              claims,
+              guard,
+              jobExplorer,
+              dictionaryLoadingService,
+              steps,
+              workerId,
+              Duration.ofSeconds(heartbeatTimeout));
+      var idleTimeout = Duration.ofSeconds(workerIdleTimeout).toMillis();
+      var lastPartition = System.currentTimeMillis();
+      try {
+        while (System.currentTimeMillis() - lastPartition < idleTimeout) {
+          if (worker.processNext(null)) {
+            lastPartition = System.currentTimeMillis();
+          } else {
+            Thread.sleep(Duration.ofSeconds(pollInterval).toMillis());
+          }
+        }
+      } finally {
+        worker.releaseDictionaries();
+        worker.shutdown();
+      }
+      log.info(
+          "Worker [{}] has not found a partition for [{}s], stopping.",
+          workerId,
+          workerIdleTimeout);
+    };
+  }
+}
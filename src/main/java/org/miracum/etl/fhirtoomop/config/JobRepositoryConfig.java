@@ -0,0 +1,141 @@
+package org.miracum.etl.fhirtoomop.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.sql.DataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.batch.core.configuration.annotation.BatchConfigurer;
+import org.springframework.batch.core.configuration.annotation.DefaultBatchConfigurer;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.explore.support.JobExplorerFactoryBean;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.repository.support.JobRepositoryFactoryBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Keeps the Spring Batch job repository in a schema of the OMOP CDM database instead of the
+ * embedded in-memory database, so that the step executions and the execution contexts of the
+ * readers survive a crash or restart of the ETL process. A failed or interrupted job is then
+ * restarted at the last committed chunk of the failed step.
+ *
+ * <p>The job repository uses its own connections to OMOP CDM, so that the transaction of a chunk
+ * only saves the progress of the step. The records of a chunk are written to OMOP CDM in their own
+ * transactions before, in the same way as without persistent job repository. Therefore, the records
+ * of a chunk may already have been written, when the ETL process stops before the chunk is
+ * committed. After the restart, such records are not written again, see {@link
+ * org.miracum.etl.fhirtoomop.writer.CommittedRecordFilter}.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(value = "app.persistentJobRepository.enabled", havingValue = "true")
+public class JobRepositoryConfig {
+
+  @Value("${app.persistentJobRepository.schema}")
+  private String schema;
+
+  @Value("${app.persistentJobRepository.maxConnections}")
+  private int maxConnections;
+
+  /**
+   * Configures the connections of the job repository to OMOP CDM. They are separate from the
+   * connections of the OMOP CDM tables, so that the transaction of a chunk does not include the
+   * writing of the records.
+   *
+   * @param writerDataSource database connection of OMOP CDM
+   * @return database connection of the job repository
+   */
+  @Bean(destroyMethod = "close")
+  @Qualifier("jobRepositoryDataSource")
+  public HikariDataSource jobRepositoryDataSource(
+      @Qualifier("writerDataSource") DataSource writerDataSource) {
+    var dataSource =
+        DataSourceBuilder.derivedFrom(writerDataSource).type(HikariDataSource.class).build();
+    dataSource.setPoolName("job-repository");
+    dataSource.setMaximumPoolSize(maxConnections);
+    return dataSource;
+  }
+
+  /**
+   * Configures the job repository, the job explorer and the transaction manager of the steps.
+   *
+   * @param dataSource database connection of the job repository
+   * @return the batch configurer for the persistent job repository
+   */
+  @Bean
+  public BatchConfigurer batchConfigurer(
+      @Qualifier("jobRepositoryDataSource") HikariDataSource dataSource) {
+    initializeSchema(dataSource);
+    var tablePrefix = schema + ".BATCH_";
+    var transactionManager = new DataSourceTransactionManager(dataSource);
+    return new DefaultBatchConfigurer(dataSource) {
+      @Override
+      public PlatformTransactionManager getTransactionManager() {
+        return transactionManager;
+      }
+
+      @Override
+      protected JobRepository createJobRepository() throws Exception {
+        var factory = new JobRepositoryFactoryBean();
+        factory.setDataSource(dataSource);
+        factory.setTransactionManager(transactionManager);
+        factory.setTablePrefix(tablePrefix);
+        factory.afterPropertiesSet();
+        return factory.getObject();
+      }
+
+      @Override
+      protected JobExplorer createJobExplorer() throws Exception {
+        var factory = new JobExplorerFactoryBean();
+        factory.setDataSource(dataSource);
+        factory.setTablePrefix(tablePrefix);
+        factory.afterPropertiesSet();
+        return factory.getObject();
+      }
+    };
+  }
+
+  /**
+   * Creates the tables of the job repository in the configured schema, if they do not exist yet.
+   *
+   * @param dataSource database connection of OMOP CDM
+   */
+  private void initializeSchema(DataSource dataSource) {
+    var jdbcTemplate = new JdbcTemplate(dataSource);
+    jdbcTemplate.execute("CREATE SCHEMA IF NOT EXISTS " + schema);
+    var existing =
+        jdbcTemplate.queryForObject(
+            "SELECT to_regclass(?) IS NOT NULL", Boolean.class, schema + ".batch_job_instance");
+    if (Boolean.TRUE.equals(existing)) {
+      log.info("Using the job repository in schema [{}].", schema);
+      return;
+    }
+    try (var in =
+        new ClassPathResource("org/springframework/batch/core/schema-postgresql.sql")
+            .getInputStream()) {
+      var script =
+          StreamUtils.copyToString(in, StandardCharsets.UTF_8)
+              .replace(" BATCH_", " " + schema + ".BATCH_");
+      new ResourceDatabasePopulator(new ByteArrayResource(script.getBytes(StandardCharsets.UTF_8)))
+          .execute(dataSource);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read the schema of the job repository", e);
+    }
+    log.info("Created the job repository in schema [{}].", schema);
+  }
+}
@@ -0,0 +1,34 @@
+package org.miracum.etl.fhirtoomop.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import lombok.Setter;
+
+/**
+ * The ChunkProcessedEvent class is a Java Flight Recorder event, which covers mapping the FHIR
+ * resources of one chunk to OMOP CDM.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Name("org.miracum.etl.fhirtoomop.ChunkProcessed")
+@Label("Chunk Processed")
+@Category({"FHIR-to-OMOP", "Chunk"})
+@Description("Mapping the FHIR resources of one chunk to OMOP CDM")
+@Setter
+public class ChunkProcessedEvent extends Event {
+
+  @Label("Step Name")
+  private String stepName;
+
+  @Label("Processed Count")
+  @Description("Number of FHIR resources processed in this chunk")
+  private int processedCount;
+
+  @Label("Filtered Count")
+  @Description("Number of FHIR resources in this chunk which were not mapped to OMOP CDM")
+  private int filteredCount;
+}
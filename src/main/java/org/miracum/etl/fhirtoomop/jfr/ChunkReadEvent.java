@@ -0,0 +1,30 @@
+package org.miracum.etl.fhirtoomop.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import lombok.Setter;
+
+/**
+ * The ChunkReadEvent class is a Java Flight Recorder event, which covers reading the FHIR resources
+ * of one chunk.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Name("org.miracum.etl.fhirtoomop.ChunkRead")
+@Label("Chunk Read")
+@Category({"FHIR-to-OMOP", "Chunk"})
+@Description("Reading the FHIR resources of one chunk")
+@Setter
+public class ChunkReadEvent extends Event {
+
+  @Label("Step Name")
+  private String stepName;
+
+  @Label("Read Count")
+  @Description("Number of FHIR resources read in this chunk")
+  private int readCount;
+}
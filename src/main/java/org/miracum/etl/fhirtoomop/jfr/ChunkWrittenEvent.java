@@ -0,0 +1,30 @@
+package org.miracum.etl.fhirtoomop.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import lombok.Setter;
+
+/**
+ * The ChunkWrittenEvent class is a Java Flight Recorder event, which covers writing the mapped data
+ * of one chunk to OMOP CDM.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Name("org.miracum.etl.fhirtoomop.ChunkWritten")
+@Label("Chunk Written")
+@Category({"FHIR-to-OMOP", "Chunk"})
+@Description("Writing the mapped data of one chunk to OMOP CDM")
+@Setter
+public class ChunkWrittenEvent extends Event {
+
+  @Label("Step Name")
+  private String stepName;
+
+  @Label("Write Count")
+  @Description("Number of mapped FHIR resources written in this chunk")
+  private int writeCount;
+}
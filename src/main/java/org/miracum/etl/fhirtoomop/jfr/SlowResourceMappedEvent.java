@@ -0,0 +1,32 @@
+package org.miracum.etl.fhirtoomop.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import lombok.Setter;
+
+/**
+ * The SlowResourceMappedEvent class is a Java Flight Recorder event, which is committed when the
+ * mapping of a single FHIR resource to OMOP CDM takes longer than the configured threshold.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Name("org.miracum.etl.fhirtoomop.SlowResourceMapped")
+@Label("Slow Resource Mapped")
+@Category({"FHIR-to-OMOP", "Resource"})
+@Description("Mapping of a single FHIR resource exceeded the configured threshold")
+@Setter
+public class SlowResourceMappedEvent extends Event {
+
+  @Label("Step Name")
+  private String stepName;
+
+  @Label("Resource Type")
+  private String resourceType;
+
+  @Label("Resource Id")
+  private String resourceId;
+}
@@ -3,9 +3,11 @@ package org.miracum.etl.fhirtoomop.listeners;
 import com.google.common.base.Strings;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.EnumSet;
 import javax.sql.DataSource;
 import lombok.extern.slf4j.Slf4j;
-import org.miracum.etl.fhirtoomop.DbMappings;
+import org.miracum.etl.fhirtoomop.DictionaryLoadingService;
+import org.miracum.etl.fhirtoomop.DictionaryLoadingService.Dictionary;
 import org.miracum.etl.fhirtoomop.MemoryLogger;
 import org.miracum.etl.fhirtoomop.repository.OmopRepository;
 import org.miracum.etl.fhirtoomop.utils.ExecuteSqlScripts;
@@ -32,10 +34,10 @@ import org.springframework.util.StopWatch;
 @Slf4j
 public class EncounterDepartmentCaseStepListener implements StepExecutionListener {
   private final OmopRepository repositories;
-  private final DbMappings dbMappings;
   private Boolean dictionaryLoadInRam;
   private final Boolean bulkload;
   private static final MemoryLogger memoryLogger = new MemoryLogger();
+  private final DictionaryLoadingService dictionaryLoadingService;
 
   @Autowired
   @Qualifier("writerDataSource")
@@ -47,8 +49,8 @@ public class EncounterDepartmentCaseStepListener implements StepExecutionListene
   /**
    * Constructor for objects of the class EncounterDepartmentCaseStepListener.
    *
+   * @param dictionaryLoadingService service which loads the dictionaries of the steps
    * @param repositories OMOP CDM repositories
-   * @param dbMappings collections for the intermediate storage of data from OMOP CDM in RAM
    * @param dictionaryLoadInRam parameter which indicates whether referenced data is searched in RAM
    *     or in OMOP CDM database
    * @param startSingleStep parameter which indicates which steps should be executed
@@ -56,13 +58,13 @@ public class EncounterDepartmentCaseStepListener implements StepExecutionListene
    */
   @Autowired
   public EncounterDepartmentCaseStepListener(
+      DictionaryLoadingService dictionaryLoadingService,
       OmopRepository repositories,
-      DbMappings dbMappings,
       Boolean dictionaryLoadInRam,
       Boolean bulkload,
       DataSource dataSource) {
+    this.dictionaryLoadingService = dictionaryLoadingService;
     this.repositories = repositories;
-    this.dbMappings = dbMappings;
     this.dictionaryLoadInRam = dictionaryLoadInRam;
     this.bulkload = bulkload;
     this.dataSource = dataSource;
@@ -76,9 +78,11 @@ public class EncounterDepartmentCaseStepListener implements StepExecutionListene
    */
   @Override
   public void beforeStep(StepExecution stepExecution) {
+    var dictionaries = EnumSet.noneOf(Dictionary.class);
+    var restart = StepRestart.markStarted(stepExecution);
 
     if (bulkload.equals(Boolean.TRUE)) {
-      if (!Strings.isNullOrEmpty(startSingleStep)) {
+      if (!Strings.isNullOrEmpty(startSingleStep) && !restart) {
         StopWatch stopWatch = new StopWatch();
         stopWatch.start();
         try {
@@ -96,21 +100,12 @@ public class EncounterDepartmentCaseStepListener implements StepExecutionListene
 
       if (dictionaryLoadInRam.equals(Boolean.TRUE)) {
 
-        dbMappings.setFindPersonIdByLogicalId(
-            repositories.getPersonRepository().getFhirLogicalIdAndPersonId());
-        dbMappings.setFindPersonIdByIdentifier(
-            repositories.getPersonRepository().getFhirIdentifierAndPersonId());
-
-        dbMappings.setFindVisitOccIdByLogicalId(
-            repositories.getVisitOccRepository().getFhirLogicalIdAndVisitOccId());
-        dbMappings.setFindVisitOccIdByIdentifier(
-            repositories.getVisitOccRepository().getFhirIdentifierAndVisitOccId());
+        dictionaries.addAll(Dictionary.PERSON_AND_VISIT);
       }
     }
 
-    dbMappings.setFindCareSiteId(repositories.getCareSiteRepository().careSitesMap());
-    dbMappings.setFindHardCodeConcept(
-        repositories.getSourceToConceptRepository().sourceToConceptMap());
+    dictionaries.addAll(dictionaryLoadingService.vocabularies(stepExecution.getStepName()));
+    dictionaryLoadingService.load(stepExecution.getStepName(), dictionaries);
   }
 
   /**
@@ -139,14 +134,7 @@ public class EncounterDepartmentCaseStepListener implements StepExecutionListene
   @Override
   public ExitStatus afterStep(StepExecution stepExecution) {
     memoryLogger.logMemoryDebugOnly();
-    if (bulkload.equals(Boolean.TRUE) && dictionaryLoadInRam.equals(Boolean.TRUE)) {
-      dbMappings.getFindPersonIdByIdentifier().clear();
-      dbMappings.getFindPersonIdByLogicalId().clear();
-      dbMappings.getFindVisitOccIdByIdentifier().clear();
-      dbMappings.getFindVisitOccIdByLogicalId().clear();
-    }
-    dbMappings.getFindHardCodeConcept().clear();
-    dbMappings.getFindCareSiteId().clear();
+    dictionaryLoadingService.release(stepExecution.getStepName());
 
     return ExitStatus.COMPLETED;
   }
@@ -1,9 +1,10 @@
 package org.miracum.etl.fhirtoomop.listeners;
 
+import java.util.EnumSet;
 import lombok.extern.slf4j.Slf4j;
-import org.miracum.etl.fhirtoomop.DbMappings;
+import org.miracum.etl.fhirtoomop.DictionaryLoadingService;
+import org.miracum.etl.fhirtoomop.DictionaryLoadingService.Dictionary;
 import org.miracum.etl.fhirtoomop.MemoryLogger;
-import org.miracum.etl.fhirtoomop.repository.OmopRepository;
 import org.springframework.batch.core.ExitStatus;
 import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.core.StepExecutionListener;
@@ -24,17 +25,15 @@ import org.springframework.stereotype.Component;
 @Component
 @CacheConfig(cacheManager = "caffeineCacheManager")
 public class EncounterMainStepListener implements StepExecutionListener {
-  private final OmopRepository repositories;
-  private final DbMappings dbMappings;
   private static final MemoryLogger memoryLogger = new MemoryLogger();
+  private final DictionaryLoadingService dictionaryLoadingService;
   private Boolean dictionaryLoadInRam;
   private final Boolean bulkload;
   @Autowired CaffeineCacheManager cacheManager;
   /**
    * Constructor for objects of the class EncounterMainStepListener.
    *
-   * @param repositories OMOP CDM repositories
-   * @param dbMappings collections for the intermediate storage of data from OMOP CDM in RAM
+   * @param dictionaryLoadingService service which loads the dictionaries of the steps
    * @param dictionaryLoadInRam parameter which indicates whether referenced data is searched in RAM
    *     or in OMOP CDM database
    * @param idMappings reference to internal id mappings
@@ -42,12 +41,10 @@ public class EncounterMainStepListener implements StepExecutionListener {
    */
   @Autowired
   public EncounterMainStepListener(
-      OmopRepository repositories,
-      DbMappings dbMappings,
+      DictionaryLoadingService dictionaryLoadingService,
       Boolean dictionaryLoadInRam,
       Boolean bulkload) {
-    this.repositories = repositories;
-    this.dbMappings = dbMappings;
+    this.dictionaryLoadingService = dictionaryLoadingService;
     this.dictionaryLoadInRam = dictionaryLoadInRam;
     this.bulkload = bulkload;
   }
@@ -60,15 +57,14 @@ public class EncounterMainStepListener implements StepExecutionListener {
    */
   @Override
   public void beforeStep(StepExecution stepExecution) {
+    var dictionaries = EnumSet.noneOf(Dictionary.class);
 
     if (dictionaryLoadInRam.equals(Boolean.TRUE) && bulkload.equals(Boolean.TRUE)) {
-      dbMappings.setFindPersonIdByLogicalId(
-          repositories.getPersonRepository().getFhirLogicalIdAndPersonId());
-      dbMappings.setFindPersonIdByIdentifier(
-          repositories.getPersonRepository().getFhirIdentifierAndPersonId());
+      dictionaries.add(Dictionary.PERSON_BY_LOGICAL_ID);
+      dictionaries.add(Dictionary.PERSON_BY_IDENTIFIER);
     }
-    dbMappings.setFindHardCodeConcept(
-        repositories.getSourceToConceptRepository().sourceToConceptMap());
+    dictionaries.addAll(dictionaryLoadingService.vocabularies(stepExecution.getStepName()));
+    dictionaryLoadingService.load(stepExecution.getStepName(), dictionaries);
   }
 
   /**
@@ -81,11 +77,7 @@ public class EncounterMainStepListener implements StepExecutionListener {
   @Override
   public ExitStatus afterStep(StepExecution stepExecution) {
     memoryLogger.logMemoryDebugOnly();
-    if (dictionaryLoadInRam.equals(Boolean.TRUE) && bulkload.equals(Boolean.TRUE)) {
-      dbMappings.getFindPersonIdByIdentifier().clear();
-      dbMappings.getFindPersonIdByLogicalId().clear();
-    }
-    dbMappings.getFindHardCodeConcept().clear();
+    dictionaryLoadingService.release(stepExecution.getStepName());
     cleanUpCache();
 
     return ExitStatus.COMPLETED;
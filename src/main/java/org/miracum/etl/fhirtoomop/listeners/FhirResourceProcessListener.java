@@ -1,30 +1,180 @@
 package org.miracum.etl.fhirtoomop.listeners;
 
 import io.micrometer.core.instrument.Counter;
+import java.util.List;
+import org.miracum.etl.fhirtoomop.jfr.ChunkProcessedEvent;
+import org.miracum.etl.fhirtoomop.jfr.ChunkReadEvent;
+import org.miracum.etl.fhirtoomop.jfr.ChunkWrittenEvent;
 import org.miracum.etl.fhirtoomop.mapper.helpers.MapperMetrics;
 import org.miracum.etl.fhirtoomop.model.FhirPsqlResource;
-import org.miracum.etl.fhirtoomop.model.OmopModelWrapper;
+import org.springframework.batch.core.ChunkListener;
 import org.springframework.batch.core.ItemProcessListener;
+import org.springframework.batch.core.ItemReadListener;
+import org.springframework.batch.core.ItemWriteListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
 
+/**
+ * The FhirResourceProcessListener class counts the processed FHIR resources and emits Java Flight
+ * Recorder events for reading, processing and writing of each chunk of a step.
+ *
+ * <p>All phases of a chunk are executed in the same thread, so the events of the running chunk are
+ * kept per thread. If the FHIR resources are processed asynchronously, the processing event only
+ * covers the submission of the FHIR resources, while waiting for their results is part of the
+ * writing event.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
 public class FhirResourceProcessListener
-    implements ItemProcessListener<FhirPsqlResource, OmopModelWrapper> {
+    implements ChunkListener,
+        ItemReadListener<FhirPsqlResource>,
+        ItemProcessListener<FhirPsqlResource, Object>,
+        ItemWriteListener<Object> {
   private static final Counter totalProcessedFhirResources =
       MapperMetrics.setProcessedFhirRessourceCounter();
 
+  private final String stepName;
+  private final ThreadLocal<ChunkEvents> chunkEvents = new ThreadLocal<>();
+
+  /**
+   * Constructor for objects of the class FhirResourceProcessListener.
+   *
+   * @param stepName the name of the step this listener is registered to
+   */
+  public FhirResourceProcessListener(String stepName) {
+    this.stepName = stepName;
+  }
+
   @Override
-  public void beforeProcess(FhirPsqlResource item) {
-    // TODO Auto-generated method stub
+  public void beforeChunk(ChunkContext context) {
+    var events = new ChunkEvents();
+    events.readEvent.setStepName(stepName);
+    events.readEvent.begin();
+    chunkEvents.set(events);
+  }
 
+  @Override
+  public void beforeRead() {
+    // nothing to do before reading a FHIR resource
+  }
+
+  @Override
+  public void afterRead(FhirPsqlResource item) {
+    var events = chunkEvents.get();
+    if (events != null) {
+      events.readCount++;
+    }
   }
 
   @Override
-  public void afterProcess(FhirPsqlResource item, OmopModelWrapper result) {
+  public void onReadError(Exception ex) {
+    // errors are handled by the step
+  }
+
+  @Override
+  public void beforeProcess(FhirPsqlResource item) {
+    var events = chunkEvents.get();
+    if (events != null && events.processEvent == null) {
+      events.commitRead();
+      events.processEvent = new ChunkProcessedEvent();
+      events.processEvent.setStepName(stepName);
+      events.processEvent.begin();
+    }
+  }
+
+  @Override
+  public void afterProcess(FhirPsqlResource item, Object result) {
     totalProcessedFhirResources.increment();
+    var events = chunkEvents.get();
+    if (events != null) {
+      events.processedCount++;
+      if (result == null) {
+        events.filteredCount++;
+      }
+    }
   }
 
   @Override
   public void onProcessError(FhirPsqlResource item, Exception e) {
-    // TODO Auto-generated method stub
+    // errors are handled by the step
+  }
+
+  @Override
+  public void beforeWrite(List<? extends Object> items) {
+    var events = chunkEvents.get();
+    if (events == null) {
+      return;
+    }
+    events.commitRead();
+    events.commitProcess();
+    events.writeEvent = new ChunkWrittenEvent();
+    events.writeEvent.setStepName(stepName);
+    events.writeEvent.setWriteCount(items.size());
+    events.writeEvent.begin();
+  }
+
+  @Override
+  public void afterWrite(List<? extends Object> items) {
+    var events = chunkEvents.get();
+    if (events != null && events.writeEvent != null) {
+      events.writeEvent.commit();
+      events.writeEvent = null;
+    }
+  }
+
+  @Override
+  public void onWriteError(Exception exception, List<? extends Object> items) {
+    // errors are handled by the step
+  }
+
+  @Override
+  public void afterChunk(ChunkContext context) {
+    var events = chunkEvents.get();
+    if (events != null) {
+      // chunks whose resources were all filtered are not written
+      events.commitRead();
+      events.commitProcess();
+    }
+    chunkEvents.remove();
+  }
+
+  @Override
+  public void afterChunkError(ChunkContext context) {
+    chunkEvents.remove();
+  }
+
+  /** The Java Flight Recorder events of the chunk running in the current thread. */
+  private static class ChunkEvents {
+    private ChunkReadEvent readEvent = new ChunkReadEvent();
+    private ChunkProcessedEvent processEvent;
+    private ChunkWrittenEvent writeEvent;
+    private int readCount;
+    private int processedCount;
+    private int filteredCount;
+
+    private void commitRead() {
+      if (readEvent == null) {
+        return;
+      }
+      readEvent.end();
+      if (readCount > 0 && readEvent.shouldCommit()) {
+        readEvent.setReadCount(readCount);
+        readEvent.commit();
+      }
+      readEvent = null;
+    }
 
+    private void commitProcess() {
+      if (processEvent == null) {
+        return;
+      }
+      processEvent.end();
+      if (processEvent.shouldCommit()) {
+        processEvent.setProcessedCount(processedCount);
+        processEvent.setFilteredCount(filteredCount);
+        processEvent.commit();
+      }
+      processEvent = null;
+    }
   }
 }
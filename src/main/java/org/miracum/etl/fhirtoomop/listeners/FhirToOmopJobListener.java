@@ -14,31 +14,27 @@ import static org.miracum.etl.fhirtoomop.Constants.FHIR_RESOURCE_PROCEDURE;
 import com.google.common.base.Strings;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.Metrics;
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
 import java.sql.SQLException;
 import java.time.Duration;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import javax.sql.DataSource;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
-import org.miracum.etl.fhirtoomop.model.omop.CareSite;
-import org.miracum.etl.fhirtoomop.model.omop.SourceToConceptMap;
+import org.miracum.etl.fhirtoomop.DictionaryLoadingService;
+import org.miracum.etl.fhirtoomop.FhirResourceSpool;
+import org.miracum.etl.fhirtoomop.ReferenceDataLoader;
 import org.miracum.etl.fhirtoomop.repository.OmopRepository;
+import org.miracum.etl.fhirtoomop.writer.OmopUpsertWriter;
 import org.springframework.batch.core.ExitStatus;
 import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.JobExecutionListener;
 import org.springframework.batch.core.metrics.BatchMetrics;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
 
 /**
@@ -54,6 +50,10 @@ public class FhirToOmopJobListener implements JobExecutionListener {
   private final OmopRepository omopRepository;
   private final DataSource inputDataSource;
   private final DataSource outputDataSource;
+  private final ReferenceDataLoader referenceDataLoader;
+  private final DictionaryLoadingService dictionaryLoadingService;
+  private final OmopUpsertWriter upsertWriter;
+  @Autowired private FhirResourceSpool fhirResourceSpool;
 
   @Value("${data.fhirGateway.tableName}")
   private String inputTableName;
@@ -91,6 +91,9 @@ public class FhirToOmopJobListener implements JobExecutionListener {
    * @param inputDataSource connection data of source database
    * @param outputDataSource connection data of target database
    * @param bulkLoad flag to differentiate between bulk load or incremental load
+   * @param referenceDataLoader loads the csv files bundled with the ETL job into OMOP CDM
+   * @param dictionaryLoadingService service which loads the dictionaries of the steps
+   * @param upsertWriter writer for upserts during incremental load
    * @param beginDate date from which the data will be read
    * @param endDate date until which the data will be read
    */
@@ -99,11 +102,17 @@ public class FhirToOmopJobListener implements JobExecutionListener {
       OmopRepository omopRepository,
       DataSource inputDataSource,
       DataSource outputDataSource,
-      Boolean bulkLoad) {
+      Boolean bulkLoad,
+      ReferenceDataLoader referenceDataLoader,
+      DictionaryLoadingService dictionaryLoadingService,
+      OmopUpsertWriter upsertWriter) {
     this.omopRepository = omopRepository;
     this.inputDataSource = inputDataSource;
     this.outputDataSource = outputDataSource;
     this.bulkLoad = bulkLoad;
+    this.referenceDataLoader = referenceDataLoader;
+    this.dictionaryLoadingService = dictionaryLoadingService;
+    this.upsertWriter = upsertWriter;
   }
 
   /**
@@ -122,6 +131,9 @@ public class FhirToOmopJobListener implements JobExecutionListener {
     // }
 
     insertSourceToConceptMap(jobExecution);
+    dictionaryLoadingService.invalidateSourceToConceptIndex();
+    // outside of any transaction, the unique indexes are dropped concurrently
+    upsertWriter.dropUniqueIndexes();
 
     log.info("=".repeat(beginJob.length()));
     log.info(beginJob);
@@ -266,6 +278,8 @@ public class FhirToOmopJobListener implements JobExecutionListener {
   public void afterJob(JobExecution jobExecution) {
     var exitStatus = jobExecution.getExitStatus();
     if (exitStatus.equals(ExitStatus.COMPLETED)) {
+      // spool files are kept for a restart of a failed job
+      deleteSpoolFiles();
       logResults(jobExecution);
       //    logSkippedReasons(jobExecution);
       var endJob = "==== Job End ====";
@@ -275,6 +289,14 @@ public class FhirToOmopJobListener implements JobExecutionListener {
     }
   }
 
+  private void deleteSpoolFiles() {
+    try {
+      fhirResourceSpool.clear();
+    } catch (IOException e) {
+      log.warn("Unable to delete spool files: {}", e.getMessage());
+    }
+  }
+
   /**
    * Log out the result of Job as a table.
    *
@@ -391,91 +413,32 @@ public class FhirToOmopJobListener implements JobExecutionListener {
   }
 
   /**
-   * Fills the care_site table in OMOP CDM with data from a csv file.
+   * Fills the care_site table in OMOP CDM with data from a csv file, if the csv file has changed
+   * since it was last loaded. Existing care sites are updated by their id.
    *
    * @param jobExecution the execution of the job
    */
   private void insertCareSite(JobExecution jobExecution) {
-    log.info("Inserting data into CARE_SITE.");
-    Resource careSite = new ClassPathResource("CARE_SITE.csv");
     try {
-      //      omopRepository.getCareSiteRepository().truncateCareSite();
-      jobExecution.setExitStatus(ExitStatus.COMPLETED);
-    } catch (Exception e) {
-      log.error("No file found in {}", careSite);
+      referenceDataLoader.merge("CARE_SITE.csv", "care_site", "care_site_id");
+    } catch (IOException | SQLException e) {
+      log.error("Loading CARE_SITE.csv failed: {}", e.getMessage());
       jobExecution.setExitStatus(ExitStatus.FAILED);
     }
-
-    try (BufferedReader br =
-        new BufferedReader(new FileReader(careSite.getFile(), StandardCharsets.UTF_8))) {
-      br.readLine();
-      var line = "";
-      List<CareSite> careSites = new ArrayList<>();
-      while ((line = br.readLine()) != null) {
-        var splitedLine = Arrays.asList(line.split(";"));
-        careSites.add(
-            CareSite.builder()
-                .careSiteId(Long.parseLong(splitedLine.get(0)))
-                .careSiteName(splitedLine.get(1))
-                .placeOfServiceConceptId(Integer.parseInt(splitedLine.get(2)))
-                .careSiteSourceValue(splitedLine.get(4))
-                .build());
-      }
-
-      omopRepository.getCareSiteRepository().saveAll(careSites);
-      log.info("Inserted {} rows into CARE_SITE.", careSites.size());
-    } catch (FileNotFoundException e) {
-      log.error(e.getMessage());
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
   }
 
   /**
-   * Fills the source_to_concept_map table in OMOP CDM with data from a csv file.
+   * Fills the source_to_concept_map table in OMOP CDM with data from a csv file, if the csv file
+   * has changed since it was last loaded.
    *
    * @param jobExecution the execution of the job
    */
   private void insertSourceToConceptMap(JobExecution jobExecution) {
-
-    log.info("Inserting data into SOURCE_TO_CONCEPT_MAP.");
-    Resource sourceToConceptMap = new ClassPathResource("SOURCE_TO_CONCEPT_MAP.csv");
     try {
-      omopRepository.getSourceToConceptRepository().deleteAll();
-      jobExecution.setExitStatus(ExitStatus.COMPLETED);
-    } catch (Exception e) {
-      log.error("No file found in {}", sourceToConceptMap);
+      referenceDataLoader.replace("SOURCE_TO_CONCEPT_MAP.csv", "source_to_concept_map");
+    } catch (IOException | SQLException e) {
+      log.error("Loading SOURCE_TO_CONCEPT_MAP.csv failed: {}", e.getMessage());
       jobExecution.setExitStatus(ExitStatus.FAILED);
     }
-
-    var formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-    try (BufferedReader br =
-        new BufferedReader(new FileReader(sourceToConceptMap.getFile(), StandardCharsets.UTF_8))) {
-      br.readLine();
-      var line = "";
-      List<SourceToConceptMap> sourceToConceptMaps = new ArrayList<>();
-      while ((line = br.readLine()) != null) {
-        var splitedLine = Arrays.asList(line.split(";"));
-
-        sourceToConceptMaps.add(
-            SourceToConceptMap.builder()
-                .sourceCode(splitedLine.get(0))
-                .sourceConceptId(Integer.parseInt(splitedLine.get(1)))
-                .sourceVocabularyId(splitedLine.get(2))
-                .sourceCodeDescription(splitedLine.get(3))
-                .targetConceptId(Integer.parseInt(splitedLine.get(4)))
-                .targetVocabularyId(splitedLine.get(5))
-                .validStartDate(LocalDate.parse(splitedLine.get(6), formatter))
-                .validEndDate(LocalDate.parse(splitedLine.get(7), formatter))
-                .build());
-      }
-
-      omopRepository.getSourceToConceptRepository().saveAll(sourceToConceptMaps);
-      log.info("Inserted {} rows into SOURCE_TO_CONCEPT_MAP.", sourceToConceptMaps.size());
-    } catch (FileNotFoundException e) {
-      log.error(e.getMessage());
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
   }
 }
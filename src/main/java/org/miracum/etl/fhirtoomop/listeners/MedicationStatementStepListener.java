@@ -1,17 +1,14 @@
 package org.miracum.etl.fhirtoomop.listeners;
 
-import static org.miracum.etl.fhirtoomop.Constants.VOCABULARY_ATC;
-import static org.miracum.etl.fhirtoomop.Constants.VOCABULARY_SNOMED;
-import static org.miracum.etl.fhirtoomop.Constants.VOCABULARY_UCUM;
-
 import com.google.common.base.Strings;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.EnumSet;
 import javax.sql.DataSource;
 import lombok.extern.slf4j.Slf4j;
-import org.miracum.etl.fhirtoomop.DbMappings;
+import org.miracum.etl.fhirtoomop.DictionaryLoadingService;
+import org.miracum.etl.fhirtoomop.DictionaryLoadingService.Dictionary;
 import org.miracum.etl.fhirtoomop.MemoryLogger;
-import org.miracum.etl.fhirtoomop.repository.OmopRepository;
 import org.miracum.etl.fhirtoomop.utils.ExecuteSqlScripts;
 import org.springframework.batch.core.ExitStatus;
 import org.springframework.batch.core.StepContribution;
@@ -35,9 +32,8 @@ import org.springframework.util.StopWatch;
 @Slf4j
 @Component
 public class MedicationStatementStepListener implements StepExecutionListener {
-  private final OmopRepository repositories;
-  private final DbMappings dbMappings;
   private static final MemoryLogger memoryLogger = new MemoryLogger();
+  private final DictionaryLoadingService dictionaryLoadingService;
   private Boolean dictionaryLoadInRam;
   private final Boolean bulkload;
 
@@ -51,8 +47,7 @@ public class MedicationStatementStepListener implements StepExecutionListener {
   /**
    * Constructor for objects of the class MedicationStatementStepListener.
    *
-   * @param repositories OMOP CDM repositories
-   * @param dbMappings collections for the intermediate storage of data from OMOP CDM in RAM
+   * @param dictionaryLoadingService service which loads the dictionaries of the steps
    * @param dictionaryLoadInRam parameter which indicates whether referenced data is searched in RAM
    *     or in OMOP CDM database
    * @param startSingleStep parameter which indicates which steps should be executed
@@ -62,13 +57,11 @@ public class MedicationStatementStepListener implements StepExecutionListener {
    */
   @Autowired
   public MedicationStatementStepListener(
-      OmopRepository repositories,
-      DbMappings dbMappings,
+      DictionaryLoadingService dictionaryLoadingService,
       Boolean dictionaryLoadInRam,
       Boolean bulkload,
       DataSource dataSource) {
-    this.repositories = repositories;
-    this.dbMappings = dbMappings;
+    this.dictionaryLoadingService = dictionaryLoadingService;
     this.dictionaryLoadInRam = dictionaryLoadInRam;
     this.bulkload = bulkload;
     this.dataSource = dataSource;
@@ -82,8 +75,10 @@ public class MedicationStatementStepListener implements StepExecutionListener {
    */
   @Override
   public void beforeStep(StepExecution stepExecution) {
+    var dictionaries = EnumSet.noneOf(Dictionary.class);
+    var restart = StepRestart.markStarted(stepExecution);
     if (bulkload.equals(Boolean.TRUE)) {
-      if (!Strings.isNullOrEmpty(startSingleStep)) {
+      if (!Strings.isNullOrEmpty(startSingleStep) && !restart) {
         StopWatch stopWatch = new StopWatch();
         stopWatch.start();
         try {
@@ -100,32 +95,12 @@ public class MedicationStatementStepListener implements StepExecutionListener {
       }
 
       if (dictionaryLoadInRam.equals(Boolean.TRUE)) {
-        dbMappings.setFindPersonIdByLogicalId(
-            repositories.getPersonRepository().getFhirLogicalIdAndPersonId());
-        dbMappings.setFindPersonIdByIdentifier(
-            repositories.getPersonRepository().getFhirIdentifierAndPersonId());
-
-        dbMappings.setFindVisitOccIdByLogicalId(
-            repositories.getVisitOccRepository().getFhirLogicalIdAndVisitOccId());
-        dbMappings.setFindVisitOccIdByIdentifier(
-            repositories.getVisitOccRepository().getFhirIdentifierAndVisitOccId());
+        dictionaries.addAll(Dictionary.PERSON_AND_VISIT);
       }
-      dbMappings
-          .getOmopConceptMapWrapper()
-          .setFindValidSnomedConcept(
-              repositories.getConceptRepository().findValidConceptId(VOCABULARY_SNOMED));
-      dbMappings
-          .getOmopConceptMapWrapper()
-          .setFindValidAtcConcept(
-              repositories.getConceptRepository().findValidConceptId(VOCABULARY_ATC));
-      dbMappings
-          .getOmopConceptMapWrapper()
-          .setFindValidUcumConcept(
-              repositories.getConceptRepository().findValidConceptId(VOCABULARY_UCUM));
-      dbMappings.setFindAtcStandardMapping(
-          repositories.getAtcStandardRepository().getAtcStandardMap());
+      dictionaries.addAll(dictionaryLoadingService.vocabularies(stepExecution.getStepName()));
     }
-    dbMappings.setFindMedication(repositories.getMedicationIdRepository().getMedications());
+    dictionaries.add(Dictionary.MEDICATION);
+    dictionaryLoadingService.load(stepExecution.getStepName(), dictionaries);
   }
 
   /**
@@ -155,18 +130,7 @@ public class MedicationStatementStepListener implements StepExecutionListener {
   @Override
   public ExitStatus afterStep(StepExecution stepExecution) {
     memoryLogger.logMemoryDebugOnly();
-    if (bulkload.equals(Boolean.TRUE)) {
-      dbMappings.getOmopConceptMapWrapper().getFindValidAtcConcept().clear();
-      dbMappings.getOmopConceptMapWrapper().getFindValidSnomedConcept().clear();
-      dbMappings.getFindAtcStandardMapping().clear();
-      if (dictionaryLoadInRam.equals(Boolean.TRUE)) {
-        dbMappings.getFindPersonIdByIdentifier().clear();
-        dbMappings.getFindPersonIdByLogicalId().clear();
-        dbMappings.getFindVisitOccIdByIdentifier().clear();
-        dbMappings.getFindVisitOccIdByLogicalId().clear();
-      }
-    }
-    dbMappings.getFindMedication().clear();
+    dictionaryLoadingService.release(stepExecution.getStepName());
 
     return ExitStatus.COMPLETED;
   }
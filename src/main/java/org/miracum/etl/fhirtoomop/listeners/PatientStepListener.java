@@ -1,10 +1,11 @@
 package org.miracum.etl.fhirtoomop.listeners;
 
-import static org.miracum.etl.fhirtoomop.Constants.VOCABULARY_SNOMED;
-
+import java.util.EnumSet;
 import lombok.extern.slf4j.Slf4j;
-import org.miracum.etl.fhirtoomop.DbMappings;
+import org.miracum.etl.fhirtoomop.DictionaryLoadingService;
+import org.miracum.etl.fhirtoomop.DictionaryLoadingService.Dictionary;
 import org.miracum.etl.fhirtoomop.MemoryLogger;
+import org.miracum.etl.fhirtoomop.PatientShardDecision;
 import org.miracum.etl.fhirtoomop.repository.OmopRepository;
 import org.springframework.batch.core.ExitStatus;
 import org.springframework.batch.core.StepExecution;
@@ -27,23 +28,26 @@ import org.springframework.stereotype.Component;
 @CacheConfig(cacheManager = "caffeineCacheManager")
 public class PatientStepListener implements StepExecutionListener {
   private final OmopRepository repositories;
-  private final DbMappings dbMappings;
   private static final MemoryLogger memoryLogger = new MemoryLogger();
+  private final DictionaryLoadingService dictionaryLoadingService;
   private final Boolean bulkload;
   @Autowired CaffeineCacheManager cacheManager;
 
   /**
    * Constructor for objects of the class PatientStepListener.
    *
+   * @param dictionaryLoadingService service which loads the dictionaries of the steps
    * @param repositories OMOP CDM repositories
-   * @param dbMappings collections for the intermediate storage of data from OMOP CDM in RAM
    * @param idMappings reference to internal id mappings
    * @param bulkload flag to differentiate between bulk load or incremental load
    */
   @Autowired
-  public PatientStepListener(OmopRepository repositories, DbMappings dbMappings, Boolean bulkload) {
+  public PatientStepListener(
+      DictionaryLoadingService dictionaryLoadingService,
+      OmopRepository repositories,
+      Boolean bulkload) {
+    this.dictionaryLoadingService = dictionaryLoadingService;
     this.repositories = repositories;
-    this.dbMappings = dbMappings;
     this.bulkload = bulkload;
   }
 
@@ -55,8 +59,13 @@ public class PatientStepListener implements StepExecutionListener {
    */
   @Override
   public void beforeStep(StepExecution stepExecution) {
+    var dictionaries = EnumSet.noneOf(Dictionary.class);
 
-    if (bulkload.equals(Boolean.TRUE)) {
+    if (StepRestart.markStarted(stepExecution)) {
+      log.info("========= Continuing the interrupted step, OMOP DB is kept =========");
+    } else if (PatientShardDecision.shardIndex(stepExecution.getJobExecution()) >= 0) {
+      log.info("========= OMOP DB has been prepared before the first patient shard =========");
+    } else if (bulkload.equals(Boolean.TRUE)) {
       log.info("========= Preparing OMOP DB for BulkLoad =========");
       truncateDb();
     } else {
@@ -64,18 +73,15 @@ public class PatientStepListener implements StepExecutionListener {
       cleanUpTable();
     }
 
-    dbMappings.setFindHardCodeConcept(
-        repositories.getSourceToConceptRepository().sourceToConceptMap());
-    dbMappings
-        .getOmopConceptMapWrapper()
-        .setFindValidSnomedConcept(
-            repositories.getConceptRepository().findValidConceptId(VOCABULARY_SNOMED));
-    dbMappings.setFindSnomedRaceStandardMapping(
-        repositories.getSnomedRaceRepository().getSnomedRaceMap());
+    dictionaries.addAll(dictionaryLoadingService.vocabularies(stepExecution.getStepName()));
+    dictionaryLoadingService.load(stepExecution.getStepName(), dictionaries);
   }
 
-  /** Empties the complete OMOP CDM database. */
-  private void truncateDb() {
+  /**
+   * Empties the complete OMOP CDM database. A patient-sharded bulk load empties it once before the
+   * Medication resources and the first patient shard are processed.
+   */
+  public void truncateDb() {
     repositories.getPersonRepository().truncateTable();
     repositories.getLocationRepository().deleteAll();
     repositories.getPostProcessMapRepository().truncateTable();
@@ -101,7 +107,7 @@ public class PatientStepListener implements StepExecutionListener {
   @Override
   public ExitStatus afterStep(StepExecution stepExecution) {
     memoryLogger.logMemoryDebugOnly();
-    dbMappings.getFindHardCodeConcept().clear();
+    dictionaryLoadingService.release(stepExecution.getStepName());
     cleanUpCache();
     return ExitStatus.COMPLETED;
   }
@@ -0,0 +1,147 @@
+package org.miracum.etl.fhirtoomop.listeners;
+
+/**
+ * The StepProgress class keeps track of the progress of a single step. It calculates the current
+ * throughput, an exponentially weighted moving average of the throughput and the estimated time
+ * until the step is finished.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+public class StepProgress {
+  private static final double SMOOTHING_FACTOR = 0.2;
+  private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+  private final long startNanos;
+  private long total = -1;
+  private long restored;
+  private long processed;
+  private long lastProcessed;
+  private long lastNanos;
+  private double currentRate;
+  private double averageRate;
+
+  /**
+   * Constructor for objects of the class StepProgress.
+   *
+   * @param startNanos the start time of the step in nanoseconds
+   */
+  public StepProgress(long startNanos) {
+    this.startNanos = startNanos;
+    this.lastNanos = startNanos;
+  }
+
+  /**
+   * Sets the number of FHIR resources which are expected to be processed in the step.
+   *
+   * @param total the expected number of FHIR resources or a negative value if unknown
+   */
+  public synchronized void setTotal(long total) {
+    this.total = total;
+  }
+
+  /**
+   * Sets the number of FHIR resources which have been committed before the restart of the step.
+   * They are counted as processed, but not in the throughput.
+   *
+   * @param restored the number of FHIR resources committed before the restart
+   */
+  public synchronized void setRestored(long restored) {
+    this.restored = restored;
+    processed = restored + lastProcessed;
+  }
+
+  /**
+   * Updates the progress with the number of FHIR resources processed so far by this execution of
+   * the step.
+   *
+   * @param processedCount the number of FHIR resources processed so far by this execution
+   * @param nowNanos the current time in nanoseconds
+   */
+  public synchronized void update(long processedCount, long nowNanos) {
+    var elapsedSeconds = (nowNanos - lastNanos) / NANOS_PER_SECOND;
+    if (processedCount <= lastProcessed || elapsedSeconds <= 0) {
+      processed = Math.max(processed, restored + processedCount);
+      return;
+    }
+    currentRate = (processedCount - lastProcessed) / elapsedSeconds;
+    averageRate =
+        averageRate == 0
+            ? currentRate
+            : SMOOTHING_FACTOR * currentRate + (1 - SMOOTHING_FACTOR) * averageRate;
+    lastProcessed = processedCount;
+    lastNanos = nowNanos;
+    processed = restored + processedCount;
+  }
+
+  /**
+   * Returns the number of FHIR resources which are expected to be processed in the step.
+   *
+   * @return the expected number of FHIR resources or -1 if unknown
+   */
+  public synchronized long getTotal() {
+    return total;
+  }
+
+  /**
+   * Returns the number of FHIR resources processed so far.
+   *
+   * @return the number of FHIR resources processed so far
+   */
+  public synchronized long getProcessed() {
+    return processed;
+  }
+
+  /**
+   * Returns the throughput since the last update in resources per second.
+   *
+   * @return the current throughput
+   */
+  public synchronized double getCurrentRate() {
+    return currentRate;
+  }
+
+  /**
+   * Returns the moving average of the throughput in resources per second.
+   *
+   * @return the moving average of the throughput
+   */
+  public synchronized double getAverageRate() {
+    return averageRate;
+  }
+
+  /**
+   * Returns the share of the expected FHIR resources which has already been processed.
+   *
+   * @return the progress in percent or NaN if the expected number of FHIR resources is unknown
+   */
+  public synchronized double getPercentage() {
+    if (total <= 0) {
+      return Double.NaN;
+    }
+    return Math.min(100d, processed * 100d / total);
+  }
+
+  /**
+   * Returns the estimated time until all expected FHIR resources are processed, based on the moving
+   * average of the throughput.
+   *
+   * @return the estimated remaining time in seconds or NaN if it cannot be estimated yet
+   */
+  public synchronized double getEtaSeconds() {
+    if (total < 0 || averageRate <= 0) {
+      return Double.NaN;
+    }
+    return Math.max(0, total - processed) / averageRate;
+  }
+
+  /**
+   * Returns the time elapsed since the start of the step.
+   *
+   * @param nowNanos the current time in nanoseconds
+   * @return the elapsed time in seconds
+   */
+  public double getElapsedSeconds(long nowNanos) {
+    return (nowNanos - startNanos) / NANOS_PER_SECOND;
+  }
+}
@@ -0,0 +1,220 @@
+package org.miracum.etl.fhirtoomop.listeners;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+import lombok.extern.slf4j.Slf4j;
+import org.miracum.etl.fhirtoomop.mapper.helpers.MapperMetrics;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.metrics.BatchMetrics;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * The StepProgressListener class reports the progress of the steps for FHIR resources while they
+ * are running. After each chunk the number of processed and expected FHIR resources, the current
+ * and the average throughput and the estimated remaining time are published as gauges and
+ * periodically written to the log.
+ *
+ * <p>The expected number of FHIR resources is provided by the reader of the step under the key
+ * {@link #EXPECTED_ITEMS_KEY} in the execution context of the step. After a restart, the reader
+ * provides the number of FHIR resources committed by the previous executions under the key {@link
+ * #RESTORED_ITEMS_KEY}, which are counted as processed.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+@Component
+public class StepProgressListener implements StepExecutionListener, ChunkListener {
+
+  /** Key in the execution context of a step holding the expected number of FHIR resources. */
+  public static final String EXPECTED_ITEMS_KEY = "progress.total";
+
+  /**
+   * Key in the execution context of a step holding the number of FHIR resources committed before
+   * the restart of the step.
+   */
+  public static final String RESTORED_ITEMS_KEY = "progress.restored";
+
+  private final Map<String, StepProgress> progressByStep = new ConcurrentHashMap<>();
+  private final Map<String, AtomicLong> lastLogByStep = new ConcurrentHashMap<>();
+  private final Boolean enabled;
+  private final long logIntervalNanos;
+
+  /**
+   * Constructor for objects of the class StepProgressListener.
+   *
+   * @param enabled flag to enable the progress reporting
+   * @param logIntervalSeconds the minimal interval between two progress log lines in seconds
+   */
+  public StepProgressListener(
+      @Value("${app.progress.enabled}") Boolean enabled,
+      @Value("${app.progress.logInterval}") long logIntervalSeconds) {
+    this.enabled = enabled;
+    this.logIntervalNanos = TimeUnit.SECONDS.toNanos(logIntervalSeconds);
+  }
+
+  /**
+   * Starts tracking the progress of a step.
+   *
+   * @param stepExecution the execution of the step
+   */
+  @Override
+  public void beforeStep(StepExecution stepExecution) {
+    if (!enabled.booleanValue()) {
+      return;
+    }
+    var stepName = stepExecution.getStepName();
+    var now = System.nanoTime();
+    progressByStep.put(stepName, new StepProgress(now));
+    lastLogByStep.put(stepName, new AtomicLong(now));
+    registerGauges(stepName);
+  }
+
+  @Override
+  public void beforeChunk(ChunkContext context) {
+    // nothing to do before a chunk
+  }
+
+  /**
+   * Updates the progress of the running step after each chunk and logs it, if the log interval has
+   * passed.
+   *
+   * @param context the context of the chunk
+   */
+  @Override
+  public void afterChunk(ChunkContext context) {
+    if (!enabled.booleanValue()) {
+      return;
+    }
+    var stepExecution = context.getStepContext().getStepExecution();
+    var stepName = stepExecution.getStepName();
+    var progress = progressByStep.get(stepName);
+    if (progress == null) {
+      return;
+    }
+    var executionContext = stepExecution.getExecutionContext();
+    if (progress.getTotal() < 0 && executionContext.containsKey(EXPECTED_ITEMS_KEY)) {
+      progress.setTotal(executionContext.getLong(EXPECTED_ITEMS_KEY));
+    }
+    if (executionContext.containsKey(RESTORED_ITEMS_KEY)) {
+      progress.setRestored(executionContext.getLong(RESTORED_ITEMS_KEY));
+    }
+    var now = System.nanoTime();
+    progress.update(stepExecution.getReadCount(), now);
+
+    var lastLog = lastLogByStep.get(stepName);
+    var last = lastLog.get();
+    if (now - last >= logIntervalNanos && lastLog.compareAndSet(last, now)) {
+      logProgress(stepName, progress);
+    }
+  }
+
+  @Override
+  public void afterChunkError(ChunkContext context) {
+    // failed chunks are not counted
+  }
+
+  /**
+   * Logs the final progress of a step.
+   *
+   * @param stepExecution the execution of the step
+   * @return the exit status of the step
+   */
+  @Override
+  public ExitStatus afterStep(StepExecution stepExecution) {
+    var progress = progressByStep.get(stepExecution.getStepName());
+    if (progress != null) {
+      progress.update(stepExecution.getReadCount(), System.nanoTime());
+      logProgress(stepExecution.getStepName(), progress);
+    }
+    return null;
+  }
+
+  /**
+   * Registers the progress gauges of a step. The gauges always read the progress of the latest
+   * execution of the step.
+   *
+   * @param stepName the name of the step
+   */
+  private void registerGauges(String stepName) {
+    registerGauge(
+        "batch.fhir.progress.processed",
+        "Number of processed FHIR resources",
+        stepName,
+        StepProgress::getProcessed);
+    registerGauge(
+        "batch.fhir.progress.total",
+        "Number of expected FHIR resources",
+        stepName,
+        StepProgress::getTotal);
+    registerGauge(
+        "batch.fhir.progress.rate",
+        "Current throughput in FHIR resources per second",
+        stepName,
+        StepProgress::getCurrentRate);
+    registerGauge(
+        "batch.fhir.progress.rate.average",
+        "Moving average of the throughput in FHIR resources per second",
+        stepName,
+        StepProgress::getAverageRate);
+    registerGauge(
+        "batch.fhir.progress.eta",
+        "Estimated remaining time in seconds",
+        stepName,
+        StepProgress::getEtaSeconds);
+  }
+
+  private void registerGauge(
+      String name, String description, String stepName, ToDoubleFunction<StepProgress> value) {
+    MapperMetrics.setStepProgressGauge(
+        name,
+        description,
+        stepName,
+        progressByStep,
+        progress ->
+            progress.containsKey(stepName)
+                ? value.applyAsDouble(progress.get(stepName))
+                : Double.NaN);
+  }
+
+  /**
+   * Writes the progress of a step to the log.
+   *
+   * @param stepName the name of the step
+   * @param progress the progress of the step
+   */
+  private void logProgress(String stepName, StepProgress progress) {
+    var elapsed = formatSeconds(progress.getElapsedSeconds(System.nanoTime()));
+    var etaSeconds = progress.getEtaSeconds();
+    var eta = Double.isNaN(etaSeconds) ? "unknown" : formatSeconds(etaSeconds);
+    var total = progress.getTotal() < 0 ? "?" : String.valueOf(progress.getTotal());
+    var percentage = progress.getPercentage();
+
+    log.info(
+        "[{}] Progress: [{}/{}] ({}) resources in [{}], current [{}/s], average [{}/s], ETA [{}].",
+        stepName,
+        progress.getProcessed(),
+        total,
+        Double.isNaN(percentage) ? "?" : String.format("%.1f%%", percentage),
+        elapsed,
+        String.format("%.0f", progress.getCurrentRate()),
+        String.format("%.0f", progress.getAverageRate()),
+        eta);
+  }
+
+  private String formatSeconds(double seconds) {
+    if (seconds < 1) {
+      return "0s";
+    }
+    return BatchMetrics.formatDuration(Duration.ofSeconds((long) seconds));
+  }
+}
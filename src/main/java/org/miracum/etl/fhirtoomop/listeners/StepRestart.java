@@ -0,0 +1,35 @@
+package org.miracum.etl.fhirtoomop.listeners;
+
+import org.springframework.batch.core.StepExecution;
+
+/**
+ * The StepRestart class detects whether a step continues a failed or interrupted execution. In this
+ * case, the step must not clean up the OMOP CDM tables before it starts, because they contain the
+ * data of the chunks which have already been committed.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+public final class StepRestart {
+
+  /** Key in the execution context of a step marking that the step has been started before. */
+  static final String STARTED_KEY = "step.started";
+
+  private StepRestart() {}
+
+  /**
+   * Marks the step as started and checks whether it has been started before. The mark is stored in
+   * the execution context of the step, which is restored when a failed step is restarted.
+   *
+   * @param stepExecution the execution of the step
+   * @return true, if the step continues a previous execution
+   */
+  public static boolean markStarted(StepExecution stepExecution) {
+    var executionContext = stepExecution.getExecutionContext();
+    if (executionContext.containsKey(STARTED_KEY)) {
+      return true;
+    }
+    executionContext.putString(STARTED_KEY, stepExecution.getStepName());
+    return false;
+  }
+}
@@ -0,0 +1,116 @@
+package org.miracum.etl.fhirtoomop.listeners;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import lombok.extern.slf4j.Slf4j;
+import org.miracum.etl.fhirtoomop.mapper.helpers.UnmappedCodeAggregator;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * The UnmappedCodeStepListener class writes the statistics of the FHIR codes, which could not be
+ * mapped to OMOP CDM during a step, in one batch to the table
+ * cds_etl_helper.unmapped_code_statistics after the step has finished.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+@Component
+public class UnmappedCodeStepListener implements StepExecutionListener {
+  private static final String INSERT_STATISTIC =
+      "INSERT INTO cds_etl_helper.unmapped_code_statistics (step_name, vocabulary_id, source_code, reason, occurrences, sample_fhir_ids, recorded_at) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+  // lengths of the columns in cds_etl_helper.unmapped_code_statistics
+  private static final int MAX_VOCABULARY_ID_LENGTH = 64;
+  private static final int MAX_SOURCE_CODE_LENGTH = 255;
+
+  private final UnmappedCodeAggregator unmappedCodes;
+  private final JdbcTemplate jdbcTemplate;
+
+  /**
+   * Constructor for objects of the class UnmappedCodeStepListener.
+   *
+   * @param unmappedCodes aggregator of the FHIR codes which could not be mapped to OMOP CDM
+   * @param jdbcTemplate JdbcTemplate for the OMOP CDM database, resolved lazily because the
+   *     listener is already needed to create the task configuration, on which the initialization of
+   *     the databases depends
+   */
+  public UnmappedCodeStepListener(
+      UnmappedCodeAggregator unmappedCodes,
+      @Lazy @Qualifier("writerJdbcTemplate") JdbcTemplate jdbcTemplate) {
+    this.unmappedCodes = unmappedCodes;
+    this.jdbcTemplate = jdbcTemplate;
+  }
+
+  @Override
+  public void beforeStep(StepExecution stepExecution) {
+    // discard statistics of a previous execution of the step
+    unmappedCodes.drain(stepExecution.getStepName());
+  }
+
+  /**
+   * Writes the statistics of the unmapped FHIR codes of the step to OMOP CDM.
+   *
+   * @param stepExecution the execution of the step
+   * @return the exit status of the step
+   */
+  @Override
+  public ExitStatus afterStep(StepExecution stepExecution) {
+    var statistics = unmappedCodes.drain(stepExecution.getStepName());
+    if (statistics.isEmpty()) {
+      return null;
+    }
+    var recordedAt = Timestamp.valueOf(LocalDateTime.now());
+    try {
+      jdbcTemplate.batchUpdate(
+          INSERT_STATISTIC,
+          statistics,
+          statistics.size(),
+          (ps, statistic) -> {
+            var key = statistic.getKey();
+            ps.setString(1, key.stepName());
+            ps.setString(2, truncate(key.vocabularyId(), MAX_VOCABULARY_ID_LENGTH));
+            ps.setString(3, truncate(key.code(), MAX_SOURCE_CODE_LENGTH));
+            ps.setString(4, key.reason());
+            ps.setLong(5, statistic.getOccurrences());
+            ps.setString(6, String.join(",", statistic.getSampleFhirIds()));
+            ps.setTimestamp(7, recordedAt);
+          });
+    } catch (DataAccessException e) {
+      log.warn(
+          "[{}] Unable to write statistics of unmapped codes: {}",
+          stepExecution.getStepName(),
+          e.getMessage());
+      return null;
+    }
+    var occurrences = statistics.stream().mapToLong(s -> s.getOccurrences()).sum();
+    log.info(
+        "[{}] Found [{}] distinct unmapped or invalid codes in [{}] occurrences. Details in cds_etl_helper.unmapped_code_statistics.",
+        stepExecution.getStepName(),
+        statistics.size(),
+        occurrences);
+    return null;
+  }
+
+  /**
+   * Shortens a value to the length of its column, so that a single overlong FHIR code does not fail
+   * the insert of all statistics of the step.
+   *
+   * @param value the value to be inserted
+   * @param maxLength the length of the column
+   * @return the value, shortened to the length of the column
+   */
+  static String truncate(String value, int maxLength) {
+    if (value == null || value.length() <= maxLength) {
+      return value;
+    }
+    return value.substring(0, maxLength);
+  }
+}
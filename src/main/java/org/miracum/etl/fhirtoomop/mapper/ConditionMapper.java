@@ -48,6 +48,7 @@ import org.miracum.etl.fhirtoomop.model.omop.ProcedureOccurrence;
 import org.miracum.etl.fhirtoomop.model.omop.SourceToConceptMap;
 import org.miracum.etl.fhirtoomop.repository.service.ConditionMapperServiceImpl;
 import org.miracum.etl.fhirtoomop.repository.service.OmopConceptServiceImpl;
+import org.miracum.etl.fhirtoomop.writer.OmopUpsertWriter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
@@ -73,6 +74,7 @@ public class ConditionMapper implements FhirMapper<Condition> {
   @Autowired ConditionMapperServiceImpl conditionService;
   @Autowired ResourceCheckDataAbsentReason checkDataAbsentReason;
   @Autowired FindOmopConcepts findOmopConcepts;
+  @Autowired OmopUpsertWriter upsertWriter;
 
   private static final Counter noStartDateCounter =
       MapperMetrics.setNoStartDateCounter("stepProcessConditions");
@@ -112,6 +114,32 @@ public class ConditionMapper implements FhirMapper<Condition> {
    */
   @Override
   public OmopModelWrapper map(Condition srcCondition, boolean isDeleted) {
+    var conditionLogicId = fhirReferenceUtils.extractId(srcCondition);
+    var upsert = !isDeleted && isUpserted(conditionLogicId);
+    var wrapper = mapCondition(srcCondition, isDeleted, upsert);
+    if (upsert) {
+      if (wrapper == null) {
+        // the resource is skipped, so its existing records are deleted as without upserts
+        conditionService.deleteExistingConditionsByFhirLogicalId(conditionLogicId);
+      } else {
+        wrapper.setReplacedFhirLogicalId(conditionLogicId);
+      }
+    }
+    return wrapper;
+  }
+
+  /**
+   * Maps a FHIR Condition resource to several OMOP CDM tables. If the records are written with
+   * upserts, the existing records of the FHIR Condition resource are only deleted from the tables
+   * without upserts.
+   *
+   * @param srcCondition FHIR Condition resource
+   * @param isDeleted a flag, whether the FHIR resource is deleted in the source
+   * @param upsert a flag, whether the records are written with upserts
+   * @return OmopModelWrapper cache of newly created OMOP CDM records from the FHIR Condition
+   *     resource
+   */
+  private OmopModelWrapper mapCondition(Condition srcCondition, boolean isDeleted, boolean upsert) {
     var wrapper = new OmopModelWrapper();
 
     var conditionLogicId = fhirReferenceUtils.extractId(srcCondition);
@@ -129,7 +157,11 @@ public class ConditionMapper implements FhirMapper<Condition> {
     }
 
     if (bulkload.equals(Boolean.FALSE)) {
-      deleteExistingConditionEntry(conditionLogicId, conditionSourceIdentifier);
+      if (upsert) {
+        conditionService.deleteExistingConditionsWithoutUpsertsByFhirLogicalId(conditionLogicId);
+      } else {
+        deleteExistingConditionEntry(conditionLogicId, conditionSourceIdentifier);
+      }
       if (isDeleted) {
         deleteExistingPostProcessMapEntry(conditionLogicId, conditionSourceIdentifier);
         deletedFhirReferenceCounter.increment();
@@ -1012,6 +1044,17 @@ public class ConditionMapper implements FhirMapper<Condition> {
     return diagnosticConfidence;
   }
 
+  /**
+   * Checks whether the records of a FHIR Condition resource are written with upserts, which is only
+   * possible with its logical id.
+   *
+   * @param conditionLogicId logical id of the FHIR Condition resource
+   * @return true if the records are written with upserts
+   */
+  private boolean isUpserted(String conditionLogicId) {
+    return upsertWriter.isEnabled() && !Strings.isNullOrEmpty(conditionLogicId);
+  }
+
   /**
    * Deletes FHIR Condition resources from OMOP CDM tables using fhir_logical_id and fhir_identifier
    *
@@ -60,6 +60,7 @@ import org.miracum.etl.fhirtoomop.model.omop.ProcedureOccurrence;
 import org.miracum.etl.fhirtoomop.model.omop.SourceToConceptMap;
 import org.miracum.etl.fhirtoomop.repository.service.ObservationMapperServiceImpl;
 import org.miracum.etl.fhirtoomop.repository.service.OmopConceptServiceImpl;
+import org.miracum.etl.fhirtoomop.writer.OmopUpsertWriter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
@@ -86,6 +87,7 @@ public class ObservationMapper implements FhirMapper<Observation> {
   @Autowired ResourceFhirReferenceUtils fhirReferenceUtils;
   @Autowired ResourceCheckDataAbsentReason checkDataAbsentReason;
   @Autowired FindOmopConcepts findOmopConcepts;
+  @Autowired OmopUpsertWriter upsertWriter;
 
   private static final Counter noStartDateCounter =
       MapperMetrics.setNoStartDateCounter("stepProcessObservations");
@@ -127,6 +129,33 @@ public class ObservationMapper implements FhirMapper<Observation> {
    */
   @Override
   public OmopModelWrapper map(Observation srcObservation, boolean isDeleted) {
+    var observationLogicId = fhirReferenceUtils.extractId(srcObservation);
+    var upsert = !isDeleted && isUpserted(observationLogicId);
+    var wrapper = mapObservation(srcObservation, isDeleted, upsert);
+    if (upsert) {
+      if (wrapper == null) {
+        // the resource is skipped, so its existing records are deleted as without upserts
+        observationService.deleteExistingLabObservationByFhirLogicalId(observationLogicId);
+      } else {
+        wrapper.setReplacedFhirLogicalId(observationLogicId);
+      }
+    }
+    return wrapper;
+  }
+
+  /**
+   * Maps a FHIR Observation resource to several OMOP CDM tables. If the records are written with
+   * upserts, the existing records of the FHIR Observation resource are only deleted from the tables
+   * without upserts.
+   *
+   * @param srcObservation FHIR Observation resource
+   * @param isDeleted a flag, whether the FHIR resource is deleted in the source
+   * @param upsert a flag, whether the records are written with upserts
+   * @return OmopModelWrapper cache of newly created OMOP CDM records from the FHIR Observation
+   *     resource
+   */
+  private OmopModelWrapper mapObservation(
+      Observation srcObservation, boolean isDeleted, boolean upsert) {
     var wrapper = new OmopModelWrapper();
 
     var observationLogicId = fhirReferenceUtils.extractId(srcObservation);
@@ -145,7 +174,12 @@ public class ObservationMapper implements FhirMapper<Observation> {
     }
 
     if (bulkload.equals(Boolean.FALSE)) {
-      deleteExistingLabObservations(observationLogicId, observationSourceIdentifier);
+      if (upsert) {
+        observationService.deleteExistingLabObservationWithoutUpsertsByFhirLogicalId(
+            observationLogicId);
+      } else {
+        deleteExistingLabObservations(observationLogicId, observationSourceIdentifier);
+      }
       if (isDeleted) {
         deletedFhirReferenceCounter.increment();
         log.info(
@@ -1710,6 +1744,17 @@ public class ObservationMapper implements FhirMapper<Observation> {
     return null;
   }
 
+  /**
+   * Checks whether the records of a FHIR Observation resource are written with upserts, which is
+   * only possible with its logical id.
+   *
+   * @param observationLogicId logical id of the FHIR Observation resource
+   * @return true if the records are written with upserts
+   */
+  private boolean isUpserted(String observationLogicId) {
+    return upsertWriter.isEnabled() && !Strings.isNullOrEmpty(observationLogicId);
+  }
+
   /**
    * Delete FHIR Observation resources from OMOP CDM tables using fhir_logical_id and
    * fhir_identifier
@@ -0,0 +1,195 @@
+package org.miracum.etl.fhirtoomop.mapper.helpers;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.miracum.etl.fhirtoomop.model.omop.Concept;
+
+/**
+ * The CompactConceptDictionary class stores the concepts of one OMOP CDM vocabulary column by
+ * column in primitive arrays instead of keeping a JPA entity per concept. Only the columns needed
+ * for mapping are kept: concept_id, concept_code, domain_id and the validity dates. The domains are
+ * dictionary-encoded and the concept codes are found through an open-addressing hash table.
+ *
+ * <p>The dictionary is immutable and can be used by several threads at the same time.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+public final class CompactConceptDictionary implements ConceptDictionary {
+  private static final int EMPTY_SLOT = -1;
+  private static final int OPEN_START = Integer.MIN_VALUE;
+  private static final int OPEN_END = Integer.MAX_VALUE;
+
+  private final String vocabularyId;
+
+  // concept codes, as characters of all codes and their offsets
+  private final char[] codeChars;
+  private final int[] codeOffsets;
+  private final int[] codeHashes;
+  private final int[] firstRows;
+  private final int[] slots;
+
+  // one row per concept, the rows of a concept code are stored consecutively
+  private final int[] conceptIds;
+  private final int[] validStartDays;
+  private final int[] validEndDays;
+  private final short[] domainIndices;
+  private final String[] domains;
+
+  /**
+   * Constructor for objects of the class CompactConceptDictionary. The order of the concepts with
+   * the same concept_code is preserved.
+   *
+   * @param concepts all concepts of a vocabulary
+   */
+  public CompactConceptDictionary(Collection<Concept> concepts) {
+    var byCode = new LinkedHashMap<String, List<Concept>>();
+    for (var concept : concepts) {
+      byCode.computeIfAbsent(concept.getConceptCode(), k -> new ArrayList<>()).add(concept);
+    }
+    this.vocabularyId = concepts.isEmpty() ? null : concepts.iterator().next().getVocabularyId();
+
+    var codeCount = byCode.size();
+    var rowCount = concepts.size();
+    codeOffsets = new int[codeCount + 1];
+    codeHashes = new int[codeCount];
+    firstRows = new int[codeCount + 1];
+    conceptIds = new int[rowCount];
+    validStartDays = new int[rowCount];
+    validEndDays = new int[rowCount];
+    domainIndices = new short[rowCount];
+    codeChars = new char[byCode.keySet().stream().mapToInt(String::length).sum()];
+
+    var domainIds = new HashMap<String, Short>();
+    var domainList = new ArrayList<String>();
+    int code = 0;
+    int row = 0;
+    int offset = 0;
+    for (var entry : byCode.entrySet()) {
+      var conceptCode = entry.getKey();
+      conceptCode.getChars(0, conceptCode.length(), codeChars, offset);
+      codeOffsets[code] = offset;
+      codeHashes[code] = conceptCode.hashCode();
+      firstRows[code] = row;
+      offset += conceptCode.length();
+      for (var concept : entry.getValue()) {
+        conceptIds[row] = concept.getConceptId();
+        validStartDays[row] = epochDay(concept.getValidStartDate(), OPEN_START);
+        validEndDays[row] = epochDay(concept.getValidEndDate(), OPEN_END);
+        domainIndices[row] =
+            domainIds.computeIfAbsent(
+                concept.getDomainId(),
+                domain -> {
+                  domainList.add(domain);
+                  return (short) (domainList.size() - 1);
+                });
+        row++;
+      }
+      code++;
+    }
+    codeOffsets[codeCount] = offset;
+    firstRows[codeCount] = row;
+    domains = domainList.toArray(String[]::new);
+
+    // load factor of at most 0.5
+    slots = new int[Integer.highestOneBit(Math.max(1, codeCount) * 2) << 1];
+    Arrays.fill(slots, EMPTY_SLOT);
+    var mask = slots.length - 1;
+    for (int i = 0; i < codeCount; i++) {
+      int slot = spread(codeHashes[i]) & mask;
+      while (slots[slot] != EMPTY_SLOT) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = i;
+    }
+  }
+
+  @Override
+  public int size() {
+    return codeHashes.length;
+  }
+
+  @Override
+  public boolean containsCode(String conceptCode) {
+    return indexOf(conceptCode) != EMPTY_SLOT;
+  }
+
+  @Override
+  public Concept findConcept(String conceptCode, LocalDate validDate) {
+    var code = indexOf(conceptCode);
+    if (code == EMPTY_SLOT) {
+      return null;
+    }
+    var first = firstRows[code];
+    if (validDate == null) {
+      return concept(first, conceptCode);
+    }
+    var day = validDate.toEpochDay();
+    for (int row = first; row < firstRows[code + 1]; row++) {
+      if (validStartDays[row] <= day && day <= validEndDays[row]) {
+        return concept(row, conceptCode);
+      }
+    }
+    return null;
+  }
+
+  private int indexOf(String conceptCode) {
+    if (conceptCode == null) {
+      return EMPTY_SLOT;
+    }
+    var hash = conceptCode.hashCode();
+    var mask = slots.length - 1;
+    int slot = spread(hash) & mask;
+    while (slots[slot] != EMPTY_SLOT) {
+      var code = slots[slot];
+      if (codeHashes[code] == hash && codeEquals(code, conceptCode)) {
+        return code;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return EMPTY_SLOT;
+  }
+
+  private boolean codeEquals(int code, String conceptCode) {
+    var start = codeOffsets[code];
+    var length = codeOffsets[code + 1] - start;
+    if (length != conceptCode.length()) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (codeChars[start + i] != conceptCode.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Creates a concept from a row. Only the columns, which are kept in this dictionary, are set. */
+  private Concept concept(int row, String conceptCode) {
+    return Concept.builder()
+        .conceptId(conceptIds[row])
+        .conceptCode(conceptCode)
+        .vocabularyId(vocabularyId)
+        .domainId(domains[domainIndices[row]])
+        .validStartDate(date(validStartDays[row], OPEN_START))
+        .validEndDate(date(validEndDays[row], OPEN_END))
+        .build();
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private static int epochDay(LocalDate date, int open) {
+    return date == null ? open : Math.toIntExact(date.toEpochDay());
+  }
+
+  private static LocalDate date(int epochDay, int open) {
+    return epochDay == open ? null : LocalDate.ofEpochDay(epochDay);
+  }
+}
@@ -0,0 +1,58 @@
+package org.miracum.etl.fhirtoomop.mapper.helpers;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.miracum.etl.fhirtoomop.model.omop.Concept;
+
+/**
+ * The ConceptDictionary interface represents the concepts of one OMOP CDM vocabulary, which are
+ * looked up by concept_code.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+public interface ConceptDictionary {
+
+  /** A dictionary without any concepts. */
+  ConceptDictionary EMPTY = of(Collections.emptyMap());
+
+  /**
+   * Returns the number of distinct concept codes in this dictionary.
+   *
+   * @return the number of distinct concept codes
+   */
+  int size();
+
+  /**
+   * Checks whether the dictionary contains at least one concept with the concept_code.
+   *
+   * @param conceptCode the identifier of the concept in the source vocabulary
+   * @return true, if a concept with the concept_code exists
+   */
+  boolean containsCode(String conceptCode);
+
+  /**
+   * Searches the first concept with the concept_code, which is valid at a specific date.
+   *
+   * @param conceptCode the identifier of the concept in the source vocabulary
+   * @param validDate the date for which the concept has to be valid, or null if the first concept
+   *     with the concept_code should be returned regardless of its validity
+   * @return the concept, or null if no concept with the concept_code is valid at the date
+   */
+  @Nullable
+  Concept findConcept(String conceptCode, @Nullable LocalDate validDate);
+
+  /**
+   * Creates a dictionary from concepts grouped by concept_code, e.g. the result of a query for a
+   * single concept_code during incremental load.
+   *
+   * @param conceptsByCode the concepts with the concept_code as key
+   * @return the dictionary
+   */
+  static ConceptDictionary of(Map<String, List<Concept>> conceptsByCode) {
+    return new MapConceptDictionary(conceptsByCode);
+  }
+}
@@ -22,6 +22,10 @@ import static org.miracum.etl.fhirtoomop.Constants.VOCABULARY_OPS;
 import static org.miracum.etl.fhirtoomop.Constants.VOCABULARY_ORPHA;
 import static org.miracum.etl.fhirtoomop.Constants.VOCABULARY_SNOMED;
 import static org.miracum.etl.fhirtoomop.Constants.VOCABULARY_UCUM;
+import static org.miracum.etl.fhirtoomop.mapper.helpers.PhaseTimers.PHASE_LOOKUP;
+import static org.miracum.etl.fhirtoomop.mapper.helpers.UnmappedCodeAggregator.REASON_INVALID_CODE;
+import static org.miracum.etl.fhirtoomop.mapper.helpers.UnmappedCodeAggregator.REASON_INVALID_MAPPING;
+import static org.miracum.etl.fhirtoomop.mapper.helpers.UnmappedCodeAggregator.REASON_NOT_MAPPED;
 
 import com.google.common.base.Strings;
 import java.time.LocalDate;
@@ -61,6 +65,7 @@ public class FindOmopConcepts {
 
   @Autowired OmopConceptServiceImpl omopConceptService;
   @Autowired ResourceCheckDataAbsentReason checkDataAbsentReason;
+  @Autowired UnmappedCodeAggregator unmappedCodes;
 
   /**
    * Search for OMOP concept in CONCEPT table for FHIR code
@@ -99,32 +104,52 @@ public class FindOmopConcepts {
       return null;
     }
 
-    Map<String, List<Concept>> allConcepts;
+    return PhaseTimers.record(
+        PHASE_LOOKUP,
+        vocabularyId,
+        () -> findConcept(fhirCode, vocabularyId, codeValidDate, bulkLoad, dbMappings, fhirId));
+  }
+
+  /**
+   * Search for OMOP concept in CONCEPT table for FHIR code
+   *
+   * @param fhirCode code from FHIR resource
+   * @param vocabularyId vocabulary Id in OMOP based on the used system URL in Coding
+   * @param codeValidDate the date for which the OMOP concept has to be valid
+   * @param bulkLoad parameter which indicates whether the Job should be run as bulk load or
+   *     incremental load
+   * @param dbMappings collections for the intermediate storage of data from OMOP CDM in RAM
+   * @return a OMOP CONCEPT model
+   */
+  private Concept findConcept(
+      String fhirCode,
+      String vocabularyId,
+      @Nullable LocalDate codeValidDate,
+      Boolean bulkLoad,
+      DbMappings dbMappings,
+      String fhirId) {
+    ConceptDictionary allConcepts;
     if (bulkLoad.equals(Boolean.TRUE)) {
       allConcepts = dbMappings.getOmopConceptMapWrapper().getValidConcepts(vocabularyId);
     } else {
-      allConcepts = omopConceptService.findValidConceptIdFromConceptCode(vocabularyId, fhirCode);
+      allConcepts =
+          ConceptDictionary.of(
+              omopConceptService.findValidConceptIdFromConceptCode(vocabularyId, fhirCode));
     }
 
-    if (!allConcepts.containsKey(fhirCode)) {
-      log.info("Code [{}] of {} is not mapped in OMOP. Set concept id to 0.", fhirCode, fhirId);
+    if (!allConcepts.containsCode(fhirCode)) {
+      unmappedCodes.record(vocabularyId, fhirCode, REASON_NOT_MAPPED, fhirId);
+      log.debug("Code [{}] of {} is not mapped in OMOP. Set concept id to 0.", fhirCode, fhirId);
       return defaultConcept(fhirCode, vocabularyId);
     }
 
-    var omopConcepts = allConcepts.get(fhirCode);
-
-    if (codeValidDate == null) {
-      return omopConcepts.get(0);
-    } else {
-      for (var concept : omopConcepts) {
-        if (!concept.getValidStartDate().isAfter(codeValidDate)
-            && !concept.getValidEndDate().isBefore(codeValidDate)) {
-          return concept;
-        }
-      }
+    var omopConcept = allConcepts.findConcept(fhirCode, codeValidDate);
+    if (omopConcept != null) {
+      return omopConcept;
     }
 
-    log.info("Code [{}] of {} is not valid in OMOP. Skip resource.", fhirCode, fhirId);
+    unmappedCodes.record(vocabularyId, fhirCode, REASON_INVALID_CODE, fhirId);
+    log.debug("Code [{}] of {} is not valid in OMOP. Skip resource.", fhirCode, fhirId);
     return null;
   }
 
@@ -138,15 +163,18 @@ public class FindOmopConcepts {
    */
   public SourceToConceptMap getCustomConcepts(
       String fhirCode, String sourceVocabularyId, DbMappings dbMappings) {
+    return PhaseTimers.record(
+        PHASE_LOOKUP,
+        sourceVocabularyId,
+        () -> findCustomConcept(fhirCode, sourceVocabularyId, dbMappings));
+  }
 
-    var sourceToConceptMap = dbMappings.getFindHardCodeConcept();
+  private SourceToConceptMap findCustomConcept(
+      String fhirCode, String sourceVocabularyId, DbMappings dbMappings) {
 
-    var omopCustomConcepts = sourceToConceptMap.get(sourceVocabularyId);
-    for (var omopCustomConcept : omopCustomConcepts) {
-      var sourceCode = omopCustomConcept.getSourceCode();
-      if (sourceCode.equals(fhirCode)) {
-        return omopCustomConcept;
-      }
+    var omopCustomConcept = dbMappings.getFindHardCodeConcept().find(sourceVocabularyId, fhirCode);
+    if (omopCustomConcept != null) {
+      return omopCustomConcept;
     }
 
     return defaultSourceToConceptMap(fhirCode, sourceVocabularyId);
@@ -168,6 +196,19 @@ public class FindOmopConcepts {
       Boolean bulkLoad,
       DbMappings dbMappings,
       String fhirLogicId) {
+    return PhaseTimers.record(
+        PHASE_LOOKUP,
+        VOCABULARY_ICD10GM,
+        () ->
+            findIcdSnomedConcepts(icdCoding, diagnoseOnsetDate, bulkLoad, dbMappings, fhirLogicId));
+  }
+
+  private List<IcdSnomedDomainLookup> findIcdSnomedConcepts(
+      Coding icdCoding,
+      LocalDate diagnoseOnsetDate,
+      Boolean bulkLoad,
+      DbMappings dbMappings,
+      String fhirLogicId) {
     if (icdCoding.isEmpty()) {
       return Collections.emptyList();
     }
@@ -210,6 +251,21 @@ public class FindOmopConcepts {
       DbMappings dbMappings,
       String fhirLogicId,
       String fhirId) {
+    return PhaseTimers.record(
+        PHASE_LOOKUP,
+        VOCABULARY_SNOMED,
+        () ->
+            findSnomedVaccineConcepts(
+                snomedVaccineCoding, vaccineOnsetDate, bulkLoad, dbMappings, fhirLogicId, fhirId));
+  }
+
+  private List<SnomedVaccineStandardLookup> findSnomedVaccineConcepts(
+      Coding snomedVaccineCoding,
+      LocalDate vaccineOnsetDate,
+      Boolean bulkLoad,
+      DbMappings dbMappings,
+      String fhirLogicId,
+      String fhirId) {
     if (snomedVaccineCoding.isEmpty()) {
       return Collections.emptyList();
     }
@@ -240,7 +296,8 @@ public class FindOmopConcepts {
 
         if (validVaccine.isEmpty()) {
           // invalid SNOMED code
-          log.warn(
+          unmappedCodes.record(VOCABULARY_SNOMED, snomedVaccineCode, REASON_INVALID_CODE, fhirId);
+          log.debug(
               "SNOMED code [{}] of {} is not valid in OMOP. Skip resource",
               snomedVaccineCode,
               fhirId);
@@ -261,6 +318,14 @@ public class FindOmopConcepts {
 
   public SnomedRaceStandardLookup getSnomedRaceConcepts(
       Coding snomedRaceCoding, Boolean bulkLoad, DbMappings dbMappings, String fhirLogicId) {
+    return PhaseTimers.record(
+        PHASE_LOOKUP,
+        VOCABULARY_SNOMED,
+        () -> findSnomedRaceConcepts(snomedRaceCoding, bulkLoad, dbMappings, fhirLogicId));
+  }
+
+  private SnomedRaceStandardLookup findSnomedRaceConcepts(
+      Coding snomedRaceCoding, Boolean bulkLoad, DbMappings dbMappings, String fhirLogicId) {
     if (snomedRaceCoding.isEmpty()) {
       return null;
     }
@@ -299,6 +364,20 @@ public class FindOmopConcepts {
       Boolean bulkLoad,
       DbMappings dbMappings,
       String conditionId) {
+    return PhaseTimers.record(
+        PHASE_LOOKUP,
+        VOCABULARY_ORPHA,
+        () ->
+            findOrphaSnomedConcepts(
+                orphaCoding, diagnoseOnsetDate, bulkLoad, dbMappings, conditionId));
+  }
+
+  private List<OrphaSnomedMapping> findOrphaSnomedConcepts(
+      Coding orphaCoding,
+      LocalDate diagnoseOnsetDate,
+      Boolean bulkLoad,
+      DbMappings dbMappings,
+      String conditionId) {
     if (orphaCoding.isEmpty()) {
       return Collections.emptyList();
     }
@@ -334,7 +413,8 @@ public class FindOmopConcepts {
                 .collect(Collectors.toCollection(ArrayList::new));
         if (validOrpha.isEmpty()) {
           // invalid Orpha
-          log.warn(
+          unmappedCodes.record(VOCABULARY_ORPHA, orphaCode, REASON_INVALID_CODE, conditionId);
+          log.debug(
               "Orpha code [{}] of {} is not valid in OMOP. Skip resource.", orphaCode, conditionId);
           return Collections.emptyList();
         }
@@ -350,7 +430,8 @@ public class FindOmopConcepts {
 
         if (validOrphaSnomed.isEmpty()) {
           // invalid Orpha to SNOMED mapping
-          log.info(
+          unmappedCodes.record(VOCABULARY_ORPHA, orphaCode, REASON_INVALID_MAPPING, conditionId);
+          log.debug(
               "Mapping of Orpha code [{}] of {} to Standard concept id is not valid in OMOP. Set concept id to 0.",
               orphaCode,
               conditionId);
@@ -383,6 +464,18 @@ public class FindOmopConcepts {
       Boolean bulkLoad,
       DbMappings dbMappings,
       String procedureId) {
+    return PhaseTimers.record(
+        PHASE_LOOKUP,
+        VOCABULARY_OPS,
+        () -> findOpsStandardConcepts(opsCoding, procedureDate, bulkLoad, dbMappings, procedureId));
+  }
+
+  private List<OpsStandardDomainLookup> findOpsStandardConcepts(
+      Coding opsCoding,
+      LocalDate procedureDate,
+      Boolean bulkLoad,
+      DbMappings dbMappings,
+      String procedureId) {
     if (opsCoding.isEmpty()) {
       return Collections.emptyList();
     }
@@ -418,7 +511,8 @@ public class FindOmopConcepts {
                 .collect(Collectors.toCollection(ArrayList::new));
         if (validOps.isEmpty()) {
           // invalid OPS
-          log.warn(
+          unmappedCodes.record(VOCABULARY_OPS, opsCode, REASON_INVALID_CODE, procedureId);
+          log.debug(
               "OPS code [{}] of {} is not valid in OMOP. Skip resource.", opsCode, procedureId);
           return Collections.emptyList();
         }
@@ -434,7 +528,8 @@ public class FindOmopConcepts {
 
         if (validOpsStandard.isEmpty()) {
           // invalid OPS to Standard mapping
-          log.info(
+          unmappedCodes.record(VOCABULARY_OPS, opsCode, REASON_INVALID_MAPPING, procedureId);
+          log.debug(
               "Mapping of OPS code [{}] of {} to Standard concept id is not valid in OMOP. Set concept id to 0.",
               opsCode,
               procedureId);
@@ -474,6 +569,19 @@ public class FindOmopConcepts {
       Boolean bulkLoad,
       DbMappings dbMappings,
       String medicationId) {
+    return PhaseTimers.record(
+        PHASE_LOOKUP,
+        VOCABULARY_ATC,
+        () ->
+            findAtcStandardConcepts(atcCoding, medicationDate, bulkLoad, dbMappings, medicationId));
+  }
+
+  private List<AtcStandardDomainLookup> findAtcStandardConcepts(
+      Coding atcCoding,
+      LocalDate medicationDate,
+      Boolean bulkLoad,
+      DbMappings dbMappings,
+      String medicationId) {
     if (atcCoding.isEmpty()) {
       return Collections.emptyList();
     }
@@ -509,7 +617,8 @@ public class FindOmopConcepts {
                 .collect(Collectors.toCollection(ArrayList::new));
         if (validAtc.isEmpty()) {
           // invalid ATC
-          log.warn(
+          unmappedCodes.record(VOCABULARY_ATC, atcCode, REASON_INVALID_CODE, medicationId);
+          log.debug(
               "ATC code [{}] of {} is not valid in OMOP. Skip resource.", atcCode, medicationId);
           return Collections.emptyList();
         }
@@ -525,7 +634,8 @@ public class FindOmopConcepts {
 
         if (validAtcStandard.isEmpty()) {
           // invalid ATC to Standard mapping
-          log.info(
+          unmappedCodes.record(VOCABULARY_ATC, atcCode, REASON_INVALID_MAPPING, medicationId);
+          log.debug(
               "Mapping of ATC code [{}] of {} to Standard concept id is not valid in OMOP. Set concept id to 0.",
               atcCode,
               medicationId);
@@ -565,6 +675,20 @@ public class FindOmopConcepts {
       Boolean bulkLoad,
       DbMappings dbMappings,
       String observationId) {
+    return PhaseTimers.record(
+        PHASE_LOOKUP,
+        VOCABULARY_LOINC,
+        () ->
+            findLoincStandardConcepts(
+                loincCoding, observationDate, bulkLoad, dbMappings, observationId));
+  }
+
+  private List<LoincStandardDomainLookup> findLoincStandardConcepts(
+      Coding loincCoding,
+      LocalDate observationDate,
+      Boolean bulkLoad,
+      DbMappings dbMappings,
+      String observationId) {
     if (loincCoding.isEmpty()) {
       return Collections.emptyList();
     }
@@ -605,7 +729,8 @@ public class FindOmopConcepts {
           // true -> Check mapping validity
 
           // invalid LOINC
-          log.warn(
+          unmappedCodes.record(VOCABULARY_LOINC, loincCode, REASON_INVALID_CODE, observationId);
+          log.debug(
               "LOINC code [{}] of {} is not valid in OMOP. Skip resource.",
               loincCode,
               observationId);
@@ -623,7 +748,8 @@ public class FindOmopConcepts {
 
         if (validLoincStandard.isEmpty()) {
           // invalid LOINC to Standard mapping
-          log.info(
+          unmappedCodes.record(VOCABULARY_LOINC, loincCode, REASON_INVALID_MAPPING, observationId);
+          log.debug(
               "Mapping of LOINC code [{}] of {} to Standard concept id is not valid in OMOP. Set concept id to 0.",
               loincCode,
               observationId);
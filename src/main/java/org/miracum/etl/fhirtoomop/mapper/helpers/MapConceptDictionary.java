@@ -0,0 +1,49 @@
+package org.miracum.etl.fhirtoomop.mapper.helpers;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import org.miracum.etl.fhirtoomop.model.omop.Concept;
+
+/**
+ * The MapConceptDictionary class provides concepts, which are already grouped by concept_code, as a
+ * {@link ConceptDictionary}.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+class MapConceptDictionary implements ConceptDictionary {
+  private final Map<String, List<Concept>> conceptsByCode;
+
+  MapConceptDictionary(Map<String, List<Concept>> conceptsByCode) {
+    this.conceptsByCode = conceptsByCode;
+  }
+
+  @Override
+  public int size() {
+    return conceptsByCode.size();
+  }
+
+  @Override
+  public boolean containsCode(String conceptCode) {
+    return conceptsByCode.containsKey(conceptCode);
+  }
+
+  @Override
+  public Concept findConcept(String conceptCode, LocalDate validDate) {
+    var concepts = conceptsByCode.get(conceptCode);
+    if (concepts == null || concepts.isEmpty()) {
+      return null;
+    }
+    if (validDate == null) {
+      return concepts.get(0);
+    }
+    for (var concept : concepts) {
+      if (!concept.getValidStartDate().isAfter(validDate)
+          && !concept.getValidEndDate().isBefore(validDate)) {
+        return concept;
+      }
+    }
+    return null;
+  }
+}
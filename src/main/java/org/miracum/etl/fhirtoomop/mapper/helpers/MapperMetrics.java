@@ -1,7 +1,10 @@
 package org.miracum.etl.fhirtoomop.mapper.helpers;
 
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import java.util.function.ToDoubleFunction;
 
 /**
  * Initializing a global metrics register for different counters.
@@ -94,4 +97,47 @@ public class MapperMetrics {
         .tag("deleted", stepName)
         .register(Metrics.globalRegistry);
   }
+
+  /**
+   * Initialize a Timer for the duration of a processing phase
+   *
+   * @param phase the processing phase (e.g. read, parse, map, lookup, write)
+   * @param stepName the name of a Step in this Job
+   * @param resourceType the processed FHIR resource type
+   * @param target the target of the processing phase (e.g. vocabulary or OMOP CDM table)
+   * @return a new Timer
+   */
+  public static Timer setPhaseTimer(
+      String phase, String stepName, String resourceType, String target) {
+    return Timer.builder("batch.fhir.phase.duration")
+        .description("Duration of a processing phase")
+        .tag("phase", phase)
+        .tag("type", stepName)
+        .tag("fhir-resource", resourceType)
+        .tag("target", target)
+        .publishPercentileHistogram()
+        .register(Metrics.globalRegistry);
+  }
+
+  /**
+   * Initialize a Gauge for the progress of a Step in this Job
+   *
+   * @param name the name of the Gauge
+   * @param description the description of the Gauge
+   * @param stepName the name of a Step in this Job
+   * @param stateObject the object from which the value of the Gauge is read
+   * @param valueFunction the function which reads the value of the Gauge
+   * @return a new Gauge
+   */
+  public static <T> Gauge setStepProgressGauge(
+      String name,
+      String description,
+      String stepName,
+      T stateObject,
+      ToDoubleFunction<T> valueFunction) {
+    return Gauge.builder(name, stateObject, valueFunction)
+        .description(description)
+        .tag("type", stepName)
+        .register(Metrics.globalRegistry);
+  }
 }
@@ -0,0 +1,157 @@
+package org.miracum.etl.fhirtoomop.mapper.helpers;
+
+import io.micrometer.core.instrument.Timer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+
+/**
+ * The PhaseTimers class measures the duration of the single processing phases (read, parse, map,
+ * lookup, write, SQL scripts) of the steps in this Job. The timers are tagged with the name of the
+ * running step, the processed FHIR resource type and the target of the phase (e.g. vocabulary, OMOP
+ * CDM table or SQL script).
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+public final class PhaseTimers {
+
+  public static final String PHASE_READ = "read";
+  public static final String PHASE_PARSE = "parse";
+  public static final String PHASE_MAP = "map";
+  public static final String PHASE_LOOKUP = "lookup";
+  public static final String PHASE_WRITE = "write";
+  public static final String PHASE_SQL_SCRIPT = "sql-script";
+
+  private static final String UNKNOWN = "none";
+
+  // the timers of a step, shared by the partitions of the step
+  private static final Map<String, StepTimers> timersByStep = new ConcurrentHashMap<>();
+  // the timers of a step by the name of the step or of one of its partitions
+  private static final Map<String, StepTimers> timersByStepExecution = new ConcurrentHashMap<>();
+
+  private PhaseTimers() {}
+
+  /**
+   * Measures the duration of a processing phase of the current step.
+   *
+   * @param phase the processing phase
+   * @param target the target of the processing phase
+   * @param action the action to be measured
+   * @return the result of the action
+   */
+  public static <T> T record(String phase, String target, Supplier<T> action) {
+    return getTimer(phase, target).record(action);
+  }
+
+  /**
+   * Measures the duration of a processing phase of the current step.
+   *
+   * @param phase the processing phase
+   * @param target the target of the processing phase
+   * @param action the action to be measured
+   */
+  public static void record(String phase, String target, Runnable action) {
+    getTimer(phase, target).record(action);
+  }
+
+  /**
+   * Returns the timer for a processing phase of the current step.
+   *
+   * @param phase the processing phase
+   * @param target the target of the processing phase
+   * @return the timer for the processing phase
+   */
+  public static Timer getTimer(String phase, String target) {
+    return currentStepTimers().getTimer(phase, target == null ? UNKNOWN : target);
+  }
+
+  /**
+   * Registers the FHIR resource type which is processed in the current step. The resource type is
+   * used as tag for all timers of the current step, which are created afterwards. Therefore, the
+   * resource type has to be registered before the first timed call of the step.
+   *
+   * @param resourceType the FHIR resource type
+   */
+  public static void registerResourceType(String resourceType) {
+    currentStepTimers().registerResourceType(resourceType);
+  }
+
+  /**
+   * Returns the name of the step which is executed in the current thread.
+   *
+   * @return the name of the current step
+   */
+  public static String currentStepName() {
+    var stepContext = StepSynchronizationManager.getContext();
+    if (stepContext == null) {
+      return UNKNOWN;
+    }
+    return stepContext.getStepName();
+  }
+
+  /**
+   * Returns the timers of the current step. The partitions of a step (e.g.
+   * stepProcessConditions:partition3) share the timers of the step.
+   *
+   * @return the timers of the current step
+   */
+  private static StepTimers currentStepTimers() {
+    var stepName = currentStepName();
+    var stepTimers = timersByStepExecution.get(stepName);
+    if (stepTimers == null) {
+      stepTimers =
+          timersByStepExecution.computeIfAbsent(
+              stepName,
+              name -> timersByStep.computeIfAbsent(withoutPartition(name), StepTimers::new));
+    }
+    return stepTimers;
+  }
+
+  private static String withoutPartition(String stepName) {
+    var partitionSeparator = stepName.indexOf(':');
+    return partitionSeparator < 0 ? stepName : stepName.substring(0, partitionSeparator);
+  }
+
+  /**
+   * The timers of a step by processing phase and target. The timers are looked up without creating
+   * objects, because they are used for every FHIR resource and every lookup in a vocabulary.
+   */
+  private static final class StepTimers {
+    private final String stepName;
+    private volatile String resourceType = UNKNOWN;
+    // replaced when the resource type is registered, so that the timers are tagged with it
+    private volatile Map<String, Map<String, Timer>> timersByPhase = new ConcurrentHashMap<>();
+
+    private StepTimers(String stepName) {
+      this.stepName = stepName;
+    }
+
+    private void registerResourceType(String resourceType) {
+      if (resourceType == null || !UNKNOWN.equals(this.resourceType)) {
+        return;
+      }
+      synchronized (this) {
+        if (UNKNOWN.equals(this.resourceType)) {
+          this.resourceType = resourceType;
+          this.timersByPhase = new ConcurrentHashMap<>();
+        }
+      }
+    }
+
+    private Timer getTimer(String phase, String target) {
+      var timersByTarget = timersByPhase.get(phase);
+      if (timersByTarget == null) {
+        timersByTarget = timersByPhase.computeIfAbsent(phase, p -> new ConcurrentHashMap<>());
+      }
+      var timer = timersByTarget.get(target);
+      if (timer == null) {
+        timer =
+            timersByTarget.computeIfAbsent(
+                target, t -> MapperMetrics.setPhaseTimer(phase, stepName, resourceType, t));
+      }
+      return timer;
+    }
+  }
+}
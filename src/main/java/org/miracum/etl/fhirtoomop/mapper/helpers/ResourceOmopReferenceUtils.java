@@ -1,5 +1,7 @@
 package org.miracum.etl.fhirtoomop.mapper.helpers;
 
+import static org.miracum.etl.fhirtoomop.mapper.helpers.PhaseTimers.PHASE_LOOKUP;
+
 import com.google.common.base.Strings;
 import java.time.LocalDateTime;
 import lombok.NoArgsConstructor;
@@ -85,6 +87,26 @@ public class ResourceOmopReferenceUtils {
       return null;
     }
 
+    return PhaseTimers.record(
+        PHASE_LOOKUP,
+        "person",
+        () ->
+            findPersonId(patientReferenceIdentifier, patientReferenceLogicalId, resourceLogicalId));
+  }
+
+  /**
+   * Searches the person_id based on the logical id and/or identifier of the referenced FHIR Patient
+   * resource either in RAM or in OMOP CDM.
+   *
+   * @param patientReferenceIdentifier identifier of referenced FHIR Patient resource
+   * @param patientReferenceLogicalId logical id of referenced FHIR Patient resource
+   * @param resourceLogicalId logical id of processing FHIR resource
+   * @return person_id in OMOP CDM
+   */
+  private Long findPersonId(
+      String patientReferenceIdentifier,
+      String patientReferenceLogicalId,
+      String resourceLogicalId) {
     if (bulkload.equals(Boolean.FALSE)) {
       return searchPersonInDb(
           patientReferenceIdentifier, patientReferenceLogicalId, resourceLogicalId);
@@ -230,6 +252,25 @@ public class ResourceOmopReferenceUtils {
       log.warn("Unable to extract [Encounter Reference] for {}.", resourceId);
       return null;
     }
+
+    return PhaseTimers.record(
+        PHASE_LOOKUP,
+        "visit_occurrence",
+        () ->
+            findVisitOccId(encounterReferenceIdentifier, encounterReferenceLogicalId, resourceId));
+  }
+
+  /**
+   * Searches the visit_occurrence_id based on the logical id and/or identifier of the referenced
+   * FHIR Encounter resource either in RAM or in OMOP CDM.
+   *
+   * @param encounterReferenceIdentifier identifier of referenced FHIR Encounter resource
+   * @param encounterReferenceLogicalId logical id of referenced FHIR Encounter resource
+   * @param resourceId logical id of processing FHIR resource
+   * @return visit_occurrence_id in OMOP CDM
+   */
+  private Long findVisitOccId(
+      String encounterReferenceIdentifier, String encounterReferenceLogicalId, String resourceId) {
     if (bulkload.equals(Boolean.FALSE)) {
       return searchVisitOccInDb(
           encounterReferenceIdentifier, encounterReferenceLogicalId, resourceId);
@@ -0,0 +1,74 @@
+package org.miracum.etl.fhirtoomop.mapper.helpers;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.miracum.etl.fhirtoomop.model.omop.SourceToConceptMap;
+
+/**
+ * The SourceToConceptIndex class provides the records of the source_to_concept_map table in OMOP
+ * CDM, which are looked up by source_vocabulary_id and source_code. The index is immutable, so that
+ * it is built once per job and shared by all steps.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+public final class SourceToConceptIndex {
+
+  /** An index without any records. */
+  public static final SourceToConceptIndex EMPTY = new SourceToConceptIndex(Collections.emptyMap());
+
+  private final Map<String, Map<String, SourceToConceptMap>> byVocabulary;
+
+  private SourceToConceptIndex(Map<String, Map<String, SourceToConceptMap>> byVocabulary) {
+    this.byVocabulary = byVocabulary;
+  }
+
+  /**
+   * Creates an index from records of the source_to_concept_map table. If several records have the
+   * same source_vocabulary_id and source_code, the first one is kept.
+   *
+   * @param records the records of the source_to_concept_map table
+   * @return the index
+   */
+  public static SourceToConceptIndex of(Iterable<SourceToConceptMap> records) {
+    Map<String, Map<String, SourceToConceptMap>> byVocabulary = new HashMap<>();
+    for (var sourceToConcept : records) {
+      if (sourceToConcept.getSourceVocabularyId() == null
+          || sourceToConcept.getSourceCode() == null) {
+        continue;
+      }
+      byVocabulary
+          .computeIfAbsent(sourceToConcept.getSourceVocabularyId(), vocabulary -> new HashMap<>())
+          .putIfAbsent(sourceToConcept.getSourceCode(), sourceToConcept);
+    }
+    byVocabulary.replaceAll((vocabulary, bySourceCode) -> Map.copyOf(bySourceCode));
+    return new SourceToConceptIndex(Map.copyOf(byVocabulary));
+  }
+
+  /**
+   * Returns the number of records in this index.
+   *
+   * @return the number of distinct combinations of source_vocabulary_id and source_code
+   */
+  public int size() {
+    return byVocabulary.values().stream().mapToInt(Map::size).sum();
+  }
+
+  /**
+   * Searches the record for a source_code in a source vocabulary.
+   *
+   * @param sourceVocabularyId the source_vocabulary_id of the record
+   * @param sourceCode the source_code of the record
+   * @return the record, or null if the source vocabulary does not contain the source_code
+   */
+  @Nullable
+  public SourceToConceptMap find(String sourceVocabularyId, String sourceCode) {
+    if (sourceVocabularyId == null || sourceCode == null) {
+      return null;
+    }
+    var bySourceCode = byVocabulary.get(sourceVocabularyId);
+    return bySourceCode == null ? null : bySourceCode.get(sourceCode);
+  }
+}
@@ -0,0 +1,112 @@
+package org.miracum.etl.fhirtoomop.mapper.helpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.stereotype.Component;
+
+/**
+ * The UnmappedCodeAggregator class collects the FHIR codes which could not be mapped to OMOP CDM
+ * while a step is running. Instead of writing a log line for each FHIR resource, the occurrences
+ * are counted per step, vocabulary, code and reason, together with a few sample FHIR resource ids.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Component
+public class UnmappedCodeAggregator {
+
+  /** The code does not exist in OMOP. */
+  public static final String REASON_NOT_MAPPED = "not_mapped";
+
+  /** The code exists in OMOP, but is not valid at the date of the FHIR resource. */
+  public static final String REASON_INVALID_CODE = "invalid_code";
+
+  /** The mapping of the code to a standard concept is not valid at the date of the resource. */
+  public static final String REASON_INVALID_MAPPING = "invalid_mapping";
+
+  static final int MAX_SAMPLE_IDS = 5;
+
+  private final Map<UnmappedCodeKey, UnmappedCodeStatistic> statistics = new ConcurrentHashMap<>();
+
+  /**
+   * Records an occurrence of a FHIR code which could not be mapped to OMOP CDM in the current step.
+   *
+   * @param vocabularyId the vocabulary id of the FHIR code in OMOP
+   * @param code the FHIR code
+   * @param reason the reason why the code could not be mapped
+   * @param fhirId the logical id of the FHIR resource containing the code
+   */
+  public void record(String vocabularyId, String code, String reason, String fhirId) {
+    var key = new UnmappedCodeKey(PhaseTimers.currentStepName(), vocabularyId, code, reason);
+    statistics.computeIfAbsent(key, k -> new UnmappedCodeStatistic(k)).add(fhirId);
+  }
+
+  /**
+   * Removes and returns all statistics which have been collected for a step.
+   *
+   * @param stepName the name of the step
+   * @return the statistics of the unmapped codes in the step
+   */
+  public List<UnmappedCodeStatistic> drain(String stepName) {
+    var result = new ArrayList<UnmappedCodeStatistic>();
+    for (var key : statistics.keySet()) {
+      if (key.stepName().equals(stepName)) {
+        var statistic = statistics.remove(key);
+        if (statistic != null) {
+          result.add(statistic);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The key of an unmapped code statistic.
+   *
+   * @param stepName the name of the step
+   * @param vocabularyId the vocabulary id of the FHIR code in OMOP
+   * @param code the FHIR code
+   * @param reason the reason why the code could not be mapped
+   */
+  public record UnmappedCodeKey(String stepName, String vocabularyId, String code, String reason) {}
+
+  /** The number of occurrences and some sample FHIR resource ids of an unmapped code. */
+  public static class UnmappedCodeStatistic {
+    private final UnmappedCodeKey key;
+    private final LongAdder occurrences = new LongAdder();
+    private final List<String> sampleFhirIds = new ArrayList<>(MAX_SAMPLE_IDS);
+
+    UnmappedCodeStatistic(UnmappedCodeKey key) {
+      this.key = key;
+    }
+
+    private void add(String fhirId) {
+      occurrences.increment();
+      if (fhirId == null || sampleFhirIds.size() >= MAX_SAMPLE_IDS) {
+        return;
+      }
+      synchronized (sampleFhirIds) {
+        if (sampleFhirIds.size() < MAX_SAMPLE_IDS) {
+          sampleFhirIds.add(fhirId);
+        }
+      }
+    }
+
+    public UnmappedCodeKey getKey() {
+      return key;
+    }
+
+    public long getOccurrences() {
+      return occurrences.sum();
+    }
+
+    public List<String> getSampleFhirIds() {
+      synchronized (sampleFhirIds) {
+        return List.copyOf(sampleFhirIds);
+      }
+    }
+  }
+}
@@ -24,8 +24,11 @@ public class FhirPsqlResource {
   /** The resource type of the FHIR resource. */
   private String type;
 
-  /** The FHIR resource in JSON format. */
-  private String data;
+  /**
+   * The FHIR resource in JSON format, encoded in UTF-8. It is released by the processor after
+   * parsing.
+   */
+  private byte[] data;
 
   /** The flag for resource, whether the resource is valid */
   private Boolean isDeleted;
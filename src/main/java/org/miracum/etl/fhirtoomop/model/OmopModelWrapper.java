@@ -26,18 +26,123 @@ import org.miracum.etl.fhirtoomop.model.omop.VisitOccurrence;
 @NoArgsConstructor
 @AllArgsConstructor
 public class OmopModelWrapper {
+  // the lists are created on first access, most records only fill one or two tables
   private Person person;
   private VisitOccurrence visitOccurrence;
-  private List<ConditionOccurrence> conditionOccurrence = new ArrayList<>();
-  private List<ProcedureOccurrence> procedureOccurrence = new ArrayList<>();
-  private List<DrugExposure> drugExposure = new ArrayList<>();
-  private List<Measurement> measurement = new ArrayList<>();
-  private List<OmopObservation> observation = new ArrayList<>();
-  private List<VisitDetail> visitDetail = new ArrayList<>();
-  private List<DeviceExposure> deviceExposure = new ArrayList<>();
-
-  private List<MedicationIdMap> medicationIdMap = new ArrayList<>();
-  private List<PostProcessMap> postProcessMap = new ArrayList<>();
+  private List<ConditionOccurrence> conditionOccurrence;
+  private List<ProcedureOccurrence> procedureOccurrence;
+  private List<DrugExposure> drugExposure;
+  private List<Measurement> measurement;
+  private List<OmopObservation> observation;
+  private List<VisitDetail> visitDetail;
+  private List<DeviceExposure> deviceExposure;
+
+  private List<MedicationIdMap> medicationIdMap;
+  private List<PostProcessMap> postProcessMap;
+
+  // the FHIR resource, whose existing records are replaced by upserts during incremental load
+  private String replacedFhirLogicalId;
+
+  public List<ConditionOccurrence> getConditionOccurrence() {
+    if (conditionOccurrence == null) {
+      conditionOccurrence = new ArrayList<>();
+    }
+    return conditionOccurrence;
+  }
+
+  public List<ProcedureOccurrence> getProcedureOccurrence() {
+    if (procedureOccurrence == null) {
+      procedureOccurrence = new ArrayList<>();
+    }
+    return procedureOccurrence;
+  }
+
+  public List<DrugExposure> getDrugExposure() {
+    if (drugExposure == null) {
+      drugExposure = new ArrayList<>();
+    }
+    return drugExposure;
+  }
+
+  public List<Measurement> getMeasurement() {
+    if (measurement == null) {
+      measurement = new ArrayList<>();
+    }
+    return measurement;
+  }
+
+  public List<OmopObservation> getObservation() {
+    if (observation == null) {
+      observation = new ArrayList<>();
+    }
+    return observation;
+  }
+
+  public List<VisitDetail> getVisitDetail() {
+    if (visitDetail == null) {
+      visitDetail = new ArrayList<>();
+    }
+    return visitDetail;
+  }
+
+  public List<DeviceExposure> getDeviceExposure() {
+    if (deviceExposure == null) {
+      deviceExposure = new ArrayList<>();
+    }
+    return deviceExposure;
+  }
+
+  public List<MedicationIdMap> getMedicationIdMap() {
+    if (medicationIdMap == null) {
+      medicationIdMap = new ArrayList<>();
+    }
+    return medicationIdMap;
+  }
+
+  public List<PostProcessMap> getPostProcessMap() {
+    if (postProcessMap == null) {
+      postProcessMap = new ArrayList<>();
+    }
+    return postProcessMap;
+  }
+
+  /**
+   * Appends the records of this wrapper to the records of a chunk, which are grouped by OMOP CDM
+   * table. Tables without records are skipped.
+   *
+   * @param buffer the records of the chunk
+   */
+  public void appendTo(OmopRecordBuffer buffer) {
+    append(buffer.getMedicationIdMap(), medicationIdMap);
+    append(buffer.getPostProcessMap(), postProcessMap);
+    if (person != null) {
+      buffer.getPerson().add(person);
+    }
+    append(buffer.getVisitDetail(), visitDetail);
+    if (visitOccurrence != null) {
+      buffer.getVisitOccurrence().add(visitOccurrence);
+    }
+    append(buffer.getObservation(), observation);
+    append(buffer.getConditionOccurrence(), conditionOccurrence);
+    append(buffer.getProcedureOccurrence(), procedureOccurrence);
+    append(buffer.getDrugExposure(), drugExposure);
+    append(buffer.getMeasurement(), measurement);
+    append(buffer.getDeviceExposure(), deviceExposure);
+    if (replacedFhirLogicalId != null) {
+      buffer.getReplacedFhirLogicalIds().add(replacedFhirLogicalId);
+    }
+  }
+
+  private static <T> void append(List<T> target, List<T> records) {
+    if (records == null) {
+      return;
+    }
+    for (var record : records) {
+      if (record != null) {
+        target.add(record);
+      }
+    }
+  }
 
   /**
    * Enumeration of all OMOP CDM table names which can be filled by the ETL process.
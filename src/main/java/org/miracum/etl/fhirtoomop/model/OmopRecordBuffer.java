@@ -0,0 +1,55 @@
+package org.miracum.etl.fhirtoomop.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import lombok.Getter;
+import org.miracum.etl.fhirtoomop.model.omop.ConditionOccurrence;
+import org.miracum.etl.fhirtoomop.model.omop.DeviceExposure;
+import org.miracum.etl.fhirtoomop.model.omop.DrugExposure;
+import org.miracum.etl.fhirtoomop.model.omop.Measurement;
+import org.miracum.etl.fhirtoomop.model.omop.OmopObservation;
+import org.miracum.etl.fhirtoomop.model.omop.Person;
+import org.miracum.etl.fhirtoomop.model.omop.ProcedureOccurrence;
+import org.miracum.etl.fhirtoomop.model.omop.VisitDetail;
+import org.miracum.etl.fhirtoomop.model.omop.VisitOccurrence;
+
+/**
+ * The OmopRecordBuffer class collects the records of all {@link OmopModelWrapper} of a chunk
+ * grouped by OMOP CDM table, so that the records of each table can be written to OMOP CDM at once.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Getter
+public class OmopRecordBuffer {
+  private final List<MedicationIdMap> medicationIdMap = new ArrayList<>();
+  private final List<PostProcessMap> postProcessMap = new ArrayList<>();
+  private final List<Person> person = new ArrayList<>();
+  private final List<VisitDetail> visitDetail = new ArrayList<>();
+  private final List<VisitOccurrence> visitOccurrence = new ArrayList<>();
+  private final List<OmopObservation> observation = new ArrayList<>();
+  private final List<ConditionOccurrence> conditionOccurrence = new ArrayList<>();
+  private final List<ProcedureOccurrence> procedureOccurrence = new ArrayList<>();
+  private final List<DrugExposure> drugExposure = new ArrayList<>();
+  private final List<Measurement> measurement = new ArrayList<>();
+  private final List<DeviceExposure> deviceExposure = new ArrayList<>();
+  private final Set<String> replacedFhirLogicalIds = new LinkedHashSet<>();
+
+  /**
+   * Collects the records of the {@link OmopModelWrapper} of a chunk.
+   *
+   * @param entries the elements of the chunk
+   * @return the records of the chunk grouped by OMOP CDM table
+   */
+  public static OmopRecordBuffer of(List<? extends OmopModelWrapper> entries) {
+    var buffer = new OmopRecordBuffer();
+    for (var entry : entries) {
+      if (entry != null) {
+        entry.appendTo(buffer);
+      }
+    }
+    return buffer;
+  }
+}
@@ -0,0 +1,90 @@
+package org.miracum.etl.fhirtoomop.partition;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.partition.PartitionHandler;
+import org.springframework.batch.core.partition.StepExecutionSplitter;
+
+/**
+ * The DatabasePartitionHandler class distributes the partitions of a step to the workers of a
+ * distributed bulk load through the job repository in OMOP CDM. The step executions of the
+ * partitions are created in the job repository and offered as {@link PartitionClaims}. The handler
+ * waits until all partitions have been processed, reassigns the partitions of dead workers in the
+ * meantime and optionally processes partitions itself.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+public class DatabasePartitionHandler implements PartitionHandler {
+  private final String stepName;
+  private final int gridSize;
+  private final PartitionClaims claims;
+  private final JobExplorer jobExplorer;
+  private final PartitionWorker localWorker;
+  private final Duration pollInterval;
+  private final Duration heartbeatTimeout;
+
+  /**
+   * Constructor for objects of the class DatabasePartitionHandler.
+   *
+   * @param stepName the name of the step, which is executed for each partition
+   * @param gridSize the number of partitions of the step
+   * @param claims the partitions offered to the workers
+   * @param jobExplorer explorer for the executions in the job repository
+   * @param localWorker worker which processes partitions in the process of the manager, or null
+   * @param pollInterval the interval in which the partitions are checked
+   * @param heartbeatTimeout the time after which the partitions of a worker without heartbeat are
+   *     reassigned
+   */
+  public DatabasePartitionHandler(
+      String stepName,
+      int gridSize,
+      PartitionClaims claims,
+      JobExplorer jobExplorer,
+      PartitionWorker localWorker,
+      Duration pollInterval,
+      Duration heartbeatTimeout) {
+    this.stepName = stepName;
+    this.gridSize = gridSize;
+    this.claims = claims;
+    this.jobExplorer = jobExplorer;
+    this.localWorker = localWorker;
+    this.pollInterval = pollInterval;
+    this.heartbeatTimeout = heartbeatTimeout;
+  }
+
+  @Override
+  public Collection<StepExecution> handle(
+      StepExecutionSplitter stepSplitter, StepExecution managerStepExecution) throws Exception {
+    var partitions = stepSplitter.split(managerStepExecution, gridSize);
+    var jobExecutionId = managerStepExecution.getJobExecutionId();
+    var stepExecutionIds = partitions.stream().map(StepExecution::getId).toList();
+    claims.createTable();
+    claims.offer(jobExecutionId, stepName, stepExecutionIds);
+    log.info("[{}] Offered [{}] partitions to the workers.", stepName, partitions.size());
+
+    try {
+      while (claims.countUnfinished(jobExecutionId, stepName) > 0) {
+        claims.reassignStale(heartbeatTimeout);
+        if (localWorker == null || !localWorker.processNext(stepName)) {
+          Thread.sleep(pollInterval.toMillis());
+        }
+      }
+    } finally {
+      if (localWorker != null) {
+        localWorker.releaseDictionaries();
+      }
+    }
+
+    var results = new ArrayList<StepExecution>(stepExecutionIds.size());
+    for (var stepExecutionId : stepExecutionIds) {
+      results.add(jobExplorer.getStepExecution(jobExecutionId, stepExecutionId));
+    }
+    return results;
+  }
+}
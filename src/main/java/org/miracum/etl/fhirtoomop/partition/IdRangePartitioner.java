@@ -0,0 +1,84 @@
+package org.miracum.etl.fhirtoomop.partition;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * The IdRangePartitioner class divides the FHIR resources of a step in FHIR Gateway into ranges of
+ * ids. The ranges are determined with ntile(), so that each partition contains about the same
+ * number of FHIR resources, even if the ids of a FHIR resource type are not evenly distributed.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+public class IdRangePartitioner implements Partitioner {
+  /** Key in the execution context of a partition for its first id in FHIR Gateway. */
+  public static final String MIN_ID = "partition.minId";
+
+  /** Key in the execution context of a partition for its last id in FHIR Gateway. */
+  public static final String MAX_ID = "partition.maxId";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final String tableName;
+  private final String whereClause;
+
+  /**
+   * Constructor for objects of the class IdRangePartitioner.
+   *
+   * @param jdbcTemplate JdbcTemplate for FHIR Gateway
+   * @param tableName the table of FHIR Gateway
+   * @param whereClause the WHERE clause for filtering the FHIR resources of the step
+   */
+  public IdRangePartitioner(JdbcTemplate jdbcTemplate, String tableName, String whereClause) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.tableName = tableName;
+    this.whereClause = whereClause;
+  }
+
+  @Override
+  public Map<String, ExecutionContext> partition(int gridSize) {
+    List<long[]> ranges =
+        jdbcTemplate.query(
+            "SELECT min(id), max(id) FROM (SELECT id, ntile("
+                + Math.max(1, gridSize)
+                + ") OVER (ORDER BY id) AS part FROM "
+                + tableName
+                + " "
+                + whereClause
+                + ") ids GROUP BY part ORDER BY part",
+            (rs, rowNum) -> new long[] {rs.getLong(1), rs.getLong(2)});
+    if (ranges.isEmpty()) {
+      // a single empty partition, so that the step is executed as usual
+      ranges = List.of(new long[] {0, -1});
+    }
+
+    var partitions = new HashMap<String, ExecutionContext>();
+    for (int i = 0; i < ranges.size(); i++) {
+      var executionContext = new ExecutionContext();
+      executionContext.putLong(MIN_ID, ranges.get(i)[0]);
+      executionContext.putLong(MAX_ID, ranges.get(i)[1]);
+      partitions.put("partition" + i, executionContext);
+    }
+    return partitions;
+  }
+
+  /**
+   * Creates the condition on the id range of the partition, whose step is currently executed.
+   *
+   * @param executionContext the execution context of the step
+   * @return condition for the WHERE clause or an empty string, if the step is not partitioned
+   */
+  public static String idRangeCondition(ExecutionContext executionContext) {
+    if (!executionContext.containsKey(MIN_ID)) {
+      return "";
+    }
+    return " AND id BETWEEN "
+        + executionContext.getLong(MIN_ID)
+        + " AND "
+        + executionContext.getLong(MAX_ID);
+  }
+}
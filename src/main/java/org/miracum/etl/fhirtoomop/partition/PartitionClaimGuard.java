@@ -0,0 +1,104 @@
+package org.miracum.etl.fhirtoomop.partition;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.miracum.etl.fhirtoomop.partition.PartitionClaims.Claim;
+import org.springframework.batch.core.ItemWriteListener;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * The PartitionClaimGuard class checks, before a chunk of a partition is written, whether the
+ * partition is still claimed by the worker which processes it. The OMOP CDM records of a chunk are
+ * written in their own transactions before the chunk commits, so the check has to take place before
+ * writing. If the partition has been reassigned to another worker in the meantime, the chunk is
+ * aborted and the step execution is stopped, so that the partition is not written by two workers at
+ * the same time.
+ *
+ * <p>The check also updates the heartbeat of the claim, so that the partition cannot be reassigned
+ * while the chunk is written within the heartbeat timeout.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+@Component
+public class PartitionClaimGuard implements ItemWriteListener<Object> {
+  private final PartitionClaims claims;
+  private final TransactionTemplate withoutTransaction;
+  private final Map<Long, OwnedClaim> ownedClaims = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor for objects of the class PartitionClaimGuard.
+   *
+   * @param claims the partitions offered by the manager
+   * @param transactionManager the transaction manager for OMOP CDM
+   */
+  public PartitionClaimGuard(
+      PartitionClaims claims,
+      @Qualifier("transactionManager") PlatformTransactionManager transactionManager) {
+    this.claims = claims;
+    this.withoutTransaction = new TransactionTemplate(transactionManager);
+    // the row of the claim must not stay locked by the transaction of the chunk until it commits
+    this.withoutTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_NOT_SUPPORTED);
+  }
+
+  /**
+   * Starts checking the chunks of a partition, which is processed by a worker of this process.
+   *
+   * @param claim the claimed partition
+   * @param workerId the id of the worker
+   */
+  void watch(Claim claim, String workerId) {
+    ownedClaims.put(claim.stepExecutionId(), new OwnedClaim(claim, workerId));
+  }
+
+  /**
+   * Stops checking the chunks of a partition after it has been processed.
+   *
+   * @param claim the claimed partition
+   */
+  void unwatch(Claim claim) {
+    ownedClaims.remove(claim.stepExecutionId());
+  }
+
+  @Override
+  public void beforeWrite(List<? extends Object> items) {
+    var context = StepSynchronizationManager.getContext();
+    if (context == null) {
+      return;
+    }
+    var stepExecution = context.getStepExecution();
+    var owned = ownedClaims.get(stepExecution.getId());
+    if (owned == null) {
+      return;
+    }
+    var stillOwned =
+        withoutTransaction.execute(status -> claims.heartbeat(owned.claim(), owned.workerId()));
+    if (!Boolean.TRUE.equals(stillOwned)) {
+      stepExecution.setTerminateOnly();
+      throw new IllegalStateException(
+          String.format(
+              "Partition [%s] has been reassigned to another worker, the chunk of worker [%s] is not written.",
+              stepExecution.getStepName(), owned.workerId()));
+    }
+  }
+
+  @Override
+  public void afterWrite(List<? extends Object> items) {
+    // nothing to check after the chunk has been written
+  }
+
+  @Override
+  public void onWriteError(Exception exception, List<? extends Object> items) {
+    // the failed chunk is handled by the step
+  }
+
+  private record OwnedClaim(Claim claim, String workerId) {}
+}
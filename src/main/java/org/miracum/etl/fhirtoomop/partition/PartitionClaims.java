@@ -0,0 +1,222 @@
+package org.miracum.etl.fhirtoomop.partition;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Optional;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * The PartitionClaims class coordinates the partitions of the steps between the manager and the
+ * workers of a distributed bulk load. The manager offers the partitions in a table next to the job
+ * repository in OMOP CDM. The workers claim them with SELECT ... FOR UPDATE SKIP LOCKED, so that
+ * each partition is claimed by exactly one worker without a message broker.
+ *
+ * <p>While a worker processes a partition, it updates the heartbeat of its claim. The manager
+ * offers partitions whose worker has stopped sending heartbeats to the other workers again. A
+ * worker whose partition has been reassigned in the meantime notices this at its next heartbeat or
+ * before it writes its next chunk, see {@link PartitionClaimGuard}.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+@Component
+public class PartitionClaims {
+  static final String PENDING = "PENDING";
+  static final String CLAIMED = "CLAIMED";
+  static final String DONE = "DONE";
+  static final String FAILED = "FAILED";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final String schema;
+  private final String table;
+
+  /**
+   * Constructor for objects of the class PartitionClaims.
+   *
+   * @param jdbcTemplate JdbcTemplate for OMOP CDM
+   * @param schema the schema of the job repository in OMOP CDM
+   */
+  public PartitionClaims(
+      @Qualifier("writerJdbcTemplate") JdbcTemplate jdbcTemplate,
+      @Value("${app.persistentJobRepository.schema}") String schema) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.schema = schema;
+    this.table = schema + ".batch_partition_claim";
+  }
+
+  /** Creates the table for the partitions, if it does not exist yet. */
+  public void createTable() {
+    jdbcTemplate.execute("CREATE SCHEMA IF NOT EXISTS " + schema);
+    jdbcTemplate.execute(
+        "CREATE TABLE IF NOT EXISTS "
+            + table
+            + " (step_execution_id BIGINT PRIMARY KEY,"
+            + " job_execution_id BIGINT NOT NULL,"
+            + " step_name VARCHAR(100) NOT NULL,"
+            + " status VARCHAR(10) NOT NULL,"
+            + " worker_id VARCHAR(100),"
+            + " heartbeat_at TIMESTAMP)");
+  }
+
+  /**
+   * Offers the partitions of a step to the workers. Partitions of previous job executions, which
+   * have not been finished, are withdrawn, because their executions are restarted as new
+   * partitions.
+   *
+   * @param jobExecutionId the id of the running job execution
+   * @param stepName the name of the step, which is executed for each partition
+   * @param stepExecutionIds the ids of the step executions of the partitions
+   */
+  public void offer(long jobExecutionId, String stepName, Collection<Long> stepExecutionIds) {
+    jdbcTemplate.update(
+        "UPDATE "
+            + table
+            + " SET status = ? WHERE job_execution_id <> ? AND status IN (?, ?)",
+        DONE,
+        jobExecutionId,
+        PENDING,
+        CLAIMED);
+    for (var stepExecutionId : stepExecutionIds) {
+      jdbcTemplate.update(
+          "INSERT INTO "
+              + table
+              + " (step_execution_id, job_execution_id, step_name, status) VALUES (?, ?, ?, ?)"
+              + " ON CONFLICT (step_execution_id) DO UPDATE"
+              + " SET status = EXCLUDED.status, worker_id = NULL, heartbeat_at = NULL",
+          stepExecutionId,
+          jobExecutionId,
+          stepName,
+          PENDING);
+    }
+  }
+
+  /**
+   * Claims the next pending partition for a worker. Partitions which are locked by another worker
+   * at the same time are skipped.
+   *
+   * @param workerId the id of the worker
+   * @param stepName the name of the step whose partitions are claimed, or null for all steps
+   * @return the claimed partition or empty if no partition is pending
+   */
+  public Optional<Claim> claim(String workerId, String stepName) {
+    var claims =
+        jdbcTemplate.query(
+            "UPDATE "
+                + table
+                + " SET status = ?, worker_id = ?, heartbeat_at = now()"
+                + " WHERE step_execution_id = (SELECT step_execution_id FROM "
+                + table
+                + " WHERE status = ? AND (CAST(? AS VARCHAR) IS NULL OR step_name = ?)"
+                + " ORDER BY step_execution_id LIMIT 1 FOR UPDATE SKIP LOCKED)"
+                + " RETURNING step_execution_id, job_execution_id, step_name",
+            (rs, rowNum) -> new Claim(rs.getLong(1), rs.getLong(2), rs.getString(3)),
+            CLAIMED,
+            workerId,
+            PENDING,
+            stepName,
+            stepName);
+    return claims.stream().findFirst();
+  }
+
+  /**
+   * Updates the heartbeat of a partition, if it is still claimed by the worker. A partition, whose
+   * heartbeat has been missed for too long, may have been reassigned to another worker in the
+   * meantime.
+   *
+   * @param claim the claimed partition
+   * @param workerId the id of the worker
+   * @return true, if the partition is still claimed by the worker
+   */
+  public boolean heartbeat(Claim claim, String workerId) {
+    var owned =
+        jdbcTemplate.query(
+            "UPDATE "
+                + table
+                + " SET heartbeat_at = now()"
+                + " WHERE step_execution_id = ? AND worker_id = ? AND status = ?"
+                + " RETURNING step_execution_id",
+            (rs, rowNum) -> rs.getLong(1),
+            claim.stepExecutionId(),
+            workerId,
+            CLAIMED);
+    return !owned.isEmpty();
+  }
+
+  /**
+   * Marks a claimed partition as finished, if it is still claimed by the worker. A partition, whose
+   * step execution has not completed, is marked as failed. A failed partition is not reassigned,
+   * it is executed again when the job is restarted.
+   *
+   * @param claim the claimed partition
+   * @param workerId the id of the worker
+   * @param failed whether the step execution of the partition has failed
+   */
+  public void finish(Claim claim, String workerId, boolean failed) {
+    jdbcTemplate.update(
+        "UPDATE "
+            + table
+            + " SET status = ? WHERE step_execution_id = ? AND worker_id = ? AND status = ?",
+        failed ? FAILED : DONE,
+        claim.stepExecutionId(),
+        workerId,
+        CLAIMED);
+  }
+
+  /**
+   * Offers the partitions, whose worker has not sent a heartbeat within the timeout, to the other
+   * workers again.
+   *
+   * @param heartbeatTimeout the time after which a worker without heartbeat is considered dead
+   */
+  public void reassignStale(Duration heartbeatTimeout) {
+    var reassigned =
+        jdbcTemplate.query(
+            "UPDATE "
+                + table
+                + " SET status = ?, worker_id = NULL"
+                + " WHERE status = ? AND heartbeat_at < now() - ? * INTERVAL '1 second'"
+                + " RETURNING step_execution_id, step_name",
+            (rs, rowNum) -> rs.getString(2) + " [" + rs.getLong(1) + "]",
+            PENDING,
+            CLAIMED,
+            heartbeatTimeout.toSeconds());
+    if (!reassigned.isEmpty()) {
+      log.warn("Reassigning the partitions {} of workers without heartbeat.", reassigned);
+    }
+  }
+
+  /**
+   * Counts the partitions of a step, which have not been finished yet.
+   *
+   * @param jobExecutionId the id of the running job execution
+   * @param stepName the name of the step
+   * @return the number of unfinished partitions
+   */
+  public int countUnfinished(long jobExecutionId, String stepName) {
+    var count =
+        jdbcTemplate.queryForObject(
+            "SELECT count(*) FROM "
+                + table
+                + " WHERE job_execution_id = ? AND step_name = ? AND status IN (?, ?)",
+            Integer.class,
+            jobExecutionId,
+            stepName,
+            PENDING,
+            CLAIMED);
+    return count == null ? 0 : count;
+  }
+
+  /**
+   * A partition claimed by a worker.
+   *
+   * @param stepExecutionId the id of the step execution of the partition
+   * @param jobExecutionId the id of the job execution
+   * @param stepName the name of the step, which is executed for the partition
+   */
+  public record Claim(long stepExecutionId, long jobExecutionId, String stepName) {}
+}
@@ -0,0 +1,109 @@
+package org.miracum.etl.fhirtoomop.partition;
+
+import java.time.Duration;
+import java.util.Map;
+import org.miracum.etl.fhirtoomop.DictionaryLoadingService;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.configuration.annotation.StepBuilderFactory;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * The PartitionManager class turns a step for FHIR resources into a partitioned step, whose
+ * partitions are processed by the workers of a distributed bulk load. The FHIR resources of the
+ * step are partitioned by ranges of their ids in FHIR Gateway.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Component
+public class PartitionManager {
+  private final StepBuilderFactory stepBuilderFactory;
+  private final PartitionClaims claims;
+  private final PartitionClaimGuard guard;
+  private final JobExplorer jobExplorer;
+  private final DictionaryLoadingService dictionaryLoadingService;
+  private final JdbcTemplate readerJdbcTemplate;
+
+  @Value("${app.distributed.workerId}")
+  private String workerId;
+
+  @Value("${app.distributed.partitions}")
+  private int partitions;
+
+  @Value("${app.distributed.managerProcessesPartitions}")
+  private Boolean managerProcessesPartitions;
+
+  @Value("${app.distributed.pollInterval}")
+  private long pollInterval;
+
+  @Value("${app.distributed.heartbeatTimeout}")
+  private long heartbeatTimeout;
+
+  /**
+   * Constructor for objects of the class PartitionManager.
+   *
+   * @param stepBuilderFactory factory for the stepBuilder
+   * @param claims the partitions offered to the workers
+   * @param guard checks the claim of a partition before each chunk is written
+   * @param jobExplorer explorer for the executions in the job repository
+   * @param dictionaryLoadingService service which loads the dictionaries of the steps
+   * @param readerJdbcTemplate JdbcTemplate for FHIR Gateway
+   */
+  public PartitionManager(
+      StepBuilderFactory stepBuilderFactory,
+      PartitionClaims claims,
+      PartitionClaimGuard guard,
+      JobExplorer jobExplorer,
+      DictionaryLoadingService dictionaryLoadingService,
+      @Qualifier("readerJdbcTemplate") JdbcTemplate readerJdbcTemplate) {
+    this.stepBuilderFactory = stepBuilderFactory;
+    this.claims = claims;
+    this.guard = guard;
+    this.jobExplorer = jobExplorer;
+    this.dictionaryLoadingService = dictionaryLoadingService;
+    this.readerJdbcTemplate = readerJdbcTemplate;
+  }
+
+  /**
+   * Creates the manager step, which partitions the FHIR resources of a step and waits until the
+   * workers have processed all partitions.
+   *
+   * @param step the step, which is executed by the workers for each partition
+   * @param tableName the table of FHIR Gateway
+   * @param whereClause the WHERE clause for filtering the FHIR resources of the step
+   * @return the partitioned step
+   */
+  public Step partitioned(Step step, String tableName, String whereClause) {
+    var heartbeat = Duration.ofSeconds(heartbeatTimeout);
+    PartitionWorker localWorker = null;
+    if (managerProcessesPartitions.booleanValue()) {
+      localWorker =
+          new PartitionWorker(
+              claims,
+              guard,
+              jobExplorer,
+              dictionaryLoadingService,
+              Map.of(step.getName(), step),
+              workerId,
+              heartbeat);
+    }
+    return stepBuilderFactory
+        .get(step.getName() + "Manager")
+        .partitioner(
+            step.getName(), new IdRangePartitioner(readerJdbcTemplate, tableName, whereClause))
+        .partitionHandler(
+            new DatabasePartitionHandler(
+                step.getName(),
+                partitions,
+                claims,
+                jobExplorer,
+                localWorker,
+                Duration.ofSeconds(pollInterval),
+                heartbeat))
+        .build();
+  }
+}
@@ -0,0 +1,213 @@
+package org.miracum.etl.fhirtoomop.partition;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.miracum.etl.fhirtoomop.DictionaryLoadingService;
+import org.miracum.etl.fhirtoomop.partition.PartitionClaims.Claim;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.listener.StepExecutionListenerSupport;
+import org.springframework.batch.core.step.AbstractStep;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * The PartitionWorker class claims the partitions offered by the manager of a distributed bulk load
+ * and executes the step of each partition with the existing reader, processor and writer. The step
+ * execution of the partition is loaded from the job repository in OMOP CDM, so that a partition
+ * reassigned from a dead worker continues after its last committed chunk.
+ *
+ * <p>While a partition is processed, the heartbeat of its claim is updated regularly. If the claim
+ * has been reassigned to another worker in the meantime, e.g. because the heartbeats have been
+ * delayed by a long pause of the process, the {@link PartitionClaimGuard} aborts the current chunk
+ * before it is written and the step execution is stopped. A partition whose step execution has not
+ * completed is recorded as failed. The dictionaries of a step are kept between consecutive
+ * partitions of the same step instead of being loaded again for each partition.
+ *
+ * <p>The worker does not run the activities before the job, e.g. loading source_to_concept_map and
+ * dropping the indexes for the upsert. They are run by the manager, whose job offers the partitions
+ * only after they have finished. Because the manager reloads source_to_concept_map for each job
+ * execution, the in-memory index of it is rebuilt, when the worker claims the first partition of
+ * another job execution.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+public class PartitionWorker {
+  private final PartitionClaims claims;
+  private final PartitionClaimGuard guard;
+  private final JobExplorer jobExplorer;
+  private final DictionaryLoadingService dictionaryLoadingService;
+  private final Map<String, Step> steps;
+  private final String workerId;
+  private final Duration heartbeatInterval;
+  private final ScheduledExecutorService heartbeats;
+  private final Set<String> holdingSteps = new HashSet<>();
+  private String heldStep;
+  private Long lastJobExecutionId;
+
+  /**
+   * Constructor for objects of the class PartitionWorker.
+   *
+   * @param claims the partitions offered by the manager
+   * @param guard checks the claim of a partition before each chunk is written
+   * @param jobExplorer explorer for the executions in the job repository
+   * @param dictionaryLoadingService service which loads the dictionaries of the steps
+   * @param steps the steps which can be executed for a partition by their names
+   * @param workerId the id of the worker
+   * @param heartbeatTimeout the time after which the partitions of a worker without heartbeat are
+   *     reassigned
+   */
+  public PartitionWorker(
+      PartitionClaims claims,
+      PartitionClaimGuard guard,
+      JobExplorer jobExplorer,
+      DictionaryLoadingService dictionaryLoadingService,
+      Map<String, Step> steps,
+      String workerId,
+      Duration heartbeatTimeout) {
+    this.claims = claims;
+    this.guard = guard;
+    this.jobExplorer = jobExplorer;
+    this.dictionaryLoadingService = dictionaryLoadingService;
+    this.steps = steps;
+    this.workerId = workerId;
+    this.heartbeatInterval = heartbeatTimeout.dividedBy(3);
+    var threadFactory = new CustomizableThreadFactory("partition-heartbeat-");
+    threadFactory.setDaemon(true);
+    this.heartbeats = Executors.newSingleThreadScheduledExecutor(threadFactory);
+  }
+
+  /**
+   * Claims and processes the next pending partition.
+   *
+   * @param stepName the name of the step whose partitions are processed, or null for all steps
+   * @return true, if a partition has been processed
+   */
+  public synchronized boolean processNext(String stepName) {
+    var claim = claims.claim(workerId, stepName);
+    if (claim.isEmpty()) {
+      releaseDictionaries();
+      return false;
+    }
+    process(claim.get());
+    return true;
+  }
+
+  private void process(Claim claim) {
+    var step = steps.get(claim.stepName());
+    var stepExecution =
+        jobExplorer.getStepExecution(claim.jobExecutionId(), claim.stepExecutionId());
+    if (step == null || stepExecution == null || !stepExecution.getJobExecution().isRunning()) {
+      log.warn(
+          "Skipping partition [{}] of [{}], its job execution is not running anymore.",
+          claim.stepExecutionId(),
+          claim.stepName());
+      claims.finish(claim, workerId, false);
+      return;
+    }
+    if (lastJobExecutionId != null && lastJobExecutionId != claim.jobExecutionId()) {
+      dictionaryLoadingService.invalidateSourceToConceptIndex();
+    }
+    lastJobExecutionId = claim.jobExecutionId();
+    if (!claim.stepName().equals(heldStep)) {
+      releaseDictionaries();
+    }
+    holdDictionaries(step);
+
+    log.info("[{}] Processing partition [{}].", workerId, stepExecution.getStepName());
+    var heartbeat =
+        heartbeats.scheduleAtFixedRate(
+            () -> sendHeartbeat(claim, stepExecution),
+            heartbeatInterval.toMillis(),
+            heartbeatInterval.toMillis(),
+            TimeUnit.MILLISECONDS);
+    guard.watch(claim, workerId);
+    var failed = true;
+    try {
+      step.execute(stepExecution);
+      failed = stepExecution.getStatus() != BatchStatus.COMPLETED;
+    } catch (Exception e) {
+      // the status of the failed partition is recorded in its step execution
+      log.error("Partition [{}] failed.", stepExecution.getStepName(), e);
+    } finally {
+      heartbeat.cancel(false);
+      guard.unwatch(claim);
+      claims.finish(claim, workerId, failed);
+    }
+  }
+
+  /**
+   * Updates the heartbeat of the claimed partition. If the partition is not claimed by this worker
+   * anymore, its step execution is stopped, so that it is not processed by two workers at the same
+   * time.
+   *
+   * @param claim the claimed partition
+   * @param stepExecution the step execution of the partition
+   */
+  private void sendHeartbeat(Claim claim, StepExecution stepExecution) {
+    boolean owned;
+    try {
+      owned = claims.heartbeat(claim, workerId);
+    } catch (RuntimeException e) {
+      log.warn("Unable to send the heartbeat of worker [{}]: {}", workerId, e.getMessage());
+      return;
+    }
+    if (!owned && !stepExecution.isTerminateOnly()) {
+      log.warn(
+          "[{}] Partition [{}] has been reassigned to another worker, stopping it after the current chunk.",
+          workerId,
+          stepExecution.getStepName());
+      stepExecution.setTerminateOnly();
+    }
+  }
+
+  /**
+   * Keeps the dictionaries of a partition after the step has finished, so that the next partition
+   * of the same step does not load them again. The listener is registered last, so that its
+   * afterStep is called before the step listener releases the dictionaries.
+   *
+   * @param step the step of the partition
+   */
+  private void holdDictionaries(Step step) {
+    heldStep = step.getName();
+    if (!(step instanceof AbstractStep abstractStep) || !holdingSteps.add(step.getName())) {
+      return;
+    }
+    abstractStep.registerStepExecutionListener(
+        new StepExecutionListenerSupport() {
+          @Override
+          public ExitStatus afterStep(StepExecution stepExecution) {
+            dictionaryLoadingService.retain(
+                holderName(step.getName()), stepExecution.getStepName());
+            return null;
+          }
+        });
+  }
+
+  /** Removes the dictionaries, which have been kept for the partitions of the previous step. */
+  public synchronized void releaseDictionaries() {
+    if (heldStep != null) {
+      dictionaryLoadingService.release(holderName(heldStep));
+      heldStep = null;
+    }
+  }
+
+  private String holderName(String stepName) {
+    return stepName + ":" + workerId;
+  }
+
+  /** Stops sending heartbeats. */
+  public void shutdown() {
+    heartbeats.shutdownNow();
+  }
+}
@@ -0,0 +1,69 @@
+package org.miracum.etl.fhirtoomop.processor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import org.miracum.etl.fhirtoomop.model.FhirPsqlResource;
+import org.miracum.etl.fhirtoomop.model.OmopModelWrapper;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.batch.item.ItemProcessor;
+
+/**
+ * The AsyncResourceProcessor class submits the parsing and mapping of FHIR resources to a separate
+ * thread pool, so that the step can continue to read the next FHIR resources of the chunk in the
+ * meantime. The results are collected by the {@link
+ * org.miracum.etl.fhirtoomop.writer.AsyncOmopWriter} before writing the chunk.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+public class AsyncResourceProcessor
+    implements ItemProcessor<FhirPsqlResource, Future<OmopModelWrapper>> {
+  private final ItemProcessor<FhirPsqlResource, OmopModelWrapper> delegate;
+  private final Executor executor;
+
+  /**
+   * Constructor for objects of the class AsyncResourceProcessor.
+   *
+   * @param delegate the processor which maps the FHIR resources to OMOP CDM
+   * @param executor the thread pool for parsing and mapping
+   */
+  public AsyncResourceProcessor(
+      ItemProcessor<FhirPsqlResource, OmopModelWrapper> delegate, Executor executor) {
+    this.delegate = delegate;
+    this.executor = executor;
+  }
+
+  /**
+   * Submits the processing of a FHIR resource to the thread pool.
+   *
+   * @param item FHIR resource and its metadata from FHIR Gateway
+   * @return the pending result of the processing
+   */
+  @Override
+  public Future<OmopModelWrapper> process(FhirPsqlResource item) {
+    var stepContext = StepSynchronizationManager.getContext();
+    var stepExecution = stepContext == null ? null : stepContext.getStepExecution();
+    return CompletableFuture.supplyAsync(() -> processInStep(item, stepExecution), executor);
+  }
+
+  private OmopModelWrapper processInStep(FhirPsqlResource item, StepExecution stepExecution) {
+    // the step is registered in the processing thread for the step name of the timers and events
+    if (stepExecution != null) {
+      StepSynchronizationManager.register(stepExecution);
+    }
+    try {
+      return delegate.process(item);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CompletionException(e);
+    } finally {
+      if (stepExecution != null) {
+        StepSynchronizationManager.close();
+      }
+    }
+  }
+}
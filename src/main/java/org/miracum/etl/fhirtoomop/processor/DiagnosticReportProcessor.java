@@ -39,10 +39,8 @@ public class DiagnosticReportProcessor extends ResourceProcessor<DiagnosticRepor
   @Override
   public OmopModelWrapper process(FhirPsqlResource fhirPsqlResource) {
 
-    var r = fhirParser.parseResource(DiagnosticReport.class, fhirPsqlResource.getData());
+    var r = parse(DiagnosticReport.class, fhirPsqlResource);
     log.debug(PROCESSING_RESOURCES_LOG, r.getResourceType(), r.getId());
-    return mapper.map(
-        r,
-        fhirPsqlResource.getIsDeleted() == null ? Boolean.FALSE : fhirPsqlResource.getIsDeleted());
+    return map(r, fhirPsqlResource);
   }
 }
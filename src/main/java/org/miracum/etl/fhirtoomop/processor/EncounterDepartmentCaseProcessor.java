@@ -40,10 +40,8 @@ public class EncounterDepartmentCaseProcessor extends ResourceProcessor<Encounte
   @Override
   public OmopModelWrapper process(FhirPsqlResource fhirPsqlResource) {
 
-    var r = fhirParser.parseResource(Encounter.class, fhirPsqlResource.getData());
+    var r = parse(Encounter.class, fhirPsqlResource);
     log.debug(PROCESSING_RESOURCES_LOG, r.getResourceType(), r.getId());
-    return mapper.map(
-        r,
-        fhirPsqlResource.getIsDeleted() == null ? Boolean.FALSE : fhirPsqlResource.getIsDeleted());
+    return map(r, fhirPsqlResource);
   }
 }
@@ -41,11 +41,9 @@ public class EncounterInstitutionContactProcessor extends ResourceProcessor<Enco
   @Override
   public OmopModelWrapper process(FhirPsqlResource fhirPsqlResource) {
 
-    var r = fhirParser.parseResource(Encounter.class, fhirPsqlResource.getData());
+    var r = parse(Encounter.class, fhirPsqlResource);
     log.debug(PROCESSING_RESOURCES_LOG, r.getResourceType(), r.getId());
 
-    return mapper.map(
-        r,
-        fhirPsqlResource.getIsDeleted() == null ? Boolean.FALSE : fhirPsqlResource.getIsDeleted());
+    return map(r, fhirPsqlResource);
   }
 }
@@ -0,0 +1,259 @@
+package org.miracum.etl.fhirtoomop.processor;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Set;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Observation.ObservationReferenceRangeComponent;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Reference;
+
+/**
+ * The LeanObservationParser class reads laboratory Observation resources with a streaming JSON
+ * tokenizer instead of the HAPI FHIR parser. Only the elements, which are read by the
+ * ObservationMapper for laboratory values, are extracted into an otherwise empty Observation:
+ * identifiers, status, category, code, subject, encounter, effectiveDateTime, issued,
+ * valueQuantity, interpretation and referenceRange.
+ *
+ * <p>As soon as the resource contains anything else, which could influence the mapping (e.g.
+ * extensions, components, other value types or an effective period), the parsing is aborted and the
+ * resource has to be parsed by HAPI FHIR.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+class LeanObservationParser {
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  /** Elements of an Observation, which are not read by the ObservationMapper. */
+  private static final Set<String> IGNORED_ELEMENTS =
+      Set.of(
+          "meta",
+          "text",
+          "basedOn",
+          "partOf",
+          "performer",
+          "specimen",
+          "method",
+          "device",
+          "note",
+          "bodySite");
+
+  /**
+   * Parses a laboratory Observation resource from its JSON representation.
+   *
+   * @param json the FHIR Observation resource in JSON format, encoded in UTF-8
+   * @return the Observation with the extracted elements or null, if the resource has to be parsed
+   *     by HAPI FHIR
+   */
+  Observation parse(byte[] json) {
+    try (var parser = jsonFactory.createParser(json)) {
+      expect(parser.nextToken(), JsonToken.START_OBJECT);
+      var observation = new Observation();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        var name = parser.getCurrentName();
+        parser.nextToken();
+        readElement(parser, name, observation);
+      }
+      return observation;
+    } catch (IOException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private void readElement(JsonParser parser, String name, Observation observation)
+      throws IOException {
+    switch (name) {
+      case "resourceType" -> {
+        if (!"Observation".equals(text(parser))) {
+          throw unsupported(name);
+        }
+      }
+      case "id" -> observation.setIdElement(new IdType("Observation", text(parser)));
+      case "identifier" -> {
+        expect(parser.currentToken(), JsonToken.START_ARRAY);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          observation.addIdentifier(readIdentifier(parser));
+        }
+      }
+      case "status" -> observation.getStatusElement().setValueAsString(text(parser));
+      case "category" -> {
+        expect(parser.currentToken(), JsonToken.START_ARRAY);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          observation.addCategory(readCodeableConcept(parser));
+        }
+      }
+      case "code" -> observation.setCode(readCodeableConcept(parser));
+      case "subject" -> observation.setSubject(readReference(parser));
+      case "encounter" -> observation.setEncounter(readReference(parser));
+      case "effectiveDateTime" -> observation.setEffective(new DateTimeType(text(parser)));
+      case "issued" -> observation.setIssuedElement(new InstantType(text(parser)));
+      case "valueQuantity" -> observation.setValue(readQuantity(parser));
+      case "interpretation" -> {
+        expect(parser.currentToken(), JsonToken.START_ARRAY);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          observation.addInterpretation(readCodeableConcept(parser));
+        }
+      }
+      case "referenceRange" -> {
+        expect(parser.currentToken(), JsonToken.START_ARRAY);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          observation.addReferenceRange(readReferenceRange(parser));
+        }
+      }
+      default -> {
+        if (!IGNORED_ELEMENTS.contains(name)) {
+          throw unsupported(name);
+        }
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private Identifier readIdentifier(JsonParser parser) throws IOException {
+    expect(parser.currentToken(), JsonToken.START_OBJECT);
+    var identifier = new Identifier();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      var name = parser.getCurrentName();
+      parser.nextToken();
+      switch (name) {
+        case "use" -> identifier.getUseElement().setValueAsString(text(parser));
+        case "type" -> identifier.setType(readCodeableConcept(parser));
+        case "system" -> identifier.setSystem(text(parser));
+        case "value" -> identifier.setValue(text(parser));
+        case "assigner" -> identifier.setAssigner(readReference(parser));
+        case "period" -> parser.skipChildren();
+        default -> throw unsupported(name);
+      }
+    }
+    return identifier;
+  }
+
+  private CodeableConcept readCodeableConcept(JsonParser parser) throws IOException {
+    expect(parser.currentToken(), JsonToken.START_OBJECT);
+    var codeableConcept = new CodeableConcept();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      var name = parser.getCurrentName();
+      parser.nextToken();
+      switch (name) {
+        case "coding" -> {
+          expect(parser.currentToken(), JsonToken.START_ARRAY);
+          while (parser.nextToken() != JsonToken.END_ARRAY) {
+            codeableConcept.addCoding(readCoding(parser));
+          }
+        }
+        case "text" -> codeableConcept.setText(text(parser));
+        default -> throw unsupported(name);
+      }
+    }
+    return codeableConcept;
+  }
+
+  private Coding readCoding(JsonParser parser) throws IOException {
+    expect(parser.currentToken(), JsonToken.START_OBJECT);
+    var coding = new Coding();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      var name = parser.getCurrentName();
+      parser.nextToken();
+      switch (name) {
+        case "system" -> coding.setSystem(text(parser));
+        case "version" -> coding.setVersion(text(parser));
+        case "code" -> coding.setCode(text(parser));
+        case "display" -> coding.setDisplay(text(parser));
+        case "userSelected" -> coding.setUserSelected(parser.getBooleanValue());
+        default -> throw unsupported(name);
+      }
+    }
+    return coding;
+  }
+
+  private Reference readReference(JsonParser parser) throws IOException {
+    expect(parser.currentToken(), JsonToken.START_OBJECT);
+    var reference = new Reference();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      var name = parser.getCurrentName();
+      parser.nextToken();
+      switch (name) {
+        case "reference" -> reference.setReference(text(parser));
+        case "type" -> reference.setType(text(parser));
+        case "identifier" -> reference.setIdentifier(readIdentifier(parser));
+        case "display" -> reference.setDisplay(text(parser));
+        default -> throw unsupported(name);
+      }
+    }
+    return reference;
+  }
+
+  private Quantity readQuantity(JsonParser parser) throws IOException {
+    expect(parser.currentToken(), JsonToken.START_OBJECT);
+    var quantity = new Quantity();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      var name = parser.getCurrentName();
+      var token = parser.nextToken();
+      switch (name) {
+        case "value" -> {
+          if (!token.isNumeric()) {
+            throw unsupported(name);
+          }
+          // the literal keeps the precision of the value as in HAPI FHIR
+          quantity.setValue(new BigDecimal(parser.getText()));
+        }
+        case "comparator" -> quantity.getComparatorElement().setValueAsString(text(parser));
+        case "unit" -> quantity.setUnit(text(parser));
+        case "system" -> quantity.setSystem(text(parser));
+        case "code" -> quantity.setCode(text(parser));
+        default -> throw unsupported(name);
+      }
+    }
+    return quantity;
+  }
+
+  private ObservationReferenceRangeComponent readReferenceRange(JsonParser parser)
+      throws IOException {
+    expect(parser.currentToken(), JsonToken.START_OBJECT);
+    var referenceRange = new ObservationReferenceRangeComponent();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      var name = parser.getCurrentName();
+      parser.nextToken();
+      switch (name) {
+        case "low" -> referenceRange.setLow(readQuantity(parser));
+        case "high" -> referenceRange.setHigh(readQuantity(parser));
+        case "type" -> referenceRange.setType(readCodeableConcept(parser));
+        case "text" -> referenceRange.setText(text(parser));
+        default -> throw unsupported(name);
+      }
+    }
+    return referenceRange;
+  }
+
+  private static String text(JsonParser parser) throws IOException {
+    expect(parser.currentToken(), JsonToken.VALUE_STRING);
+    return parser.getText();
+  }
+
+  private static void expect(JsonToken token, JsonToken expected) {
+    if (token != expected) {
+      throw new UnsupportedElementException(String.valueOf(token));
+    }
+  }
+
+  private static UnsupportedElementException unsupported(String name) {
+    return new UnsupportedElementException(name);
+  }
+
+  /** Signals an element, which is not supported by the lean parsing. */
+  private static class UnsupportedElementException extends RuntimeException {
+    UnsupportedElementException(String element) {
+      super(element, null, false, false);
+    }
+  }
+}
@@ -38,10 +38,8 @@ public class MedicationStatementProcessor extends ResourceProcessor<MedicationSt
    */
   @Override
   public OmopModelWrapper process(FhirPsqlResource fhirPsqlResource) {
-    var r = fhirParser.parseResource(MedicationStatement.class, fhirPsqlResource.getData());
+    var r = parse(MedicationStatement.class, fhirPsqlResource);
     log.debug(PROCESSING_RESOURCES_LOG, r.getResourceType(), r.getId());
-    return mapper.map(
-        r,
-        fhirPsqlResource.getIsDeleted() == null ? Boolean.FALSE : fhirPsqlResource.getIsDeleted());
+    return map(r, fhirPsqlResource);
   }
 }
@@ -1,13 +1,16 @@
 package org.miracum.etl.fhirtoomop.processor;
 
 import static org.miracum.etl.fhirtoomop.Constants.PROCESSING_RESOURCES_LOG;
+import static org.miracum.etl.fhirtoomop.mapper.helpers.PhaseTimers.PHASE_PARSE;
 
 import ca.uhn.fhir.parser.IParser;
 import lombok.extern.slf4j.Slf4j;
 import org.hl7.fhir.r4.model.Observation;
 import org.miracum.etl.fhirtoomop.mapper.ObservationMapper;
+import org.miracum.etl.fhirtoomop.mapper.helpers.PhaseTimers;
 import org.miracum.etl.fhirtoomop.model.FhirPsqlResource;
 import org.miracum.etl.fhirtoomop.model.OmopModelWrapper;
+import org.springframework.beans.factory.annotation.Value;
 
 /**
  * The ObservationProcessor class represents the processing of FHIR Observation resources including
@@ -18,6 +21,10 @@ import org.miracum.etl.fhirtoomop.model.OmopModelWrapper;
  */
 @Slf4j
 public class ObservationProcessor extends ResourceProcessor<Observation> {
+  private final LeanObservationParser leanParser = new LeanObservationParser();
+
+  @Value("${app.leanObservationParsing.enabled}")
+  private Boolean leanParsing;
 
   /**
    * Constructor for objects of the class ObservationProcessor.
@@ -31,7 +38,9 @@ public class ObservationProcessor extends ResourceProcessor<Observation> {
   }
 
   /**
-   * Processes FHIR Observation resources and maps them to OMOP CDM.
+   * Processes FHIR Observation resources and maps them to OMOP CDM. If the lean parsing is enabled,
+   * laboratory Observations are read without HAPI FHIR, all other Observations are parsed by HAPI
+   * FHIR as before.
    *
    * @param fhirPsqlResource FHIR resource and its metadata from FHIR Gateway
    * @return wrapper with objects to be written to OMOP CDM
@@ -39,10 +48,20 @@ public class ObservationProcessor extends ResourceProcessor<Observation> {
   @Override
   public OmopModelWrapper process(FhirPsqlResource fhirPsqlResource) {
 
-    var r = fhirParser.parseResource(Observation.class, fhirPsqlResource.getData());
+    Observation r = null;
+    if (leanParsing.booleanValue()) {
+      r =
+          PhaseTimers.record(
+              PHASE_PARSE,
+              fhirPsqlResource.getType(),
+              () -> leanParser.parse(fhirPsqlResource.getData()));
+    }
+    if (r == null) {
+      r = parse(Observation.class, fhirPsqlResource);
+    } else {
+      fhirPsqlResource.setData(null);
+    }
     log.debug(PROCESSING_RESOURCES_LOG, r.getResourceType(), r.getId());
-    return mapper.map(
-        r,
-        fhirPsqlResource.getIsDeleted() == null ? Boolean.FALSE : fhirPsqlResource.getIsDeleted());
+    return map(r, fhirPsqlResource);
   }
 }
@@ -1,11 +1,19 @@
 package org.miracum.etl.fhirtoomop.processor;
 
+import static org.miracum.etl.fhirtoomop.mapper.helpers.PhaseTimers.PHASE_MAP;
+import static org.miracum.etl.fhirtoomop.mapper.helpers.PhaseTimers.PHASE_PARSE;
+
 import ca.uhn.fhir.parser.IParser;
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.miracum.etl.fhirtoomop.jfr.SlowResourceMappedEvent;
 import org.miracum.etl.fhirtoomop.mapper.FhirMapper;
+import org.miracum.etl.fhirtoomop.mapper.helpers.PhaseTimers;
 import org.miracum.etl.fhirtoomop.model.FhirPsqlResource;
 import org.miracum.etl.fhirtoomop.model.OmopModelWrapper;
 import org.springframework.batch.item.ItemProcessor;
+import org.springframework.beans.factory.annotation.Value;
 
 /**
  * The ResourceProcessor class represents the processing of FHIR resources including the mapping
@@ -19,6 +27,9 @@ public abstract class ResourceProcessor<E extends IBaseResource>
   protected final FhirMapper<E> mapper;
   protected final IParser fhirParser;
 
+  @Value("${app.jfr.slowMappingThreshold}")
+  private long slowMappingThreshold;
+
   /**
    * Constructor for objects of the class ResourceProcessor.
    *
@@ -30,4 +41,53 @@ public abstract class ResourceProcessor<E extends IBaseResource>
     this.mapper = mapper;
     this.fhirParser = fhirParser;
   }
+
+  /**
+   * Parses the FHIR resource from its UTF-8 encoded JSON representation in FHIR Gateway. The JSON
+   * representation is released afterwards, so that it is not kept in memory until the chunk is
+   * written.
+   *
+   * @param resourceClass the class of the FHIR resource
+   * @param fhirPsqlResource FHIR resource and its metadata from FHIR Gateway
+   * @return the parsed FHIR resource
+   */
+  protected E parse(Class<E> resourceClass, FhirPsqlResource fhirPsqlResource) {
+    var resource =
+        PhaseTimers.record(
+            PHASE_PARSE,
+            fhirPsqlResource.getType(),
+            () ->
+                fhirParser.parseResource(
+                    resourceClass, new ByteArrayInputStream(fhirPsqlResource.getData())));
+    fhirPsqlResource.setData(null);
+    return resource;
+  }
+
+  /**
+   * Maps the parsed FHIR resource to OMOP CDM. If the mapping takes longer than the configured
+   * threshold, a {@link SlowResourceMappedEvent} is emitted to Java Flight Recorder.
+   *
+   * @param resource the parsed FHIR resource
+   * @param fhirPsqlResource FHIR resource and its metadata from FHIR Gateway
+   * @return wrapper with objects to be written to OMOP CDM
+   */
+  protected OmopModelWrapper map(E resource, FhirPsqlResource fhirPsqlResource) {
+    var isDeleted =
+        fhirPsqlResource.getIsDeleted() == null ? Boolean.FALSE : fhirPsqlResource.getIsDeleted();
+    var event = new SlowResourceMappedEvent();
+    event.begin();
+    var start = System.nanoTime();
+    var wrapper =
+        PhaseTimers.record(
+            PHASE_MAP, fhirPsqlResource.getType(), () -> mapper.map(resource, isDeleted));
+    event.end();
+    if (System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(slowMappingThreshold)
+        && event.shouldCommit()) {
+      event.setStepName(PhaseTimers.currentStepName());
+      event.setResourceType(fhirPsqlResource.getType());
+      event.setResourceId(fhirPsqlResource.getFhirId());
+      event.commit();
+    }
+    return wrapper;
+  }
 }
@@ -1,5 +1,6 @@
 package org.miracum.etl.fhirtoomop.repository;
 
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 import org.miracum.etl.fhirtoomop.model.omop.Person;
@@ -66,6 +67,41 @@ public interface PersonRepository
         .collect(Collectors.toMap(Person::getFhirIdentifier, Person::getPersonId));
   }
 
+  /**
+   * Retrieves all records from person table in OMOP CDM, whose person_id is greater than the given
+   * one.
+   *
+   * @param personId the person_id after which the records are retrieved
+   * @return records from person table in OMOP CDM with a greater person_id
+   */
+  List<Person> findByPersonIdGreaterThan(Long personId);
+
+  /**
+   * Formats the records from person table in OMOP CDM, whose person_id is greater than the given
+   * one, as a map. The map contains the assignment of fhir_logical_id to person_id.
+   *
+   * @param personIdAfter the person_id after which the records are retrieved
+   * @return map containing the assignment of fhir_logical_id to person_id
+   */
+  default Map<String, Long> getFhirLogicalIdAndPersonId(long personIdAfter) {
+    return findByPersonIdGreaterThan(personIdAfter).stream()
+        .filter(m -> m.getFhirLogicalId() != null)
+        .collect(Collectors.toMap(Person::getFhirLogicalId, Person::getPersonId));
+  }
+
+  /**
+   * Formats the records from person table in OMOP CDM, whose person_id is greater than the given
+   * one, as a map. The map contains the assignment of fhir_identifier to person_id.
+   *
+   * @param personIdAfter the person_id after which the records are retrieved
+   * @return map containing the assignment of fhir_identifier to person_id
+   */
+  default Map<String, Long> getFhirIdentifierAndPersonId(long personIdAfter) {
+    return findByPersonIdGreaterThan(personIdAfter).stream()
+        .filter(m -> m.getFhirIdentifier() != null)
+        .collect(Collectors.toMap(Person::getFhirIdentifier, Person::getPersonId));
+  }
+
   void deleteByFhirLogicalId(String fhirLogicalId);
 
   void deleteByFhirIdentifier(String fhirIdentifier);
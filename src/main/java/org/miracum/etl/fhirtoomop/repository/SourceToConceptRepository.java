@@ -1,8 +1,7 @@
 package org.miracum.etl.fhirtoomop.repository;
 
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import org.miracum.etl.fhirtoomop.mapper.helpers.SourceToConceptIndex;
 import org.miracum.etl.fhirtoomop.model.omop.SourceToConceptMap;
 import org.springframework.data.repository.PagingAndSortingRepository;
 
@@ -25,14 +24,12 @@ public interface SourceToConceptRepository
   List<SourceToConceptMap> findAll();
 
   /**
-   * Formats the list of all records from source_to_concept_map table in OMOP CDM as a map. The
-   * source_vocabulary_id is used as key.
+   * Indexes all records from source_to_concept_map table in OMOP CDM by source_vocabulary_id and
+   * source_code.
    *
-   * @return a map with all records from source_to_concept_map table using source_vocabulary_id as
-   *     key
+   * @return an index of all records from source_to_concept_map table
    */
-  default Map<String, List<SourceToConceptMap>> sourceToConceptMap() {
-    return findAll().stream()
-        .collect(Collectors.groupingBy(SourceToConceptMap::getSourceVocabularyId));
+  default SourceToConceptIndex sourceToConceptIndex() {
+    return SourceToConceptIndex.of(findAll());
   }
 }
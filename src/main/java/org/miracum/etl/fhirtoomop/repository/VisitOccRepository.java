@@ -1,5 +1,6 @@
 package org.miracum.etl.fhirtoomop.repository;
 
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 import org.miracum.etl.fhirtoomop.model.omop.VisitOccurrence;
@@ -65,6 +66,47 @@ public interface VisitOccRepository
                 VisitOccurrence::getFhirIdentifier, VisitOccurrence::getVisitOccurrenceId));
   }
 
+  /**
+   * Retrieves all records from visit_occurrence table in OMOP CDM, whose visit_occurrence_id is
+   * greater than the given one.
+   *
+   * @param visitOccurrenceId the visit_occurrence_id after which the records are retrieved
+   * @return records from visit_occurrence table in OMOP CDM with a greater visit_occurrence_id
+   */
+  List<VisitOccurrence> findByVisitOccurrenceIdGreaterThan(Long visitOccurrenceId);
+
+  /**
+   * Formats the records from visit_occurrence table in OMOP CDM, whose visit_occurrence_id is
+   * greater than the given one, as a map. The map contains the assignment of fhir_logical_id to
+   * visit_occurrence_id.
+   *
+   * @param visitOccurrenceIdAfter the visit_occurrence_id after which the records are retrieved
+   * @return map containing the assignment of fhir_logical_id to visit_occurrence_id
+   */
+  default Map<String, Long> getFhirLogicalIdAndVisitOccId(long visitOccurrenceIdAfter) {
+    return findByVisitOccurrenceIdGreaterThan(visitOccurrenceIdAfter).stream()
+        .filter(m -> m.getFhirLogicalId() != null)
+        .collect(
+            Collectors.toMap(
+                VisitOccurrence::getFhirLogicalId, VisitOccurrence::getVisitOccurrenceId));
+  }
+
+  /**
+   * Formats the records from visit_occurrence table in OMOP CDM, whose visit_occurrence_id is
+   * greater than the given one, as a map. The map contains the assignment of fhir_identifier to
+   * visit_occurrence_id.
+   *
+   * @param visitOccurrenceIdAfter the visit_occurrence_id after which the records are retrieved
+   * @return map containing the assignment of fhir_identifier to visit_occurrence_id
+   */
+  default Map<String, Long> getFhirIdentifierAndVisitOccId(long visitOccurrenceIdAfter) {
+    return findByVisitOccurrenceIdGreaterThan(visitOccurrenceIdAfter).stream()
+        .filter(m -> m.getFhirIdentifier() != null)
+        .collect(
+            Collectors.toMap(
+                VisitOccurrence::getFhirIdentifier, VisitOccurrence::getVisitOccurrenceId));
+  }
+
   /**
    * Delete entries in OMOP CDM table using fhir_logical_id.
    *
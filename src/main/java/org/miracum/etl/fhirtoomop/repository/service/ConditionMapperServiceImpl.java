@@ -41,6 +41,19 @@ public class ConditionMapperServiceImpl {
     ppmRepository.deletePrimarySecondaryByFhirLogicalId(fhirLogicalId);
   }
 
+  /**
+   * Deletes FHIR Condition resources from the OMOP CDM tables, which are not written with upserts,
+   * using fhir_logical_id. The records in condition_occurrence, measurement and observation are
+   * replaced by the writer.
+   *
+   * @param fhirLogicalId logical id of the FHIR Condition resource
+   */
+  public void deleteExistingConditionsWithoutUpsertsByFhirLogicalId(String fhirLogicalId) {
+    procedureOccRepository.deleteByFhirLogicalId(fhirLogicalId);
+    frRepository.deleteByFhirLogicalId1(fhirLogicalId);
+    ppmRepository.deletePrimarySecondaryByFhirLogicalId(fhirLogicalId);
+  }
+
   /**
    * Deletes FHIR Condition resources from OMOP CDM tables using fhir_identifier
    *
@@ -32,6 +32,16 @@ public class ObservationMapperServiceImpl {
     procedureRepository.deleteByFhirLogicalId(fhirLogicalId);
   }
 
+  /**
+   * Delete FHIR Observation resources from the OMOP CDM tables, which are not written with upserts,
+   * using fhir_logical_id. The records in measurement and observation are replaced by the writer.
+   *
+   * @param fhirLogicalId logical id of the FHIR Observation resource
+   */
+  public void deleteExistingLabObservationWithoutUpsertsByFhirLogicalId(String fhirLogicalId) {
+    procedureRepository.deleteByFhirLogicalId(fhirLogicalId);
+  }
+
   /**
    * Delete FHIR Observation resources from OMOP CDM tables using fhir_identifier
    *
@@ -0,0 +1,305 @@
+package org.miracum.etl.fhirtoomop.tuning;
+
+import com.zaxxer.hikari.HikariDataSource;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryType;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.miracum.etl.fhirtoomop.mapper.helpers.MapperMetrics;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ItemWriteListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.batch.repeat.CompletionPolicy;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+
+/**
+ * The AdaptiveChunkController class adjusts the chunk size and the number of concurrent chunks of
+ * each step at runtime. In every adjustment window, the latency of writing chunks, the threads
+ * waiting for a connection to OMOP CDM, the heap occupancy after the last garbage collection and
+ * the throughput of the step are observed. The values are adjusted AIMD-style: they are increased
+ * additively as long as there is no sign of overload and decreased multiplicatively otherwise,
+ * always within the configured bounds.
+ *
+ * <p>The chosen values of each step are published as gauges.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+@Component
+public class AdaptiveChunkController implements ChunkListener, ItemWriteListener<Object> {
+  private static final double DECREASE_FACTOR = 0.5;
+  private static final double THROUGHPUT_TOLERANCE = 0.9;
+
+  private final Map<String, StepTuning> tuningByStep = new ConcurrentHashMap<>();
+  private final ThreadLocal<Long> writeStart = new ThreadLocal<>();
+  private final DataSource writerDataSource;
+
+  @Value("${app.adaptiveTuning.enabled}")
+  private Boolean enabled;
+
+  @Value("${batch.chunkSize}")
+  private int initialChunkSize;
+
+  @Value("${batch.throttleLimit}")
+  private int initialConcurrency;
+
+  @Value("${app.adaptiveTuning.minChunkSize}")
+  private int minChunkSize;
+
+  @Value("${app.adaptiveTuning.maxChunkSize}")
+  private int maxChunkSize;
+
+  @Value("${app.adaptiveTuning.chunkSizeIncrement}")
+  private int chunkSizeIncrement;
+
+  @Value("${app.adaptiveTuning.maxThrottleLimit}")
+  private int maxConcurrency;
+
+  @Value("${app.adaptiveTuning.targetWriteLatency}")
+  private long targetWriteLatency;
+
+  @Value("${app.adaptiveTuning.maxHeapOccupancy}")
+  private double maxHeapOccupancy;
+
+  @Value("${app.adaptiveTuning.interval}")
+  private long interval;
+
+  /**
+   * Constructor for objects of the class AdaptiveChunkController.
+   *
+   * @param writerDataSource the data source of OMOP CDM
+   */
+  public AdaptiveChunkController(@Qualifier("writerDataSource") DataSource writerDataSource) {
+    this.writerDataSource = writerDataSource;
+  }
+
+  /**
+   * Checks whether the chunk size and the concurrency of the steps are adjusted at runtime.
+   *
+   * @return true, if the steps are tuned at runtime
+   */
+  public boolean isEnabled() {
+    return enabled.booleanValue();
+  }
+
+  /**
+   * Returns the maximal number of concurrent chunks of a step.
+   *
+   * @return the maximal number of concurrent chunks
+   */
+  public int getMaxConcurrency() {
+    return Math.max(maxConcurrency, initialConcurrency);
+  }
+
+  /**
+   * Creates the completion policy of a step, which completes each chunk after the chunk size chosen
+   * for the step.
+   *
+   * @param stepName the name of the step
+   * @return completion policy with the adjusted chunk size
+   */
+  public CompletionPolicy completionPolicy(String stepName) {
+    return new AdaptiveCompletionPolicy(() -> tuning(stepName).getChunkSize());
+  }
+
+  /**
+   * Returns the size of the chunk, which is currently read by the calling thread. The reader of a
+   * step uses it to take exactly the FHIR resources of the chunk.
+   *
+   * @return the size of the current chunk or batch.chunkSize outside of a chunk
+   */
+  public int currentChunkSize() {
+    var chunkSize = AdaptiveCompletionPolicy.currentChunkSize();
+    return chunkSize > 0 ? chunkSize : initialChunkSize;
+  }
+
+  /**
+   * Wraps the task executor of a multi-threaded step, so that only the number of chunks chosen for
+   * the step are processed at the same time.
+   *
+   * @param delegate the task executor which runs the chunks
+   * @return task executor with the adjusted concurrency
+   */
+  public TaskExecutor taskExecutor(TaskExecutor delegate) {
+    return new AdaptiveTaskExecutor(delegate, this);
+  }
+
+  /**
+   * Returns the chunk size and the concurrency of a step. They are initialized with the configured
+   * values of batch.chunkSize and batch.throttleLimit.
+   *
+   * @param stepName the name of the step
+   * @return the chunk size and the concurrency of the step
+   */
+  StepTuning tuning(String stepName) {
+    return tuningByStep.computeIfAbsent(
+        stepName,
+        name -> {
+          var tuning =
+              new StepTuning(
+                  clamp(initialChunkSize, minChunkSize, maxChunkSize),
+                  clamp(initialConcurrency, 1, getMaxConcurrency()));
+          MapperMetrics.setStepProgressGauge(
+              "batch.fhir.tuning.chunk.size",
+              "Chunk size chosen for the step",
+              name,
+              tuning,
+              StepTuning::getChunkSize);
+          MapperMetrics.setStepProgressGauge(
+              "batch.fhir.tuning.concurrency",
+              "Number of concurrent chunks chosen for the step",
+              name,
+              tuning,
+              StepTuning::getConcurrency);
+          return tuning;
+        });
+  }
+
+  @Override
+  public void beforeChunk(ChunkContext context) {
+    // nothing to do before a chunk
+  }
+
+  @Override
+  public void afterChunk(ChunkContext context) {
+    // the chunk is observed while it is written
+  }
+
+  @Override
+  public void afterChunkError(ChunkContext context) {
+    writeStart.remove();
+  }
+
+  @Override
+  public void beforeWrite(List<? extends Object> items) {
+    writeStart.set(System.nanoTime());
+  }
+
+  /**
+   * Records the writing of a chunk and adjusts the chunk size and the concurrency of the step, if
+   * the adjustment window has passed.
+   *
+   * @param items the written items
+   */
+  @Override
+  public void afterWrite(List<? extends Object> items) {
+    var start = writeStart.get();
+    writeStart.remove();
+    var stepContext = StepSynchronizationManager.getContext();
+    if (!isEnabled() || start == null || stepContext == null) {
+      return;
+    }
+    var stepName = stepContext.getStepName();
+    var tuning = tuning(stepName);
+    tuning.recordWrite(items.size(), System.nanoTime() - start, threadsAwaitingConnection());
+    var window = tuning.closeWindow(TimeUnit.SECONDS.toNanos(interval));
+    if (window != null) {
+      adjust(stepName, tuning, window);
+    }
+  }
+
+  @Override
+  public void onWriteError(Exception exception, List<? extends Object> items) {
+    writeStart.remove();
+  }
+
+  /**
+   * Chooses the chunk size and the concurrency of a step for the next adjustment window.
+   *
+   * <ul>
+   *   <li>If the heap is occupied above the threshold after garbage collection, both are decreased.
+   *   <li>If writing a chunk takes longer than the target latency, the chunk size is decreased,
+   *       otherwise increased.
+   *   <li>If threads wait for a connection to OMOP CDM, the concurrency is decreased. If the last
+   *       increase of the concurrency has reduced the throughput, it is taken back. Otherwise the
+   *       concurrency is increased.
+   * </ul>
+   *
+   * @param stepName the name of the step
+   * @param tuning the chunk size and the concurrency of the step
+   * @param window the observations of the closed adjustment window
+   */
+  private void adjust(String stepName, StepTuning tuning, StepTuning.Window window) {
+    var chunkSize = tuning.getChunkSize();
+    var concurrency = tuning.getConcurrency();
+    var heapOccupancy = heapOccupancyAfterGc();
+
+    if (heapOccupancy > maxHeapOccupancy) {
+      chunkSize = decrease(chunkSize, minChunkSize);
+      concurrency = decrease(concurrency, 1);
+    } else {
+      chunkSize =
+          window.writeLatencyMillis() > targetWriteLatency
+              ? decrease(chunkSize, minChunkSize)
+              : Math.min(maxChunkSize, chunkSize + chunkSizeIncrement);
+      if (window.connectionWaits() > 0) {
+        concurrency = decrease(concurrency, 1);
+      } else if (window.concurrencyIncreased()
+          && window.throughput() < window.previousThroughput() * THROUGHPUT_TOLERANCE) {
+        concurrency = Math.max(1, concurrency - 1);
+      } else {
+        concurrency = Math.min(getMaxConcurrency(), concurrency + 1);
+      }
+    }
+
+    if (chunkSize != tuning.getChunkSize() || concurrency != tuning.getConcurrency()) {
+      log.debug(
+          "[{}] Chunk size [{}], concurrency [{}] after [{}/s], write latency [{}ms], [{}] waiting"
+              + " for a connection, heap occupancy [{}].",
+          stepName,
+          chunkSize,
+          concurrency,
+          String.format("%.0f", window.throughput()),
+          String.format("%.0f", window.writeLatencyMillis()),
+          window.connectionWaits(),
+          String.format("%.2f", heapOccupancy));
+    }
+    tuning.adjust(chunkSize, concurrency);
+  }
+
+  private static int decrease(int value, int min) {
+    return Math.max(min, (int) (value * DECREASE_FACTOR));
+  }
+
+  private static int clamp(int value, int min, int max) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  /**
+   * Returns the number of threads waiting for a connection to OMOP CDM.
+   *
+   * @return the number of waiting threads or 0, if the connection pool does not provide it
+   */
+  private int threadsAwaitingConnection() {
+    if (writerDataSource instanceof HikariDataSource hikari
+        && hikari.getHikariPoolMXBean() != null) {
+      return hikari.getHikariPoolMXBean().getThreadsAwaitingConnection();
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the occupancy of the heap after the last garbage collection.
+   *
+   * @return the share of the maximal heap, which was used after the last garbage collection
+   */
+  private static double heapOccupancyAfterGc() {
+    var used =
+        ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP)
+            .map(pool -> pool.getCollectionUsage())
+            .filter(usage -> usage != null)
+            .mapToLong(usage -> usage.getUsed())
+            .sum();
+    return (double) used / Runtime.getRuntime().maxMemory();
+  }
+}
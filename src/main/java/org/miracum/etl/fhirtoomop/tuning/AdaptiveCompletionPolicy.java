@@ -0,0 +1,72 @@
+package org.miracum.etl.fhirtoomop.tuning;
+
+import java.util.function.IntSupplier;
+import org.springframework.batch.repeat.RepeatContext;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.batch.repeat.context.RepeatContextSupport;
+import org.springframework.batch.repeat.policy.CompletionPolicySupport;
+import org.springframework.batch.repeat.support.RepeatSynchronizationManager;
+
+/**
+ * The AdaptiveCompletionPolicy class completes a chunk after a number of FHIR resources, which is
+ * determined anew at the start of each chunk. Chunks of different threads of the same step may
+ * therefore have different sizes for a short time.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+class AdaptiveCompletionPolicy extends CompletionPolicySupport {
+  private final IntSupplier chunkSize;
+
+  /**
+   * Constructor for objects of the class AdaptiveCompletionPolicy.
+   *
+   * @param chunkSize supplies the chunk size at the start of each chunk
+   */
+  AdaptiveCompletionPolicy(IntSupplier chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Returns the size of the chunk, which is currently read by the calling thread.
+   *
+   * @return the size of the current chunk or -1, if the thread is not reading a chunk of this
+   *     policy
+   */
+  static int currentChunkSize() {
+    return RepeatSynchronizationManager.getContext() instanceof SizedChunkContext context
+        ? context.size
+        : -1;
+  }
+
+  @Override
+  public RepeatContext start(RepeatContext parent) {
+    return new SizedChunkContext(parent, chunkSize.getAsInt());
+  }
+
+  @Override
+  public boolean isComplete(RepeatContext context, RepeatStatus result) {
+    return super.isComplete(context, result) || isComplete(context);
+  }
+
+  @Override
+  public boolean isComplete(RepeatContext context) {
+    var chunkContext = (SizedChunkContext) context;
+    return chunkContext.getStartedCount() >= chunkContext.size;
+  }
+
+  @Override
+  public void update(RepeatContext context) {
+    ((SizedChunkContext) context).increment();
+  }
+
+  /** The context of a chunk with the chunk size fixed at its start. */
+  private static class SizedChunkContext extends RepeatContextSupport {
+    private final int size;
+
+    SizedChunkContext(RepeatContext parent, int size) {
+      super(parent);
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package org.miracum.etl.fhirtoomop.tuning;
+
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.core.task.TaskExecutor;
+
+/**
+ * The AdaptiveTaskExecutor class limits the number of chunks, which are processed at the same time
+ * in a multi-threaded step, to the concurrency chosen by the {@link AdaptiveChunkController}. The
+ * chunks are submitted by the thread of the step, so the step is looked up on submission.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+class AdaptiveTaskExecutor implements TaskExecutor {
+  private final TaskExecutor delegate;
+  private final AdaptiveChunkController controller;
+
+  /**
+   * Constructor for objects of the class AdaptiveTaskExecutor.
+   *
+   * @param delegate the task executor which runs the chunks
+   * @param controller the controller which chooses the concurrency of each step
+   */
+  AdaptiveTaskExecutor(TaskExecutor delegate, AdaptiveChunkController controller) {
+    this.delegate = delegate;
+    this.controller = controller;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    var stepContext = StepSynchronizationManager.getContext();
+    if (stepContext == null) {
+      delegate.execute(task);
+      return;
+    }
+    var tuning = controller.tuning(stepContext.getStepName());
+    delegate.execute(
+        () -> {
+          // the chunk runs even if interrupted, otherwise the step would wait for its result
+          var acquired = tuning.acquire();
+          try {
+            task.run();
+          } finally {
+            if (acquired) {
+              tuning.release();
+            }
+          }
+        });
+  }
+}
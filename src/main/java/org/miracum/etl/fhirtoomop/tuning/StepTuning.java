@@ -0,0 +1,136 @@
+package org.miracum.etl.fhirtoomop.tuning;
+
+/**
+ * The StepTuning class holds the chunk size and the concurrency chosen for a step and the
+ * observations of the current adjustment window.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+class StepTuning {
+  private volatile int chunkSize;
+  private int concurrency;
+  private int runningChunks;
+
+  private long windowStart;
+  private long windowItems;
+  private long windowWrites;
+  private long windowWriteNanos;
+  private int windowConnectionWaits;
+  private double lastThroughput = Double.NaN;
+  private boolean lastConcurrencyIncreased;
+
+  /**
+   * Constructor for objects of the class StepTuning.
+   *
+   * @param chunkSize the initial chunk size
+   * @param concurrency the initial number of concurrent chunks
+   */
+  StepTuning(int chunkSize, int concurrency) {
+    this.chunkSize = chunkSize;
+    this.concurrency = concurrency;
+    this.windowStart = System.nanoTime();
+  }
+
+  int getChunkSize() {
+    return chunkSize;
+  }
+
+  synchronized int getConcurrency() {
+    return concurrency;
+  }
+
+  /**
+   * Waits until fewer chunks than the chosen concurrency are running.
+   *
+   * @return true, if the chunk may run; false, if the waiting thread was interrupted
+   */
+  synchronized boolean acquire() {
+    while (runningChunks >= concurrency) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    runningChunks++;
+    return true;
+  }
+
+  /** Releases a running chunk. */
+  synchronized void release() {
+    runningChunks--;
+    notifyAll();
+  }
+
+  /**
+   * Records the writing of a chunk in the current adjustment window.
+   *
+   * @param items number of written items
+   * @param writeNanos duration of the writing
+   * @param connectionWaits number of threads waiting for a connection to OMOP CDM
+   */
+  synchronized void recordWrite(int items, long writeNanos, int connectionWaits) {
+    windowItems += items;
+    windowWrites++;
+    windowWriteNanos += writeNanos;
+    windowConnectionWaits = Math.max(windowConnectionWaits, connectionWaits);
+  }
+
+  /**
+   * Closes the current adjustment window, if it has lasted at least the given interval.
+   *
+   * @param intervalNanos the minimal duration of an adjustment window
+   * @return the observations of the closed window or null, if the window is still open
+   */
+  synchronized Window closeWindow(long intervalNanos) {
+    var now = System.nanoTime();
+    if (windowWrites == 0 || now - windowStart < intervalNanos) {
+      return null;
+    }
+    var window =
+        new Window(
+            windowItems / ((now - windowStart) / 1e9),
+            windowWriteNanos / windowWrites / 1e6,
+            windowConnectionWaits,
+            lastThroughput,
+            lastConcurrencyIncreased);
+    lastThroughput = window.throughput();
+    windowStart = now;
+    windowItems = 0;
+    windowWrites = 0;
+    windowWriteNanos = 0;
+    windowConnectionWaits = 0;
+    return window;
+  }
+
+  /**
+   * Applies the chunk size and the concurrency chosen for the next adjustment window.
+   *
+   * @param newChunkSize the new chunk size
+   * @param newConcurrency the new number of concurrent chunks
+   */
+  synchronized void adjust(int newChunkSize, int newConcurrency) {
+    lastConcurrencyIncreased = newConcurrency > concurrency;
+    chunkSize = newChunkSize;
+    concurrency = newConcurrency;
+    notifyAll();
+  }
+
+  /**
+   * The observations of an adjustment window.
+   *
+   * @param throughput written items per second
+   * @param writeLatencyMillis average duration of writing a chunk in milliseconds
+   * @param connectionWaits maximal number of threads waiting for a connection to OMOP CDM
+   * @param previousThroughput written items per second in the previous window
+   * @param concurrencyIncreased flag whether the concurrency was increased for this window
+   */
+  record Window(
+      double throughput,
+      double writeLatencyMillis,
+      int connectionWaits,
+      double previousThroughput,
+      boolean concurrencyIncreased) {}
+}
@@ -1,6 +1,9 @@
 package org.miracum.etl.fhirtoomop.utils;
 
+import static org.miracum.etl.fhirtoomop.mapper.helpers.PhaseTimers.PHASE_SQL_SCRIPT;
+
 import com.google.common.base.Strings;
+import io.micrometer.core.instrument.Timer;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -12,6 +15,7 @@ import java.sql.Statement;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.sql.DataSource;
 import lombok.extern.slf4j.Slf4j;
+import org.miracum.etl.fhirtoomop.mapper.helpers.PhaseTimers;
 import org.springframework.batch.core.StepContribution;
 import org.springframework.core.io.Resource;
 import org.springframework.jdbc.datasource.init.ScriptUtils;
@@ -47,6 +51,7 @@ public class ExecuteSqlScripts {
    */
   public void executeSQLScript(Resource sqlResourceFile) throws SQLException, IOException {
     var curCount = 1;
+    var sample = Timer.start();
 
     try (Connection conn = dataSource.getConnection();
         Statement stat = conn.createStatement();
@@ -67,6 +72,8 @@ public class ExecuteSqlScripts {
       } else {
         executeSimpleSqlScripts(conn, sqlResourceFile);
       }
+    } finally {
+      sample.stop(PhaseTimers.getTimer(PHASE_SQL_SCRIPT, sqlResourceFile.getFilename()));
     }
 
     //    } catch (IOException e) {
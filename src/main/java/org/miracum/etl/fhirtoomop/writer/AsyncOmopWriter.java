@@ -0,0 +1,87 @@
+package org.miracum.etl.fhirtoomop.writer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.miracum.etl.fhirtoomop.model.OmopModelWrapper;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStream;
+import org.springframework.batch.item.ItemStreamWriter;
+import org.springframework.batch.item.ItemWriter;
+
+/**
+ * The AsyncOmopWriter class waits for the results of the {@link
+ * org.miracum.etl.fhirtoomop.processor.AsyncResourceProcessor} and writes them to OMOP CDM. The
+ * results are written in the order in which the FHIR resources have been read. FHIR resources which
+ * have been filtered by the processor are not written.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+public class AsyncOmopWriter implements ItemStreamWriter<Future<OmopModelWrapper>> {
+  private final ItemWriter<OmopModelWrapper> delegate;
+
+  /**
+   * Constructor for objects of the class AsyncOmopWriter.
+   *
+   * @param delegate the writer which writes the data to OMOP CDM
+   */
+  public AsyncOmopWriter(ItemWriter<OmopModelWrapper> delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * Waits for the processing of all FHIR resources of the chunk and writes the results to OMOP CDM.
+   * If the processing of a FHIR resource has failed, the processing of the remaining FHIR resources
+   * is cancelled and the error is thrown, so that the chunk fails as without the thread pool.
+   *
+   * @param items the pending results of the processing
+   */
+  @Override
+  public void write(List<? extends Future<OmopModelWrapper>> items) throws Exception {
+    var results = new ArrayList<OmopModelWrapper>(items.size());
+    try {
+      for (var item : items) {
+        var result = item.get();
+        if (result != null) {
+          results.add(result);
+        }
+      }
+    } catch (ExecutionException e) {
+      items.forEach(item -> item.cancel(false));
+      if (e.getCause() instanceof Exception cause) {
+        throw cause;
+      }
+      throw e;
+    } catch (InterruptedException e) {
+      items.forEach(item -> item.cancel(false));
+      Thread.currentThread().interrupt();
+      throw e;
+    }
+    if (!results.isEmpty()) {
+      delegate.write(results);
+    }
+  }
+
+  @Override
+  public void open(ExecutionContext executionContext) {
+    if (delegate instanceof ItemStream stream) {
+      stream.open(executionContext);
+    }
+  }
+
+  @Override
+  public void update(ExecutionContext executionContext) {
+    if (delegate instanceof ItemStream stream) {
+      stream.update(executionContext);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (delegate instanceof ItemStream stream) {
+      stream.close();
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package org.miracum.etl.fhirtoomop.writer;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Table;
+import lombok.extern.slf4j.Slf4j;
+import org.miracum.etl.fhirtoomop.RestartableChunkReader;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * The CommittedRecordFilter class makes the writing of a chunk idempotent after a restart.
+ *
+ * <p>The records of a chunk are written to OMOP CDM in their own transactions, independently of the
+ * transaction of the chunk, in which the position of the reader is saved. If the ETL process stops
+ * after the records have been written, but before the chunk has been committed, the FHIR resources
+ * of the chunk are read again after the restart. During bulk load, the records of such FHIR
+ * resources, which have already been written to a table, are removed before writing. All records of
+ * a FHIR resource in a table are written in the same transaction, so a FHIR resource is either
+ * completely contained in the table or not at all. During incremental load, the existing records of
+ * a FHIR resource are deleted before it is written, so nothing has to be removed.
+ *
+ * <p>In the same way, a write which is retried after a failure of the connection does not write the
+ * records again, whose transaction has been committed before the failure.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+@Component
+public class CommittedRecordFilter {
+
+  private final JdbcTemplate jdbcTemplate;
+  private final EntityManagerFactory entityManagerFactory;
+  private final boolean enabled;
+
+  /**
+   * Constructor for objects of the class CommittedRecordFilter.
+   *
+   * @param jdbcTemplate JdbcTemplate for the OMOP CDM database
+   * @param entityManagerFactory entity manager factory of the OMOP CDM tables
+   * @param bulkload flag to differentiate between bulk load or incremental load
+   */
+  public CommittedRecordFilter(
+      @Qualifier("writerJdbcTemplate") JdbcTemplate jdbcTemplate,
+      EntityManagerFactory entityManagerFactory,
+      Boolean bulkload) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.entityManagerFactory = entityManagerFactory;
+    this.enabled = Boolean.TRUE.equals(bulkload);
+  }
+
+  /**
+   * Removes the new records of FHIR resources, which have already been written to the table before
+   * the restart of the current step. Records are only removed in restarted steps during bulk load.
+   *
+   * @param table the name of the OMOP CDM table
+   * @param records the records to be written
+   * @return the records which have not been written yet
+   */
+  public <T> List<T> removeCommitted(String table, List<T> records) {
+    if (!isRestartedStep()) {
+      return records;
+    }
+    return removeWritten(table, records);
+  }
+
+  /**
+   * Removes the new records of FHIR resources, which have already been written to the table.
+   * Records are only removed during bulk load.
+   *
+   * @param table the name of the OMOP CDM table
+   * @param records the records to be written
+   * @return the records which have not been written yet
+   */
+  public <T> List<T> removeWritten(String table, List<T> records) {
+    if (!enabled || records.isEmpty()) {
+      return records;
+    }
+    var fhirLogicalIds = new LinkedHashSet<String>();
+    for (var row : records) {
+      if (isNew(row)) {
+        var fhirLogicalId = fhirLogicalId(row);
+        if (fhirLogicalId != null) {
+          fhirLogicalIds.add(fhirLogicalId);
+        }
+      }
+    }
+    if (fhirLogicalIds.isEmpty()) {
+      return records;
+    }
+    var committed = findWritten(qualifiedName(records.get(0), table), fhirLogicalIds);
+    if (committed.isEmpty()) {
+      return records;
+    }
+    log.info(
+        "Skipping records of [{}] FHIR resources, which have already been written to {} table.",
+        committed.size(),
+        table);
+    return records.stream()
+        .filter(row -> !isNew(row) || !committed.contains(fhirLogicalId(row)))
+        .toList();
+  }
+
+  private Set<String> findWritten(String table, Set<String> fhirLogicalIds) {
+    var written = new HashSet<String>();
+    jdbcTemplate.query(
+        "SELECT DISTINCT fhir_logical_id FROM " + table + " WHERE fhir_logical_id = ANY(?)",
+        ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", fhirLogicalIds.toArray())),
+        rs -> {
+          written.add(rs.getString(1));
+        });
+    return written;
+  }
+
+  /** Checks whether the record is inserted, records with an id update existing rows. */
+  private boolean isNew(Object row) {
+    return entityManagerFactory.getPersistenceUnitUtil().getIdentifier(row) == null;
+  }
+
+  private static String fhirLogicalId(Object row) {
+    var properties = PropertyAccessorFactory.forBeanPropertyAccess(row);
+    if (!properties.isReadableProperty("fhirLogicalId")) {
+      return null;
+    }
+    var value = properties.getPropertyValue("fhirLogicalId");
+    return value == null ? null : value.toString();
+  }
+
+  private static String qualifiedName(Object row, String table) {
+    var annotation = row.getClass().getAnnotation(Table.class);
+    if (annotation == null || annotation.schema().isEmpty()) {
+      return table;
+    }
+    return annotation.schema() + "." + table;
+  }
+
+  private static boolean isRestartedStep() {
+    var context = StepSynchronizationManager.getContext();
+    return context != null
+        && Boolean.TRUE.equals(context.getAttribute(RestartableChunkReader.RESTARTED));
+  }
+}
@@ -0,0 +1,397 @@
+package org.miracum.etl.fhirtoomop.writer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.miracum.etl.fhirtoomop.model.omop.ConditionOccurrence;
+import org.miracum.etl.fhirtoomop.model.omop.Measurement;
+import org.miracum.etl.fhirtoomop.model.omop.OmopObservation;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * The OmopUpsertWriter class replaces the records of FHIR resources, which are loaded again during
+ * incremental load, instead of deleting and inserting all of them again. A record is identified by
+ * its fhir_logical_id together with its concept_id and source_value. Existing records with the key
+ * of a new record are updated in place and keep their ids, new keys are inserted and records of the
+ * FHIR resource, which are not created anymore, are deleted.
+ *
+ * <p>The keys are matched against the existing records of the FHIR resources, which are looked up
+ * by their fhir_logical_id, so no unique index on the key columns is needed. FHIR resources, whose
+ * keys are incomplete or repeat within the FHIR resource, e.g. a Condition with the same code
+ * twice, are written as before: all existing records are deleted and the new records are inserted.
+ * All records of the FHIR resources are replaced in one transaction.
+ *
+ * @author Elisa Henke
+ * @author Yuan Peng
+ */
+@Slf4j
+@Component
+public class OmopUpsertWriter {
+
+  public static final UpsertTable<ConditionOccurrence> CONDITION_OCCURRENCE =
+      new UpsertTable<>(
+          "condition_occurrence",
+          "condition_occurrence_id",
+          ConditionOccurrence::getFhirLogicalId,
+          new UpsertColumn<>("condition_concept_id", ConditionOccurrence::getConditionConceptId),
+          new UpsertColumn<>(
+              "condition_source_value", ConditionOccurrence::getConditionSourceValue),
+          List.of(
+              new UpsertColumn<>("person_id", ConditionOccurrence::getPersonId),
+              new UpsertColumn<>(
+                  "condition_start_date", ConditionOccurrence::getConditionStartDate),
+              new UpsertColumn<>(
+                  "condition_start_datetime", ConditionOccurrence::getConditionStartDatetime),
+              new UpsertColumn<>("condition_end_date", ConditionOccurrence::getConditionEndDate),
+              new UpsertColumn<>(
+                  "condition_end_datetime", ConditionOccurrence::getConditionEndDatetime),
+              new UpsertColumn<>(
+                  "condition_type_concept_id", ConditionOccurrence::getConditionTypeConceptId),
+              new UpsertColumn<>("stop_reason", ConditionOccurrence::getStopReason),
+              new UpsertColumn<>("provider_id", ConditionOccurrence::getProviderId),
+              new UpsertColumn<>("visit_occurrence_id", ConditionOccurrence::getVisitOccurrenceId),
+              new UpsertColumn<>(
+                  "condition_source_concept_id", ConditionOccurrence::getConditionSourceConceptId),
+              new UpsertColumn<>(
+                  "condition_status_source_value",
+                  ConditionOccurrence::getConditionStatusSourceValue),
+              new UpsertColumn<>(
+                  "condition_status_concept_id", ConditionOccurrence::getConditionStatusConceptId),
+              new UpsertColumn<>("visit_detail_id", ConditionOccurrence::getVisitDetailId),
+              new UpsertColumn<>("fhir_identifier", ConditionOccurrence::getFhirIdentifier)));
+
+  public static final UpsertTable<Measurement> MEASUREMENT =
+      new UpsertTable<>(
+          "measurement",
+          "measurement_id",
+          Measurement::getFhirLogicalId,
+          new UpsertColumn<>("measurement_concept_id", Measurement::getMeasurementConceptId),
+          new UpsertColumn<>("measurement_source_value", Measurement::getMeasurementSourceValue),
+          List.of(
+              new UpsertColumn<>("person_id", Measurement::getPersonId),
+              new UpsertColumn<>("measurement_date", Measurement::getMeasurementDate),
+              new UpsertColumn<>("measurement_datetime", Measurement::getMeasurementDatetime),
+              new UpsertColumn<>(
+                  "measurement_type_concept_id", Measurement::getMeasurementTypeConceptId),
+              new UpsertColumn<>("operator_concept_id", Measurement::getOperatorConceptId),
+              new UpsertColumn<>("value_as_number", Measurement::getValueAsNumber),
+              new UpsertColumn<>("value_as_concept_id", Measurement::getValueAsConceptId),
+              new UpsertColumn<>("unit_concept_id", Measurement::getUnitConceptId),
+              new UpsertColumn<>("range_low", Measurement::getRangeLow),
+              new UpsertColumn<>("range_high", Measurement::getRangeHigh),
+              new UpsertColumn<>("provider_id", Measurement::getProviderId),
+              new UpsertColumn<>("visit_occurrence_id", Measurement::getVisitOccurrenceId),
+              new UpsertColumn<>(
+                  "measurement_source_concept_id", Measurement::getMeasurementSourceConceptId),
+              new UpsertColumn<>("unit_source_value", Measurement::getUnitSourceValue),
+              new UpsertColumn<>("value_source_value", Measurement::getValueSourceValue),
+              new UpsertColumn<>("visit_detail_id", Measurement::getVisitDetailId),
+              new UpsertColumn<>("fhir_identifier", Measurement::getFhirIdentifier)));
+
+  public static final UpsertTable<OmopObservation> OBSERVATION =
+      new UpsertTable<>(
+          "observation",
+          "observation_id",
+          OmopObservation::getFhirLogicalId,
+          new UpsertColumn<>("observation_concept_id", OmopObservation::getObservationConceptId),
+          new UpsertColumn<>(
+              "observation_source_value", OmopObservation::getObservationSourceValue),
+          List.of(
+              new UpsertColumn<>("person_id", OmopObservation::getPersonId),
+              new UpsertColumn<>("observation_date", OmopObservation::getObservationDate),
+              new UpsertColumn<>("observation_datetime", OmopObservation::getObservationDatetime),
+              new UpsertColumn<>(
+                  "observation_type_concept_id", OmopObservation::getObservationTypeConceptId),
+              new UpsertColumn<>("value_as_number", OmopObservation::getValueAsNumber),
+              new UpsertColumn<>("value_as_string", OmopObservation::getValueAsString),
+              new UpsertColumn<>("value_as_concept_id", OmopObservation::getValueAsConceptId),
+              new UpsertColumn<>("qualifier_concept_id", OmopObservation::getQualifierConceptId),
+              new UpsertColumn<>("unit_concept_id", OmopObservation::getUnitConceptId),
+              new UpsertColumn<>("provider_id", OmopObservation::getProviderId),
+              new UpsertColumn<>("visit_occurrence_id", OmopObservation::getVisitOccurrenceId),
+              new UpsertColumn<>(
+                  "observation_source_concept_id", OmopObservation::getObservationSourceConceptId),
+              new UpsertColumn<>("unit_source_value", OmopObservation::getUnitSourceValue),
+              new UpsertColumn<>(
+                  "qualifier_source_value", OmopObservation::getQualifierSourceValue),
+              new UpsertColumn<>("visit_detail_id", OmopObservation::getVisitDetailId),
+              new UpsertColumn<>("fhir_identifier", OmopObservation::getFhirIdentifier)));
+
+  private static final List<UpsertTable<?>> TABLES =
+      List.of(CONDITION_OCCURRENCE, MEASUREMENT, OBSERVATION);
+
+  private final JdbcTemplate jdbcTemplate;
+  private final boolean enabled;
+
+  /**
+   * Constructor for objects of the class OmopUpsertWriter.
+   *
+   * @param jdbcTemplate JdbcTemplate for the OMOP CDM database
+   * @param bulkload flag to differentiate between bulk load or incremental load
+   * @param upsertEnabled flag to write records with upserts during incremental load
+   */
+  public OmopUpsertWriter(
+      @Qualifier("writerJdbcTemplate") JdbcTemplate jdbcTemplate,
+      Boolean bulkload,
+      @Value("${app.upsert.enabled}") Boolean upsertEnabled) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.enabled = Boolean.FALSE.equals(bulkload) && Boolean.TRUE.equals(upsertEnabled);
+  }
+
+  /**
+   * Checks whether records are written with upserts.
+   *
+   * @return true during incremental load, if upserts are enabled
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Drops the unique indexes on the key columns, which have been created for upserts by earlier
+   * versions of the ETL job. They reject the records of FHIR resources with repeating keys, also
+   * during bulk load. This must not be executed within a transaction, because the indexes are
+   * dropped concurrently.
+   */
+  public void dropUniqueIndexes() {
+    for (var table : TABLES) {
+      jdbcTemplate.execute(
+          "DROP INDEX CONCURRENTLY IF EXISTS uidx_fhir_logical_id_key_" + table.name());
+    }
+  }
+
+  /**
+   * Splits the records of a table into the records of the replaced FHIR resources and the records,
+   * which are inserted with the repository of the table.
+   *
+   * @param table the OMOP CDM table
+   * @param records the records of the chunk
+   * @param replacedFhirLogicalIds the fhir_logical_ids of the FHIR resources, whose records are
+   *     replaced
+   * @return the replaced FHIR resources and the records to be inserted
+   */
+  public <T> UpsertBatch<T> split(
+      UpsertTable<T> table, List<T> records, Set<String> replacedFhirLogicalIds) {
+    if (!enabled || replacedFhirLogicalIds.isEmpty()) {
+      return new UpsertBatch<>(List.of(), records);
+    }
+    // a FHIR resource without records in the table is replaced as well, so its records are deleted
+    Map<String, List<T>> rowsByResource = new LinkedHashMap<>();
+    replacedFhirLogicalIds.forEach(id -> rowsByResource.put(id, new ArrayList<>()));
+    var inserts = new ArrayList<T>();
+    for (var row : records) {
+      var rows = rowsByResource.get(table.fhirLogicalId().apply(row));
+      if (rows == null) {
+        inserts.add(row);
+      } else {
+        rows.add(row);
+      }
+    }
+    var replaced = new ArrayList<ReplacedResource<T>>(rowsByResource.size());
+    rowsByResource.forEach(
+        (fhirLogicalId, rows) -> {
+          var keys = rows.stream().map(table::key).collect(Collectors.toSet());
+          var keyed = rows.stream().allMatch(table::hasCompleteKey) && keys.size() == rows.size();
+          replaced.add(new ReplacedResource<>(fhirLogicalId, rows, keyed));
+        });
+    return new UpsertBatch<>(replaced, inserts);
+  }
+
+  /**
+   * Replaces the existing records of FHIR resources in a table. Existing records with the key of a
+   * new record are updated, all other existing records are deleted and the remaining new records
+   * are inserted. The records of FHIR resources without unique keys are deleted and inserted. All
+   * statements must be executed in the same transaction.
+   *
+   * @param table the OMOP CDM table
+   * @param resources the replaced FHIR resources with their new records
+   */
+  public <T> void replace(UpsertTable<T> table, List<ReplacedResource<T>> resources) {
+    if (resources.isEmpty()) {
+      return;
+    }
+    Map<List<Object>, Long> existingIds = new HashMap<>();
+    var deletes = new ArrayList<Long>();
+    jdbcTemplate.query(
+        table.selectSql(),
+        ps ->
+            ps.setArray(
+                1,
+                ps.getConnection()
+                    .createArrayOf(
+                        "varchar",
+                        resources.stream().map(ReplacedResource::fhirLogicalId).toArray())),
+        rs -> {
+          var id = rs.getLong(1);
+          var key = Arrays.asList(rs.getString(2), rs.getObject(3), rs.getObject(4));
+          // existing records with the same key are merged into the first one
+          if (existingIds.putIfAbsent(key, id) != null) {
+            deletes.add(id);
+          }
+        });
+
+    var updates = new ArrayList<Object[]>();
+    var inserts = new ArrayList<T>();
+    var matchedIds = new HashSet<Long>();
+    for (var resource : resources) {
+      for (var row : resource.rows()) {
+        var id = resource.keyed() ? existingIds.get(table.key(row)) : null;
+        if (id == null) {
+          inserts.add(row);
+        } else {
+          matchedIds.add(id);
+          updates.add(table.updateValues(row, id));
+        }
+      }
+    }
+    existingIds.values().stream().filter(id -> !matchedIds.contains(id)).forEach(deletes::add);
+
+    if (!deletes.isEmpty()) {
+      jdbcTemplate.batchUpdate(
+          table.deleteSql(), deletes.stream().map(id -> new Object[] {id}).toList());
+    }
+    if (!updates.isEmpty()) {
+      jdbcTemplate.batchUpdate(table.updateSql(), updates);
+    }
+    if (!inserts.isEmpty()) {
+      var columns = table.allColumns();
+      jdbcTemplate.batchUpdate(
+          table.insertSql(),
+          inserts,
+          inserts.size(),
+          (ps, row) -> {
+            for (int i = 0; i < columns.size(); i++) {
+              ps.setObject(i + 1, columns.get(i).value().apply(row));
+            }
+          });
+    }
+    log.debug(
+        "Replaced records of {} FHIR resources in {} table: {} updated, {} inserted, {} deleted.",
+        resources.size(),
+        table.name(),
+        updates.size(),
+        inserts.size(),
+        deletes.size());
+  }
+
+  /**
+   * The records of a table, which replace the records of FHIR resources, and the records, which are
+   * inserted with the repository of the table.
+   *
+   * @param replaced the FHIR resources, whose records in the table are replaced
+   * @param inserts the records which are inserted with the repository of the table
+   */
+  public record UpsertBatch<T>(List<ReplacedResource<T>> replaced, List<T> inserts) {}
+
+  /**
+   * A FHIR resource, whose records in a table are replaced.
+   *
+   * @param fhirLogicalId the fhir_logical_id of the FHIR resource
+   * @param rows the new records of the FHIR resource
+   * @param keyed flag whether the keys of the records are complete and unique, so that existing
+   *     records are updated
+   */
+  public record ReplacedResource<T>(String fhirLogicalId, List<T> rows, boolean keyed) {}
+
+  /**
+   * An OMOP CDM table which can be written with upserts. A record is identified by its
+   * fhir_logical_id, its concept_id and its source_value.
+   *
+   * @param name the name of the table
+   * @param idColumn the generated id column of the table
+   * @param fhirLogicalId the fhir_logical_id of a record
+   * @param concept the concept_id column of the table
+   * @param sourceValue the source_value column of the table
+   * @param columns all other columns except for the generated id
+   */
+  public record UpsertTable<T>(
+      String name,
+      String idColumn,
+      Function<T, String> fhirLogicalId,
+      UpsertColumn<T> concept,
+      UpsertColumn<T> sourceValue,
+      List<UpsertColumn<T>> columns) {
+
+    boolean hasCompleteKey(T row) {
+      return concept.value().apply(row) != null && sourceValue.value().apply(row) != null;
+    }
+
+    List<Object> key(T row) {
+      return Arrays.asList(
+          fhirLogicalId.apply(row), concept.value().apply(row), sourceValue.value().apply(row));
+    }
+
+    List<UpsertColumn<T>> allColumns() {
+      var all = new ArrayList<UpsertColumn<T>>(columns);
+      all.add(new UpsertColumn<>("fhir_logical_id", fhirLogicalId::apply));
+      all.add(concept);
+      all.add(sourceValue);
+      return all;
+    }
+
+    Object[] updateValues(T row, long id) {
+      var values = new Object[columns.size() + 1];
+      for (int i = 0; i < columns.size(); i++) {
+        values[i] = columns.get(i).value().apply(row);
+      }
+      values[columns.size()] = id;
+      return values;
+    }
+
+    String selectSql() {
+      return "SELECT "
+          + idColumn
+          + ", fhir_logical_id, "
+          + concept.name()
+          + ", "
+          + sourceValue.name()
+          + " FROM "
+          + name
+          + " WHERE fhir_logical_id = ANY(?)";
+    }
+
+    String insertSql() {
+      var names = allColumns().stream().map(UpsertColumn::name).toList();
+      return "INSERT INTO "
+          + name
+          + " ("
+          + String.join(", ", names)
+          + ") VALUES ("
+          + names.stream().map(column -> "?").collect(Collectors.joining(", "))
+          + ")";
+    }
+
+    String updateSql() {
+      return "UPDATE "
+          + name
+          + " SET "
+          + columns.stream().map(column -> column.name() + " = ?").collect(Collectors.joining(", "))
+          + " WHERE "
+          + idColumn
+          + " = ?";
+    }
+
+    String deleteSql() {
+      return "DELETE FROM " + name + " WHERE " + idColumn + " = ?";
+    }
+  }
+
+  /**
+   * A column of an OMOP CDM table which can be written with upserts.
+   *
+   * @param name the name of the column
+   * @param value the value of the column in a record
+   */
+  public record UpsertColumn<T>(String name, Function<T, Object> value) {}
+}
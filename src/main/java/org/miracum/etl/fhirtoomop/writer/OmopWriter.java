@@ -1,22 +1,62 @@
 package org.miracum.etl.fhirtoomop.writer;
 
+import static org.miracum.etl.fhirtoomop.mapper.helpers.PhaseTimers.PHASE_WRITE;
+import static org.miracum.etl.fhirtoomop.writer.OmopUpsertWriter.CONDITION_OCCURRENCE;
+import static org.miracum.etl.fhirtoomop.writer.OmopUpsertWriter.MEASUREMENT;
+import static org.miracum.etl.fhirtoomop.writer.OmopUpsertWriter.OBSERVATION;
+
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.Metrics;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
 import java.util.List;
-import java.util.Objects;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.miracum.etl.fhirtoomop.mapper.helpers.PhaseTimers;
 import org.miracum.etl.fhirtoomop.model.OmopModelWrapper;
+import org.miracum.etl.fhirtoomop.model.OmopRecordBuffer;
 import org.miracum.etl.fhirtoomop.repository.OmopRepository;
+import org.miracum.etl.fhirtoomop.writer.OmopUpsertWriter.ReplacedResource;
+import org.miracum.etl.fhirtoomop.writer.OmopUpsertWriter.UpsertTable;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
 import org.springframework.batch.item.ItemWriter;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.classify.BinaryExceptionClassifier;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.retry.RetryCallback;
 import org.springframework.retry.RetryContext;
 import org.springframework.retry.backoff.FixedBackOffPolicy;
 import org.springframework.retry.listener.RetryListenerSupport;
 import org.springframework.retry.policy.SimpleRetryPolicy;
 import org.springframework.retry.support.RetryTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * The OmopWriter class is used to write the data from FHIR resources to OMOP CDM.
@@ -31,21 +71,98 @@ public class OmopWriter implements ItemWriter<OmopModelWrapper> {
   private static final Counter resourcesProcessedTotal =
       Metrics.counter("batch.fhir.resources.processed.total", "fhir-resource", "processed");
 
+  private static final String INSERT_QUARANTINE =
+      "INSERT INTO cds_etl_helper.write_quarantine (step_name, omop_table, fhir_logical_id, fhir_identifier, error, record, recorded_at) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+  /** Failures of the connection or the database, which may succeed if the write is repeated. */
+  private static final Map<Class<? extends Throwable>, Boolean> TRANSIENT_EXCEPTIONS =
+      Map.of(
+          TransientDataAccessException.class, true,
+          RecoverableDataAccessException.class, true,
+          DataAccessResourceFailureException.class, true,
+          CannotCreateTransactionException.class, true,
+          SQLTransientException.class, true,
+          SQLRecoverableException.class, true);
+
+  private static final BinaryExceptionClassifier transientExceptionClassifier =
+      new BinaryExceptionClassifier(TRANSIENT_EXCEPTIONS, false);
+
+  static {
+    transientExceptionClassifier.setTraverseCauses(true);
+  }
+
+  /** SQLState classes of invalid data (22) and of violated integrity constraints (23). */
+  private static final List<String> DATA_ERROR_SQL_STATE_CLASSES = List.of("22", "23");
+
   private final RetryTemplate retryTemplate = new RetryTemplate();
+  private final FixedBackOffPolicy backOffPolicy = new FixedBackOffPolicy();
   private final OmopRepository repository;
+  private final JdbcTemplate jdbcTemplate;
+  private final OmopUpsertWriter upsertWriter;
+  private final CommittedRecordFilter committedRecordFilter;
+  private final TransactionTemplate newTransaction;
+  private final ExecutorService executor;
+
+  /**
+   * The OMOP CDM tables grouped into stages. The tables of a stage do not depend on each other and
+   * are written at the same time, if concurrent writes are enabled. A stage is written after all
+   * tables of the previous stage have been written.
+   */
+  private final List<List<Consumer<OmopRecordBuffer>>> writeStages =
+      List.of(
+          List.of(this::writeMedicationIdMap, this::writePostProcessMap, this::writePerson),
+          List.of(this::writeVisitDetail, this::writeVisitOcc),
+          List.of(
+              this::writeObservation,
+              this::writeConditionOcc,
+              this::writeProcedureOcc,
+              this::writeDrugExposure,
+              this::writeMeasurement,
+              this::writeDeviceExposure));
 
   /**
    * Constructor for objects of the class OmopWriter.
    *
    * @param repository for OMOP CDM tables
+   * @param jdbcTemplate JdbcTemplate for the OMOP CDM database
+   * @param upsertWriter writer for upserts during incremental load
+   * @param committedRecordFilter removes the records written before the restart of a step
+   * @param transactionManager transaction manager of OMOP CDM
+   * @param bulkload flag to differentiate between bulk load or incremental load
+   * @param concurrentWrites flag to write the tables of a stage at the same time during bulk load
+   * @param threads number of threads which write tables at the same time
    */
-  public OmopWriter(OmopRepository repository) {
+  public OmopWriter(
+      OmopRepository repository,
+      @Qualifier("writerJdbcTemplate") JdbcTemplate jdbcTemplate,
+      OmopUpsertWriter upsertWriter,
+      CommittedRecordFilter committedRecordFilter,
+      @Qualifier("transactionManager") PlatformTransactionManager transactionManager,
+      Boolean bulkload,
+      @Value("${app.concurrentWrites.enabled}") Boolean concurrentWrites,
+      @Value("${app.concurrentWrites.threads}") int threads) {
     this.repository = repository;
+    this.jdbcTemplate = jdbcTemplate;
+    this.upsertWriter = upsertWriter;
+    this.committedRecordFilter = committedRecordFilter;
+    // a failed write must not abort the transaction of the chunk or of the other writes
+    this.newTransaction = new TransactionTemplate(transactionManager);
+    this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    if (concurrentWrites.equals(Boolean.TRUE) && Boolean.TRUE.equals(bulkload)) {
+      var threadFactory = new CustomizableThreadFactory("omop-writer-");
+      threadFactory.setDaemon(true);
+      this.executor = Executors.newFixedThreadPool(Math.max(1, threads), threadFactory);
+    } else {
+      if (concurrentWrites.equals(Boolean.TRUE)) {
+        log.warn(
+            "Concurrent writes are only supported during bulk load, writing tables one by one.");
+      }
+      this.executor = null;
+    }
 
-    var backOffPolicy = new FixedBackOffPolicy();
     backOffPolicy.setBackOffPeriod(10000);
-    var retryPolicy = new SimpleRetryPolicy();
-    retryPolicy.setMaxAttempts(10);
+    // only failures of the connection or the database are retried, errors in the data are not
+    var retryPolicy = new SimpleRetryPolicy(10, TRANSIENT_EXCEPTIONS, true);
 
     retryTemplate.setBackOffPolicy(backOffPolicy);
     retryTemplate.setRetryPolicy(retryPolicy);
@@ -55,10 +172,12 @@ public class OmopWriter implements ItemWriter<OmopModelWrapper> {
           @Override
           public <T, E extends Throwable> void onError(
               RetryContext context, RetryCallback<T, E> callback, Throwable throwable) {
-            log.error(
-                "Trying to write data caused error. {} attempt.",
-                context.getRetryCount(),
-                throwable);
+            if (isTransient(throwable)) {
+              log.error(
+                  "Trying to write data caused error. {} attempt.",
+                  context.getRetryCount(),
+                  throwable);
+            }
           }
         });
   }
@@ -68,244 +187,453 @@ public class OmopWriter implements ItemWriter<OmopModelWrapper> {
    *
    * @param entries list of elements to be written to OMOP CDM
    */
-  private Optional<Void> writeOmopChunk(List<? extends OmopModelWrapper> entries) {
-
-    writeMedicationIdMap(entries);
-    writePostProcessMap(entries);
-    writePerson(entries);
-    writeVisitDetail(entries);
-    writeVisitOcc(entries);
-    writeObservation(entries);
-    writeConditionOcc(entries);
-    writeProcedureOcc(entries);
-    writeDrugExposure(entries);
-    writeMeasurement(entries);
-    writeDeviceExposure(entries);
-
-    return Optional.empty();
+  private void writeOmopChunk(List<? extends OmopModelWrapper> entries) {
+    var buffer = OmopRecordBuffer.of(entries);
+    for (var stage : writeStages) {
+      stage.forEach(table -> table.accept(buffer));
+    }
   }
 
   /**
-   * Writes the data from FHIR resources to the medication_id_map table in OMOP CDM.
+   * Writes the data from the FHIR resources to OMOP CDM. The tables of a stage are written at the
+   * same time, each in its own transaction on its own connection. Each table is retried on its own,
+   * so that tables which have already been written are not written again. The records of a table,
+   * which have been committed by a failed attempt, are skipped by the retry, see {@link
+   * CommittedRecordFilter}. Therefore, the tables are only written concurrently during bulk load.
    *
    * @param entries list of elements to be written to OMOP CDM
    */
-  private void writeMedicationIdMap(List<? extends OmopModelWrapper> entries) {
-    var medicationIdMap =
-        entries.stream()
-            .filter(entry -> entry.getMedicationIdMap() != null)
-            .map(OmopModelWrapper::getMedicationIdMap)
-            .flatMap(List::stream)
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
+  private void writeOmopChunkConcurrently(List<? extends OmopModelWrapper> entries) {
+    var stepContext = StepSynchronizationManager.getContext();
+    var stepExecution = stepContext == null ? null : stepContext.getStepExecution();
+    var buffer = OmopRecordBuffer.of(entries);
+    for (var stage : writeStages) {
+      var writes =
+          stage.stream()
+              .map(
+                  table ->
+                      CompletableFuture.runAsync(
+                          () -> writeTable(table, buffer, stepExecution), executor))
+              .toArray(CompletableFuture[]::new);
+      try {
+        CompletableFuture.allOf(writes).join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException cause) {
+          throw cause;
+        }
+        throw e;
+      }
+    }
+  }
+
+  private void writeTable(
+      Consumer<OmopRecordBuffer> table, OmopRecordBuffer buffer, StepExecution stepExecution) {
+    // the step is registered in the writing thread for the step name of the timers
+    if (stepExecution != null) {
+      StepSynchronizationManager.register(stepExecution);
+    }
+    try {
+      table.accept(buffer);
+    } finally {
+      if (stepExecution != null) {
+        StepSynchronizationManager.close();
+      }
+    }
+  }
+
+  /**
+   * Writes the data from FHIR resources to the medication_id_map table in OMOP CDM.
+   *
+   * @param buffer the records of the chunk grouped by OMOP CDM table
+   */
+  private void writeMedicationIdMap(OmopRecordBuffer buffer) {
+    var medicationIdMap = buffer.getMedicationIdMap();
 
     if (!medicationIdMap.isEmpty()) {
       log.info("Inserting {} rows into medication_id_map table", medicationIdMap.size());
 
-      repository.getMedicationIdRepository().saveAll(medicationIdMap);
+      PhaseTimers.record(
+          PHASE_WRITE,
+          "medication_id_map",
+          () ->
+              saveAll(
+                  "medication_id_map", medicationIdMap, repository.getMedicationIdRepository()));
     }
   }
 
   /**
    * Writes the data from FHIR resources to the post_process_map table in OMOP CDM.
    *
-   * @param entries list of elements to be written to OMOP CDM
+   * @param buffer the records of the chunk grouped by OMOP CDM table
    */
-  private void writePostProcessMap(List<? extends OmopModelWrapper> entries) {
-    var postProcessMap =
-        entries.stream()
-            .filter(entry -> entry.getPostProcessMap() != null)
-            .map(OmopModelWrapper::getPostProcessMap)
-            .flatMap(List::stream)
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
+  private void writePostProcessMap(OmopRecordBuffer buffer) {
+    var postProcessMap = buffer.getPostProcessMap();
 
     if (!postProcessMap.isEmpty()) {
       log.info("Inserting {} rows into post_process_map table", postProcessMap.size());
 
-      repository.getPostProcessMapRepository().saveAll(postProcessMap);
+      PhaseTimers.record(
+          PHASE_WRITE,
+          "post_process_map",
+          () ->
+              saveAll(
+                  "post_process_map", postProcessMap, repository.getPostProcessMapRepository()));
     }
   }
 
   /**
    * Writes the data from FHIR resources to the person table in OMOP CDM.
    *
-   * @param entries list of elements to be written to OMOP CDM
+   * @param buffer the records of the chunk grouped by OMOP CDM table
    */
-  private void writePerson(List<? extends OmopModelWrapper> entries) {
-    var persons =
-        entries.stream()
-            .filter(entry -> entry.getPerson() != null)
-            .map(OmopModelWrapper::getPerson)
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
+  private void writePerson(OmopRecordBuffer buffer) {
+    var persons = buffer.getPerson();
 
     if (!persons.isEmpty()) {
       log.info("Inserting {} rows into person table", persons.size());
 
-      repository.getPersonRepository().saveAll(persons);
+      PhaseTimers.record(
+          PHASE_WRITE,
+          "person",
+          () -> saveAll("person", persons, repository.getPersonRepository()));
     }
   }
 
   /**
    * Writes the data from FHIR resources to the visit_detail table in OMOP CDM.
    *
-   * @param entries list of elements to be written to OMOP CDM
+   * @param buffer the records of the chunk grouped by OMOP CDM table
    */
-  private void writeVisitDetail(List<? extends OmopModelWrapper> entries) {
-    var visitDetails =
-        entries.stream()
-            .filter(entry -> entry.getVisitDetail() != null)
-            .map(OmopModelWrapper::getVisitDetail)
-            .flatMap(List::stream)
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
+  private void writeVisitDetail(OmopRecordBuffer buffer) {
+    var visitDetails = buffer.getVisitDetail();
 
     if (!visitDetails.isEmpty()) {
       log.info("Inserting {} rows into visit_detail table", visitDetails.size());
 
-      repository.getVisitDetailRepository().saveAll(visitDetails);
+      PhaseTimers.record(
+          PHASE_WRITE,
+          "visit_detail",
+          () -> saveAll("visit_detail", visitDetails, repository.getVisitDetailRepository()));
     }
   }
 
   /**
    * Writes the data from FHIR resources to the visit_occurrence table in OMOP CDM.
    *
-   * @param entries list of elements to be written to OMOP CDM
+   * @param buffer the records of the chunk grouped by OMOP CDM table
    */
-  private void writeVisitOcc(List<? extends OmopModelWrapper> entries) {
-    var visits =
-        entries.stream()
-            .filter(entry -> entry.getVisitOccurrence() != null)
-            .map(OmopModelWrapper::getVisitOccurrence)
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
+  private void writeVisitOcc(OmopRecordBuffer buffer) {
+    var visits = buffer.getVisitOccurrence();
 
     if (!visits.isEmpty()) {
       log.info("Inserting {} rows into visit_occurrence table", visits.size());
 
-      repository.getVisitOccRepository().saveAll(visits);
+      PhaseTimers.record(
+          PHASE_WRITE,
+          "visit_occurrence",
+          () -> saveAll("visit_occurrence", visits, repository.getVisitOccRepository()));
     }
   }
 
   /**
    * Writes the data from FHIR resources to the observation table in OMOP CDM.
    *
-   * @param entries list of elements to be written to OMOP CDM
+   * @param buffer the records of the chunk grouped by OMOP CDM table
    */
-  private void writeObservation(List<? extends OmopModelWrapper> entries) {
-    var observations =
-        entries.stream()
-            .filter(entry -> entry.getObservation() != null)
-            .map(OmopModelWrapper::getObservation)
-            .flatMap(List::stream)
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
-
-    if (!observations.isEmpty()) {
+  private void writeObservation(OmopRecordBuffer buffer) {
+    var observations = buffer.getObservation();
+    var replaced = buffer.getReplacedFhirLogicalIds();
+
+    if (!observations.isEmpty() || !replaced.isEmpty()) {
       log.info("Inserting {} rows into observation table", observations.size());
 
-      repository.getObservationRepository().saveAll(observations);
+      PhaseTimers.record(
+          PHASE_WRITE,
+          "observation",
+          () ->
+              upsertAll(
+                  OBSERVATION, observations, replaced, repository.getObservationRepository()));
     }
   }
 
   /**
    * Writes the data from FHIR resources to the condition_occurrence table in OMOP CDM.
    *
-   * @param entries list of elements to be written to OMOP CDM
+   * @param buffer the records of the chunk grouped by OMOP CDM table
    */
-  private void writeConditionOcc(List<? extends OmopModelWrapper> entries) {
-    var conditionOccurrence =
-        entries.stream()
-            .filter(entry -> entry.getConditionOccurrence() != null)
-            .map(OmopModelWrapper::getConditionOccurrence)
-            .flatMap(List::stream)
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
-
-    if (!conditionOccurrence.isEmpty()) {
+  private void writeConditionOcc(OmopRecordBuffer buffer) {
+    var conditionOccurrence = buffer.getConditionOccurrence();
+    var replaced = buffer.getReplacedFhirLogicalIds();
+
+    if (!conditionOccurrence.isEmpty() || !replaced.isEmpty()) {
       log.info("Inserting {} rows into condition_occurrence table", conditionOccurrence.size());
 
-      repository.getConditionOccRepository().saveAll(conditionOccurrence);
+      PhaseTimers.record(
+          PHASE_WRITE,
+          "condition_occurrence",
+          () ->
+              upsertAll(
+                  CONDITION_OCCURRENCE,
+                  conditionOccurrence,
+                  replaced,
+                  repository.getConditionOccRepository()));
     }
   }
 
   /**
    * Writes the data from FHIR resources to the procedure_occurrence table in OMOP CDM.
    *
-   * @param entries list of elements to be written to OMOP CDM
+   * @param buffer the records of the chunk grouped by OMOP CDM table
    */
-  private void writeProcedureOcc(List<? extends OmopModelWrapper> entries) {
-    var procedures =
-        entries.stream()
-            .filter(entry -> entry.getProcedureOccurrence() != null)
-            .map(OmopModelWrapper::getProcedureOccurrence)
-            .flatMap(List::stream)
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
+  private void writeProcedureOcc(OmopRecordBuffer buffer) {
+    var procedures = buffer.getProcedureOccurrence();
 
     if (!procedures.isEmpty()) {
       log.info("Inserting {} rows into procedure_occurrence table", procedures.size());
 
-      repository.getProcedureOccRepository().saveAll(procedures);
+      PhaseTimers.record(
+          PHASE_WRITE,
+          "procedure_occurrence",
+          () ->
+              saveAll("procedure_occurrence", procedures, repository.getProcedureOccRepository()));
     }
   }
 
   /**
    * Writes the data from FHIR resources to the drug_exposure table in OMOP CDM.
    *
-   * @param entries list of elements to be written to OMOP CDM
+   * @param buffer the records of the chunk grouped by OMOP CDM table
    */
-  private void writeDrugExposure(List<? extends OmopModelWrapper> entries) {
-    var drugExposures =
-        entries.stream()
-            .filter(entry -> entry.getDrugExposure() != null)
-            .map(OmopModelWrapper::getDrugExposure)
-            .flatMap(List::stream)
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
+  private void writeDrugExposure(OmopRecordBuffer buffer) {
+    var drugExposures = buffer.getDrugExposure();
 
     if (!drugExposures.isEmpty()) {
       log.info("Inserting {} rows into drug_exposure table", drugExposures.size());
 
-      repository.getDrugExposureRepository().saveAll(drugExposures);
+      PhaseTimers.record(
+          PHASE_WRITE,
+          "drug_exposure",
+          () -> saveAll("drug_exposure", drugExposures, repository.getDrugExposureRepository()));
     }
   }
 
   /**
    * Writes the data from FHIR resources to the measurement table in OMOP CDM.
    *
-   * @param entries list of elements to be written to OMOP CDM
+   * @param buffer the records of the chunk grouped by OMOP CDM table
    */
-  private void writeMeasurement(List<? extends OmopModelWrapper> entries) {
-    var measurements =
-        entries.stream()
-            .filter(entry -> entry.getMeasurement() != null)
-            .map(OmopModelWrapper::getMeasurement)
-            .flatMap(List::stream)
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
-
-    if (!measurements.isEmpty()) {
+  private void writeMeasurement(OmopRecordBuffer buffer) {
+    var measurements = buffer.getMeasurement();
+    var replaced = buffer.getReplacedFhirLogicalIds();
+
+    if (!measurements.isEmpty() || !replaced.isEmpty()) {
       log.info("Inserting {} rows into measurement table", measurements.size());
 
-      repository.getMeasurementRepository().saveAll(measurements);
+      PhaseTimers.record(
+          PHASE_WRITE,
+          "measurement",
+          () ->
+              upsertAll(
+                  MEASUREMENT, measurements, replaced, repository.getMeasurementRepository()));
     }
   }
 
-  private void writeDeviceExposure(List<? extends OmopModelWrapper> entries) {
-    var deviceExposure =
-        entries.stream()
-            .filter(entry -> entry.getDeviceExposure() != null)
-            .map(OmopModelWrapper::getDeviceExposure)
-            .flatMap(List::stream)
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
+  private void writeDeviceExposure(OmopRecordBuffer buffer) {
+    var deviceExposure = buffer.getDeviceExposure();
     if (!deviceExposure.isEmpty()) {
       log.info("Inserting {} rows into device_exposure table", deviceExposure.size());
 
-      repository.getDeviceExposureRepository().saveAll(deviceExposure);
+      PhaseTimers.record(
+          PHASE_WRITE,
+          "device_exposure",
+          () ->
+              saveAll("device_exposure", deviceExposure, repository.getDeviceExposureRepository()));
+    }
+  }
+
+  /**
+   * Writes records to a table in OMOP CDM with its repository. Records of FHIR resources, which
+   * have already been written before the restart of the step, are skipped.
+   *
+   * @param table the name of the OMOP CDM table
+   * @param records the records to be written
+   * @param tableRepository the repository of the OMOP CDM table
+   */
+  private <T> void saveAll(String table, List<T> records, CrudRepository<T, ?> tableRepository) {
+    writeAll(
+        table, committedRecordFilter.removeCommitted(table, records), tableRepository::saveAll);
+  }
+
+  /**
+   * Writes records to a table in OMOP CDM. Each attempt is written in its own transaction, which is
+   * independent of the transaction of the chunk. Failures of the connection or the database are
+   * retried, during bulk load without the records which have been committed by the failed attempt.
+   * If the
+   * records contain invalid data, the records are split in halves, which are written separately,
+   * until the invalid records are isolated. The invalid records are written to the table
+   * cds_etl_helper.write_quarantine instead, all other records are written to OMOP CDM. All other
+   * errors, e.g. a missing table or an exhausted retry of a transient error, fail the chunk.
+   *
+   * @param table the name of the OMOP CDM table
+   * @param records the records to be written
+   * @param tableWriter writes the records to the OMOP CDM table in one transaction
+   */
+  private <T> void writeAll(String table, List<T> records, Consumer<List<T>> tableWriter) {
+    writeAll(table, records, tableWriter, List::of);
+  }
+
+  /**
+   * Writes records to a table in OMOP CDM like {@link #writeAll(String, List, Consumer)}. An
+   * invalid element is moved to the quarantine as the given records.
+   *
+   * @param table the name of the OMOP CDM table
+   * @param records the elements to be written
+   * @param tableWriter writes the elements to the OMOP CDM table in one transaction
+   * @param quarantined the records of an element, which are moved to the quarantine
+   */
+  private <T> void writeAll(
+      String table,
+      List<T> records,
+      Consumer<List<T>> tableWriter,
+      Function<T, List<?>> quarantined) {
+    if (records.isEmpty()) {
+      return;
+    }
+    try {
+      retryTemplate.execute(
+          context -> {
+            // the failed attempt may have been committed before the connection failed
+            var remaining =
+                context.getRetryCount() == 0
+                    ? records
+                    : committedRecordFilter.removeWritten(table, records);
+            if (!remaining.isEmpty()) {
+              newTransaction.executeWithoutResult(status -> tableWriter.accept(remaining));
+            }
+            return null;
+          });
+    } catch (RuntimeException e) {
+      if (isTransient(e) || !isDataError(e)) {
+        throw e;
+      }
+      if (records.size() == 1) {
+        var invalidRecords = quarantined.apply(records.get(0));
+        if (invalidRecords.isEmpty()) {
+          throw e;
+        }
+        invalidRecords.forEach(invalidRecord -> quarantine(table, invalidRecord, e));
+        return;
+      }
+      var middle = records.size() / 2;
+      writeAll(table, records.subList(0, middle), tableWriter, quarantined);
+      writeAll(table, records.subList(middle, records.size()), tableWriter, quarantined);
+    }
+  }
+
+  /**
+   * Writes records to a table in OMOP CDM, which can be written with upserts. During incremental
+   * load, the records of FHIR resources, which are loaded again, replace their existing records,
+   * see {@link OmopUpsertWriter}. The records of a FHIR resource are replaced in one transaction
+   * and invalid data is isolated to single FHIR resources. All other records are written with the
+   * repository of the table.
+   *
+   * @param table the OMOP CDM table
+   * @param records the records to be written
+   * @param replacedFhirLogicalIds the fhir_logical_ids of the FHIR resources of the chunk, whose
+   *     existing records are replaced
+   * @param tableRepository the repository of the OMOP CDM table
+   */
+  private <T> void upsertAll(
+      UpsertTable<T> table,
+      List<T> records,
+      Set<String> replacedFhirLogicalIds,
+      CrudRepository<T, ?> tableRepository) {
+    var batch = upsertWriter.split(table, records, replacedFhirLogicalIds);
+    writeAll(
+        table.name(),
+        batch.replaced(),
+        resources -> upsertWriter.replace(table, resources),
+        ReplacedResource::rows);
+    saveAll(table.name(), batch.inserts(), tableRepository);
+  }
+
+  /**
+   * Writes an invalid record together with its FHIR IDs and the error to the table
+   * cds_etl_helper.write_quarantine.
+   *
+   * @param table the name of the OMOP CDM table
+   * @param invalidRecord the record which could not be written to OMOP CDM
+   * @param error the error which occurred while writing the record
+   */
+  private void quarantine(String table, Object invalidRecord, RuntimeException error) {
+    var properties = PropertyAccessorFactory.forBeanPropertyAccess(invalidRecord);
+    var fhirLogicalId = readProperty(properties, "fhirLogicalId");
+    var fhirIdentifier = readProperty(properties, "fhirIdentifier");
+    var message = NestedExceptionUtils.getMostSpecificCause(error).getMessage();
+    log.warn(
+        "Unable to write record of FHIR resource [{}] to {} table, moved to quarantine: {}",
+        fhirLogicalId != null ? fhirLogicalId : fhirIdentifier,
+        table,
+        message);
+    try {
+      newTransaction.executeWithoutResult(
+          status ->
+              jdbcTemplate.update(
+                  INSERT_QUARANTINE,
+                  PhaseTimers.currentStepName(),
+                  table,
+                  fhirLogicalId,
+                  fhirIdentifier,
+                  message,
+                  invalidRecord.toString(),
+                  Timestamp.valueOf(LocalDateTime.now())));
+    } catch (DataAccessException e) {
+      log.error("Unable to write record to quarantine: {}", e.getMessage());
+      throw error;
+    }
+  }
+
+  private static String readProperty(BeanWrapper properties, String name) {
+    if (!properties.isReadableProperty(name)) {
+      return null;
     }
+    var value = properties.getPropertyValue(name);
+    return value == null ? null : value.toString();
+  }
+
+  private static boolean isTransient(Throwable throwable) {
+    return transientExceptionClassifier.classify(throwable);
+  }
+
+  /**
+   * Checks whether an error is caused by the written data itself, i.e. by a violated integrity
+   * constraint or by an invalid value. Only these errors are isolated to single records.
+   *
+   * @param throwable the error which occurred while writing records
+   * @return true if the error is caused by invalid data
+   */
+  static boolean isDataError(Throwable throwable) {
+    for (var cause = throwable; cause != null; cause = cause.getCause()) {
+      if (cause instanceof DataIntegrityViolationException) {
+        return true;
+      }
+      if (cause instanceof SQLException sqlException
+          && sqlException.getSQLState() != null
+          && sqlException.getSQLState().length() >= 2
+          && DATA_ERROR_SQL_STATE_CLASSES.contains(sqlException.getSQLState().substring(0, 2))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Sets the time to wait before a failed write is retried.
+   *
+   * @param backOffPeriod the time to wait in milliseconds
+   */
+  void setBackOffPeriod(long backOffPeriod) {
+    backOffPolicy.setBackOffPeriod(backOffPeriod);
   }
 
   /**
@@ -315,7 +643,18 @@ public class OmopWriter implements ItemWriter<OmopModelWrapper> {
    */
   @Override
   public void write(List<? extends OmopModelWrapper> items) {
-    retryTemplate.execute(context -> writeOmopChunk(items));
+    if (executor != null) {
+      writeOmopChunkConcurrently(items);
+    } else {
+      writeOmopChunk(items);
+    }
     log.info("Total: {} FHIR resources processed", (int) resourcesProcessedTotal.count());
   }
+
+  @PreDestroy
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
 }
@@ -20,6 +20,39 @@ CONSTRAINT xpk_medication_id_map PRIMARY KEY (fhir_omop_id));
 END
 $$;
 
+--Create cds_etl_helper.unmapped_code_statistics and its indexes
+DO $$
+BEGIN
+CREATE TABLE IF NOT EXISTS cds_etl_helper.unmapped_code_statistics (
+statistic_id bigserial, step_name varchar(64) NOT NULL, vocabulary_id varchar(64),
+source_code varchar(255), reason varchar(64) NOT NULL, occurrences bigint NOT NULL,
+sample_fhir_ids text, recorded_at timestamp NOT NULL,
+CONSTRAINT xpk_unmapped_code_statistics PRIMARY KEY (statistic_id));
+CREATE INDEX IF NOT EXISTS idx_unmapped_code_vocabulary ON cds_etl_helper.unmapped_code_statistics (vocabulary_id, source_code);
+END
+$$;
+
+--Create cds_etl_helper.write_quarantine and its indexes
+DO $$
+BEGIN
+CREATE TABLE IF NOT EXISTS cds_etl_helper.write_quarantine (
+quarantine_id bigserial, step_name varchar(64) NOT NULL, omop_table varchar(64) NOT NULL,
+fhir_logical_id varchar(250), fhir_identifier varchar(250), error text, record text,
+recorded_at timestamp NOT NULL,
+CONSTRAINT xpk_write_quarantine PRIMARY KEY (quarantine_id));
+CREATE INDEX IF NOT EXISTS idx_write_quarantine_fhir_logical_id ON cds_etl_helper.write_quarantine (fhir_logical_id);
+END
+$$;
+
+--Create cds_etl_helper.bulk_load_index
+DO $$
+BEGIN
+CREATE TABLE IF NOT EXISTS cds_etl_helper.bulk_load_index (
+index_name varchar(128) NOT NULL, table_name varchar(128) NOT NULL, index_definition text NOT NULL,
+CONSTRAINT xpk_bulk_load_index PRIMARY KEY (index_name));
+END
+$$;
+
 --Create cds_etl_helper.snomed_vaccine_standard_lookup materialized view
 
 DO $$
@@ -0,0 +1,218 @@
+package org.miracum.etl.fhirtoomop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.miracum.etl.fhirtoomop.Constants.VOCABULARY_LOINC;
+import static org.miracum.etl.fhirtoomop.Constants.VOCABULARY_UCUM;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miracum.etl.fhirtoomop.DictionaryLoadingService.Dictionary;
+import org.miracum.etl.fhirtoomop.mapper.helpers.ConceptDictionary;
+import org.miracum.etl.fhirtoomop.model.omop.CareSite;
+import org.miracum.etl.fhirtoomop.repository.CareSiteRepository;
+import org.miracum.etl.fhirtoomop.repository.OmopRepository;
+
+class DictionaryLoadingServiceTest {
+
+  private OmopRepository repositories;
+  private DictionaryLoadingService sut;
+
+  @BeforeEach
+  void setUp() {
+    repositories = mock(OmopRepository.class);
+    sut =
+        new DictionaryLoadingService(
+            repositories,
+            mock(VocabularySnapshotService.class),
+            new DbMappings(),
+            false,
+            2,
+            false,
+            80,
+            true,
+            80,
+            "");
+  }
+
+  @AfterEach
+  void tearDown() {
+    sut.shutdown();
+  }
+
+  @Test
+  void load_withoutDictionaries_loadsAndReleasesNothing() {
+    assertThatCode(
+            () -> {
+              sut.load("stepProcessConsent", EnumSet.noneOf(Dictionary.class));
+              sut.release("stepProcessConsent");
+            })
+        .doesNotThrowAnyException();
+
+    verifyNoInteractions(repositories);
+  }
+
+  @Test
+  void load_withoutDictionaries_whileAnotherStepIsRunning_doesNotThrow() {
+    sut.load("stepProcessImmunizations", EnumSet.noneOf(Dictionary.class));
+
+    assertThatCode(() -> sut.load("stepProcessConsent", EnumSet.noneOf(Dictionary.class)))
+        .doesNotThrowAnyException();
+  }
+
+  @Test
+  void vocabularies_ofPartition_returnsVocabulariesDeclaredForStep() {
+    sut.declareVocabularies("stepProcessConditions", EnumSet.of(Dictionary.CONCEPT_ICD10GM));
+
+    assertThat(sut.vocabularies("stepProcessConditions:partition3"))
+        .containsExactly(Dictionary.CONCEPT_ICD10GM);
+    assertThat(sut.vocabularies("stepProcessConsent")).isEmpty();
+  }
+
+  @Test
+  void load_duringBulkLoad_prefetchesVocabulariesOfNextDeclaredStep() {
+    var vocabularySnapshots = mock(VocabularySnapshotService.class);
+    var prefetching =
+        new DictionaryLoadingService(
+            repositories, vocabularySnapshots, new DbMappings(), true, 2, true, 100, false, 80, "");
+    prefetching.declareVocabularies("stepA", EnumSet.noneOf(Dictionary.class));
+    prefetching.declareVocabularies("stepB", EnumSet.of(Dictionary.CONCEPT_LOINC));
+    prefetching.declareVocabularies("stepC", EnumSet.of(Dictionary.CONCEPT_UCUM));
+    prefetching.declareStepOrder(List.of("stepA", "stepB", "stepC"));
+    try {
+      prefetching.load("stepA", EnumSet.noneOf(Dictionary.class));
+
+      verify(vocabularySnapshots, timeout(1000)).getConceptDictionary(VOCABULARY_LOINC);
+      verify(vocabularySnapshots, never()).getConceptDictionary(VOCABULARY_UCUM);
+    } finally {
+      prefetching.shutdown();
+    }
+  }
+
+  @Test
+  void load_aboveHeapLimitWhileAnotherStepIsRunning_waitsUntilStepHasFinished() throws Exception {
+    // a heap limit of 0% is always exceeded
+    var limited =
+        new DictionaryLoadingService(
+            repositories,
+            mock(VocabularySnapshotService.class),
+            new DbMappings(),
+            false,
+            2,
+            false,
+            80,
+            true,
+            0,
+            "");
+    try {
+      limited.load("stepProcessConditions", EnumSet.noneOf(Dictionary.class));
+      var waiting =
+          CompletableFuture.runAsync(
+              () -> limited.load("stepProcessObservations", EnumSet.noneOf(Dictionary.class)));
+
+      Thread.sleep(200);
+      assertThat(waiting).isNotDone();
+
+      limited.release("stepProcessConditions");
+      assertThatCode(() -> waiting.get(5, TimeUnit.SECONDS)).doesNotThrowAnyException();
+    } finally {
+      limited.shutdown();
+    }
+  }
+
+  @Test
+  void load_sameDictionaryByTwoStepsConcurrently_loadsItOnceAndKeepsItUntilLastRelease()
+      throws Exception {
+    var careSites = new HashMap<String, CareSite>();
+    careSites.put("ward", CareSite.builder().careSiteId(1L).build());
+    var careSiteRepository = mock(CareSiteRepository.class);
+    var loading = new CountDownLatch(1);
+    when(careSiteRepository.careSitesMap())
+        .thenAnswer(
+            invocation -> {
+              // both steps acquire the dictionary while it is loaded
+              loading.await(5, TimeUnit.SECONDS);
+              return careSites;
+            });
+    when(repositories.getCareSiteRepository()).thenReturn(careSiteRepository);
+    var dbMappings = new DbMappings();
+    var shared =
+        new DictionaryLoadingService(
+            repositories,
+            mock(VocabularySnapshotService.class),
+            dbMappings,
+            false,
+            2,
+            false,
+            80,
+            true,
+            100,
+            "");
+    try {
+      var first =
+          CompletableFuture.runAsync(
+              () -> shared.load("stepProcessConditions", EnumSet.of(Dictionary.CARE_SITE)));
+      var second =
+          CompletableFuture.runAsync(
+              () -> shared.load("stepProcessProcedures", EnumSet.of(Dictionary.CARE_SITE)));
+      verify(careSiteRepository, timeout(1000)).careSitesMap();
+      loading.countDown();
+      CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+
+      verify(careSiteRepository, times(1)).careSitesMap();
+      assertThat(dbMappings.getFindCareSiteId()).isSameAs(careSites);
+
+      shared.release("stepProcessConditions");
+      assertThat(dbMappings.getFindCareSiteId()).containsKey("ward");
+
+      shared.release("stepProcessProcedures");
+      assertThat(dbMappings.getFindCareSiteId()).isEmpty();
+      assertThat(careSites).isEmpty();
+    } finally {
+      shared.shutdown();
+    }
+  }
+
+  @Test
+  void load_afterFailedPrefetch_loadsDictionaryAgain() {
+    var vocabularySnapshots = mock(VocabularySnapshotService.class);
+    when(vocabularySnapshots.getConceptDictionary(VOCABULARY_LOINC))
+        .thenThrow(new IllegalStateException("OMOP CDM is not reachable"))
+        .thenReturn(ConceptDictionary.EMPTY);
+    var dbMappings = new DbMappings();
+    var prefetching =
+        new DictionaryLoadingService(
+            repositories, vocabularySnapshots, dbMappings, true, 2, true, 100, false, 80, "");
+    prefetching.declareVocabularies("stepA", EnumSet.noneOf(Dictionary.class));
+    prefetching.declareVocabularies("stepB", EnumSet.of(Dictionary.CONCEPT_LOINC));
+    prefetching.declareStepOrder(List.of("stepA", "stepB"));
+    try {
+      prefetching.load("stepA", EnumSet.noneOf(Dictionary.class));
+      verify(vocabularySnapshots, timeout(1000)).getConceptDictionary(VOCABULARY_LOINC);
+      prefetching.release("stepA");
+
+      assertThatCode(() -> prefetching.load("stepB", EnumSet.of(Dictionary.CONCEPT_LOINC)))
+          .doesNotThrowAnyException();
+
+      verify(vocabularySnapshots, times(2)).getConceptDictionary(VOCABULARY_LOINC);
+      assertThat(dbMappings.getOmopConceptMapWrapper().getFindValidLoincConcept())
+          .isSameAs(ConceptDictionary.EMPTY);
+    } finally {
+      prefetching.shutdown();
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package org.miracum.etl.fhirtoomop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.miracum.etl.fhirtoomop.InitFhirGatewayIndex.CONTACT_LEVEL_DEPARTMENT;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.scope.context.StepContext;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/** Runs against PostgreSQL, because the contact level of Encounter resources is read with JSON. */
+@Testcontainers(disabledWithoutDocker = true)
+class FhirResourceSpoolTaskTest {
+  private static final String TABLE = "public.resources";
+  private static final String CONDITION = FhirResourceSpool.key("Condition", null);
+  private static final String ENCOUNTER =
+      FhirResourceSpool.key("Encounter", CONTACT_LEVEL_DEPARTMENT);
+
+  @Container
+  private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:14");
+
+  @TempDir Path directory;
+
+  private DataSource dataSource;
+  private FhirResourceSpool spool;
+
+  @BeforeEach
+  void setUp() {
+    dataSource =
+        new DriverManagerDataSource(
+            POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword());
+    var jdbcTemplate = new JdbcTemplate(dataSource);
+    jdbcTemplate.execute("DROP TABLE IF EXISTS " + TABLE);
+    jdbcTemplate.execute(
+        "CREATE TABLE "
+            + TABLE
+            + " (id BIGSERIAL PRIMARY KEY, fhir_id VARCHAR(64), type VARCHAR(64), data JSONB,"
+            + " is_deleted BOOLEAN DEFAULT false)");
+    for (var i = 1; i <= 7; i++) {
+      jdbcTemplate.update(
+          "INSERT INTO " + TABLE + " (fhir_id, type, data) VALUES (?, 'Condition', '{}')",
+          "c-" + i);
+      jdbcTemplate.update(
+          "INSERT INTO "
+              + TABLE
+              + " (fhir_id, type, data) VALUES (?, 'Encounter', jsonb_build_object('type',"
+              + " jsonb_build_array(jsonb_build_object('coding', jsonb_build_array("
+              + "jsonb_build_object('code', ?::text))))))",
+          "e-" + i,
+          CONTACT_LEVEL_DEPARTMENT);
+    }
+    spool = new FhirResourceSpool(directory.toString());
+  }
+
+  @Test
+  void execute_inChunks_spoolsAllResources() throws Exception {
+    var stepExecution = stepExecution(new ExecutionContext());
+
+    assertThat(executeUntilFinished(task(), stepExecution)).isEqualTo(4);
+
+    assertThat(spooledIds(CONDITION))
+        .containsExactly("c-1", "c-2", "c-3", "c-4", "c-5", "c-6", "c-7");
+    assertThat(spooledIds(ENCOUNTER)).hasSize(7);
+    assertThat(spool.getCount(CONDITION)).isEqualTo(7);
+    assertThat(stepExecution.getReadCount()).isEqualTo(14);
+  }
+
+  @Test
+  void execute_afterRestart_continuesAfterLastCommittedChunk() throws Exception {
+    var interrupted = stepExecution(new ExecutionContext());
+    var task = task();
+    task.execute(new StepContribution(interrupted), chunkContext(interrupted));
+    task.execute(new StepContribution(interrupted), chunkContext(interrupted));
+    // the process is killed while writing the next chunk, after the last committed chunk
+    Files.write(spool.file(CONDITION), new byte[] {0, 0, 0}, StandardOpenOption.APPEND);
+
+    // the restarted step execution takes over the execution context of the interrupted one
+    var restarted = stepExecution(new ExecutionContext(interrupted.getExecutionContext()));
+    executeUntilFinished(task(), restarted);
+
+    assertThat(spooledIds(CONDITION))
+        .containsExactly("c-1", "c-2", "c-3", "c-4", "c-5", "c-6", "c-7");
+    assertThat(spooledIds(ENCOUNTER)).hasSize(7);
+    // the numbers are also known to a new process, which reads the spool files after a restart
+    var restartedSpool = new FhirResourceSpool(directory.toString());
+    assertThat(restartedSpool.getCount(CONDITION)).isEqualTo(7);
+    assertThat(restartedSpool.getCount(ENCOUNTER)).isEqualTo(7);
+  }
+
+  private FhirResourceSpoolTask task() {
+    return new FhirResourceSpoolTask(
+        dataSource,
+        spool,
+        TABLE,
+        "WHERE is_deleted = false",
+        InitFhirGatewayIndex.contactLevelExpression(false),
+        Set.of(CONDITION, ENCOUNTER),
+        4);
+  }
+
+  private static int executeUntilFinished(FhirResourceSpoolTask task, StepExecution stepExecution)
+      throws Exception {
+    var chunks = 0;
+    RepeatStatus status;
+    do {
+      var contribution = new StepContribution(stepExecution);
+      status = task.execute(contribution, chunkContext(stepExecution));
+      stepExecution.apply(contribution);
+      chunks++;
+    } while (status.isContinuable());
+    return chunks;
+  }
+
+  private static StepExecution stepExecution(ExecutionContext executionContext) {
+    var stepExecution = new StepExecution("stepSpoolFhirResources", new JobExecution(1L));
+    stepExecution.setExecutionContext(executionContext);
+    return stepExecution;
+  }
+
+  private static ChunkContext chunkContext(StepExecution stepExecution) {
+    return new ChunkContext(new StepContext(stepExecution));
+  }
+
+  private List<String> spooledIds(String key) throws IOException {
+    var fhirIds = new ArrayList<String>();
+    try (var in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(spool.file(key))))) {
+      for (var resource = FhirResourceSpool.read(in);
+          resource != null;
+          resource = FhirResourceSpool.read(in)) {
+        fhirIds.add(resource.getFhirId());
+      }
+    }
+    return fhirIds;
+  }
+}
@@ -0,0 +1,57 @@
+package org.miracum.etl.fhirtoomop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.miracum.etl.fhirtoomop.listeners.StepProgressListener;
+import org.miracum.etl.fhirtoomop.model.FhirPsqlResource;
+import org.springframework.batch.item.ExecutionContext;
+
+class FhirResourceSpoolTest {
+
+  @TempDir Path directory;
+
+  @Test
+  void read_afterWrite_returnsResourcesInOrder() throws Exception {
+    var spool = new FhirResourceSpool(directory.toString());
+    spool.prepare();
+    var key = FhirResourceSpool.key("Encounter", "abteilungskontakt");
+    var first =
+        new FhirPsqlResource(
+            "1", "enc-1", "Encounter", "{\"id\":\"Ü1\"}".getBytes(StandardCharsets.UTF_8), false);
+    var second =
+        new FhirPsqlResource("2", null, "Encounter", "{}".getBytes(StandardCharsets.UTF_8), false);
+    try (var out = new DataOutputStream(Files.newOutputStream(spool.file(key)))) {
+      FhirResourceSpool.write(out, first);
+      FhirResourceSpool.write(out, second);
+    }
+    spool.setCounts(Map.of(key, 2L));
+
+    var sut = new FhirResourceSpoolReader(spool, key);
+    var executionContext = new ExecutionContext();
+    sut.open(executionContext);
+
+    assertThat(executionContext.getLong(StepProgressListener.EXPECTED_ITEMS_KEY)).isEqualTo(2);
+    assertThat(sut.read()).isEqualTo(first);
+    assertThat(sut.read()).isEqualTo(second);
+    assertThat(sut.read()).isNull();
+    sut.close();
+  }
+
+  @Test
+  void read_withoutSpoolFile_returnsNothing() throws Exception {
+    var spool = new FhirResourceSpool(directory.toString());
+
+    var sut = new FhirResourceSpoolReader(spool, FhirResourceSpool.key("Consent", null));
+    sut.open(new ExecutionContext());
+
+    assertThat(sut.read()).isNull();
+    sut.close();
+  }
+}
@@ -0,0 +1,107 @@
+package org.miracum.etl.fhirtoomop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.miracum.etl.fhirtoomop.InitFhirGatewayIndex.CONTACT_LEVEL_DEPARTMENT;
+import static org.miracum.etl.fhirtoomop.InitFhirGatewayIndex.CONTACT_LEVEL_INSTITUTION;
+
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/** Runs against PostgreSQL, because the contact level is searched with a JSON path. */
+@Testcontainers(disabledWithoutDocker = true)
+class InitFhirGatewayIndexTest {
+  private static final String TABLE = "public.resources";
+
+  @Container
+  private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:14");
+
+  private JdbcTemplate jdbcTemplate;
+
+  @BeforeEach
+  void setUp() {
+    jdbcTemplate =
+        new JdbcTemplate(
+            new DriverManagerDataSource(
+                POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword()));
+    jdbcTemplate.execute("DROP TABLE IF EXISTS " + TABLE);
+    jdbcTemplate.execute(
+        "CREATE TABLE "
+            + TABLE
+            + " (id BIGSERIAL PRIMARY KEY, fhir_id VARCHAR(64), type VARCHAR(64), data JSONB,"
+            + " is_deleted BOOLEAN DEFAULT false)");
+    insertEncounter(
+        "first-coding",
+        "[{\"coding\": [{\"code\": \"" + CONTACT_LEVEL_DEPARTMENT + "\"}]}]");
+    insertEncounter(
+        "second-coding",
+        "[{\"coding\": [{\"code\": \"normalstationaer\"}, {\"code\": \""
+            + CONTACT_LEVEL_DEPARTMENT
+            + "\"}]}]");
+    insertEncounter(
+        "second-type",
+        "[{\"coding\": [{\"code\": \"normalstationaer\"}]}, {\"coding\": [{\"code\": \""
+            + CONTACT_LEVEL_DEPARTMENT
+            + "\"}]}]");
+    insertEncounter(
+        "institution", "[{\"coding\": [{\"code\": \"" + CONTACT_LEVEL_INSTITUTION + "\"}]}]");
+  }
+
+  @Test
+  void contactLevelCondition_withIndex_findsContactLevelInAnyCoding() {
+    new InitFhirGatewayIndex(jdbcTemplate, TABLE).execute(null, null);
+
+    assertThat(encounters(CONTACT_LEVEL_DEPARTMENT, true))
+        .containsExactlyInAnyOrder("first-coding", "second-coding", "second-type");
+    assertThat(encounters(CONTACT_LEVEL_INSTITUTION, true)).containsExactly("institution");
+    assertThat(
+            jdbcTemplate.queryForList(
+                "SELECT indexname FROM pg_indexes WHERE tablename = 'resources'", String.class))
+        .contains(
+            "resources_encounter_" + CONTACT_LEVEL_DEPARTMENT + "_idx",
+            "resources_encounter_" + CONTACT_LEVEL_INSTITUTION + "_idx");
+  }
+
+  @Test
+  void contactLevelCondition_withoutIndex_comparesFirstCoding() {
+    assertThat(encounters(CONTACT_LEVEL_DEPARTMENT, false)).containsExactly("first-coding");
+  }
+
+  @Test
+  void contactLevelExpression_withIndex_findsContactLevelInAnyCoding() {
+    var contactLevel =
+        jdbcTemplate.queryForObject(
+            "SELECT "
+                + InitFhirGatewayIndex.contactLevelExpression(true)
+                + " FROM "
+                + TABLE
+                + " WHERE fhir_id = 'second-coding'",
+            String.class);
+
+    assertThat(contactLevel).isEqualTo(CONTACT_LEVEL_DEPARTMENT);
+  }
+
+  private void insertEncounter(String fhirId, String types) {
+    jdbcTemplate.update(
+        "INSERT INTO "
+            + TABLE
+            + " (fhir_id, type, data) VALUES (?, 'Encounter', jsonb_build_object('type', ?::jsonb))",
+        fhirId,
+        types);
+  }
+
+  private List<String> encounters(String contactLevel, boolean indexed) {
+    return jdbcTemplate.queryForList(
+        "SELECT fhir_id FROM "
+            + TABLE
+            + " WHERE type = 'Encounter' AND is_deleted = false AND ("
+            + InitFhirGatewayIndex.contactLevelCondition(contactLevel, indexed)
+            + ")",
+        String.class);
+  }
+}
@@ -0,0 +1,117 @@
+package org.miracum.etl.fhirtoomop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/** Runs against PostgreSQL, because the patient shards are indexed with a PostgreSQL hash. */
+@Testcontainers(disabledWithoutDocker = true)
+class InitPatientShardIndexTest {
+  private static final String TABLE = "public.resources";
+  private static final int SHARDS = 4;
+
+  @Container
+  private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:14");
+
+  private JdbcTemplate jdbcTemplate;
+
+  @BeforeEach
+  void setUp() {
+    // a single connection, so that the planner settings apply to the following statements
+    jdbcTemplate =
+        new JdbcTemplate(
+            new SingleConnectionDataSource(
+                POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword(), true));
+    jdbcTemplate.execute("DROP TABLE IF EXISTS " + TABLE);
+    jdbcTemplate.execute(
+        "CREATE TABLE "
+            + TABLE
+            + " (id BIGSERIAL PRIMARY KEY, fhir_id VARCHAR(64), type VARCHAR(64), data JSONB,"
+            + " is_deleted BOOLEAN DEFAULT false)");
+    for (var i = 1; i <= 20; i++) {
+      jdbcTemplate.update(
+          "INSERT INTO " + TABLE + " (fhir_id, type, data) VALUES (?, 'Patient', '{}')", "p-" + i);
+      jdbcTemplate.update(
+          "INSERT INTO "
+              + TABLE
+              + " (fhir_id, type, data) VALUES (?, 'Observation', jsonb_build_object('subject',"
+              + " jsonb_build_object('reference', ?::text)))",
+          "o-" + i,
+          "Patient/p-" + i + "/_history/2");
+    }
+    jdbcTemplate.update(
+        "INSERT INTO "
+            + TABLE
+            + " (fhir_id, type, data) VALUES ('o-identifier', 'Observation',"
+            + " '{\"subject\": {\"identifier\": {\"value\": \"4711\"}}}')");
+  }
+
+  @Test
+  void execute_createsIndexWhichIsUsedForEachShard() {
+    new InitPatientShardIndex(jdbcTemplate, TABLE, SHARDS).execute(null, null);
+
+    assertThat(
+            jdbcTemplate.queryForList(
+                "SELECT indexname FROM pg_indexes WHERE tablename = 'resources'", String.class))
+        .contains("resources_patient_shard_" + SHARDS + "_idx");
+    jdbcTemplate.execute("SET enable_seqscan = off");
+    var plan =
+        String.join(
+            "\n",
+            jdbcTemplate.queryForList(
+                "EXPLAIN SELECT id FROM "
+                    + TABLE
+                    + " WHERE type = 'Observation' AND is_deleted = false"
+                    + PatientShardDecision.shardCondition(jobContext(1), SHARDS)
+                    + " ORDER BY id",
+                String.class));
+    assertThat(plan).contains("resources_patient_shard_" + SHARDS + "_idx");
+  }
+
+  @Test
+  void shardCondition_assignsEachResourceToOneShardTogetherWithItsPatient() {
+    new InitPatientShardIndex(jdbcTemplate, TABLE, SHARDS).execute(null, null);
+
+    var selected = new ArrayList<String>();
+    for (var index = 0; index <= SHARDS; index++) {
+      var patients = fhirIds("Patient", index);
+      var observations = fhirIds("Observation", index);
+      if (index < SHARDS) {
+        assertThat(observations)
+            .containsExactlyInAnyOrderElementsOf(
+                patients.stream().map(p -> p.replace("p-", "o-")).toList());
+      } else {
+        assertThat(patients).isEmpty();
+        assertThat(observations).containsExactly("o-identifier");
+      }
+      selected.addAll(patients);
+      selected.addAll(observations);
+    }
+    assertThat(selected).hasSize(41).doesNotHaveDuplicates();
+  }
+
+  private List<String> fhirIds(String type, int index) {
+    return jdbcTemplate.queryForList(
+        "SELECT fhir_id FROM "
+            + TABLE
+            + " WHERE type = ? AND is_deleted = false"
+            + PatientShardDecision.shardCondition(jobContext(index), SHARDS),
+        String.class,
+        type);
+  }
+
+  private static ExecutionContext jobContext(int index) {
+    var jobContext = new ExecutionContext();
+    jobContext.putInt(PatientShardDecision.SHARD_INDEX, index);
+    return jobContext;
+  }
+}
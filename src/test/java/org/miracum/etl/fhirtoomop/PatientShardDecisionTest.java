@@ -0,0 +1,32 @@
+package org.miracum.etl.fhirtoomop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.item.ExecutionContext;
+
+class PatientShardDecisionTest {
+
+  @Test
+  void shardCondition_selectsResourcesWithoutPatientReferenceOnlyInFinalPass() {
+    var jobContext = new ExecutionContext();
+    jobContext.putInt(PatientShardDecision.SHARD_INDEX, 1);
+
+    var shard = PatientShardDecision.shardCondition(jobContext, 4);
+
+    assertThat(shard).isEqualTo(" AND " + PatientShardDecision.shardExpression(4) + " = 1");
+    assertThat(PatientShardDecision.shardExpression(4)).contains("/_history/").endsWith("% 4)");
+
+    jobContext.putInt(PatientShardDecision.SHARD_INDEX, 4);
+
+    var finalPass = PatientShardDecision.shardCondition(jobContext, 4);
+
+    // the final pass uses the same indexed expression, which is NULL without patient reference
+    assertThat(finalPass).isEqualTo(" AND " + PatientShardDecision.shardExpression(4) + " IS NULL");
+  }
+
+  @Test
+  void shardCondition_isEmptyWithoutPatientShards() {
+    assertThat(PatientShardDecision.shardCondition(new ExecutionContext(), 4)).isEmpty();
+  }
+}
@@ -0,0 +1,176 @@
+package org.miracum.etl.fhirtoomop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.miracum.etl.fhirtoomop.listeners.StepProgressListener;
+import org.miracum.etl.fhirtoomop.model.FhirPsqlResource;
+import org.springframework.batch.item.ExecutionContext;
+
+class RestartableChunkReaderTest {
+
+  private static final String KEY = FhirResourceSpool.key("Condition", null);
+
+  @TempDir Path directory;
+  private FhirResourceSpool spool;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    spool = new FhirResourceSpool(directory.toString());
+    spool.prepare();
+    writeSpool(10);
+  }
+
+  private void writeSpool(int count) throws Exception {
+    try (var out = new DataOutputStream(Files.newOutputStream(spool.file(KEY)))) {
+      for (int i = 0; i < count; i++) {
+        FhirResourceSpool.write(
+            out,
+            new FhirPsqlResource(
+                String.valueOf(i),
+                "c-" + i,
+                "Condition",
+                "{}".getBytes(StandardCharsets.UTF_8),
+                false));
+      }
+    }
+    spool.setCounts(Map.of(KEY, (long) count));
+  }
+
+  private RestartableChunkReader reader() {
+    return new RestartableChunkReader(new FhirResourceSpoolReader(spool, KEY), 3);
+  }
+
+  private static List<String> readChunk(RestartableChunkReader sut, int size) throws Exception {
+    var ids = new ArrayList<String>();
+    for (int i = 0; i < size; i++) {
+      var resource = sut.read();
+      if (resource == null) {
+        break;
+      }
+      ids.add(resource.getId());
+    }
+    return ids;
+  }
+
+  @Test
+  void open_afterInterruption_continuesAfterLastCommittedChunk() throws Exception {
+    var executionContext = new ExecutionContext();
+    var sut = reader();
+    sut.open(executionContext);
+    assertThat(readChunk(sut, 3)).containsExactly("0", "1", "2");
+    sut.update(executionContext);
+    // read, but not committed
+    assertThat(readChunk(sut, 3)).containsExactly("3", "4", "5");
+    sut.close();
+
+    var restarted = reader();
+    var restartedContext = new ExecutionContext(executionContext);
+    restarted.open(restartedContext);
+    assertThat(restartedContext.getLong(StepProgressListener.RESTORED_ITEMS_KEY)).isEqualTo(3);
+
+    assertThat(readChunk(restarted, 10)).containsExactly("3", "4", "5", "6", "7", "8", "9");
+    restarted.close();
+  }
+
+  @Test
+  void open_afterChunksCommittedOutOfOrder_skipsCommittedChunks() throws Exception {
+    var executionContext = new ExecutionContext();
+    var sut = reader();
+    sut.open(executionContext);
+    var executor = Executors.newSingleThreadExecutor();
+    try {
+      // the first chunk is read by another thread, which is interrupted before its commit
+      var first = CompletableFuture.supplyAsync(() -> readChunkUnchecked(sut), executor).join();
+      assertThat(first).containsExactly("0", "1", "2");
+      assertThat(readChunk(sut, 3)).containsExactly("3", "4", "5");
+      sut.update(executionContext);
+    } finally {
+      executor.shutdown();
+    }
+    sut.close();
+
+    var restarted = reader();
+    var restartedContext = new ExecutionContext(executionContext);
+    restarted.open(restartedContext);
+    assertThat(restartedContext.getLong(StepProgressListener.RESTORED_ITEMS_KEY)).isEqualTo(3);
+
+    assertThat(readChunk(restarted, 10)).containsExactly("0", "1", "2", "6", "7", "8", "9");
+    restarted.close();
+  }
+
+  @Test
+  void read_withChunkSizeChangingBetweenThreads_readsEveryResourceOnce() throws Exception {
+    writeSpool(100);
+    var chunkSize = new ThreadLocal<Integer>();
+    var delegate = new FhirResourceSpoolReader(spool, KEY);
+    var sut = new RestartableChunkReader(delegate, chunkSize::get);
+    var executionContext = new ExecutionContext();
+    sut.open(executionContext);
+    var ids = Collections.synchronizedList(new ArrayList<String>());
+    var sizes = new int[] {7, 3, 11, 1, 5};
+    var chunk = new AtomicInteger();
+    var readInRound = new AtomicInteger();
+    do {
+      readInRound.set(0);
+      // like SimpleAsyncTaskExecutor, every chunk runs in a new thread
+      var threads = new ArrayList<Thread>();
+      for (int i = 0; i < 4; i++) {
+        var number = chunk.getAndIncrement();
+        var size = sizes[number % sizes.length];
+        // the chunk size is lowered after some segments have been taken with the previous size
+        var taken = number % 3 == 0 ? size / 2 : size;
+        var thread =
+            new Thread(
+                () -> {
+                  chunkSize.set(size);
+                  var read = readChunkUnchecked(sut, taken);
+                  sut.update(executionContext);
+                  ids.addAll(read);
+                  readInRound.addAndGet(read.size());
+                });
+        threads.add(thread);
+        thread.start();
+      }
+      for (var thread : threads) {
+        thread.join();
+      }
+    } while (readInRound.get() > 0);
+    sut.close();
+
+    assertThat(ids)
+        .hasSize(100)
+        .containsExactlyInAnyOrderElementsOf(
+            IntStream.range(0, 100).mapToObj(String::valueOf).toList());
+    assertThat(
+            executionContext.getLong(
+                delegate.getExecutionContextKey(RestartableChunkReader.COMMITTED_COUNT)))
+        .isEqualTo(100);
+  }
+
+  private static List<String> readChunkUnchecked(RestartableChunkReader sut) {
+    return readChunkUnchecked(sut, 3);
+  }
+
+  private static List<String> readChunkUnchecked(RestartableChunkReader sut, int size) {
+    try {
+      return readChunk(sut, size);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
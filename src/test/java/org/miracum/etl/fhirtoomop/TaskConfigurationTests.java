@@ -0,0 +1,35 @@
+package org.miracum.etl.fhirtoomop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.Step;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest(
+    classes = FhirToOmopApplication.class,
+    properties = {
+      "spring.batch.job.enabled=false",
+      "data.fhirGateway.jdbcUrl=jdbc:h2:mem:fhir",
+      "data.omopCdm.jdbcUrl=jdbc:h2:mem:omop",
+      "data.beginDate=1800-01-01",
+      "data.endDate=2099-12-31"
+    })
+@ActiveProfiles("test")
+class TaskConfigurationTests {
+
+  @Autowired private Map<String, Job> jobs;
+  @Autowired private Map<String, Step> steps;
+
+  @Test
+  void contextLoads_withDefaultProperties() {
+    assertThat(jobs).containsKey("processFHIRData");
+    assertThat(steps)
+        .containsKeys(
+            "stepProcessPatients", "stepProcessObservations", "stepProcessDiagnosticReport");
+  }
+}
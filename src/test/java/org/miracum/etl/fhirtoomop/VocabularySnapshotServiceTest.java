@@ -0,0 +1,110 @@
+package org.miracum.etl.fhirtoomop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.miracum.etl.fhirtoomop.model.omop.Concept;
+import org.miracum.etl.fhirtoomop.repository.ConceptRepository;
+import org.miracum.etl.fhirtoomop.repository.OmopRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/** Runs against PostgreSQL, because the fingerprint of a vocabulary is computed in OMOP CDM. */
+@Testcontainers(disabledWithoutDocker = true)
+class VocabularySnapshotServiceTest {
+
+  @Container
+  private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:14");
+
+  @TempDir Path directory;
+
+  private JdbcTemplate jdbcTemplate;
+  private ConceptRepository conceptRepository;
+  private OmopRepository repositories;
+
+  @BeforeEach
+  void setUp() {
+    jdbcTemplate =
+        new JdbcTemplate(
+            new DriverManagerDataSource(
+                POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword()));
+    jdbcTemplate.execute("DROP SCHEMA IF EXISTS cds_cdm CASCADE");
+    jdbcTemplate.execute("CREATE SCHEMA cds_cdm");
+    jdbcTemplate.execute(
+        "CREATE TABLE cds_cdm.vocabulary (vocabulary_id VARCHAR(20), vocabulary_version"
+            + " VARCHAR(255))");
+    jdbcTemplate.execute(
+        "CREATE TABLE cds_cdm.concept (concept_id INTEGER, concept_name VARCHAR(255), domain_id"
+            + " VARCHAR(20), vocabulary_id VARCHAR(20), concept_class_id VARCHAR(20),"
+            + " concept_code VARCHAR(50), valid_start_date DATE, valid_end_date DATE)");
+    jdbcTemplate.update("INSERT INTO cds_cdm.vocabulary VALUES ('ICD10GM', '2023')");
+    jdbcTemplate.update(
+        "INSERT INTO cds_cdm.concept VALUES (1, 'Anodontie', 'Condition', 'ICD10GM', '4-char"
+            + " nonbill code', 'K00.0', '2000-01-01', '2099-12-31')");
+
+    conceptRepository = mock(ConceptRepository.class);
+    repositories = mock(OmopRepository.class);
+    when(repositories.getConceptRepository()).thenReturn(conceptRepository);
+  }
+
+  @Test
+  void getConceptDictionary_withUnchangedVocabulary_reusesSnapshot() {
+    when(conceptRepository.findByVocabularyId("ICD10GM")).thenReturn(concepts("Anodontie"));
+
+    service().getConceptDictionary("ICD10GM");
+    var sut = service().getConceptDictionary("ICD10GM");
+
+    assertThat(sut.findConcept("K00.0", null).getConceptName()).isEqualTo("Anodontie");
+    verify(conceptRepository, times(1)).findByVocabularyId("ICD10GM");
+  }
+
+  @Test
+  void getConceptDictionary_withChangedConceptOfSameVersion_rebuildsSnapshot() throws IOException {
+    when(conceptRepository.findByVocabularyId("ICD10GM"))
+        .thenReturn(concepts("Anodontie"), concepts("Anodontia"));
+
+    service().getConceptDictionary("ICD10GM");
+    // same version, count and ids, only the concept name has been corrected locally
+    jdbcTemplate.update("UPDATE cds_cdm.concept SET concept_name = 'Anodontia'");
+    var sut = service().getConceptDictionary("ICD10GM");
+
+    assertThat(sut.findConcept("K00.0", null).getConceptName()).isEqualTo("Anodontia");
+    verify(conceptRepository, times(2)).findByVocabularyId("ICD10GM");
+    try (var files = Files.list(directory)) {
+      assertThat(files.filter(f -> f.toString().endsWith(".snapshot"))).hasSize(1);
+    }
+  }
+
+  private VocabularySnapshotService service() {
+    return new VocabularySnapshotService(
+        repositories, jdbcTemplate, true, directory.toString(), "cds_cdm");
+  }
+
+  private static List<Concept> concepts(String name) {
+    return List.of(
+        Concept.builder()
+            .conceptId(1)
+            .conceptName(name)
+            .domainId("Condition")
+            .vocabularyId("ICD10GM")
+            .conceptClassId("4-char nonbill code")
+            .conceptCode("K00.0")
+            .validStartDate(LocalDate.of(2000, 1, 1))
+            .validEndDate(LocalDate.of(2099, 12, 31))
+            .build());
+  }
+}
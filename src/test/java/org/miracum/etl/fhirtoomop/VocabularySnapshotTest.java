@@ -0,0 +1,65 @@
+package org.miracum.etl.fhirtoomop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.miracum.etl.fhirtoomop.model.omop.Concept;
+
+class VocabularySnapshotTest {
+
+  @TempDir Path directory;
+
+  private static Concept concept(int conceptId, String code, String name, LocalDate validEnd) {
+    return Concept.builder()
+        .conceptId(conceptId)
+        .conceptName(name)
+        .domainId("Condition")
+        .vocabularyId("ICD10GM")
+        .conceptClassId("4-char nonbill code")
+        .conceptCode(code)
+        .validStartDate(LocalDate.of(2000, 1, 1))
+        .validEndDate(validEnd)
+        .build();
+  }
+
+  @Test
+  void open_afterWrite_returnsConceptsGroupedByCode() throws IOException {
+    var file = directory.resolve("concept-ICD10GM.snapshot");
+    var concepts =
+        List.of(
+            concept(1, "K00.0", "Anodontie", LocalDate.of(2019, 12, 31)),
+            concept(2, "K00.0", "Anodontie", LocalDate.of(2099, 12, 31)),
+            concept(3, "Ä01", "Ümlaut", null),
+            concept(4, "A00.1", null, LocalDate.of(2099, 12, 31)));
+
+    VocabularySnapshot.write(file, "ICD10GM", "ICD10GM|2023|4", concepts);
+    var sut = VocabularySnapshot.open(file);
+
+    assertThat(sut.getVocabularyId()).isEqualTo("ICD10GM");
+    assertThat(sut.getFingerprint()).isEqualTo("ICD10GM|2023|4");
+    assertThat(sut.size()).isEqualTo(3);
+    assertThat(sut.findConcept("K00.0", null)).isEqualTo(concepts.get(0));
+    assertThat(sut.findConcept("K00.0", LocalDate.of(2020, 1, 1))).isEqualTo(concepts.get(1));
+    assertThat(sut.findConcept("K00.0", LocalDate.of(2100, 1, 1))).isNull();
+    assertThat(sut.findConcept("Ä01", LocalDate.of(2100, 1, 1))).isEqualTo(concepts.get(2));
+    assertThat(sut.findConcept("A00.1", null)).isEqualTo(concepts.get(3));
+    assertThat(sut.findConcept("B99", null)).isNull();
+    assertThat(sut.containsCode("K00")).isFalse();
+  }
+
+  @Test
+  void open_withoutConcepts_isEmpty() throws IOException {
+    var file = directory.resolve("concept-UCUM.snapshot");
+
+    VocabularySnapshot.write(file, "UCUM", "UCUM|empty", List.of());
+    var sut = VocabularySnapshot.open(file);
+
+    assertThat(sut.size()).isZero();
+    assertThat(sut.containsCode("mg")).isFalse();
+  }
+}
@@ -0,0 +1,64 @@
+package org.miracum.etl.fhirtoomop.listeners;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class StepProgressTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  void update_withConstantThroughput_estimatesRemainingTime() {
+    var progress = new StepProgress(0);
+    progress.setTotal(1000);
+
+    progress.update(100, SECOND);
+    progress.update(200, 2 * SECOND);
+
+    assertThat(progress.getProcessed()).isEqualTo(200);
+    assertThat(progress.getCurrentRate()).isCloseTo(100, within(0.001));
+    assertThat(progress.getAverageRate()).isCloseTo(100, within(0.001));
+    assertThat(progress.getPercentage()).isCloseTo(20, within(0.001));
+    assertThat(progress.getEtaSeconds()).isCloseTo(8, within(0.001));
+  }
+
+  @Test
+  void update_withChangingThroughput_smoothsAverageRate() {
+    var progress = new StepProgress(0);
+
+    progress.update(100, SECOND);
+    progress.update(300, 2 * SECOND);
+
+    assertThat(progress.getCurrentRate()).isCloseTo(200, within(0.001));
+    assertThat(progress.getAverageRate()).isBetween(100d, 200d);
+  }
+
+  @Test
+  void update_afterRestart_countsRestoredResourcesAsProcessed() {
+    var progress = new StepProgress(0);
+    progress.setTotal(1000);
+    progress.setRestored(600);
+
+    progress.update(100, SECOND);
+    progress.update(200, 2 * SECOND);
+
+    assertThat(progress.getProcessed()).isEqualTo(800);
+    assertThat(progress.getAverageRate()).isCloseTo(100, within(0.001));
+    assertThat(progress.getPercentage()).isCloseTo(80, within(0.001));
+    assertThat(progress.getEtaSeconds()).isCloseTo(2, within(0.001));
+  }
+
+  @Test
+  void getEtaSeconds_withoutTotal_isUnknown() {
+    var progress = new StepProgress(0);
+
+    progress.update(100, SECOND);
+
+    assertThat(progress.getTotal()).isNegative();
+    assertThat(progress.getEtaSeconds()).isNaN();
+    assertThat(progress.getPercentage()).isNaN();
+  }
+}
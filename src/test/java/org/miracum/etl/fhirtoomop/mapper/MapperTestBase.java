@@ -13,6 +13,7 @@ import org.miracum.etl.fhirtoomop.IIdMappings;
 import org.miracum.etl.fhirtoomop.InMemoryIncrementalIdMappings;
 import org.miracum.etl.fhirtoomop.config.FhirConfig;
 import org.miracum.etl.fhirtoomop.config.FhirSystems;
+import org.miracum.etl.fhirtoomop.mapper.helpers.ConceptDictionary;
 import org.miracum.etl.fhirtoomop.mapper.helpers.ResourceFhirReferenceUtils;
 import org.miracum.etl.fhirtoomop.model.IcdSnomedDomainLookup;
 import org.miracum.etl.fhirtoomop.model.omop.Concept;
@@ -66,11 +67,13 @@ public class MapperTestBase {
     dbMappings
         .getOmopConceptMapWrapper()
         .setFindValidLoincConcept(
-            createSingletonMap("95826-4", 1, Vocabulary.LOINC, Domain.OBSERVATION));
+            ConceptDictionary.of(
+                createSingletonMap("95826-4", 1, Vocabulary.LOINC, Domain.OBSERVATION)));
     dbMappings
         .getOmopConceptMapWrapper()
         .setFindValidLoincConcept(
-            createSingletonMap("2160-0", 2, Vocabulary.LOINC, Domain.MEASUREMENT));
+            ConceptDictionary.of(
+                createSingletonMap("2160-0", 2, Vocabulary.LOINC, Domain.MEASUREMENT)));
   }
 
   protected Person createPerson() {
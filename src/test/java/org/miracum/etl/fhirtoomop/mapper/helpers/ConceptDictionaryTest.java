@@ -1,9 +1,12 @@
 package org.miracum.etl.fhirtoomop.mapper.helpers;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 import java.time.LocalDate;
 import java.time.Year;
 import java.util.ArrayList;
 import java.util.List;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 import org.miracum.etl.fhirtoomop.model.omop.Concept;
@@ -30,14 +33,49 @@ class ConceptDictionaryTest {
             .build();
     List<Concept> concepts = new ArrayList<>();
     concepts.add(concept);
-    //    var sut = new ConceptDictionarys(concepts);
-    //
-    //    var result = sut.getConcept("K00.0", codeVersion);
-    //
-    //    if (expectsConceptIsFound) {
-    //      assertThat(result).isNotNull();
-    //    } else {
-    //      assertThat(result).isNull();
-    //    }
+    var sut = new CompactConceptDictionary(concepts);
+
+    var result = sut.findConcept("K00.0", codeVersion.atDay(1));
+
+    assertThat(sut.containsCode("K00.0")).isTrue();
+    if (expectsConceptIsFound) {
+      assertThat(result).isNotNull();
+      assertThat(result.getValidStartDate()).isEqualTo(conceptValidStart);
+      assertThat(result.getValidEndDate()).isEqualTo(conceptValidEnd);
+    } else {
+      assertThat(result).isNull();
+    }
+  }
+
+  @Test
+  void findConcept_withSeveralConceptsPerCode_returnsValidConcept() {
+    var concepts =
+        List.of(
+            concept(1, "I10", "Condition", LocalDate.of(2000, 1, 1), LocalDate.of(2019, 12, 31)),
+            concept(2, "I10", "Condition", LocalDate.of(2020, 1, 1), LocalDate.of(2099, 12, 31)),
+            concept(3, "J20", "Observation", LocalDate.of(2000, 1, 1), LocalDate.of(2099, 12, 31)));
+
+    var sut = new CompactConceptDictionary(concepts);
+
+    assertThat(sut.size()).isEqualTo(2);
+    assertThat(sut.findConcept("I10", null).getConceptId()).isEqualTo(1);
+    assertThat(sut.findConcept("I10", LocalDate.of(2021, 6, 1)).getConceptId()).isEqualTo(2);
+    assertThat(sut.findConcept("J20", LocalDate.of(2021, 6, 1)))
+        .extracting(Concept::getConceptId, Concept::getDomainId, Concept::getVocabularyId)
+        .containsExactly(3, "Observation", "ICD10GM");
+    assertThat(sut.containsCode("K00.0")).isFalse();
+    assertThat(sut.findConcept("K00.0", null)).isNull();
+  }
+
+  private static Concept concept(
+      int conceptId, String code, String domain, LocalDate validStart, LocalDate validEnd) {
+    return Concept.builder()
+        .conceptId(conceptId)
+        .conceptCode(code)
+        .domainId(domain)
+        .vocabularyId("ICD10GM")
+        .validStartDate(validStart)
+        .validEndDate(validEnd)
+        .build();
   }
 }
@@ -0,0 +1,73 @@
+package org.miracum.etl.fhirtoomop.mapper.helpers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.miracum.etl.fhirtoomop.mapper.helpers.PhaseTimers.PHASE_LOOKUP;
+import static org.miracum.etl.fhirtoomop.mapper.helpers.PhaseTimers.PHASE_READ;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+
+class PhaseTimersTest {
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+  @BeforeEach
+  void setUp() {
+    Metrics.addRegistry(registry);
+  }
+
+  @AfterEach
+  void tearDown() {
+    Metrics.removeRegistry(registry);
+  }
+
+  @Test
+  void getTimer_afterRegisteringResourceType_tagsTimerWithResourceType() {
+    inStep(
+        "stepTimersResourceType",
+        () -> {
+          var before = PhaseTimers.getTimer(PHASE_LOOKUP, "SNOMED");
+          PhaseTimers.registerResourceType("Condition");
+          var after = PhaseTimers.getTimer(PHASE_LOOKUP, "SNOMED");
+
+          assertThat(before.getId().getTag("fhir-resource")).isEqualTo("none");
+          assertThat(after.getId().getTag("fhir-resource")).isEqualTo("Condition");
+          assertThat(PhaseTimers.getTimer(PHASE_LOOKUP, "SNOMED")).isSameAs(after);
+        });
+  }
+
+  @Test
+  void getTimer_inPartitions_sharesTimerOfStep() {
+    var first = new Timer[1];
+    inStep(
+        "stepTimersPartitioned:partition0",
+        () -> {
+          PhaseTimers.registerResourceType("Observation");
+          first[0] = PhaseTimers.getTimer(PHASE_READ, "Observation");
+        });
+    inStep(
+        "stepTimersPartitioned:partition1",
+        () -> {
+          var second = PhaseTimers.getTimer(PHASE_READ, "Observation");
+
+          assertThat(second).isSameAs(first[0]);
+          assertThat(second.getId().getTag("type")).isEqualTo("stepTimersPartitioned");
+          assertThat(second.getId().getTag("fhir-resource")).isEqualTo("Observation");
+        });
+  }
+
+  private static void inStep(String stepName, Runnable action) {
+    StepSynchronizationManager.register(new StepExecution(stepName, new JobExecution(1L)));
+    try {
+      action.run();
+    } finally {
+      StepSynchronizationManager.close();
+    }
+  }
+}
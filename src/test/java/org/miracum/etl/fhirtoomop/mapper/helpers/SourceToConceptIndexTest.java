@@ -0,0 +1,45 @@
+package org.miracum.etl.fhirtoomop.mapper.helpers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.miracum.etl.fhirtoomop.model.omop.SourceToConceptMap;
+
+class SourceToConceptIndexTest {
+
+  @Test
+  void find_bySourceVocabularyAndSourceCode() {
+    var female = sourceToConcept("Gender", "female", 8532);
+    var male = sourceToConcept("Gender", "male", 8507);
+    var finished = sourceToConcept("Status", "finished", 32817);
+
+    var sut = SourceToConceptIndex.of(List.of(female, male, finished));
+
+    assertThat(sut.size()).isEqualTo(3);
+    assertThat(sut.find("Gender", "male")).isSameAs(male);
+    assertThat(sut.find("Status", "finished")).isSameAs(finished);
+    assertThat(sut.find("Status", "male")).isNull();
+    assertThat(sut.find("Unknown", "male")).isNull();
+  }
+
+  @Test
+  void of_keepsFirstRecordOfDuplicateSourceCode() {
+    var first = sourceToConcept("Gender", "female", 8532);
+    var second = sourceToConcept("Gender", "female", 0);
+
+    var sut = SourceToConceptIndex.of(List.of(first, second));
+
+    assertThat(sut.size()).isEqualTo(1);
+    assertThat(sut.find("Gender", "female")).isSameAs(first);
+  }
+
+  private static SourceToConceptMap sourceToConcept(
+      String sourceVocabularyId, String sourceCode, int targetConceptId) {
+    return SourceToConceptMap.builder()
+        .sourceVocabularyId(sourceVocabularyId)
+        .sourceCode(sourceCode)
+        .targetConceptId(targetConceptId)
+        .build();
+  }
+}
@@ -0,0 +1,222 @@
+package org.miracum.etl.fhirtoomop.partition;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miracum.etl.fhirtoomop.DictionaryLoadingService;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * Runs several workers of a distributed bulk load against one PostgreSQL database, because the
+ * claims rely on FOR UPDATE SKIP LOCKED and UPDATE ... RETURNING, which are not supported by H2.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class PartitionWorkerIntegrationTest {
+  private static final String STEP_NAME = "stepProcessConditions";
+  private static final long JOB_EXECUTION_ID = 1L;
+
+  @Container
+  private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:14");
+
+  private JdbcTemplate jdbcTemplate;
+  private PartitionClaims claims;
+  private PartitionClaimGuard guard;
+  private JobExplorer jobExplorer;
+  private final Map<Long, StepExecution> stepExecutions = new ConcurrentHashMap<>();
+
+  @BeforeEach
+  void setUp() {
+    var dataSource =
+        new DriverManagerDataSource(
+            POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword());
+    jdbcTemplate = new JdbcTemplate(dataSource);
+    claims = new PartitionClaims(jdbcTemplate, "cds_etl_helper");
+    claims.createTable();
+    jdbcTemplate.execute("TRUNCATE cds_etl_helper.batch_partition_claim");
+    guard = new PartitionClaimGuard(claims, new DataSourceTransactionManager(dataSource));
+
+    var jobExecution = new JobExecution(JOB_EXECUTION_ID);
+    jobExecution.setStartTime(new Date());
+    stepExecutions.clear();
+    jobExplorer = mock(JobExplorer.class);
+    when(jobExplorer.getStepExecution(any(), anyLong()))
+        .thenAnswer(
+            invocation ->
+                stepExecutions.computeIfAbsent(
+                    invocation.getArgument(1),
+                    id -> new StepExecution(STEP_NAME + ":partition" + id, jobExecution, id)));
+  }
+
+  @Test
+  void processNext_withTwoWorkers_processesEachPartitionOnce() throws Exception {
+    var partitions = LongStream.rangeClosed(1, 12).boxed().toList();
+    claims.offer(JOB_EXECUTION_ID, STEP_NAME, partitions);
+    var written = new CopyOnWriteArrayList<Long>();
+    var writtenBy = new ConcurrentHashMap<String, Boolean>();
+    var step =
+        step(
+            (execution, workerId) -> {
+              written.add(execution.getId());
+              writtenBy.put(workerId, true);
+              // partition 5 fails, all others complete
+              execution.setStatus(
+                  execution.getId() == 5L ? BatchStatus.FAILED : BatchStatus.COMPLETED);
+            });
+
+    var start = new CountDownLatch(1);
+    var executor = Executors.newFixedThreadPool(2);
+    var workers = new ArrayList<PartitionWorker>();
+    try {
+      for (var workerId : List.of("worker-1", "worker-2")) {
+        var worker = worker(workerId, step);
+        workers.add(worker);
+        executor.submit(
+            () -> {
+              start.await();
+              while (worker.processNext(null)) {
+                // claims the next partition until all partitions have been claimed
+              }
+              return null;
+            });
+      }
+      start.countDown();
+      executor.shutdown();
+      assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+    } finally {
+      workers.forEach(PartitionWorker::shutdown);
+    }
+
+    assertThat(written).containsExactlyInAnyOrderElementsOf(partitions);
+    assertThat(writtenBy).containsOnlyKeys("worker-1", "worker-2");
+    assertThat(claims.countUnfinished(JOB_EXECUTION_ID, STEP_NAME)).isZero();
+    assertThat(status(5L)).isEqualTo(PartitionClaims.FAILED);
+    assertThat(status(6L)).isEqualTo(PartitionClaims.DONE);
+  }
+
+  @Test
+  void processNext_withReassignedPartition_writesItOnlyOnce() throws Exception {
+    claims.offer(JOB_EXECUTION_ID, STEP_NAME, List.of(1L));
+    var writtenBy = new CopyOnWriteArrayList<String>();
+    var step =
+        step(
+            (execution, workerId) -> {
+              writtenBy.add(workerId);
+              execution.setStatus(BatchStatus.COMPLETED);
+            },
+            // the heartbeats of the first worker are missed, the manager reassigns its partition
+            workerId -> {
+              if ("worker-1".equals(workerId)) {
+                claims.reassignStale(Duration.ZERO);
+              }
+            });
+
+    var first = worker("worker-1", step);
+    var second = worker("worker-2", step);
+    try {
+      assertThat(first.processNext(null)).isTrue();
+      assertThat(status(1L)).isEqualTo(PartitionClaims.PENDING);
+      assertThat(second.processNext(null)).isTrue();
+    } finally {
+      first.shutdown();
+      second.shutdown();
+    }
+
+    assertThat(writtenBy).containsExactly("worker-2");
+    assertThat(status(1L)).isEqualTo(PartitionClaims.DONE);
+  }
+
+  private Step step(ChunkWrite write) throws Exception {
+    return step(write, workerId -> {});
+  }
+
+  /**
+   * Creates a step, which writes one chunk per partition. Like in a chunk oriented step, the guard
+   * is called before the chunk is written.
+   */
+  private Step step(ChunkWrite write, BeforeChunk beforeChunk) throws Exception {
+    var step = mock(Step.class);
+    doAnswer(
+            invocation -> {
+              StepExecution execution = invocation.getArgument(0);
+              var workerId = currentWorker(execution);
+              beforeChunk.run(workerId);
+              StepSynchronizationManager.register(execution);
+              try {
+                guard.beforeWrite(List.of());
+                // gives the other worker the chance to claim a partition at the same time
+                Thread.sleep(50);
+                write.write(execution, workerId);
+              } catch (IllegalStateException e) {
+                execution.setStatus(BatchStatus.FAILED);
+                throw e;
+              } finally {
+                StepSynchronizationManager.close();
+              }
+              return null;
+            })
+        .when(step)
+        .execute(any());
+    return step;
+  }
+
+  private String currentWorker(StepExecution execution) {
+    return jdbcTemplate.queryForObject(
+        "SELECT worker_id FROM cds_etl_helper.batch_partition_claim WHERE step_execution_id = ?",
+        String.class,
+        execution.getId());
+  }
+
+  private String status(long stepExecutionId) {
+    return jdbcTemplate.queryForObject(
+        "SELECT status FROM cds_etl_helper.batch_partition_claim WHERE step_execution_id = ?",
+        String.class,
+        stepExecutionId);
+  }
+
+  private PartitionWorker worker(String workerId, Step step) {
+    return new PartitionWorker(
+        claims,
+        guard,
+        jobExplorer,
+        mock(DictionaryLoadingService.class),
+        Map.of(STEP_NAME, step),
+        workerId,
+        Duration.ofSeconds(30));
+  }
+
+  private interface ChunkWrite {
+    void write(StepExecution execution, String workerId);
+  }
+
+  private interface BeforeChunk {
+    void run(String workerId);
+  }
+}
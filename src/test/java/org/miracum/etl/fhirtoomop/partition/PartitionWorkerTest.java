@@ -0,0 +1,209 @@
+package org.miracum.etl.fhirtoomop.partition;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import org.miracum.etl.fhirtoomop.DictionaryLoadingService;
+import org.miracum.etl.fhirtoomop.partition.PartitionClaims.Claim;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.transaction.PlatformTransactionManager;
+
+class PartitionWorkerTest {
+
+  @Test
+  void processNext_withReassignedClaim_stopsStepExecution() throws Exception {
+    var claim = new Claim(2L, 1L, "stepProcessConditions");
+    var claims = mock(PartitionClaims.class);
+    when(claims.claim("worker-1", null)).thenReturn(Optional.of(claim));
+    when(claims.heartbeat(claim, "worker-1")).thenReturn(false);
+
+    var jobExecution = new JobExecution(1L);
+    jobExecution.setStartTime(new Date());
+    var stepExecution = new StepExecution("stepProcessConditions:partition0", jobExecution, 2L);
+    var jobExplorer = mock(JobExplorer.class);
+    when(jobExplorer.getStepExecution(1L, 2L)).thenReturn(stepExecution);
+
+    var step = mock(Step.class);
+    doAnswer(
+            invocation -> {
+              StepExecution execution = invocation.getArgument(0);
+              for (int i = 0; i < 200 && !execution.isTerminateOnly(); i++) {
+                Thread.sleep(10);
+              }
+              return null;
+            })
+        .when(step)
+        .execute(any());
+
+    var sut =
+        new PartitionWorker(
+            claims,
+            mock(PartitionClaimGuard.class),
+            jobExplorer,
+            mock(DictionaryLoadingService.class),
+            Map.of("stepProcessConditions", step),
+            "worker-1",
+            Duration.ofMillis(30));
+    try {
+      assertThat(sut.processNext(null)).isTrue();
+    } finally {
+      sut.shutdown();
+    }
+
+    assertThat(stepExecution.isTerminateOnly()).isTrue();
+    verify(claims).finish(eq(claim), eq("worker-1"), anyBoolean());
+  }
+
+  @Test
+  void processNext_withFailedStep_finishesClaimAsFailed() throws Exception {
+    var claim = new Claim(2L, 1L, "stepProcessConditions");
+    var claims = mock(PartitionClaims.class);
+    when(claims.claim("worker-1", null)).thenReturn(Optional.of(claim));
+    var jobExplorer = jobExplorer("stepProcessConditions:partition0");
+    var step = mock(Step.class);
+    doAnswer(
+            invocation -> {
+              StepExecution execution = invocation.getArgument(0);
+              execution.setStatus(BatchStatus.FAILED);
+              return null;
+            })
+        .when(step)
+        .execute(any());
+
+    var sut = worker(claims, jobExplorer, step);
+    try {
+      assertThat(sut.processNext(null)).isTrue();
+    } finally {
+      sut.shutdown();
+    }
+
+    verify(claims).finish(claim, "worker-1", true);
+  }
+
+  @Test
+  void processNext_withThrowingStep_finishesClaimAsFailed() throws Exception {
+    var claim = new Claim(2L, 1L, "stepProcessConditions");
+    var claims = mock(PartitionClaims.class);
+    when(claims.claim("worker-1", null)).thenReturn(Optional.of(claim));
+    var jobExplorer = jobExplorer("stepProcessConditions:partition0");
+    var step = mock(Step.class);
+    doThrow(new IllegalStateException("failed")).when(step).execute(any());
+
+    var sut = worker(claims, jobExplorer, step);
+    try {
+      assertThat(sut.processNext(null)).isTrue();
+    } finally {
+      sut.shutdown();
+    }
+
+    verify(claims).finish(claim, "worker-1", true);
+  }
+
+  @Test
+  void processNext_withCompletedStep_finishesClaimAsDone() throws Exception {
+    var claim = new Claim(2L, 1L, "stepProcessConditions");
+    var claims = mock(PartitionClaims.class);
+    when(claims.claim("worker-1", null)).thenReturn(Optional.of(claim));
+    var jobExplorer = jobExplorer("stepProcessConditions:partition0");
+    var step = mock(Step.class);
+    doAnswer(
+            invocation -> {
+              StepExecution execution = invocation.getArgument(0);
+              execution.setStatus(BatchStatus.COMPLETED);
+              return null;
+            })
+        .when(step)
+        .execute(any());
+
+    var sut = worker(claims, jobExplorer, step);
+    try {
+      assertThat(sut.processNext(null)).isTrue();
+    } finally {
+      sut.shutdown();
+    }
+
+    verify(claims).finish(claim, "worker-1", false);
+  }
+
+  @Test
+  void beforeWrite_withReassignedClaim_abortsChunk() {
+    var claim = new Claim(2L, 1L, "stepProcessConditions");
+    var claims = mock(PartitionClaims.class);
+    when(claims.heartbeat(claim, "worker-1")).thenReturn(false);
+    var guard = new PartitionClaimGuard(claims, mock(PlatformTransactionManager.class));
+    var stepExecution =
+        new StepExecution("stepProcessConditions:partition0", new JobExecution(1L), 2L);
+
+    guard.watch(claim, "worker-1");
+    StepSynchronizationManager.register(stepExecution);
+    try {
+      assertThatThrownBy(() -> guard.beforeWrite(List.of()))
+          .isInstanceOf(IllegalStateException.class);
+    } finally {
+      StepSynchronizationManager.close();
+    }
+
+    assertThat(stepExecution.isTerminateOnly()).isTrue();
+  }
+
+  @Test
+  void beforeWrite_withOwnedClaim_updatesHeartbeat() {
+    var claim = new Claim(2L, 1L, "stepProcessConditions");
+    var claims = mock(PartitionClaims.class);
+    when(claims.heartbeat(claim, "worker-1")).thenReturn(true);
+    var guard = new PartitionClaimGuard(claims, mock(PlatformTransactionManager.class));
+    var stepExecution =
+        new StepExecution("stepProcessConditions:partition0", new JobExecution(1L), 2L);
+
+    guard.watch(claim, "worker-1");
+    StepSynchronizationManager.register(stepExecution);
+    try {
+      guard.beforeWrite(List.of());
+    } finally {
+      StepSynchronizationManager.close();
+    }
+
+    verify(claims).heartbeat(claim, "worker-1");
+    assertThat(stepExecution.isTerminateOnly()).isFalse();
+  }
+
+  private static JobExplorer jobExplorer(String stepName) {
+    var jobExecution = new JobExecution(1L);
+    jobExecution.setStartTime(new Date());
+    var execution = new StepExecution(stepName, jobExecution, 2L);
+    var jobExplorer = mock(JobExplorer.class);
+    when(jobExplorer.getStepExecution(1L, 2L)).thenReturn(execution);
+    return jobExplorer;
+  }
+
+  private static PartitionWorker worker(
+      PartitionClaims claims, JobExplorer jobExplorer, Step step) {
+    return new PartitionWorker(
+        claims,
+        mock(PartitionClaimGuard.class),
+        jobExplorer,
+        mock(DictionaryLoadingService.class),
+        Map.of("stepProcessConditions", step),
+        "worker-1",
+        Duration.ofSeconds(30));
+  }
+}
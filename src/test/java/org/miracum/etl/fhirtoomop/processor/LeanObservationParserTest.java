@@ -0,0 +1,84 @@
+package org.miracum.etl.fhirtoomop.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import ca.uhn.fhir.context.FhirContext;
+import java.nio.charset.StandardCharsets;
+import org.hl7.fhir.r4.model.Observation;
+import org.junit.jupiter.api.Test;
+
+class LeanObservationParserTest {
+
+  private static final String LAB_OBSERVATION =
+      """
+      {
+        "resourceType": "Observation",
+        "id": "lab-1",
+        "meta": {"profile": ["https://www.medizininformatik-initiative.de/fhir/core/modul-labor/StructureDefinition/ObservationLab"]},
+        "identifier": [{
+          "type": {"coding": [{"system": "http://terminology.hl7.org/CodeSystem/v2-0203", "code": "OBI"}]},
+          "system": "https://example.org/befund",
+          "value": "59826-8_1690",
+          "assigner": {"identifier": {"value": "DIZ-ID"}}
+        }],
+        "status": "final",
+        "category": [{"coding": [
+          {"system": "http://loinc.org", "code": "26436-6"},
+          {"system": "http://terminology.hl7.org/CodeSystem/observation-category", "code": "laboratory"}
+        ]}],
+        "code": {"coding": [{"system": "http://loinc.org", "code": "2160-0", "display": "Creatinine"}], "text": "Kreatinin"},
+        "subject": {"reference": "Patient/456"},
+        "encounter": {"reference": "Encounter/789", "identifier": {"value": "enc-1"}},
+        "effectiveDateTime": "2021-02-03T04:05:06+01:00",
+        "issued": "2021-02-03T05:00:00.000+01:00",
+        "performer": [{"reference": "Organization/lab"}],
+        "valueQuantity": {"value": 0.90, "unit": "mg/dL", "system": "http://unitsofmeasure.org", "code": "mg/dL"},
+        "interpretation": [{"coding": [{"system": "http://terminology.hl7.org/CodeSystem/v3-ObservationInterpretation", "code": "N"}]}],
+        "referenceRange": [{"low": {"value": 0.5, "unit": "mg/dL"}, "high": {"value": 1.2, "unit": "mg/dL"}}]
+      }
+      """;
+
+  private final LeanObservationParser sut = new LeanObservationParser();
+
+  @Test
+  void parse_withLabObservation_readsSameElementsAsHapi() {
+    var hapi =
+        FhirContext.forR4().newJsonParser().parseResource(Observation.class, LAB_OBSERVATION);
+
+    var lean = sut.parse(LAB_OBSERVATION.getBytes(StandardCharsets.UTF_8));
+
+    assertThat(lean).isNotNull();
+    assertThat(lean.getIdElement().getIdPart()).isEqualTo(hapi.getIdElement().getIdPart());
+    assertThat(lean.getStatus()).isEqualTo(hapi.getStatus());
+    assertThat(lean.getIdentifierFirstRep().equalsDeep(hapi.getIdentifierFirstRep())).isTrue();
+    assertThat(lean.getCategoryFirstRep().equalsDeep(hapi.getCategoryFirstRep())).isTrue();
+    assertThat(lean.getCode().equalsDeep(hapi.getCode())).isTrue();
+    assertThat(lean.getSubject().equalsDeep(hapi.getSubject())).isTrue();
+    assertThat(lean.getEncounter().equalsDeep(hapi.getEncounter())).isTrue();
+    assertThat(lean.getEffectiveDateTimeType().getValue())
+        .isEqualTo(hapi.getEffectiveDateTimeType().getValue());
+    assertThat(lean.getIssued()).isEqualTo(hapi.getIssued());
+    assertThat(lean.getValueQuantity().equalsDeep(hapi.getValueQuantity())).isTrue();
+    assertThat(lean.getValueQuantity().getValue()).isEqualTo(hapi.getValueQuantity().getValue());
+    assertThat(lean.getInterpretationFirstRep().equalsDeep(hapi.getInterpretationFirstRep()))
+        .isTrue();
+    assertThat(lean.getReferenceRangeFirstRep().equalsDeep(hapi.getReferenceRangeFirstRep()))
+        .isTrue();
+  }
+
+  @Test
+  void parse_withUnsupportedElements_fallsBackToHapi() {
+    var withExtension =
+        LAB_OBSERVATION.replace(
+            "\"status\": \"final\",", "\"status\": \"final\", \"_status\": {\"extension\": []},");
+    var withComponent = LAB_OBSERVATION.replace("\"status\": \"final\",", "\"component\": [],");
+    var withPeriod =
+        LAB_OBSERVATION.replace(
+            "\"effectiveDateTime\": \"2021-02-03T04:05:06+01:00\"",
+            "\"effectivePeriod\": {\"start\": \"2021-02-03\"}");
+
+    assertThat(sut.parse(withExtension.getBytes(StandardCharsets.UTF_8))).isNull();
+    assertThat(sut.parse(withComponent.getBytes(StandardCharsets.UTF_8))).isNull();
+    assertThat(sut.parse(withPeriod.getBytes(StandardCharsets.UTF_8))).isNull();
+  }
+}
@@ -0,0 +1,47 @@
+package org.miracum.etl.fhirtoomop.tuning;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.batch.repeat.support.RepeatTemplate;
+
+class AdaptiveCompletionPolicyTest {
+
+  @Test
+  void iterate_withChangedChunkSize_keepsSizeOfRunningChunk() {
+    var chunkSize = new AtomicInteger(3);
+    var template = new RepeatTemplate();
+    template.setCompletionPolicy(new AdaptiveCompletionPolicy(chunkSize::get));
+    var seenSizes = new ArrayList<Integer>();
+
+    template.iterate(
+        context -> {
+          seenSizes.add(AdaptiveCompletionPolicy.currentChunkSize());
+          // a new size only applies to the next chunk
+          chunkSize.set(5);
+          return RepeatStatus.CONTINUABLE;
+        });
+
+    assertThat(seenSizes).containsExactly(3, 3, 3);
+  }
+
+  @Test
+  void iterate_withFinishedResult_completesBeforeChunkSize() {
+    var template = new RepeatTemplate();
+    template.setCompletionPolicy(new AdaptiveCompletionPolicy(() -> 10));
+    var items = new AtomicInteger();
+
+    template.iterate(
+        context -> items.incrementAndGet() < 4 ? RepeatStatus.CONTINUABLE : RepeatStatus.FINISHED);
+
+    assertThat(items).hasValue(4);
+  }
+
+  @Test
+  void currentChunkSize_outsideOfChunk_isUnknown() {
+    assertThat(AdaptiveCompletionPolicy.currentChunkSize()).isNegative();
+  }
+}
@@ -0,0 +1,50 @@
+package org.miracum.etl.fhirtoomop.tuning;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+class AdaptiveTaskExecutorTest {
+
+  @Test
+  void execute_inStep_limitsConcurrentChunks() throws Exception {
+    var controller = mock(AdaptiveChunkController.class);
+    when(controller.tuning("stepProcessConditions")).thenReturn(new StepTuning(10, 2));
+    var sut = new AdaptiveTaskExecutor(new SimpleAsyncTaskExecutor(), controller);
+    var running = new AtomicInteger();
+    var maxRunning = new AtomicInteger();
+    var finished = new CountDownLatch(6);
+
+    StepSynchronizationManager.register(
+        new StepExecution("stepProcessConditions", new JobExecution(1L)));
+    try {
+      for (int i = 0; i < 6; i++) {
+        sut.execute(
+            () -> {
+              maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+              try {
+                Thread.sleep(20);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              running.decrementAndGet();
+              finished.countDown();
+            });
+      }
+    } finally {
+      StepSynchronizationManager.close();
+    }
+
+    assertThat(finished.await(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(maxRunning.get()).isBetween(1, 2);
+  }
+}
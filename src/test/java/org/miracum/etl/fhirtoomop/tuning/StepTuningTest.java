@@ -0,0 +1,55 @@
+package org.miracum.etl.fhirtoomop.tuning;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class StepTuningTest {
+
+  @Test
+  void acquire_aboveConcurrency_waitsForRelease() throws Exception {
+    var sut = new StepTuning(10, 1);
+    assertThat(sut.acquire()).isTrue();
+
+    var waiting = CompletableFuture.supplyAsync(sut::acquire);
+    Thread.sleep(50);
+    assertThat(waiting).isNotDone();
+
+    sut.release();
+    assertThat(waiting.get(5, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  void adjust_withHigherConcurrency_admitsWaitingChunk() throws Exception {
+    var sut = new StepTuning(10, 1);
+    assertThat(sut.acquire()).isTrue();
+    var waiting = CompletableFuture.supplyAsync(sut::acquire);
+
+    sut.adjust(20, 2);
+
+    assertThat(waiting.get(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(sut.getChunkSize()).isEqualTo(20);
+    assertThat(sut.getConcurrency()).isEqualTo(2);
+  }
+
+  @Test
+  void closeWindow_afterInterval_summarizesWrites() throws Exception {
+    var sut = new StepTuning(10, 1);
+    sut.recordWrite(10, TimeUnit.MILLISECONDS.toNanos(20), 0);
+    sut.recordWrite(10, TimeUnit.MILLISECONDS.toNanos(40), 2);
+
+    assertThat(sut.closeWindow(TimeUnit.HOURS.toNanos(1))).isNull();
+    Thread.sleep(10);
+    var window = sut.closeWindow(TimeUnit.MILLISECONDS.toNanos(5));
+
+    assertThat(window).isNotNull();
+    assertThat(window.writeLatencyMillis()).isCloseTo(30, within(0.001));
+    assertThat(window.connectionWaits()).isEqualTo(2);
+    assertThat(window.throughput()).isPositive();
+    assertThat(window.previousThroughput()).isNaN();
+    assertThat(sut.closeWindow(0)).isNull();
+  }
+}
@@ -0,0 +1,83 @@
+package org.miracum.etl.fhirtoomop.writer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miracum.etl.fhirtoomop.model.FhirPsqlResource;
+import org.miracum.etl.fhirtoomop.model.OmopModelWrapper;
+import org.miracum.etl.fhirtoomop.model.omop.Person;
+import org.miracum.etl.fhirtoomop.processor.AsyncResourceProcessor;
+
+class AsyncOmopWriterTest {
+
+  private final List<String> writtenPersons = new ArrayList<>();
+  private ExecutorService executor;
+  private AsyncResourceProcessor processor;
+  private AsyncOmopWriter sut;
+
+  @BeforeEach
+  void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+    processor =
+        new AsyncResourceProcessor(
+            item -> {
+              if (item.getFhirId().startsWith("filtered")) {
+                return null;
+              }
+              if (item.getFhirId().startsWith("invalid")) {
+                throw new IllegalArgumentException(item.getFhirId());
+              }
+              var wrapper = new OmopModelWrapper();
+              wrapper.setPerson(Person.builder().fhirLogicalId(item.getFhirId()).build());
+              return wrapper;
+            },
+            executor);
+    sut =
+        new AsyncOmopWriter(
+            items ->
+                items.forEach(item -> writtenPersons.add(item.getPerson().getFhirLogicalId())));
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private static FhirPsqlResource resource(String fhirId) {
+    var resource = new FhirPsqlResource();
+    resource.setFhirId(fhirId);
+    return resource;
+  }
+
+  @Test
+  void write_withProcessedResources_writesResultsInReadOrderWithoutFiltered() throws Exception {
+    var futures =
+        List.of(
+            processor.process(resource("p1")),
+            processor.process(resource("filtered")),
+            processor.process(resource("p2")),
+            processor.process(resource("p3")));
+
+    sut.write(futures);
+
+    assertThat(writtenPersons).containsExactly("p1", "p2", "p3");
+  }
+
+  @Test
+  void write_withFailedProcessing_throwsCauseAndWritesNothing() {
+    var futures =
+        List.of(processor.process(resource("p1")), processor.process(resource("invalid")));
+
+    assertThatThrownBy(() -> sut.write(futures))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("invalid");
+    assertThat(writtenPersons).isEmpty();
+  }
+}
@@ -0,0 +1,73 @@
+package org.miracum.etl.fhirtoomop.writer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.miracum.etl.fhirtoomop.writer.OmopUpsertWriter.CONDITION_OCCURRENCE;
+import static org.mockito.Mockito.mock;
+
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.miracum.etl.fhirtoomop.model.omop.ConditionOccurrence;
+import org.miracum.etl.fhirtoomop.writer.OmopUpsertWriter.ReplacedResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+class OmopUpsertWriterTest {
+
+  private final OmopUpsertWriter sut = new OmopUpsertWriter(mock(JdbcTemplate.class), false, true);
+
+  private static ConditionOccurrence condition(String fhirLogicalId, int conceptId, String code) {
+    return ConditionOccurrence.builder()
+        .fhirLogicalId(fhirLogicalId)
+        .conditionConceptId(conceptId)
+        .conditionSourceValue(code)
+        .build();
+  }
+
+  @Test
+  void split_withReplacedResources_replacesOnlyRecordsOfReplacedResources() {
+    var replaced = condition("con-1", 1, "I10");
+    var other = condition("con-2", 1, "I10");
+
+    var batch =
+        sut.split(CONDITION_OCCURRENCE, List.of(replaced, other), Set.of("con-1", "con-3"));
+
+    assertThat(batch.replaced())
+        .containsExactlyInAnyOrder(
+            new ReplacedResource<>("con-1", List.of(replaced), true),
+            // without records in the table, the existing records are deleted
+            new ReplacedResource<>("con-3", List.of(), true));
+    assertThat(batch.inserts()).containsExactly(other);
+  }
+
+  @Test
+  void split_withDuplicateKeyOfResource_replacesResourceWithoutKeys() {
+    var first = condition("con-1", 1, "I10");
+    var duplicate = condition("con-1", 1, "I10");
+    var unique = condition("con-2", 2, "E11");
+    var missingCode = condition("con-3", 0, null);
+
+    var batch =
+        sut.split(
+            CONDITION_OCCURRENCE,
+            List.of(first, duplicate, unique, missingCode),
+            Set.of("con-1", "con-2", "con-3"));
+
+    assertThat(batch.replaced())
+        .containsExactlyInAnyOrder(
+            new ReplacedResource<>("con-1", List.of(first, duplicate), false),
+            new ReplacedResource<>("con-2", List.of(unique), true),
+            new ReplacedResource<>("con-3", List.of(missingCode), false));
+    assertThat(batch.inserts()).isEmpty();
+  }
+
+  @Test
+  void split_duringBulkLoad_insertsAllRecords() {
+    var bulkLoadWriter = new OmopUpsertWriter(mock(JdbcTemplate.class), true, true);
+    var record = condition("con-1", 1, "I10");
+
+    var batch = bulkLoadWriter.split(CONDITION_OCCURRENCE, List.of(record), Set.of("con-1"));
+
+    assertThat(batch.replaced()).isEmpty();
+    assertThat(batch.inserts()).containsExactly(record);
+  }
+}
@@ -0,0 +1,314 @@
+package org.miracum.etl.fhirtoomop.writer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnitUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miracum.etl.fhirtoomop.model.OmopModelWrapper;
+import org.miracum.etl.fhirtoomop.model.omop.ConditionOccurrence;
+import org.miracum.etl.fhirtoomop.model.omop.Person;
+import org.miracum.etl.fhirtoomop.repository.ConditionOccRepository;
+import org.miracum.etl.fhirtoomop.repository.MeasurementRepository;
+import org.miracum.etl.fhirtoomop.repository.ObservationRepository;
+import org.miracum.etl.fhirtoomop.repository.OmopRepository;
+import org.miracum.etl.fhirtoomop.repository.PersonRepository;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+class OmopWriterTest {
+
+  private final List<String> savedPersons = new ArrayList<>();
+  private boolean commitLost;
+  private JdbcTemplate jdbcTemplate;
+  private OmopWriter sut;
+
+  @BeforeEach
+  void setUp() {
+    var personRepository = mock(PersonRepository.class);
+    when(personRepository.saveAll(any()))
+        .thenAnswer(
+            invocation -> {
+              Iterable<Person> persons = invocation.getArgument(0);
+              var ids = new ArrayList<String>();
+              persons.forEach(person -> ids.add(person.getFhirLogicalId()));
+              if (ids.stream().anyMatch(id -> id.startsWith("invalid"))) {
+                throw new DataIntegrityViolationException("value too long");
+              }
+              if (ids.stream().anyMatch(id -> id.startsWith("missing-table"))) {
+                throw new BadSqlGrammarException(
+                    "insert", "insert into person", new SQLException("no table", "42P01"));
+              }
+              if (ids.stream().anyMatch(id -> id.startsWith("timeout"))) {
+                throw new QueryTimeoutException("canceling statement due to statement timeout");
+              }
+              savedPersons.addAll(ids);
+              if (ids.stream().anyMatch(id -> id.startsWith("lost-commit")) && !commitLost) {
+                commitLost = true;
+                throw new QueryTimeoutException("connection lost after commit");
+              }
+              return persons;
+            });
+    var repository = mock(OmopRepository.class);
+    when(repository.getPersonRepository()).thenReturn(personRepository);
+    jdbcTemplate = mock(JdbcTemplate.class);
+    doAnswer(
+            invocation -> {
+              RowCallbackHandler handler = invocation.getArgument(2);
+              for (var id : savedPersons) {
+                var resultSet = mock(ResultSet.class);
+                when(resultSet.getString(1)).thenReturn(id);
+                handler.processRow(resultSet);
+              }
+              return null;
+            })
+        .when(jdbcTemplate)
+        .query(anyString(), any(PreparedStatementSetter.class), any(RowCallbackHandler.class));
+
+    sut = writer(repository, jdbcTemplate, new ResourcelessTransactionManager(), true);
+  }
+
+  private static OmopWriter writer(
+      OmopRepository repository,
+      JdbcTemplate jdbcTemplate,
+      PlatformTransactionManager transactionManager,
+      boolean bulkload) {
+    var entityManagerFactory = mock(EntityManagerFactory.class);
+    when(entityManagerFactory.getPersistenceUnitUtil()).thenReturn(mock(PersistenceUnitUtil.class));
+    var writer =
+        new OmopWriter(
+            repository,
+            jdbcTemplate,
+            new OmopUpsertWriter(jdbcTemplate, bulkload, true),
+            new CommittedRecordFilter(jdbcTemplate, entityManagerFactory, bulkload),
+            transactionManager,
+            bulkload,
+            false,
+            1);
+    writer.setBackOffPeriod(1);
+    return writer;
+  }
+
+  private static OmopModelWrapper wrapper(String fhirLogicalId) {
+    var wrapper = new OmopModelWrapper();
+    wrapper.setPerson(Person.builder().fhirLogicalId(fhirLogicalId).build());
+    return wrapper;
+  }
+
+  @Test
+  void write_withInvalidRecords_quarantinesOnlyInvalidRecords() {
+    var items = new ArrayList<OmopModelWrapper>();
+    for (int i = 0; i < 10; i++) {
+      items.add(wrapper(i == 3 || i == 7 ? "invalid-" + i : "patient-" + i));
+    }
+
+    sut.write(items);
+
+    assertThat(savedPersons)
+        .containsExactlyInAnyOrder(
+            "patient-0",
+            "patient-1",
+            "patient-2",
+            "patient-4",
+            "patient-5",
+            "patient-6",
+            "patient-8",
+            "patient-9");
+    verify(jdbcTemplate, times(2))
+        .update(anyString(), any(), eq("person"), any(), any(), any(), any(), any());
+  }
+
+  @Test
+  void write_withInvalidRecordsInChunkTransaction_commitsValidRecordsAndQuarantine() {
+    var dataSource =
+        new EmbeddedDatabaseBuilder()
+            .setType(EmbeddedDatabaseType.H2)
+            .generateUniqueName(true)
+            .build();
+    try {
+      var database = new JdbcTemplate(dataSource);
+      database.execute(
+          "CREATE TABLE person (fhir_logical_id varchar(250) CHECK (fhir_logical_id NOT LIKE 'invalid%'))");
+      database.execute("CREATE SCHEMA cds_etl_helper");
+      database.execute(
+          "CREATE TABLE cds_etl_helper.write_quarantine (step_name varchar(64), omop_table varchar(64), fhir_logical_id varchar(250), fhir_identifier varchar(250), error varchar(1000), record varchar(1000), recorded_at timestamp)");
+      var transactionManager = new DataSourceTransactionManager(dataSource);
+      // like a Spring Data repository, the inserts join the current transaction
+      var repositoryTransaction = new TransactionTemplate(transactionManager);
+      var personRepository = mock(PersonRepository.class);
+      when(personRepository.saveAll(any()))
+          .thenAnswer(
+              invocation ->
+                  repositoryTransaction.execute(
+                      status -> {
+                        Iterable<Person> persons = invocation.getArgument(0);
+                        persons.forEach(
+                            person ->
+                                database.update(
+                                    "INSERT INTO person VALUES (?)", person.getFhirLogicalId()));
+                        return persons;
+                      }));
+      var repository = mock(OmopRepository.class);
+      when(repository.getPersonRepository()).thenReturn(personRepository);
+      var writer = writer(repository, database, transactionManager, true);
+      var items = new ArrayList<OmopModelWrapper>();
+      for (int i = 0; i < 10; i++) {
+        items.add(wrapper(i == 3 || i == 7 ? "invalid-" + i : "patient-" + i));
+      }
+
+      // the chunk transaction of the step, which is committed after the items have been written
+      new TransactionTemplate(transactionManager).executeWithoutResult(status -> writer.write(items));
+
+      assertThat(database.queryForList("SELECT fhir_logical_id FROM person", String.class))
+          .containsExactlyInAnyOrder(
+              "patient-0",
+              "patient-1",
+              "patient-2",
+              "patient-4",
+              "patient-5",
+              "patient-6",
+              "patient-8",
+              "patient-9");
+      assertThat(
+              database.queryForList(
+                  "SELECT fhir_logical_id FROM cds_etl_helper.write_quarantine", String.class))
+          .containsExactlyInAnyOrder("invalid-3", "invalid-7");
+    } finally {
+      dataSource.shutdown();
+    }
+  }
+
+  @Test
+  void write_withRepeatedConditionCode_replacesRecordsOfCondition() {
+    var dataSource =
+        new EmbeddedDatabaseBuilder()
+            .setType(EmbeddedDatabaseType.H2)
+            .generateUniqueName(true)
+            .build();
+    try {
+      var database = new JdbcTemplate(dataSource);
+      database.execute(
+          "CREATE TABLE condition_occurrence (condition_occurrence_id bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, person_id bigint, condition_concept_id int, condition_start_date date, condition_start_datetime timestamp, condition_end_date date, condition_end_datetime timestamp, condition_type_concept_id int, stop_reason varchar(20), provider_id int, visit_occurrence_id bigint, condition_source_value varchar(50), condition_source_concept_id int, condition_status_source_value varchar(50), condition_status_concept_id int, visit_detail_id bigint, fhir_logical_id varchar(250), fhir_identifier varchar(250))");
+      database.update(
+          "INSERT INTO condition_occurrence (condition_occurrence_id, condition_concept_id, condition_source_value, fhir_logical_id) VALUES (1, 1, 'I10', 'con-1'), (2, 2, 'E11', 'con-2'), (3, 3, 'E12', 'con-2')");
+      // the replaced FHIR resources are looked up in all tables written with upserts
+      database.execute(
+          "CREATE TABLE measurement (measurement_id bigint, fhir_logical_id varchar(250), measurement_concept_id int, measurement_source_value varchar(50))");
+      database.execute(
+          "CREATE TABLE observation (observation_id bigint, fhir_logical_id varchar(250), observation_concept_id int, observation_source_value varchar(50))");
+      var repository = mock(OmopRepository.class);
+      when(repository.getConditionOccRepository()).thenReturn(mock(ConditionOccRepository.class));
+      when(repository.getMeasurementRepository()).thenReturn(mock(MeasurementRepository.class));
+      when(repository.getObservationRepository()).thenReturn(mock(ObservationRepository.class));
+      var transactionManager = new DataSourceTransactionManager(dataSource);
+      var writer = writer(repository, database, transactionManager, false);
+      // the same code is recorded twice in the Condition con-2
+      var items =
+          List.of(
+              conditionWrapper("con-1", condition("con-1", 1, "I10", 7L)),
+              conditionWrapper(
+                  "con-2", condition("con-2", 2, "E11", 8L), condition("con-2", 2, "E11", 8L)));
+
+      new TransactionTemplate(transactionManager).executeWithoutResult(status -> writer.write(items));
+
+      assertThat(
+              database.queryForMap(
+                  "SELECT condition_occurrence_id, person_id FROM condition_occurrence WHERE fhir_logical_id = 'con-1'"))
+          .containsEntry("CONDITION_OCCURRENCE_ID", 1L)
+          .containsEntry("PERSON_ID", 7L);
+      assertThat(
+              database.queryForList(
+                  "SELECT condition_source_value FROM condition_occurrence WHERE fhir_logical_id = 'con-2' AND person_id = 8",
+                  String.class))
+          .containsExactly("E11", "E11");
+      assertThat(database.queryForObject("SELECT count(*) FROM condition_occurrence", Long.class))
+          .isEqualTo(3);
+    } finally {
+      dataSource.shutdown();
+    }
+  }
+
+  private static ConditionOccurrence condition(
+      String fhirLogicalId, int conceptId, String code, Long personId) {
+    return ConditionOccurrence.builder()
+        .fhirLogicalId(fhirLogicalId)
+        .conditionConceptId(conceptId)
+        .conditionSourceValue(code)
+        .personId(personId)
+        .build();
+  }
+
+  private static OmopModelWrapper conditionWrapper(
+      String fhirLogicalId, ConditionOccurrence... conditions) {
+    var wrapper = new OmopModelWrapper();
+    wrapper.setConditionOccurrence(new ArrayList<>(List.of(conditions)));
+    wrapper.setReplacedFhirLogicalId(fhirLogicalId);
+    return wrapper;
+  }
+
+  @Test
+  void write_withNonDataError_failsChunkWithoutQuarantine() {
+    var items = List.of(wrapper("patient-0"), wrapper("missing-table-1"), wrapper("patient-2"));
+
+    assertThatThrownBy(() -> sut.write(items)).isInstanceOf(BadSqlGrammarException.class);
+
+    assertThat(savedPersons).isEmpty();
+    verify(jdbcTemplate, never())
+        .update(anyString(), any(), any(), any(), any(), any(), any(), any());
+  }
+
+  @Test
+  void write_withTransientError_failsChunkAfterRetriesWithoutQuarantine() {
+    var items = List.of(wrapper("patient-0"), wrapper("timeout-1"), wrapper("patient-2"));
+
+    assertThatThrownBy(() -> sut.write(items)).isInstanceOf(QueryTimeoutException.class);
+
+    assertThat(savedPersons).isEmpty();
+    verify(jdbcTemplate, never())
+        .update(anyString(), any(), any(), any(), any(), any(), any(), any());
+  }
+
+  @Test
+  void isDataError_withSqlStateOfInvalidData_isDataError() {
+    assertThat(OmopWriter.isDataError(new RuntimeException(new SQLException("bad", "22001"))))
+        .isTrue();
+    assertThat(OmopWriter.isDataError(new RuntimeException(new SQLException("bad", "23505"))))
+        .isTrue();
+    assertThat(OmopWriter.isDataError(new RuntimeException(new SQLException("bad", "42P01"))))
+        .isFalse();
+  }
+
+  @Test
+  void write_withCommitLostByTransientError_retriesWithoutCommittedRecords() {
+    var items = List.of(wrapper("lost-commit-0"), wrapper("lost-commit-1"));
+
+    sut.write(items);
+
+    assertThat(savedPersons).containsExactly("lost-commit-0", "lost-commit-1");
+  }
+}